@@ -0,0 +1,128 @@
+package com.tisawesomeness.namehistorian.bench;
+
+import com.tisawesomeness.namehistorian.NameHistorian;
+import com.tisawesomeness.namehistorian.NameRecord;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Generates benchmark databases. Generating millions of rows takes a while, so each database is generated once
+ * into {@code build/bench-db} and copied for every trial.
+ */
+public final class BenchDatabase {
+    private BenchDatabase() { }
+
+    private static final Path CACHE_DIRECTORY = Paths.get("build", "bench-db");
+    private static final int CHUNK_SIZE = 10_000;
+    private static final Instant START = Instant.parse("2015-01-01T00:00:00Z");
+    private static final Duration NAME_LIFETIME = Duration.ofDays(30);
+    private static final Duration SEEN_DURATION = Duration.ofDays(1);
+
+    /**
+     * Creates a fresh copy of a generated database.
+     * The database has {@code rows / namesPerPlayer} players, each with {@code namesPerPlayer} names.
+     * @param rows the number of name history rows
+     * @param namesPerPlayer the number of names each player has
+     * @return the path to the copy, delete it after the trial
+     * @throws IOException if the database could not be copied
+     * @throws SQLException if the database could not be generated
+     */
+    public static Path copy(int rows, int namesPerPlayer) throws IOException, SQLException {
+        Path template = CACHE_DIRECTORY.resolve(String.format("rows-%d-names-%d.db", rows, namesPerPlayer));
+        if (Files.exists(template)) {
+            // Templates generated by an older version are migrated to the latest schema
+            new NameHistorian(template).close();
+        } else {
+            generate(template, rows, namesPerPlayer);
+        }
+        Path copy = Files.createTempFile("namehistorian-bench", ".db");
+        Files.copy(template, copy, StandardCopyOption.REPLACE_EXISTING);
+        return copy;
+    }
+
+    private static void generate(Path template, int rows, int namesPerPlayer) throws IOException, SQLException {
+        Files.createDirectories(CACHE_DIRECTORY);
+        // Generate into a temp file first so an interrupted run doesn't leave a partial template behind
+        Path partial = template.resolveSibling(template.getFileName() + ".partial");
+        Files.deleteIfExists(partial);
+        try (NameHistorian historian = new NameHistorian(partial)) {
+            int players = playerCount(rows, namesPerPlayer);
+            List<NameRecord> chunk = new ArrayList<>(CHUNK_SIZE);
+            for (int name = 0; name < namesPerPlayer; name++) {
+                for (int player = 0; player < players; player++) {
+                    chunk.add(record(player, name));
+                    if (chunk.size() == CHUNK_SIZE) {
+                        historian.recordNameRecords(chunk);
+                        chunk.clear();
+                    }
+                }
+            }
+            historian.recordNameRecords(chunk);
+        }
+        Files.move(partial, template, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static NameRecord record(int player, int name) {
+        Instant firstSeen = firstSeenTime(name);
+        return new NameRecord(uuid(player), username(player, name), firstSeen, null, firstSeen.plus(SEEN_DURATION));
+    }
+
+    /**
+     * Gets the number of players in a generated database.
+     * @param rows the number of name history rows
+     * @param namesPerPlayer the number of names each player has
+     * @return the number of players
+     */
+    public static int playerCount(int rows, int namesPerPlayer) {
+        return Math.max(1, rows / namesPerPlayer);
+    }
+    /**
+     * Gets the UUID of a generated player.
+     * @param player the player number
+     * @return the UUID
+     */
+    public static UUID uuid(int player) {
+        return new UUID(0x4E48_0000_0000_4000L, 0x8000_0000_0000_0000L | player);
+    }
+    /**
+     * Gets when every player in a generated database was first seen with a name. Each name is last seen a day later,
+     * and the next name is first seen 30 days later.
+     * @param name the name number, with 0 being each player's first name
+     * @return the first seen time
+     */
+    public static Instant firstSeenTime(int name) {
+        return START.plus(NAME_LIFETIME.multipliedBy(name));
+    }
+    /**
+     * Gets a generated username.
+     * @param player the player number
+     * @param name the name number, with 0 being the player's first name
+     * @return the username, at most 16 characters
+     */
+    public static String username(int player, int name) {
+        return "p" + player + "_" + name;
+    }
+
+    /**
+     * Deletes a database copy, ignoring errors.
+     * @param copy the path returned by {@link #copy(int, int)}
+     */
+    public static void delete(Path copy) {
+        try {
+            Files.deleteIfExists(copy);
+        } catch (IOException ignore) {
+            // Left in the temp directory, cleaned up by the OS eventually
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.tisawesomeness.namehistorian.bench;
+
+import com.tisawesomeness.namehistorian.NameDBRecord;
+import com.tisawesomeness.namehistorian.NameRecord;
+import com.tisawesomeness.namehistorian.util.Util;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts values on the hot paths that don't touch the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+
+    private final String longUuid = "f6489b79-7a9f-49e2-980e-265a05dbc3af";
+    private final String shortUuid = "f6489b797a9f49e2980e265a05dbc3af";
+    private final NameDBRecord dbRecord = new NameDBRecord(1, UUID.fromString(longUuid), "Tis_awesomeness",
+            1_600_000_000_000L, 1_600_000_000_000L, 1_700_000_000_000L);
+
+    @Benchmark
+    public Optional<UUID> parseLongUuid() {
+        return Util.parseUUID(longUuid);
+    }
+
+    @Benchmark
+    public Optional<UUID> parseShortUuid() {
+        return Util.parseUUID(shortUuid);
+    }
+
+    @Benchmark
+    public NameRecord toNameRecord() {
+        return dbRecord.toNameRecord();
+    }
+
+}
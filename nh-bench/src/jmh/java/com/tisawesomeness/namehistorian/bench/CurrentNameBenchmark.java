@@ -0,0 +1,86 @@
+package com.tisawesomeness.namehistorian.bench;
+
+import com.tisawesomeness.namehistorian.util.Util;
+import lombok.Cleanup;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sqlite.SQLiteDataSource;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the two ways of finding a player's latest name:
+ * scanning the player's history rows, or reading the {@code current_name} table by primary key.
+ * Runs the queries directly so both can be measured against the same database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CurrentNameBenchmark {
+
+    private static final String HISTORY_SCAN_SQL = "" +
+            "SELECT `id`, `username`\n" +
+            "FROM `name_history`\n" +
+            "WHERE `uuid` = ?\n" +
+            "ORDER BY `first_seen_time` DESC, `id` DESC\n" +
+            "LIMIT 1;";
+    private static final String CURRENT_NAME_SQL = "" +
+            "SELECT `history_id`, `username`\n" +
+            "FROM `current_name`\n" +
+            "WHERE `uuid` = ?;";
+
+    @Param({"10000", "1000000"})
+    public int rows;
+    @Param({"1", "10"})
+    public int namesPerPlayer;
+
+    private Path dbPath;
+    private Connection con;
+    private PreparedStatement historyScan;
+    private PreparedStatement currentName;
+    private int players;
+    private int nextPlayer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        dbPath = BenchDatabase.copy(rows, namesPerPlayer);
+        SQLiteDataSource ds = new SQLiteDataSource();
+        ds.setUrl("jdbc:sqlite:" + dbPath.toAbsolutePath());
+        con = ds.getConnection();
+        historyScan = con.prepareStatement(HISTORY_SCAN_SQL);
+        currentName = con.prepareStatement(CURRENT_NAME_SQL);
+        players = BenchDatabase.playerCount(rows, namesPerPlayer);
+    }
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        con.close();
+        BenchDatabase.delete(dbPath);
+    }
+
+    private byte[] nextUuid() {
+        int player = nextPlayer;
+        nextPlayer = (nextPlayer + 1) % players;
+        return Util.uuidToBytes(BenchDatabase.uuid(player));
+    }
+
+    @Benchmark
+    public void historyScan(Blackhole bh) throws SQLException {
+        historyScan.setBytes(1, nextUuid());
+        @Cleanup ResultSet rs = historyScan.executeQuery();
+        bh.consume(rs.next() ? rs.getString("username") : null);
+    }
+
+    @Benchmark
+    public void currentNameLookup(Blackhole bh) throws SQLException {
+        currentName.setBytes(1, nextUuid());
+        @Cleanup ResultSet rs = currentName.executeQuery();
+        bh.consume(rs.next() ? rs.getString("username") : null);
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.tisawesomeness.namehistorian.bench;
+
+import com.tisawesomeness.namehistorian.NameHistorian;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the full name history of players with 1, 10, or 100 names.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HistoryBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int rows;
+    @Param({"1", "10", "100"})
+    public int namesPerPlayer;
+
+    private Path dbPath;
+    private NameHistorian historian;
+    private int players;
+    private int nextPlayer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        dbPath = BenchDatabase.copy(rows, namesPerPlayer);
+        historian = new NameHistorian(dbPath);
+        players = BenchDatabase.playerCount(rows, namesPerPlayer);
+    }
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        historian.close();
+        BenchDatabase.delete(dbPath);
+    }
+
+    @Benchmark
+    public void getNameHistory(Blackhole bh) throws SQLException {
+        int player = nextPlayer;
+        nextPlayer = (nextPlayer + 1) % players;
+        bh.consume(historian.getNameHistory(BenchDatabase.uuid(player)));
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.tisawesomeness.namehistorian.bench;
+
+import com.tisawesomeness.namehistorian.NameHistorian;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds who held a username at an instant, used by /history at.
+ * Hits land while the name was being seen, gaps land after the name was last seen but before the next name,
+ * so the username's records are found but none match.
+ * The time per lookup should stay flat as the number of rows grows into the millions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HoldersAtBenchmark {
+
+    private static final Duration HALF_DAY = Duration.ofHours(12);
+    private static final Duration TEN_DAYS = Duration.ofDays(10);
+
+    @Param({"1000000", "5000000"})
+    public int rows;
+    @Param({"1", "10"})
+    public int namesPerPlayer;
+
+    private Path dbPath;
+    private NameHistorian historian;
+    private int players;
+    private int nextPlayer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        dbPath = BenchDatabase.copy(rows, namesPerPlayer);
+        historian = new NameHistorian(dbPath);
+        players = BenchDatabase.playerCount(rows, namesPerPlayer);
+    }
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        historian.close();
+        BenchDatabase.delete(dbPath);
+    }
+
+    private int nextPlayer() {
+        int player = nextPlayer;
+        nextPlayer = (nextPlayer + 1) % players;
+        return player;
+    }
+
+    @Benchmark
+    public void holderAt(Blackhole bh) throws SQLException {
+        int player = nextPlayer();
+        int name = player % namesPerPlayer;
+        Instant time = BenchDatabase.firstSeenTime(name).plus(HALF_DAY);
+        bh.consume(historian.getHoldersAt(BenchDatabase.username(player, name), time));
+    }
+
+    @Benchmark
+    public void gapBetweenSightings(Blackhole bh) throws SQLException {
+        int player = nextPlayer();
+        int name = player % namesPerPlayer;
+        Instant time = BenchDatabase.firstSeenTime(name).plus(TEN_DAYS);
+        bh.consume(historian.getHoldersAt(BenchDatabase.username(player, name), time));
+    }
+
+    @Benchmark
+    public void holdersDuringDay(Blackhole bh) throws SQLException {
+        int player = nextPlayer();
+        int name = player % namesPerPlayer;
+        Instant start = BenchDatabase.firstSeenTime(name);
+        Instant end = start.plus(Duration.ofDays(1));
+        bh.consume(historian.getHoldersBetween(BenchDatabase.username(player, name), start, end));
+    }
+
+}
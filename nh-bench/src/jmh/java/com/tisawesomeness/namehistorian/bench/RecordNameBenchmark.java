@@ -0,0 +1,76 @@
+package com.tisawesomeness.namehistorian.bench;
+
+import com.tisawesomeness.namehistorian.NameHistorian;
+import com.tisawesomeness.namehistorian.StorageProfile;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the name of a player that was already seen, either with the same name (the common case on join)
+ * or with a new name. With {@code cache=hit}, the same few players join over and over, so their current name
+ * is always in the latest-name cache. With {@code cache=miss}, the cache is disabled and every record
+ * reads the player's current name from the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordNameBenchmark {
+
+    private static final int HOT_PLAYERS = 1000;
+
+    @Param({"10000", "1000000"})
+    public int rows;
+    @Param({"1", "10"})
+    public int namesPerPlayer;
+    @Param({"hit", "miss"})
+    public String cache;
+
+    private Path dbPath;
+    private NameHistorian historian;
+    private int players;
+    private int nextPlayer;
+    private int nextName;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        dbPath = BenchDatabase.copy(rows, namesPerPlayer);
+        boolean cached = "hit".equals(cache);
+        historian = new NameHistorian(dbPath, NameHistorian.DEFAULT_POOL_SIZE,
+                cached ? NameHistorian.DEFAULT_CACHE_SIZE : 0, StorageProfile.DURABILITY);
+        players = BenchDatabase.playerCount(rows, namesPerPlayer);
+        if (cached) {
+            players = Math.min(players, HOT_PLAYERS);
+        }
+    }
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        historian.close();
+        BenchDatabase.delete(dbPath);
+    }
+
+    private int nextPlayer() {
+        int player = nextPlayer;
+        nextPlayer = (nextPlayer + 1) % players;
+        return player;
+    }
+
+    @Benchmark
+    public void recordSameName() throws SQLException {
+        int player = nextPlayer();
+        historian.recordName(BenchDatabase.uuid(player), BenchDatabase.username(player, namesPerPlayer - 1));
+    }
+
+    @Benchmark
+    public void recordChangedName() throws SQLException {
+        int player = nextPlayer();
+        historian.recordName(BenchDatabase.uuid(player), "new_" + nextName++);
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.tisawesomeness.namehistorian.bench;
+
+import com.tisawesomeness.namehistorian.NameHistorian;
+import com.tisawesomeness.namehistorian.NamedPlayer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records every online player at once, like the plugin does when it is enabled and disabled.
+ * Either every player has the same name as last time, or every player changed their name.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordNamesBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int players;
+
+    private Path dbPath;
+    private NameHistorian historian;
+    private List<NamedPlayer> sameNames;
+    private int nextName;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        dbPath = BenchDatabase.copy(players, 1);
+        historian = new NameHistorian(dbPath);
+        sameNames = new ArrayList<>(players);
+        for (int player = 0; player < players; player++) {
+            sameNames.add(new NamedPlayer(BenchDatabase.uuid(player), BenchDatabase.username(player, 0)));
+        }
+    }
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        historian.close();
+        BenchDatabase.delete(dbPath);
+    }
+
+    @Benchmark
+    public void recordSameNames() throws SQLException {
+        historian.recordNames(sameNames);
+    }
+
+    @Benchmark
+    public void recordChangedNames() throws SQLException {
+        String suffix = "_" + nextName++;
+        List<NamedPlayer> changedNames = new ArrayList<>(players);
+        for (int player = 0; player < players; player++) {
+            changedNames.add(new NamedPlayer(BenchDatabase.uuid(player), "p" + player + suffix));
+        }
+        historian.recordNames(changedNames);
+    }
+
+}
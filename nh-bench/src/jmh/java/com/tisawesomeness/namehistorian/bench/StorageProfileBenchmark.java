@@ -0,0 +1,82 @@
+package com.tisawesomeness.namehistorian.bench;
+
+import com.tisawesomeness.namehistorian.NameHistorian;
+import com.tisawesomeness.namehistorian.StorageProfile;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records names one transaction at a time under each storage profile.
+ * {@code rollback} is SQLite's default of a rollback journal with full sync, which NameHistorian used
+ * before storage profiles existed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageProfileBenchmark {
+
+    private static final int ROWS = 100_000;
+
+    @Param({"rollback", "durability", "throughput"})
+    public String profile;
+
+    private Path dbPath;
+    private NameHistorian historian;
+    private int players;
+    private int nextPlayer;
+    private int nextName;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        dbPath = BenchDatabase.copy(ROWS, 1);
+        historian = new NameHistorian(dbPath, NameHistorian.DEFAULT_POOL_SIZE, NameHistorian.DEFAULT_CACHE_SIZE,
+                parseProfile(profile));
+        players = BenchDatabase.playerCount(ROWS, 1);
+    }
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        historian.close();
+        BenchDatabase.delete(dbPath);
+    }
+
+    private static StorageProfile parseProfile(String profile) {
+        switch (profile) {
+            case "rollback":
+                return new StorageProfile(StorageProfile.JournalMode.DELETE, StorageProfile.Synchronous.FULL,
+                        2 * 1024, 0, Duration.ofSeconds(3));
+            case "durability":
+                return StorageProfile.DURABILITY;
+            case "throughput":
+                return StorageProfile.THROUGHPUT;
+            default:
+                throw new IllegalArgumentException("Unknown profile " + profile);
+        }
+    }
+
+    private int nextPlayer() {
+        int player = nextPlayer;
+        nextPlayer = (nextPlayer + 1) % players;
+        return player;
+    }
+
+    @Benchmark
+    public void recordSameName() throws SQLException {
+        int player = nextPlayer();
+        historian.recordName(BenchDatabase.uuid(player), BenchDatabase.username(player, 0));
+    }
+
+    @Benchmark
+    public void recordChangedName() throws SQLException {
+        int player = nextPlayer();
+        historian.recordName(BenchDatabase.uuid(player), "new_" + nextName++);
+    }
+
+}
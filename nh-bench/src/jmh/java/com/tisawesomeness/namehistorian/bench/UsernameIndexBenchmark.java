@@ -0,0 +1,69 @@
+package com.tisawesomeness.namehistorian.bench;
+
+import com.tisawesomeness.namehistorian.UsernameIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Completes /history usernames from the in-memory username index.
+ * Short prefixes match most of the index and stop at the completion limit, long prefixes match a few names.
+ * The time per completion should stay flat as the number of names grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UsernameIndexBenchmark {
+
+    private static final int LIMIT = 100;
+
+    @Param({"10000", "100000", "1000000"})
+    public int names;
+
+    private UsernameIndex index;
+    private int nextPlayer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        index = new UsernameIndex(names);
+        index.addAll(IntStream.range(0, names).mapToObj(i -> BenchDatabase.username(i, 0)).iterator());
+    }
+
+    private int nextPlayer() {
+        int player = nextPlayer;
+        nextPlayer = (nextPlayer + 7919) % names;
+        return player;
+    }
+
+    @Benchmark
+    public List<String> completeShortPrefix() {
+        return index.complete("P" + nextPlayer() % 10, LIMIT);
+    }
+
+    @Benchmark
+    public List<String> completeFullName() {
+        return index.complete(BenchDatabase.username(nextPlayer(), 0).toUpperCase(Locale.ROOT), LIMIT);
+    }
+
+    @Benchmark
+    public List<String> completeUnknown() {
+        return index.complete("unknown_" + nextPlayer(), LIMIT);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Measurement(iterations = 5)
+    public UsernameIndex load() {
+        UsernameIndex loaded = new UsernameIndex(names);
+        loaded.addAll(IntStream.range(0, names).mapToObj(i -> BenchDatabase.username(i, 0)).iterator());
+        return loaded;
+    }
+
+}
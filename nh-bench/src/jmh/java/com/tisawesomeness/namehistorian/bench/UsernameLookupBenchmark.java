@@ -0,0 +1,70 @@
+package com.tisawesomeness.namehistorian.bench;
+
+import com.tisawesomeness.namehistorian.NameHistorian;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the latest holder of a username, the fallback used when a name can't be resolved through Mojang,
+ * and every holder of a username, used by /history holders.
+ * Names are looked up in upper case to exercise the case-insensitive index.
+ * The time per lookup should stay flat as the number of rows grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UsernameLookupBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+    @Param({"1", "10"})
+    public int namesPerPlayer;
+
+    private Path dbPath;
+    private NameHistorian historian;
+    private int players;
+    private int nextPlayer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        dbPath = BenchDatabase.copy(rows, namesPerPlayer);
+        historian = new NameHistorian(dbPath);
+        players = BenchDatabase.playerCount(rows, namesPerPlayer);
+    }
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        historian.close();
+        BenchDatabase.delete(dbPath);
+    }
+
+    private String nextUsername() {
+        int player = nextPlayer;
+        nextPlayer = (nextPlayer + 1) % players;
+        return BenchDatabase.username(player, player % namesPerPlayer).toUpperCase(Locale.ROOT);
+    }
+
+    @Benchmark
+    public void latestByUsername(Blackhole bh) throws SQLException {
+        bh.consume(historian.getLatestByUsername(nextUsername()));
+    }
+
+    @Benchmark
+    public void allHoldersOf(Blackhole bh) throws SQLException {
+        bh.consume(historian.getAllHoldersOf(nextUsername()));
+    }
+
+    @Benchmark
+    public void unknownUsername(Blackhole bh) throws SQLException {
+        bh.consume(historian.getLatestByUsername("unknown_" + nextPlayer++ % players));
+    }
+
+}
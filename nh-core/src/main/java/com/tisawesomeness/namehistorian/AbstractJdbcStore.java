@@ -0,0 +1,412 @@
+package com.tisawesomeness.namehistorian;
+
+import com.tisawesomeness.namehistorian.util.Util;
+import lombok.Cleanup;
+
+import javax.annotation.Nullable;
+import java.sql.*;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * The parts of a store shared by every SQL database.
+ * Each player's latest name is kept in a {@code current_name} table pointing to its row in {@code name_history},
+ * and cached in memory. Subclasses supply the statements whose syntax differs between databases.
+ */
+abstract class AbstractJdbcStore implements NameHistoryStore {
+
+    private static final String READ_ALL_HISTORY_SQL = "" +
+            "SELECT `id`, `username`, `first_seen_time`, `detected_time`, `last_seen_time`\n" +
+            "FROM `name_history`\n" +
+            "WHERE `uuid` = ?\n" +
+            "ORDER BY `first_seen_time` DESC, `last_seen_time` DESC, `id` DESC;";
+    private static final String READ_HISTORY_PAGE_SQL = "" +
+            "SELECT `id`, `username`, `first_seen_time`, `detected_time`, `last_seen_time`\n" +
+            "FROM `name_history`\n" +
+            "WHERE `uuid` = ? AND (\n" +
+            "    `first_seen_time` < ? OR (`first_seen_time` = ? AND (\n" +
+            "        `last_seen_time` < ? OR (`last_seen_time` = ? AND `id` < ?)\n" +
+            "    ))\n" +
+            ")\n" +
+            "ORDER BY `first_seen_time` DESC, `last_seen_time` DESC, `id` DESC\n" +
+            "LIMIT ?;";
+    private static final String COUNT_HISTORY_SQL = "" +
+            "SELECT COUNT(*)\n" +
+            "FROM `name_history`\n" +
+            "WHERE `uuid` = ?;";
+    private static final String READ_LATEST_USERNAME_SQL = "" +
+            "SELECT `id`, `uuid`, `username`, `first_seen_time`, `detected_time`, `last_seen_time`\n" +
+            "FROM `name_history`\n" +
+            "WHERE `username_lower` = ?\n" +
+            "ORDER BY `first_seen_time` DESC, `id` DESC\n" +
+            "LIMIT 1;";
+    private static final String READ_USERNAME_HOLDERS_SQL = "" +
+            "SELECT `id`, `uuid`, `username`, `first_seen_time`, `detected_time`, `last_seen_time`\n" +
+            "FROM `name_history`\n" +
+            "WHERE `username_lower` = ?\n" +
+            "ORDER BY `first_seen_time` DESC, `id` DESC;";
+    private static final String READ_USERNAME_HOLDERS_BETWEEN_SQL = "" +
+            "SELECT `id`, `uuid`, `username`, `first_seen_time`, `detected_time`, `last_seen_time`\n" +
+            "FROM `name_history`\n" +
+            "WHERE `username_lower` = ? AND `first_seen_time` <= ? AND `last_seen_time` >= ?\n" +
+            "ORDER BY `first_seen_time` DESC, `id` DESC;";
+    private static final String READ_EXPORT_BATCH_SQL = "" +
+            "SELECT `id`, `uuid`, `username`, `first_seen_time`, `detected_time`, `last_seen_time`\n" +
+            "FROM `name_history`\n" +
+            "WHERE `id` > ?\n" +
+            "ORDER BY `id`\n" +
+            "LIMIT ?;";
+    private static final String INSERT_NAME_RECORD_SQL = "" +
+            "INSERT INTO `name_history` (\n" +
+            "    `uuid`,\n" +
+            "    `username`,\n" +
+            "    `username_lower`,\n" +
+            "    `first_seen_time`,\n" +
+            "    `detected_time`,\n" +
+            "    `last_seen_time`\n" +
+            ") VALUES (?, ?, ?, ?, ?, ?);";
+
+    protected final ConnectionPool pool;
+    protected final LatestNameCache cache;
+
+    /**
+     * @param pool the connection pool, closed when the store is closed
+     * @param cacheSize the number of players whose current name is kept in memory, 0 to disable
+     */
+    protected AbstractJdbcStore(ConnectionPool pool, int cacheSize) {
+        this.pool = pool;
+        cache = new LatestNameCache(cacheSize);
+    }
+
+    /**
+     * Gets the statement that reads a player's current name, with the UUID as the only parameter.
+     * Selects {@code history_id}, {@code username}, and {@code first_seen_time}.
+     * Runs inside the write transaction, so it may lock the row until the transaction ends.
+     * @return the SQL string
+     */
+    protected abstract String readCurrentNameSql();
+    /**
+     * Gets the statement that raises a history row's last seen time,
+     * with the new last seen time and the row id as parameters.
+     * @return the SQL string
+     */
+    protected abstract String updateLastSeenSql();
+    /**
+     * Gets the statement that inserts or replaces a player's current name,
+     * with the UUID, history id, username, and first seen time as parameters.
+     * @return the SQL string
+     */
+    protected abstract String upsertCurrentNameSql();
+
+    @Override
+    public void recordName(NameRecord nr) throws SQLException {
+        asTransaction(con -> recordName(con, nr));
+    }
+
+    @Override
+    public void recordNameRecords(Collection<NameRecord> records) throws SQLException {
+        if (records.isEmpty()) {
+            return; // Skip making db connection
+        }
+        if (records.size() == 1) {
+            NameRecord nr = records.iterator().next();
+            asTransaction(con -> recordName(con, nr));
+            return;
+        }
+        asTransaction(con -> recordNameRecords(con, records));
+    }
+    /**
+     * Records several name records inside an open transaction. By default, the records are recorded one by one,
+     * with the last seen time updates batched.
+     * @param con the writer connection
+     * @param records the name records, in the order they were observed
+     * @throws SQLException on database error
+     */
+    protected void recordNameRecords(CachingConnection con, Collection<NameRecord> records) throws SQLException {
+        recordNameRecordsBatched(con, records);
+    }
+
+    private void recordName(CachingConnection con, NameRecord recordToAdd) throws SQLException {
+        CurrentName current = lookupCurrentName(con, recordToAdd.getUuid());
+        if (current != null && current.getUsername().equals(recordToAdd.getUsername())) {
+            PreparedStatement st = con.prepare(updateLastSeenSql());
+            bindLastSeenTime(st, current.getHistoryId(), recordToAdd.getLastSeenTime());
+            st.executeUpdate();
+        } else {
+            recordNewName(con, recordToAdd, current);
+        }
+    }
+
+    // Touching the last seen time is by far the most common case, so those updates are batched
+    // The batched statement is only fetched once, since fetching a cached statement clears its parameters
+    private void recordNameRecordsBatched(CachingConnection con, Collection<NameRecord> records)
+            throws SQLException {
+        PreparedStatement updateSt = con.prepare(updateLastSeenSql());
+        try {
+            for (NameRecord nr : records) {
+                // A name change is written immediately, so a later record for the same player sees it
+                // Queued last seen updates never change the current name, so they can wait
+                CurrentName current = lookupCurrentName(con, nr.getUuid());
+                if (current != null && current.getUsername().equals(nr.getUsername())) {
+                    bindLastSeenTime(updateSt, current.getHistoryId(), nr.getLastSeenTime());
+                    updateSt.addBatch();
+                } else {
+                    recordNewName(con, nr, current);
+                }
+            }
+            updateSt.executeBatch();
+        } finally {
+            // Statement is reused, don't let a failed batch leak into the next transaction
+            updateSt.clearBatch();
+        }
+    }
+
+    private void recordNewName(CachingConnection con, NameRecord nr, @Nullable CurrentName current)
+            throws SQLException {
+        PreparedStatement insertSt = con.prepareReturningKeys(INSERT_NAME_RECORD_SQL);
+        bindNewName(insertSt, nr);
+        insertSt.executeUpdate();
+        int historyId = readGeneratedId(insertSt);
+
+        // A name from an external source may be older than the current name
+        long firstSeenTime = nr.getFirstSeenTime().toEpochMilli();
+        if (current == null || firstSeenTime >= current.getFirstSeenTime()) {
+            PreparedStatement st = con.prepare(upsertCurrentNameSql());
+            st.setBytes(1, Util.uuidToBytes(nr.getUuid()));
+            st.setInt(2, historyId);
+            st.setString(3, nr.getUsername());
+            st.setLong(4, firstSeenTime);
+            st.executeUpdate();
+            cache.put(nr.getUuid(), new CurrentName(historyId, nr.getUsername(), firstSeenTime));
+        }
+    }
+    private static int readGeneratedId(PreparedStatement st) throws SQLException {
+        @Cleanup ResultSet rs = st.getGeneratedKeys();
+        if (!rs.next()) {
+            throw new SQLException("Database did not return the id of the inserted row");
+        }
+        return rs.getInt(1);
+    }
+
+    private @Nullable CurrentName lookupCurrentName(CachingConnection con, UUID uuid) throws SQLException {
+        CurrentName cached = cache.get(uuid);
+        if (cached != null) {
+            return cached;
+        }
+        CurrentName current = findCurrentName(con, uuid);
+        if (current != null) {
+            cache.put(uuid, current);
+        }
+        return current;
+    }
+    private @Nullable CurrentName findCurrentName(CachingConnection con, UUID uuid) throws SQLException {
+        PreparedStatement st = con.prepare(readCurrentNameSql());
+        st.setBytes(1, Util.uuidToBytes(uuid));
+        @Cleanup ResultSet rs = st.executeQuery();
+        if (rs.next()) {
+            return new CurrentName(
+                    rs.getInt("history_id"),
+                    rs.getString("username"),
+                    rs.getLong("first_seen_time")
+            );
+        }
+        return null;
+    }
+    private static @Nullable NameDBRecord findNameRecord(CachingConnection con, String username) throws SQLException {
+        PreparedStatement st = con.prepare(READ_LATEST_USERNAME_SQL);
+        st.setString(1, toLowerCase(username));
+        @Cleanup ResultSet rs = st.executeQuery();
+        if (rs.next()) {
+            return readDBRecord(rs, Util.uuidFromBytes(rs.getBytes("uuid")));
+        }
+        return null;
+    }
+
+    private static void bindLastSeenTime(PreparedStatement st, int id, Instant lastSeenTime) throws SQLException {
+        st.setLong(1, lastSeenTime.toEpochMilli());
+        st.setInt(2, id);
+    }
+
+    /**
+     * Binds a name record to the six parameters of an insert into {@code name_history}:
+     * UUID, username, lowercase username, first seen time, detected time, and last seen time.
+     * @param st the statement
+     * @param nr the name record
+     * @throws SQLException on database error
+     */
+    protected static void bindNewName(PreparedStatement st, NameRecord nr) throws SQLException {
+        st.setBytes(1, Util.uuidToBytes(nr.getUuid()));
+        st.setString(2, nr.getUsername());
+        st.setString(3, toLowerCase(nr.getUsername()));
+        st.setLong(4, nr.getFirstSeenTime().toEpochMilli());
+        setNullableLong(st, 5, Util.mapNullable(nr.getRawDetectedTime(), Instant::toEpochMilli));
+        st.setLong(6, nr.getLastSeenTime().toEpochMilli());
+    }
+    // Minecraft usernames are ASCII, so this matches SQL's lower() used by migrations
+    private static String toLowerCase(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public List<NameRecord> getNameHistory(UUID uuid) throws SQLException {
+        return pool.read(con -> {
+            PreparedStatement st = con.prepare(READ_ALL_HISTORY_SQL);
+            st.setBytes(1, Util.uuidToBytes(uuid));
+            @Cleanup ResultSet rs = st.executeQuery();
+            List<NameRecord> list = new ArrayList<>();
+            while (rs.next()) {
+                list.add(readDBRecord(rs, uuid).toNameRecord());
+            }
+            return list;
+        });
+    }
+
+    // Row value comparisons need SQLite 3.15, so the keyset condition is spelled out
+    @Override
+    public HistoryPage getNameHistoryPage(UUID uuid, HistoryCursor after, int limit) throws SQLException {
+        return pool.read(con -> {
+            int totalCount = countHistory(con, uuid);
+            PreparedStatement st = con.prepare(READ_HISTORY_PAGE_SQL);
+            st.setBytes(1, Util.uuidToBytes(uuid));
+            st.setLong(2, after.getFirstSeenTime());
+            st.setLong(3, after.getFirstSeenTime());
+            st.setLong(4, after.getLastSeenTime());
+            st.setLong(5, after.getLastSeenTime());
+            st.setLong(6, after.getId());
+            st.setInt(7, limit + 1); // One extra to know if there's another page
+            @Cleanup ResultSet rs = st.executeQuery();
+            List<NameDBRecord> page = new ArrayList<>();
+            while (page.size() < limit && rs.next()) {
+                page.add(readDBRecord(rs, uuid));
+            }
+            HistoryCursor next = null;
+            if (rs.next()) {
+                NameDBRecord last = page.get(page.size() - 1);
+                next = new HistoryCursor(last.getFirstSeenTime(), last.getLastSeenTime(), last.getId());
+            }
+            List<NameRecord> records = page.stream().map(NameDBRecord::toNameRecord).collect(Collectors.toList());
+            return new HistoryPage(records, next, totalCount);
+        });
+    }
+    private static int countHistory(CachingConnection con, UUID uuid) throws SQLException {
+        PreparedStatement st = con.prepare(COUNT_HISTORY_SQL);
+        st.setBytes(1, Util.uuidToBytes(uuid));
+        @Cleanup ResultSet rs = st.executeQuery();
+        rs.next();
+        return rs.getInt(1);
+    }
+
+    @Override
+    public Optional<NameRecord> getLatestByUsername(String username) throws SQLException {
+        return pool.read(con -> Optional.ofNullable(findNameRecord(con, username)).map(NameDBRecord::toNameRecord));
+    }
+
+    // Served by the same username_lower index as getLatestByUsername, so only the matching rows are read
+    @Override
+    public List<NameRecord> getAllHoldersOf(String username) throws SQLException {
+        return pool.read(con -> {
+            PreparedStatement st = con.prepare(READ_USERNAME_HOLDERS_SQL);
+            st.setString(1, toLowerCase(username));
+            return readRecords(st);
+        });
+    }
+    // The (username_lower, first_seen_time) index seeks straight to the username's records seen before the end,
+    // last_seen_time is only checked on those
+    @Override
+    public List<NameRecord> getHoldersBetween(String username, Instant start, Instant end) throws SQLException {
+        return pool.read(con -> {
+            PreparedStatement st = con.prepare(READ_USERNAME_HOLDERS_BETWEEN_SQL);
+            st.setString(1, toLowerCase(username));
+            st.setLong(2, end.toEpochMilli());
+            st.setLong(3, start.toEpochMilli());
+            return readRecords(st);
+        });
+    }
+    private static List<NameRecord> readRecords(PreparedStatement st) throws SQLException {
+        @Cleanup ResultSet rs = st.executeQuery();
+        List<NameRecord> list = new ArrayList<>();
+        while (rs.next()) {
+            list.add(readDBRecord(rs, Util.uuidFromBytes(rs.getBytes("uuid"))).toNameRecord());
+        }
+        return list;
+    }
+
+    // Keyset pagination on the primary key, each batch is a short read that never blocks writes for long
+    @Override
+    public ExportBatch readExportBatch(long cursor, int limit) throws SQLException {
+        return pool.read(con -> {
+            PreparedStatement st = con.prepare(READ_EXPORT_BATCH_SQL);
+            st.setLong(1, cursor);
+            st.setInt(2, limit);
+            st.setFetchSize(limit);
+            @Cleanup ResultSet rs = st.executeQuery();
+            List<NameRecord> list = new ArrayList<>();
+            long lastId = cursor;
+            while (rs.next()) {
+                NameDBRecord record = readDBRecord(rs, Util.uuidFromBytes(rs.getBytes("uuid")));
+                list.add(record.toNameRecord());
+                lastId = record.getId();
+            }
+            return new ExportBatch(list, lastId);
+        });
+    }
+
+    private static NameDBRecord readDBRecord(ResultSet rs, UUID uuid) throws SQLException {
+        return new NameDBRecord(
+                rs.getInt("id"),
+                uuid,
+                rs.getString("username"),
+                rs.getLong("first_seen_time"),
+                readNullableLong(rs, "detected_time"),
+                rs.getLong("last_seen_time")
+        );
+    }
+
+    private static @Nullable Long readNullableLong(ResultSet rs, String column) throws SQLException {
+        long l = rs.getLong(column);
+        return rs.wasNull() ? null : l;
+    }
+    private static void setNullableLong(PreparedStatement st, int index, @Nullable Long value) throws SQLException {
+        if (value == null) {
+            st.setNull(index, Types.BIGINT);
+        } else {
+            st.setLong(index, value);
+        }
+    }
+
+    private void asTransaction(SqlConsumer func) throws SQLException {
+        pool.write(cachingCon -> {
+            Connection con = cachingCon.getConnection();
+            con.setAutoCommit(false);
+            try {
+                func.accept(cachingCon);
+                con.commit();
+            } catch (Exception e) {
+                con.rollback();
+                // The cache may hold names from the rolled back transaction
+                cache.clear();
+                throw e;
+            } finally {
+                con.setAutoCommit(true);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public CacheStats getCacheStats() {
+        return cache.getStats();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        pool.close();
+    }
+
+    @FunctionalInterface
+    private interface SqlConsumer {
+        void accept(CachingConnection con) throws SQLException;
+    }
+
+}
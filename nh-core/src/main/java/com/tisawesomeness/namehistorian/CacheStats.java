@@ -0,0 +1,28 @@
+package com.tisawesomeness.namehistorian;
+
+import lombok.Value;
+
+/** A snapshot of the current name cache's counters */
+@Value
+public class CacheStats {
+    /** Stats for a store without a cache */
+    public static final CacheStats NONE = new CacheStats(0, 0, 0, 0);
+
+    /** The number of recorded names whose player was found in the cache */
+    long hits;
+    /** The number of recorded names that had to read the player's current name from the database */
+    long misses;
+    /** The number of players currently cached */
+    int size;
+    /** The maximum number of players cached */
+    int maxSize;
+
+    /**
+     * Gets the fraction of lookups that were served from the cache.
+     * @return the hit rate between 0 and 1, or 0 if there were no lookups
+     */
+    public double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+}
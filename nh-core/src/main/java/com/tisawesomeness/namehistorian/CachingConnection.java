@@ -0,0 +1,88 @@
+package com.tisawesomeness.namehistorian;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A connection that keeps every statement it prepares, so each SQL string is only compiled once
+ * per connection. Not thread-safe, the pool only lends a connection to one thread at a time.
+ */
+final class CachingConnection implements AutoCloseable {
+
+    private final Connection con;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    public CachingConnection(Connection con) {
+        this.con = con;
+    }
+
+    /**
+     * Gets the underlying connection, for transaction control and one-off statements.
+     * @return the connection
+     */
+    public Connection getConnection() {
+        return con;
+    }
+
+    /**
+     * Gets a prepared statement for the given SQL, compiling it if this is the first time it is used.
+     * The statement's parameters are cleared, but the statement must <strong>not</strong> be closed by the caller.
+     * Any result sets it returns should still be closed.
+     * @param sql the SQL string, should be a constant
+     * @return the prepared statement
+     * @throws SQLException on database error
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement st = statements.get(sql);
+        if (st == null) {
+            st = con.prepareStatement(sql);
+            statements.put(sql, st);
+        } else {
+            st.clearParameters();
+        }
+        return st;
+    }
+
+    /**
+     * Same as {@link #prepare(String)}, but the statement returns the keys generated by inserts.
+     * @param sql the SQL string, should be a constant
+     * @return the prepared statement
+     * @throws SQLException on database error
+     */
+    public PreparedStatement prepareReturningKeys(String sql) throws SQLException {
+        PreparedStatement st = statements.get(sql);
+        if (st == null) {
+            st = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+            statements.put(sql, st);
+        } else {
+            st.clearParameters();
+        }
+        return st;
+    }
+
+    public boolean isClosed() throws SQLException {
+        return con.isClosed();
+    }
+
+    /**
+     * Closes all cached statements, then the connection.
+     * @throws SQLException if the connection could not be closed
+     */
+    @Override
+    public void close() throws SQLException {
+        for (PreparedStatement st : statements.values()) {
+            try {
+                st.close();
+            } catch (SQLException ignore) {
+                // Closing the connection releases the statement anyway
+            }
+        }
+        statements.clear();
+        con.close();
+    }
+
+}
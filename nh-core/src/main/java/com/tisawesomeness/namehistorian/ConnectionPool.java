@@ -0,0 +1,189 @@
+package com.tisawesomeness.namehistorian;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A small pool of long-lived connections to a single database.
+ * SQLite only allows one writer at a time, so all writes share one connection guarded by a lock,
+ * while reads are spread across a fixed number of reader connections.
+ * Each connection caches its prepared statements for as long as it stays open.
+ */
+final class ConnectionPool implements AutoCloseable {
+
+    private static final long BORROW_TIMEOUT_SECONDS = 30;
+
+    private final ConnectionFactory factory;
+    private final ConnectionSetup setup;
+    private final CachingConnection writer;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final BlockingQueue<CachingConnection> readers;
+    private volatile boolean closed;
+
+    /**
+     * Opens all connections up front.
+     * @param factory opens new connections
+     * @param readerCount the number of reader connections, must be at least 1
+     * @param setup run on every connection right after it is opened, starting with the writer
+     * @throws SQLException if a connection could not be opened
+     */
+    public ConnectionPool(ConnectionFactory factory, int readerCount, ConnectionSetup setup) throws SQLException {
+        if (readerCount < 1) {
+            throw new IllegalArgumentException("readerCount must be at least 1 but was " + readerCount);
+        }
+        this.factory = factory;
+        this.setup = setup;
+        readers = new ArrayBlockingQueue<>(readerCount);
+        List<CachingConnection> opened = new ArrayList<>();
+        try {
+            writer = open();
+            opened.add(writer);
+            for (int i = 0; i < readerCount; i++) {
+                CachingConnection con = open();
+                opened.add(con);
+                readers.add(con);
+            }
+        } catch (SQLException ex) {
+            for (CachingConnection con : opened) {
+                closeQuietly(con);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Runs a function with exclusive access to the writer connection.
+     * @param func the function
+     * @return the result of the function
+     * @param <T> the type of the result
+     * @throws SQLException on database error, or if the pool is closed
+     */
+    public <T> T write(SqlFunction<T> func) throws SQLException {
+        writeLock.lock();
+        try {
+            checkOpen();
+            return func.apply(writer);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Runs a function with one of the reader connections, waiting for one to be free if necessary.
+     * @param func the function
+     * @return the result of the function
+     * @param <T> the type of the result
+     * @throws SQLException on database error, if the pool is closed, or if no connection became free in time
+     */
+    public <T> T read(SqlFunction<T> func) throws SQLException {
+        CachingConnection con = borrowReader();
+        try {
+            return func.apply(con);
+        } finally {
+            releaseReader(con);
+        }
+    }
+    private CachingConnection borrowReader() throws SQLException {
+        checkOpen();
+        CachingConnection con;
+        try {
+            con = readers.poll(BORROW_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", ex);
+        }
+        if (con == null) {
+            throw new SQLException("Timed out waiting for a database connection");
+        }
+        if (con.isClosed()) {
+            // Replace connections that were closed out from under us
+            try {
+                con = open();
+            } catch (SQLException ex) {
+                readers.add(con); // Keep the pool size constant, next borrower will try again
+                throw ex;
+            }
+        }
+        return con;
+    }
+    private CachingConnection open() throws SQLException {
+        Connection con = factory.open();
+        try {
+            setup.setUp(con);
+        } catch (SQLException | RuntimeException ex) {
+            con.close();
+            throw ex;
+        }
+        return new CachingConnection(con);
+    }
+    private void releaseReader(CachingConnection con) {
+        readers.add(con);
+        // The pool may have closed while the connection was borrowed
+        if (closed) {
+            closeIdleReaders();
+        }
+    }
+
+    private void checkOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+    }
+
+    /**
+     * Closes all connections. Waits for any in-progress write to finish first.
+     * Readers that are currently borrowed are closed when they are returned.
+     * @throws SQLException if the writer connection could not be closed
+     */
+    @Override
+    public void close() throws SQLException {
+        writeLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            closeIdleReaders();
+            writer.close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    private void closeIdleReaders() {
+        List<CachingConnection> idle = new ArrayList<>();
+        readers.drainTo(idle);
+        for (CachingConnection con : idle) {
+            closeQuietly(con);
+        }
+    }
+
+    private static void closeQuietly(CachingConnection con) {
+        try {
+            con.close();
+        } catch (SQLException ignore) {
+            // Nothing else can be done, the connection is being thrown away anyway
+        }
+    }
+
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        Connection open() throws SQLException;
+    }
+
+    @FunctionalInterface
+    public interface ConnectionSetup {
+        void setUp(Connection con) throws SQLException;
+    }
+
+    @FunctionalInterface
+    public interface SqlFunction<T> {
+        T apply(CachingConnection con) throws SQLException;
+    }
+
+}
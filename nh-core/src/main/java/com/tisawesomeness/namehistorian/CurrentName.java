@@ -0,0 +1,11 @@
+package com.tisawesomeness.namehistorian;
+
+import lombok.Value;
+
+/** The latest name of a player, pointing to its row in the history table */
+@Value
+class CurrentName {
+    int historyId;
+    String username;
+    long firstSeenTime;
+}
@@ -0,0 +1,14 @@
+package com.tisawesomeness.namehistorian;
+
+import lombok.Value;
+
+import java.util.List;
+
+/** One batch of name records read from a store during an export */
+@Value
+public class ExportBatch {
+    /** The name records, in the order they were first recorded */
+    List<NameRecord> records;
+    /** The cursor to pass to {@link NameHistoryStore#readExportBatch(long, int)} to read the next batch */
+    long cursor;
+}
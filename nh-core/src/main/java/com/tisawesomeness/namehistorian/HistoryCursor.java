@@ -0,0 +1,36 @@
+package com.tisawesomeness.namehistorian;
+
+import lombok.Value;
+
+/**
+ * Marks where a page of name history ended, so the next page can continue after it.
+ * Name history is ordered by first seen time, then last seen time, then insertion order, most recent first,
+ * and the cursor holds those three keys of the last record on the page.
+ * The id is the store's own insertion order, so a cursor only works with the store that returned it.
+ */
+@Value
+public class HistoryCursor {
+    /** A cursor before every record, for reading the first page */
+    public static final HistoryCursor START = new HistoryCursor(Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+
+    long firstSeenTime;
+    long lastSeenTime;
+    long id;
+
+    /**
+     * Checks whether a record comes after this cursor in history order.
+     * @param firstSeenTime the record's first seen time in epoch millis
+     * @param lastSeenTime the record's last seen time in epoch millis
+     * @param id the record's insertion order
+     * @return true if the record belongs on a later page
+     */
+    boolean isFollowedBy(long firstSeenTime, long lastSeenTime, long id) {
+        if (firstSeenTime != this.firstSeenTime) {
+            return firstSeenTime < this.firstSeenTime;
+        }
+        if (lastSeenTime != this.lastSeenTime) {
+            return lastSeenTime < this.lastSeenTime;
+        }
+        return id < this.id;
+    }
+}
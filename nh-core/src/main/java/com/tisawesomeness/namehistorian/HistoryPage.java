@@ -0,0 +1,20 @@
+package com.tisawesomeness.namehistorian;
+
+import lombok.Value;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/** One page of a player's name history */
+@Value
+public class HistoryPage {
+    /** The name records on this page, most recent first */
+    List<NameRecord> records;
+    /** The cursor to read the next page with, or null if this is the last page */
+    @Nullable HistoryCursor next;
+    /**
+     * The number of name records the player has across all pages. Only a hint,
+     * since names recorded between reading pages can change it.
+     */
+    int totalCount;
+}
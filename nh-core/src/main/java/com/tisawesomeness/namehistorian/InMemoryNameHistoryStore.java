@@ -0,0 +1,187 @@
+package com.tisawesomeness.namehistorian;
+
+import lombok.AllArgsConstructor;
+
+import javax.annotation.Nullable;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps name history in memory only, everything is lost when the store is closed.
+ * Useful for tests and for servers that don't want to write to disk.
+ */
+public final class InMemoryNameHistoryStore implements NameHistoryStore {
+
+    private static final Comparator<Entry> HISTORY_ORDER = Comparator
+            .comparing((Entry e) -> e.firstSeenTime)
+            .thenComparing(e -> e.lastSeenTime)
+            .thenComparingLong(e -> e.id)
+            .reversed();
+    private static final Comparator<Entry> LATEST_ORDER = Comparator
+            .comparing((Entry e) -> e.firstSeenTime)
+            .thenComparingLong(e -> e.id);
+
+    private final Map<UUID, Player> players = new HashMap<>();
+    private final Map<String, List<Entry>> entriesByUsername = new HashMap<>();
+    private final List<Entry> entries = new ArrayList<>(); // In id order
+    private long nextId = 1;
+    private boolean closed;
+
+    @Override
+    public synchronized void recordName(NameRecord nr) throws SQLException {
+        checkOpen();
+        record(nr);
+    }
+
+    @Override
+    public synchronized void recordNameRecords(Collection<NameRecord> records) throws SQLException {
+        checkOpen();
+        for (NameRecord nr : records) {
+            record(nr);
+        }
+    }
+
+    private void record(NameRecord nr) {
+        Instant lastSeenTime = truncate(nr.getLastSeenTime());
+        Player player = players.computeIfAbsent(nr.getUuid(), k -> new Player());
+        Entry current = player.current;
+        if (current != null && current.username.equals(nr.getUsername())) {
+            if (lastSeenTime.isAfter(current.lastSeenTime)) {
+                current.lastSeenTime = lastSeenTime;
+            }
+            return;
+        }
+        Instant detectedTime = nr.getRawDetectedTime();
+        Entry entry = new Entry(nextId++, nr.getUuid(), nr.getUsername(), truncate(nr.getFirstSeenTime()),
+                detectedTime == null ? null : truncate(detectedTime), lastSeenTime);
+        player.entries.add(entry);
+        entries.add(entry);
+        entriesByUsername.computeIfAbsent(toLowerCase(nr.getUsername()), k -> new ArrayList<>()).add(entry);
+        // A name from an external source may be older than the current name
+        if (current == null || !entry.firstSeenTime.isBefore(current.firstSeenTime)) {
+            player.current = entry;
+        }
+    }
+
+    @Override
+    public synchronized List<NameRecord> getNameHistory(UUID uuid) throws SQLException {
+        checkOpen();
+        Player player = players.get(uuid);
+        if (player == null) {
+            return new ArrayList<>();
+        }
+        return player.entries.stream()
+                .sorted(HISTORY_ORDER)
+                .map(Entry::toNameRecord)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public synchronized HistoryPage getNameHistoryPage(UUID uuid, HistoryCursor after, int limit)
+            throws SQLException {
+        checkOpen();
+        Player player = players.get(uuid);
+        if (player == null) {
+            return new HistoryPage(new ArrayList<>(), null, 0);
+        }
+        List<Entry> page = player.entries.stream()
+                .filter(e -> after.isFollowedBy(e.firstSeenTime.toEpochMilli(), e.lastSeenTime.toEpochMilli(), e.id))
+                .sorted(HISTORY_ORDER)
+                .limit(limit + 1L) // One extra to know if there's another page
+                .collect(Collectors.toCollection(ArrayList::new));
+        HistoryCursor next = null;
+        if (page.size() > limit) {
+            page.remove(limit);
+            Entry last = page.get(limit - 1);
+            next = new HistoryCursor(last.firstSeenTime.toEpochMilli(), last.lastSeenTime.toEpochMilli(), last.id);
+        }
+        List<NameRecord> records = page.stream().map(Entry::toNameRecord).collect(Collectors.toList());
+        return new HistoryPage(records, next, player.entries.size());
+    }
+
+    @Override
+    public synchronized Optional<NameRecord> getLatestByUsername(String username) throws SQLException {
+        checkOpen();
+        return entriesByUsername.getOrDefault(toLowerCase(username), Collections.emptyList()).stream()
+                .max(LATEST_ORDER)
+                .map(Entry::toNameRecord);
+    }
+
+    @Override
+    public synchronized List<NameRecord> getAllHoldersOf(String username) throws SQLException {
+        checkOpen();
+        return entriesByUsername.getOrDefault(toLowerCase(username), Collections.emptyList()).stream()
+                .sorted(LATEST_ORDER.reversed())
+                .map(Entry::toNameRecord)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public synchronized List<NameRecord> getHoldersBetween(String username, Instant start, Instant end)
+            throws SQLException {
+        checkOpen();
+        long startMillis = start.toEpochMilli();
+        long endMillis = end.toEpochMilli();
+        return entriesByUsername.getOrDefault(toLowerCase(username), Collections.emptyList()).stream()
+                .filter(e -> e.firstSeenTime.toEpochMilli() <= endMillis
+                        && e.lastSeenTime.toEpochMilli() >= startMillis)
+                .sorted(LATEST_ORDER.reversed())
+                .map(Entry::toNameRecord)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public synchronized ExportBatch readExportBatch(long cursor, int limit) throws SQLException {
+        checkOpen();
+        int start = (int) Math.min(cursor, entries.size());
+        int end = (int) Math.min((long) start + limit, entries.size());
+        List<NameRecord> records = entries.subList(start, end).stream()
+                .map(Entry::toNameRecord)
+                .collect(Collectors.toList());
+        return new ExportBatch(records, end);
+    }
+
+    // Same precision as the database stores
+    private static Instant truncate(Instant instant) {
+        return Instant.ofEpochMilli(instant.toEpochMilli());
+    }
+    private static String toLowerCase(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    private void checkOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("Store is closed");
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        players.clear();
+        entriesByUsername.clear();
+        entries.clear();
+    }
+
+    private static class Player {
+        private final List<Entry> entries = new ArrayList<>();
+        private @Nullable Entry current;
+    }
+
+    @AllArgsConstructor
+    private static class Entry {
+        private final long id;
+        private final UUID uuid;
+        private final String username;
+        private final Instant firstSeenTime;
+        private final @Nullable Instant detectedTime;
+        private Instant lastSeenTime;
+
+        private NameRecord toNameRecord() {
+            return new NameRecord(uuid, username, firstSeenTime, detectedTime, lastSeenTime);
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.tisawesomeness.namehistorian;
+
+import lombok.Value;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how long an operation took, in power-of-two buckets of microseconds.
+ * Recording is lock-free and allocation-free, so it can be used on every call of a hot path.
+ * Percentiles are approximate, rounded up to the top of their bucket.
+ */
+public final class LatencyHistogram {
+
+    // Bucket 0 holds latencies under 1 microsecond, bucket i holds [2^(i-1), 2^i) microseconds,
+    // and the last bucket holds everything above about 18 minutes
+    private static final int BUCKETS = 31;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records one operation.
+     * @param nanos how long the operation took in nanoseconds
+     */
+    public void record(long nanos) {
+        long clamped = Math.max(0, nanos);
+        long micros = clamped / 1000;
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        totalNanos.add(clamped);
+        maxNanos.accumulate(clamped);
+    }
+    /**
+     * Records one operation that started at the given time.
+     * @param startNanos the {@link System#nanoTime()} when the operation started
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Takes a snapshot of the recorded operations. Operations recorded while the snapshot is taken
+     * may be partially counted.
+     * @return the snapshot
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            count += counts[i];
+        }
+        Duration max = Duration.ofNanos(maxNanos.get());
+        Duration mean = count == 0 ? Duration.ZERO : Duration.ofNanos(totalNanos.sum() / count);
+        return new Snapshot(count, mean, percentile(counts, count, 0.5, max),
+                percentile(counts, count, 0.95, max), percentile(counts, count, 0.99, max), max);
+    }
+    private static Duration percentile(long[] counts, long count, double fraction, Duration max) {
+        if (count == 0) {
+            return Duration.ZERO;
+        }
+        long rank = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                Duration upperBound = Duration.ofNanos((1L << i) * 1000);
+                return upperBound.compareTo(max) < 0 ? upperBound : max;
+            }
+        }
+        return max;
+    }
+
+    @Value
+    public static class Snapshot {
+        /** The number of operations recorded */
+        long count;
+        /** The exact mean latency */
+        Duration mean;
+        /** The approximate median latency */
+        Duration p50;
+        /** The approximate 95th percentile latency */
+        Duration p95;
+        /** The approximate 99th percentile latency */
+        Duration p99;
+        /** The exact maximum latency */
+        Duration max;
+    }
+
+}
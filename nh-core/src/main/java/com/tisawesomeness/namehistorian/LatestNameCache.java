@@ -0,0 +1,70 @@
+package com.tisawesomeness.namehistorian;
+
+import javax.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A size-bounded map of each player's current name, evicting the least recently used player when full.
+ * Lets a repeat join find out the player's name hasn't changed without reading the database.
+ * The cache doesn't read the database itself, so whoever writes the current name must also update the cache.
+ */
+final class LatestNameCache {
+
+    private final int maxSize;
+    private final Map<UUID, CurrentName> map;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates an empty cache.
+     * @param maxSize the maximum number of players to keep, 0 disables the cache
+     */
+    public LatestNameCache(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must be non-negative but was " + maxSize);
+        }
+        this.maxSize = maxSize;
+        map = new LinkedHashMap<UUID, CurrentName>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, CurrentName> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Gets a player's current name, marking the player as recently used.
+     * @param uuid the player's UUID
+     * @return the current name, or null if not cached
+     */
+    public synchronized @Nullable CurrentName get(UUID uuid) {
+        CurrentName current = map.get(uuid);
+        if (current == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return current;
+    }
+    /**
+     * Sets a player's current name.
+     * @param uuid the player's UUID
+     * @param current the current name
+     */
+    public synchronized void put(UUID uuid, CurrentName current) {
+        map.put(uuid, current);
+    }
+    /**
+     * Removes every player, used when the cache may no longer match the database.
+     */
+    public synchronized void clear() {
+        map.clear();
+    }
+
+    public synchronized CacheStats getStats() {
+        return new CacheStats(hits, misses, map.size(), maxSize);
+    }
+
+}
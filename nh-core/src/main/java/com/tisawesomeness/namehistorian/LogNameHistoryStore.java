@@ -0,0 +1,794 @@
+package com.tisawesomeness.namehistorian;
+
+import lombok.AllArgsConstructor;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Stores name history in an append-only log of fixed-size entries, split into memory-mapped segment files.
+ * <p>
+ * A name change appends a name entry. Seeing a player with their current name again appends a touch entry
+ * pointing at the name entry, instead of rewriting it. Every name entry's location is kept in an in-memory index,
+ * which is saved to a checkpoint file every so often so startup only has to replay entries written after it.
+ * Once touch entries outnumber name entries, the log is compacted into a new generation of segments
+ * holding only name entries with their latest last seen times.
+ * <p>
+ * Entries are checksummed, and a batch of records is only replayed if its last entry was written,
+ * so a crash never leaves half a batch behind.
+ * Segments stay mapped until they are garbage collected, since Java 8 has no way to unmap a file.
+ */
+public final class LogNameHistoryStore implements NameHistoryStore {
+
+    /** The default number of entries in each segment file */
+    public static final int DEFAULT_SEGMENT_ENTRIES = 1 << 16;
+
+    static final int ENTRY_SIZE = 80;
+    private static final int MAX_USERNAME_BYTES = 32;
+    // Entry layout, multi-byte values are big-endian
+    private static final int TYPE_OFFSET = 0;
+    private static final int FLAGS_OFFSET = 1;
+    private static final int USERNAME_LENGTH_OFFSET = 2;
+    private static final int UUID_OFFSET = 4;
+    private static final int USERNAME_OFFSET = 20;
+    private static final int FIRST_SEEN_OFFSET = 52; // The name entry's number in a touch entry
+    private static final int DETECTED_OFFSET = 60;
+    private static final int LAST_SEEN_OFFSET = 68;
+    private static final int CHECKSUM_OFFSET = 76; // CRC32 of every byte before it
+
+    private static final byte TYPE_EMPTY = 0;
+    private static final byte TYPE_NAME = 1;
+    private static final byte TYPE_TOUCH = 2;
+    private static final byte FLAG_COMMIT = 1;
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String CHECKPOINT_TEMP_FILE = "checkpoint.tmp";
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("segment-(\\d+)-(\\d+)\\.log");
+    private static final int CHECKPOINT_MAGIC = 0x4E484C47; // "NHLG"
+    private static final int CHECKPOINT_VERSION = 1;
+    private static final long CHECKPOINT_INTERVAL = 1 << 16;
+
+    private static final Comparator<Name> HISTORY_ORDER = Comparator
+            .comparingLong((Name n) -> n.firstSeenTime)
+            .thenComparingLong(n -> n.lastSeenTime)
+            .thenComparingLong(n -> n.entry)
+            .reversed();
+    private static final Comparator<Name> LATEST_ORDER = Comparator
+            .comparingLong((Name n) -> n.firstSeenTime)
+            .thenComparingLong(n -> n.entry);
+
+    private final Path directory;
+    private final int segmentEntries;
+    private final boolean forceWrites;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Only used while holding the write lock
+    private final byte[] scratch = new byte[ENTRY_SIZE];
+    private final ByteBuffer scratchBuffer = ByteBuffer.wrap(scratch);
+    private final CRC32 crc = new CRC32();
+
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final Map<UUID, Player> players = new HashMap<>();
+    private final Map<String, List<Name>> namesByUsername = new HashMap<>();
+    // Every name in entry order, compaction keeps the order so positions in this list are stable export cursors
+    private final List<Name> allNames = new ArrayList<>();
+    private long generation;
+    private long nextEntry;
+    private long nameCount;
+    private long touchCount;
+    private long checkpointEntry;
+    private boolean closed;
+
+    /**
+     * Opens a log in the given directory with the default segment size, creating it if it doesn't exist.
+     * Every write waits for the disk.
+     * @param directory the directory holding the segment and checkpoint files
+     * @throws SQLException if the log could not be read or created
+     */
+    public LogNameHistoryStore(Path directory) throws SQLException {
+        this(directory, DEFAULT_SEGMENT_ENTRIES, true);
+    }
+    /**
+     * Opens a log in the given directory, creating it if it doesn't exist.
+     * @param directory the directory holding the segment and checkpoint files
+     * @param segmentEntries the number of entries in each segment file, must stay the same for an existing log
+     * @param forceWrites whether every write waits for the disk.
+     *                    If false, a power loss or OS crash may lose recent writes, but never corrupts the log.
+     * @throws SQLException if the log could not be read or created
+     */
+    public LogNameHistoryStore(Path directory, int segmentEntries, boolean forceWrites) throws SQLException {
+        if (segmentEntries < 1 || segmentEntries > Integer.MAX_VALUE / ENTRY_SIZE) {
+            throw new IllegalArgumentException("segmentEntries out of range: " + segmentEntries);
+        }
+        this.directory = directory;
+        this.segmentEntries = segmentEntries;
+        this.forceWrites = forceWrites;
+        try {
+            Files.createDirectories(directory);
+            load();
+        } catch (IOException ex) {
+            throw new SQLException("Could not open name history log in " + directory, ex);
+        }
+    }
+
+    @Override
+    public void recordName(NameRecord nr) throws SQLException {
+        recordNameRecords(Collections.singletonList(nr));
+    }
+
+    @Override
+    public void recordNameRecords(Collection<NameRecord> records) throws SQLException {
+        List<byte[]> usernames = new ArrayList<>(records.size());
+        for (NameRecord nr : records) {
+            byte[] username = nr.getUsername().getBytes(StandardCharsets.UTF_8);
+            if (username.length > MAX_USERNAME_BYTES) {
+                throw new SQLException("Username is longer than " + MAX_USERNAME_BYTES + " bytes: " + nr.getUsername());
+            }
+            usernames.add(username);
+        }
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            long batchStart = nextEntry;
+            try {
+                Iterator<byte[]> usernameIt = usernames.iterator();
+                for (NameRecord nr : records) {
+                    record(nr, usernameIt.next());
+                }
+                if (nextEntry > batchStart) {
+                    markCommitted(nextEntry - 1);
+                    if (forceWrites) {
+                        force(batchStart, nextEntry);
+                    }
+                }
+            } catch (IOException | RuntimeException ex) {
+                // Throw away the half-written batch by reloading everything that was committed
+                reload();
+                throw new SQLException("Could not write to name history log", ex);
+            }
+            try {
+                maintain();
+            } catch (IOException ex) {
+                throw new SQLException("Names were recorded, but the log could not be checkpointed or compacted", ex);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void record(NameRecord nr, byte[] username) throws IOException {
+        UUID uuid = nr.getUuid();
+        long lastSeenTime = nr.getLastSeenTime().toEpochMilli();
+        Player player = players.get(uuid);
+        Name current = player == null ? null : player.current;
+        if (current != null && usernameEquals(current.entry, username)) {
+            if (lastSeenTime > current.lastSeenTime) {
+                append(TYPE_TOUCH, uuid, new byte[0], current.entry, NO_TIME, lastSeenTime);
+                current.lastSeenTime = lastSeenTime;
+                touchCount++;
+            }
+            return;
+        }
+        Instant detectedTime = nr.getRawDetectedTime();
+        long entry = append(TYPE_NAME, uuid, username, nr.getFirstSeenTime().toEpochMilli(),
+                detectedTime == null ? NO_TIME : detectedTime.toEpochMilli(), lastSeenTime);
+        index(entry, lastSeenTime);
+    }
+
+    @Override
+    public List<NameRecord> getNameHistory(UUID uuid) throws SQLException {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            Player player = players.get(uuid);
+            if (player == null) {
+                return new ArrayList<>();
+            }
+            return player.names.stream()
+                    .sorted(HISTORY_ORDER)
+                    .map(this::readRecord)
+                    .collect(Collectors.toList());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public HistoryPage getNameHistoryPage(UUID uuid, HistoryCursor after, int limit) throws SQLException {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            Player player = players.get(uuid);
+            if (player == null) {
+                return new HistoryPage(new ArrayList<>(), null, 0);
+            }
+            List<Name> page = player.names.stream()
+                    .filter(n -> after.isFollowedBy(n.firstSeenTime, n.lastSeenTime, n.sequence))
+                    .sorted(HISTORY_ORDER)
+                    .limit(limit + 1L) // One extra to know if there's another page
+                    .collect(Collectors.toCollection(ArrayList::new));
+            HistoryCursor next = null;
+            if (page.size() > limit) {
+                page.remove(limit);
+                Name last = page.get(limit - 1);
+                next = new HistoryCursor(last.firstSeenTime, last.lastSeenTime, last.sequence);
+            }
+            List<NameRecord> records = page.stream().map(this::readRecord).collect(Collectors.toList());
+            return new HistoryPage(records, next, player.names.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<NameRecord> getLatestByUsername(String username) throws SQLException {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            return namesByUsername.getOrDefault(toLowerCase(username), Collections.emptyList()).stream()
+                    .max(LATEST_ORDER)
+                    .map(this::readRecord);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<NameRecord> getAllHoldersOf(String username) throws SQLException {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            return namesByUsername.getOrDefault(toLowerCase(username), Collections.emptyList()).stream()
+                    .sorted(LATEST_ORDER.reversed())
+                    .map(this::readRecord)
+                    .collect(Collectors.toList());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<NameRecord> getHoldersBetween(String username, Instant start, Instant end) throws SQLException {
+        long startMillis = start.toEpochMilli();
+        long endMillis = end.toEpochMilli();
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            // Times are kept in memory, so only the matching records are read from the log
+            return namesByUsername.getOrDefault(toLowerCase(username), Collections.emptyList()).stream()
+                    .filter(n -> n.firstSeenTime <= endMillis && n.lastSeenTime >= startMillis)
+                    .sorted(LATEST_ORDER.reversed())
+                    .map(this::readRecord)
+                    .collect(Collectors.toList());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public ExportBatch readExportBatch(long cursor, int limit) throws SQLException {
+        lock.readLock().lock();
+        try {
+            checkOpen();
+            int start = (int) Math.min(cursor, allNames.size());
+            int end = (int) Math.min((long) start + limit, allNames.size());
+            List<NameRecord> records = allNames.subList(start, end).stream()
+                    .map(this::readRecord)
+                    .collect(Collectors.toList());
+            return new ExportBatch(records, end);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Saves the in-memory index, so the next startup doesn't need to replay the log.
+     * Happens automatically every so often and when the store is closed.
+     * @throws SQLException if the checkpoint could not be written
+     */
+    public void checkpoint() throws SQLException {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            writeCheckpoint();
+        } catch (IOException ex) {
+            throw new SQLException("Could not checkpoint name history log", ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rewrites the log into new segments without touch entries.
+     * Happens automatically once touch entries outnumber name entries.
+     * @throws SQLException if the log could not be compacted, in which case the old log is still used
+     */
+    public void compact() throws SQLException {
+        lock.writeLock().lock();
+        try {
+            checkOpen();
+            compactLog();
+        } catch (IOException ex) {
+            throw new SQLException("Could not compact name history log", ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the number of entries in the log, including touch entries.
+     * @return the entry count
+     */
+    public long getEntryCount() {
+        lock.readLock().lock();
+        try {
+            return nextEntry;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+            writeCheckpoint();
+        } catch (IOException ex) {
+            throw new SQLException("Could not checkpoint name history log", ex);
+        } finally {
+            segments.clear();
+            players.clear();
+            namesByUsername.clear();
+            allNames.clear();
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void checkOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("Store is closed");
+        }
+    }
+
+    private void maintain() throws IOException {
+        if (touchCount >= Math.max(nameCount, segmentEntries)) {
+            compactLog();
+        } else if (nextEntry - checkpointEntry >= CHECKPOINT_INTERVAL) {
+            writeCheckpoint();
+        }
+    }
+
+    // Loading
+
+    private void load() throws IOException {
+        Checkpoint checkpoint = readCheckpoint();
+        SortedSet<Long> generations = findGenerations();
+        generation = checkpoint != null ? checkpoint.generation : generations.isEmpty() ? 0 : generations.first();
+        // Leftovers from a compaction that crashed, or one whose old files could not be deleted
+        for (long gen : generations) {
+            if (gen != generation) {
+                deleteGeneration(gen);
+            }
+        }
+        for (int i = 0; Files.exists(segmentPath(generation, i)); i++) {
+            segments.add(mapSegment(generation, i));
+        }
+        if (checkpoint == null || !applyCheckpoint(checkpoint)) {
+            clearIndex();
+            checkpointEntry = 0;
+        }
+        replay(checkpointEntry);
+    }
+    private void reload() {
+        clearIndex();
+        segments.clear();
+        try {
+            load();
+        } catch (IOException | RuntimeException ex) {
+            // Nothing sensible can be done with a log that can't be read
+            closed = true;
+        }
+    }
+    private void clearIndex() {
+        players.clear();
+        namesByUsername.clear();
+        allNames.clear();
+        nextEntry = 0;
+        nameCount = 0;
+        touchCount = 0;
+    }
+
+    private boolean applyCheckpoint(Checkpoint checkpoint) {
+        if (checkpoint.entryCount > (long) segments.size() * segmentEntries) {
+            return false;
+        }
+        for (int i = 0; i < checkpoint.entries.length; i++) {
+            long entry = checkpoint.entries[i];
+            if (entry >= checkpoint.entryCount || readType(entry) != TYPE_NAME) {
+                return false;
+            }
+            index(entry, checkpoint.lastSeenTimes[i]);
+        }
+        nextEntry = checkpoint.entryCount;
+        touchCount = checkpoint.touchCount;
+        checkpointEntry = checkpoint.entryCount;
+        return true;
+    }
+
+    private void replay(long start) throws IOException {
+        List<Long> pending = new ArrayList<>();
+        long entry = start;
+        while (entry < (long) segments.size() * segmentEntries && isValid(entry)) {
+            pending.add(entry);
+            if ((segmentOf(entry).get(positionOf(entry) + FLAGS_OFFSET) & FLAG_COMMIT) != 0) {
+                for (long e : pending) {
+                    replayEntry(e);
+                }
+                pending.clear();
+                nextEntry = entry + 1;
+            }
+            entry++;
+        }
+        // Wipe the uncommitted batch and any torn entry, so they can't be mistaken for a later batch
+        long end = Math.min(entry + 1, (long) segments.size() * segmentEntries);
+        for (long e = nextEntry; e < end; e++) {
+            zero(e);
+        }
+    }
+    private void replayEntry(long entry) {
+        MappedByteBuffer segment = segmentOf(entry);
+        int pos = positionOf(entry);
+        long lastSeenTime = segment.getLong(pos + LAST_SEEN_OFFSET);
+        if (segment.get(pos + TYPE_OFFSET) == TYPE_NAME) {
+            index(entry, lastSeenTime);
+            return;
+        }
+        touchCount++;
+        Player player = players.get(readUuid(entry));
+        long target = segment.getLong(pos + FIRST_SEEN_OFFSET);
+        if (player != null) {
+            for (Name name : player.names) {
+                if (name.entry == target && lastSeenTime > name.lastSeenTime) {
+                    name.lastSeenTime = lastSeenTime;
+                }
+            }
+        }
+    }
+
+    private void index(long entry, long lastSeenTime) {
+        UUID uuid = readUuid(entry);
+        long firstSeenTime = segmentOf(entry).getLong(positionOf(entry) + FIRST_SEEN_OFFSET);
+        Name name = new Name(entry, allNames.size(), firstSeenTime, lastSeenTime);
+        Player player = players.computeIfAbsent(uuid, k -> new Player());
+        player.names.add(name);
+        // A name from an external source may be older than the current name
+        if (player.current == null || firstSeenTime >= player.current.firstSeenTime) {
+            player.current = name;
+        }
+        namesByUsername.computeIfAbsent(toLowerCase(readUsername(entry)), k -> new ArrayList<>(1)).add(name);
+        allNames.add(name);
+        nameCount++;
+    }
+
+    // Compaction
+
+    private void compactLog() throws IOException {
+        long newGeneration = generation + 1;
+        List<MappedByteBuffer> newSegments = new ArrayList<>();
+        try {
+            for (int i = 0; i < allNames.size(); i++) {
+                if (i / segmentEntries >= newSegments.size()) {
+                    newSegments.add(mapSegment(newGeneration, newSegments.size()));
+                }
+                Name name = allNames.get(i);
+                readEntry(name.entry);
+                scratchBuffer.put(FLAGS_OFFSET, FLAG_COMMIT);
+                scratchBuffer.putLong(LAST_SEEN_OFFSET, name.lastSeenTime);
+                writeEntry(newSegments.get(i / segmentEntries), (i % segmentEntries) * ENTRY_SIZE);
+            }
+            for (MappedByteBuffer segment : newSegments) {
+                segment.force();
+            }
+        } catch (IOException | RuntimeException ex) {
+            deleteGeneration(newGeneration);
+            throw ex;
+        }
+
+        long oldGeneration = generation;
+        long oldNextEntry = nextEntry;
+        long oldTouchCount = touchCount;
+        long[] oldEntries = new long[allNames.size()];
+        List<MappedByteBuffer> oldSegments = new ArrayList<>(segments);
+        for (int i = 0; i < allNames.size(); i++) {
+            oldEntries[i] = allNames.get(i).entry;
+            allNames.get(i).entry = i;
+        }
+        segments.clear();
+        segments.addAll(newSegments);
+        generation = newGeneration;
+        nextEntry = allNames.size();
+        touchCount = 0;
+        // The new generation is only used on startup once the checkpoint points to it
+        try {
+            writeCheckpoint();
+        } catch (IOException | RuntimeException ex) {
+            for (int i = 0; i < allNames.size(); i++) {
+                allNames.get(i).entry = oldEntries[i];
+            }
+            segments.clear();
+            segments.addAll(oldSegments);
+            generation = oldGeneration;
+            nextEntry = oldNextEntry;
+            touchCount = oldTouchCount;
+            deleteGeneration(newGeneration);
+            throw ex;
+        }
+        deleteGeneration(oldGeneration);
+    }
+
+    private SortedSet<Long> findGenerations() throws IOException {
+        SortedSet<Long> generations = new TreeSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.log")) {
+            for (Path path : stream) {
+                Matcher m = SEGMENT_PATTERN.matcher(path.getFileName().toString());
+                if (m.matches()) {
+                    generations.add(Long.parseLong(m.group(1)));
+                }
+            }
+        }
+        return generations;
+    }
+    private void deleteGeneration(long gen) {
+        for (int i = 0; Files.exists(segmentPath(gen, i)); i++) {
+            try {
+                Files.delete(segmentPath(gen, i));
+            } catch (IOException ignored) {
+                // Still mapped on some platforms, deleted on the next startup instead
+            }
+        }
+    }
+
+    // Checkpoints
+
+    private void writeCheckpoint() throws IOException {
+        Path temp = directory.resolve(CHECKPOINT_TEMP_FILE);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            CheckedOutputStream checked = new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel)), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeInt(CHECKPOINT_VERSION);
+            out.writeLong(generation);
+            out.writeLong(nextEntry);
+            out.writeLong(touchCount);
+            out.writeInt(allNames.size());
+            for (Name name : allNames) {
+                out.writeLong(name.entry);
+                out.writeLong(name.lastSeenTime);
+            }
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, directory.resolve(CHECKPOINT_FILE),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        checkpointEntry = nextEntry;
+    }
+
+    private @Nullable Checkpoint readCheckpoint() {
+        Path path = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (InputStream is = new BufferedInputStream(Files.newInputStream(path))) {
+            CheckedInputStream checked = new CheckedInputStream(is, new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION) {
+                return null;
+            }
+            long generation = in.readLong();
+            long entryCount = in.readLong();
+            long touchCount = in.readLong();
+            int size = in.readInt();
+            if (size < 0 || size > entryCount) {
+                return null;
+            }
+            long[] entries = new long[size];
+            long[] lastSeenTimes = new long[size];
+            for (int i = 0; i < size; i++) {
+                entries[i] = in.readLong();
+                lastSeenTimes[i] = in.readLong();
+            }
+            long expected = checked.getChecksum().getValue();
+            if (new DataInputStream(is).readLong() != expected) {
+                return null;
+            }
+            return new Checkpoint(generation, entryCount, touchCount, entries, lastSeenTimes);
+        } catch (IOException ex) {
+            // A damaged checkpoint only means a longer startup
+            return null;
+        }
+    }
+
+    // Segments and entries
+
+    private Path segmentPath(long gen, int index) {
+        return directory.resolve(String.format("segment-%d-%08d.log", gen, index));
+    }
+    private MappedByteBuffer mapSegment(long gen, int index) throws IOException {
+        Path path = segmentPath(gen, index);
+        long size = (long) segmentEntries * ENTRY_SIZE;
+        if (Files.exists(path) && Files.size(path) != size) {
+            throw new IOException(String.format("%s is %d bytes but should be %d, was segmentEntries changed?",
+                    path, Files.size(path), size));
+        }
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+    private MappedByteBuffer segmentOf(long entry) {
+        return segments.get((int) (entry / segmentEntries));
+    }
+    private int positionOf(long entry) {
+        return (int) (entry % segmentEntries) * ENTRY_SIZE;
+    }
+
+    private long append(byte type, UUID uuid, byte[] username, long firstSeenTime, long detectedTime,
+                        long lastSeenTime) throws IOException {
+        long entry = nextEntry;
+        while (entry / segmentEntries >= segments.size()) {
+            segments.add(mapSegment(generation, segments.size()));
+        }
+        Arrays.fill(scratch, (byte) 0);
+        scratchBuffer.put(TYPE_OFFSET, type);
+        scratchBuffer.put(USERNAME_LENGTH_OFFSET, (byte) username.length);
+        scratchBuffer.putLong(UUID_OFFSET, uuid.getMostSignificantBits());
+        scratchBuffer.putLong(UUID_OFFSET + 8, uuid.getLeastSignificantBits());
+        System.arraycopy(username, 0, scratch, USERNAME_OFFSET, username.length);
+        scratchBuffer.putLong(FIRST_SEEN_OFFSET, firstSeenTime);
+        scratchBuffer.putLong(DETECTED_OFFSET, detectedTime);
+        scratchBuffer.putLong(LAST_SEEN_OFFSET, lastSeenTime);
+        writeEntry(segmentOf(entry), positionOf(entry));
+        nextEntry++;
+        return entry;
+    }
+    private void markCommitted(long entry) {
+        readEntry(entry);
+        scratch[FLAGS_OFFSET] |= FLAG_COMMIT;
+        writeEntry(segmentOf(entry), positionOf(entry));
+    }
+    private void zero(long entry) {
+        ByteBuffer buf = segmentOf(entry).duplicate();
+        buf.position(positionOf(entry));
+        buf.put(new byte[ENTRY_SIZE]);
+    }
+    private void force(long start, long end) {
+        for (int i = (int) (start / segmentEntries); i <= (end - 1) / segmentEntries; i++) {
+            segments.get(i).force();
+        }
+    }
+
+    // Copies the entry into the scratch buffer
+    private void readEntry(long entry) {
+        ByteBuffer buf = segmentOf(entry).duplicate();
+        buf.position(positionOf(entry));
+        buf.get(scratch);
+    }
+    // Writes the scratch buffer with a fresh checksum
+    private void writeEntry(MappedByteBuffer segment, int pos) {
+        crc.reset();
+        crc.update(scratch, 0, CHECKSUM_OFFSET);
+        scratchBuffer.putInt(CHECKSUM_OFFSET, (int) crc.getValue());
+        ByteBuffer buf = segment.duplicate();
+        buf.position(pos);
+        buf.put(scratch);
+    }
+    private boolean isValid(long entry) {
+        readEntry(entry);
+        if (scratch[TYPE_OFFSET] == TYPE_EMPTY) {
+            return false;
+        }
+        crc.reset();
+        crc.update(scratch, 0, CHECKSUM_OFFSET);
+        return scratchBuffer.getInt(CHECKSUM_OFFSET) == (int) crc.getValue();
+    }
+
+    private byte readType(long entry) {
+        return segmentOf(entry).get(positionOf(entry) + TYPE_OFFSET);
+    }
+    private UUID readUuid(long entry) {
+        MappedByteBuffer segment = segmentOf(entry);
+        int pos = positionOf(entry);
+        return new UUID(segment.getLong(pos + UUID_OFFSET), segment.getLong(pos + UUID_OFFSET + 8));
+    }
+    private String readUsername(long entry) {
+        MappedByteBuffer segment = segmentOf(entry);
+        int pos = positionOf(entry);
+        byte[] username = new byte[segment.get(pos + USERNAME_LENGTH_OFFSET)];
+        for (int i = 0; i < username.length; i++) {
+            username[i] = segment.get(pos + USERNAME_OFFSET + i);
+        }
+        return new String(username, StandardCharsets.UTF_8);
+    }
+    private boolean usernameEquals(long entry, byte[] username) {
+        MappedByteBuffer segment = segmentOf(entry);
+        int pos = positionOf(entry);
+        if (segment.get(pos + USERNAME_LENGTH_OFFSET) != username.length) {
+            return false;
+        }
+        for (int i = 0; i < username.length; i++) {
+            if (segment.get(pos + USERNAME_OFFSET + i) != username[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    private NameRecord readRecord(Name name) {
+        MappedByteBuffer segment = segmentOf(name.entry);
+        int pos = positionOf(name.entry);
+        long detectedTime = segment.getLong(pos + DETECTED_OFFSET);
+        return new NameRecord(
+                readUuid(name.entry),
+                readUsername(name.entry),
+                Instant.ofEpochMilli(name.firstSeenTime),
+                detectedTime == NO_TIME ? null : Instant.ofEpochMilli(detectedTime),
+                Instant.ofEpochMilli(name.lastSeenTime)
+        );
+    }
+
+    // Minecraft usernames are ASCII, so this matches the other stores
+    private static String toLowerCase(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Player {
+        private final List<Name> names = new ArrayList<>(1);
+        private @Nullable Name current;
+    }
+
+    @AllArgsConstructor
+    private static final class Name {
+        private long entry;
+        /** The name's position in insertion order, unlike the entry it stays the same through compaction */
+        private final long sequence;
+        private final long firstSeenTime;
+        private long lastSeenTime;
+    }
+
+    @AllArgsConstructor
+    private static final class Checkpoint {
+        private final long generation;
+        private final long entryCount;
+        private final long touchCount;
+        /** Every name entry in the log, in order */
+        private final long[] entries;
+        private final long[] lastSeenTimes;
+    }
+
+}
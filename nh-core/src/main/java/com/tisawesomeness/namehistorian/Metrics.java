@@ -0,0 +1,87 @@
+package com.tisawesomeness.namehistorian;
+
+import lombok.Value;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A registry of named counters, gauges, and latency histograms.
+ * Look up a counter or histogram once and keep it in a field, recording to it is then as cheap as an atomic add.
+ * Names are dot-separated, such as {@code store.get_history}, and sort into groups when displayed.
+ */
+public final class Metrics {
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * Gets a counter, creating it if it doesn't exist.
+     * @param name the counter's name
+     * @return the counter
+     */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+    /**
+     * Registers a value that is read every time a snapshot is taken, replacing any gauge with the same name.
+     * @param name the gauge's name
+     * @param supplier reads the current value, must be thread-safe
+     */
+    public void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+    /**
+     * Gets a latency histogram, creating it if it doesn't exist.
+     * @param name the histogram's name
+     * @return the histogram
+     */
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, k -> new LatencyHistogram());
+    }
+
+    /**
+     * Takes a snapshot of every metric.
+     * @return the snapshot, with counters and gauges together
+     */
+    public Snapshot snapshot() {
+        SortedMap<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        SortedMap<String, LatencyHistogram.Snapshot> latencies = new TreeMap<>();
+        histograms.forEach((name, histogram) -> latencies.put(name, histogram.snapshot()));
+        return new Snapshot(values, latencies);
+    }
+
+    @Value
+    public static class Snapshot {
+        /** Every counter and gauge by name, sorted */
+        SortedMap<String, Long> values;
+        /** Every latency histogram by name, sorted */
+        SortedMap<String, LatencyHistogram.Snapshot> latencies;
+
+        /**
+         * Formats the snapshot as plain text, one metric per line.
+         * @return the text
+         */
+        public String format() {
+            StringBuilder sb = new StringBuilder();
+            values.forEach((name, value) -> sb.append(name).append(": ").append(value).append('\n'));
+            latencies.forEach((name, latency) -> sb.append(String.format(
+                    "%s: %d calls, mean %.3f ms, p50 %.3f ms, p95 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                    name, latency.getCount(), millis(latency.getMean()), millis(latency.getP50()),
+                    millis(latency.getP95()), millis(latency.getP99()), millis(latency.getMax()))));
+            return sb.toString();
+        }
+        private static double millis(Duration duration) {
+            return duration.toNanos() / 1_000_000.0;
+        }
+    }
+
+}
@@ -0,0 +1,206 @@
+package com.tisawesomeness.namehistorian;
+
+import com.tisawesomeness.namehistorian.util.Util;
+import lombok.Cleanup;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+
+/**
+ * Creates the database schema and upgrades it to the latest version.
+ * Each migration upgrades the schema by exactly one version and commits the new version number
+ * in the same transaction as its last changes, so an interrupted migration is retried on the next startup.
+ * Migrations that rewrite whole tables commit in chunks and pick up where they left off.
+ */
+final class Migrations {
+    private Migrations() { }
+
+    /** The schema version that this version of NameHistorian reads and writes */
+    public static final int LATEST_VERSION = 3;
+    private static final int CHUNK_SIZE = 10_000;
+
+    private static final String GET_VERSION_SQL = "" +
+            "SELECT `version` FROM `version`;";
+    private static final String SET_VERSION_SQL = "" +
+            "UPDATE `version` SET `version` = ?;";
+
+    // MIGRATIONS[i] upgrades the schema from version i to version i + 1
+    private static final Migration[] MIGRATIONS = {
+            con -> runScript(con, "migrations/v1.sql"),
+            Migrations::migrateBinaryUuids,
+            con -> runScript(con, "migrations/v3.sql")
+    };
+
+    private static final String CREATE_BINARY_HISTORY_SQL = "" +
+            "CREATE TABLE IF NOT EXISTS `name_history_v2` (\n" +
+            "    `id` INTEGER PRIMARY KEY NOT NULL,\n" +
+            "    `uuid` BLOB NOT NULL,\n" +
+            "    `username` TEXT NOT NULL,\n" +
+            "    `first_seen_time` INTEGER NOT NULL,\n" +
+            "    `detected_time` INTEGER,\n" +
+            "    `last_seen_time` INTEGER NOT NULL\n" +
+            ");";
+    private static final String READ_TEXT_HISTORY_CHUNK_SQL = "" +
+            "SELECT `id`, `uuid`, `username`, `first_seen_time`, `detected_time`, `last_seen_time`\n" +
+            "FROM `name_history`\n" +
+            "WHERE `id` > (SELECT COALESCE(MAX(`id`), 0) FROM `name_history_v2`)\n" +
+            "ORDER BY `id`\n" +
+            "LIMIT ?;";
+    private static final String INSERT_BINARY_HISTORY_SQL = "" +
+            "INSERT INTO `name_history_v2` (\n" +
+            "    `id`,\n" +
+            "    `uuid`,\n" +
+            "    `username`,\n" +
+            "    `first_seen_time`,\n" +
+            "    `detected_time`,\n" +
+            "    `last_seen_time`\n" +
+            ") VALUES (?, ?, ?, ?, ?, ?);";
+    private static final String CREATE_BINARY_CURRENT_NAME_SQL = "" +
+            "CREATE TABLE IF NOT EXISTS `current_name_v2` (\n" +
+            "    `uuid` BLOB PRIMARY KEY NOT NULL,\n" +
+            "    `history_id` INTEGER NOT NULL,\n" +
+            "    `username` TEXT NOT NULL,\n" +
+            "    `first_seen_time` INTEGER NOT NULL\n" +
+            ");";
+    private static final String READ_TEXT_CURRENT_NAME_CHUNK_SQL = "" +
+            "SELECT `rowid`, `uuid`, `history_id`, `username`, `first_seen_time`\n" +
+            "FROM `current_name`\n" +
+            "WHERE `rowid` > (SELECT COALESCE(MAX(`rowid`), 0) FROM `current_name_v2`)\n" +
+            "ORDER BY `rowid`\n" +
+            "LIMIT ?;";
+    private static final String INSERT_BINARY_CURRENT_NAME_SQL = "" +
+            "INSERT INTO `current_name_v2` (\n" +
+            "    `rowid`,\n" +
+            "    `uuid`,\n" +
+            "    `history_id`,\n" +
+            "    `username`,\n" +
+            "    `first_seen_time`\n" +
+            ") VALUES (?, ?, ?, ?, ?);";
+    private static final String SWAP_BINARY_TABLES_SQL = "" +
+            "DROP TABLE `name_history`;\n" +
+            "ALTER TABLE `name_history_v2` RENAME TO `name_history`;\n" +
+            "CREATE INDEX IF NOT EXISTS `uuid_index` ON `name_history` (`uuid`);\n" +
+            "CREATE INDEX IF NOT EXISTS `first_seen_time_index` ON `name_history` (`first_seen_time`);\n" +
+            "DROP TABLE `current_name`;\n" +
+            "ALTER TABLE `current_name_v2` RENAME TO `current_name`;";
+
+    /**
+     * Creates the schema if it doesn't exist, then runs every migration needed to reach {@link #LATEST_VERSION}.
+     * @param con the connection, must be in auto-commit mode
+     * @throws SQLException on database error
+     * @throws IllegalStateException if the database is newer than {@link #LATEST_VERSION}
+     */
+    public static void migrate(Connection con) throws SQLException {
+        runScript(con, "schema.sql");
+        int version = getVersion(con);
+        if (version > LATEST_VERSION) {
+            throw new IllegalStateException(String.format(
+                    "Database version %d is newer than the latest supported version %d", version, LATEST_VERSION));
+        }
+        while (version < LATEST_VERSION) {
+            runMigration(con, MIGRATIONS[version], version + 1);
+            version++;
+        }
+    }
+
+    private static void runMigration(Connection con, Migration migration, int newVersion) throws SQLException {
+        con.setAutoCommit(false);
+        try {
+            migration.migrate(con);
+            @Cleanup PreparedStatement st = con.prepareStatement(SET_VERSION_SQL);
+            st.setInt(1, newVersion);
+            st.executeUpdate();
+            con.commit();
+        } catch (Exception e) {
+            con.rollback();
+            throw e;
+        } finally {
+            con.setAutoCommit(true);
+        }
+    }
+
+    /*
+     * Version 2 stores UUIDs as 16-byte blobs instead of 36-character strings.
+     * SQLite can't change a column's type, so both tables are copied into new tables in chunks,
+     * then swapped in. Each chunk is committed, and copying resumes after the last copied row.
+     */
+    private static void migrateBinaryUuids(Connection con) throws SQLException {
+        runStatements(con, CREATE_BINARY_HISTORY_SQL + CREATE_BINARY_CURRENT_NAME_SQL);
+        con.commit();
+        while (copyHistoryChunk(con) > 0) {
+            con.commit();
+        }
+        while (copyCurrentNameChunk(con) > 0) {
+            con.commit();
+        }
+        runStatements(con, SWAP_BINARY_TABLES_SQL);
+    }
+    private static int copyHistoryChunk(Connection con) throws SQLException {
+        @Cleanup PreparedStatement readSt = con.prepareStatement(READ_TEXT_HISTORY_CHUNK_SQL);
+        readSt.setInt(1, CHUNK_SIZE);
+        @Cleanup ResultSet rs = readSt.executeQuery();
+        @Cleanup PreparedStatement insertSt = con.prepareStatement(INSERT_BINARY_HISTORY_SQL);
+        int count = 0;
+        while (rs.next()) {
+            insertSt.setInt(1, rs.getInt("id"));
+            insertSt.setBytes(2, Util.uuidToBytes(UUID.fromString(rs.getString("uuid"))));
+            insertSt.setString(3, rs.getString("username"));
+            insertSt.setLong(4, rs.getLong("first_seen_time"));
+            insertSt.setObject(5, rs.getObject("detected_time"));
+            insertSt.setLong(6, rs.getLong("last_seen_time"));
+            insertSt.addBatch();
+            count++;
+        }
+        insertSt.executeBatch();
+        return count;
+    }
+    private static int copyCurrentNameChunk(Connection con) throws SQLException {
+        @Cleanup PreparedStatement readSt = con.prepareStatement(READ_TEXT_CURRENT_NAME_CHUNK_SQL);
+        readSt.setInt(1, CHUNK_SIZE);
+        @Cleanup ResultSet rs = readSt.executeQuery();
+        @Cleanup PreparedStatement insertSt = con.prepareStatement(INSERT_BINARY_CURRENT_NAME_SQL);
+        int count = 0;
+        while (rs.next()) {
+            insertSt.setLong(1, rs.getLong("rowid"));
+            insertSt.setBytes(2, Util.uuidToBytes(UUID.fromString(rs.getString("uuid"))));
+            insertSt.setInt(3, rs.getInt("history_id"));
+            insertSt.setString(4, rs.getString("username"));
+            insertSt.setLong(5, rs.getLong("first_seen_time"));
+            insertSt.addBatch();
+            count++;
+        }
+        insertSt.executeBatch();
+        return count;
+    }
+
+    private static int getVersion(Connection con) throws SQLException {
+        @Cleanup Statement st = con.createStatement();
+        @Cleanup ResultSet rs = st.executeQuery(GET_VERSION_SQL);
+        if (!rs.next()) {
+            throw new IllegalStateException("Database version is not set");
+        }
+        return rs.getInt("version");
+    }
+
+    private static void runScript(Connection con, String scriptName) throws SQLException {
+        runStatements(con, Util.loadResource(scriptName));
+    }
+    private static void runStatements(Connection con, String sql) throws SQLException {
+        for (String statement : sql.split(";")) {
+            if (!Util.isBlank(statement)) {
+                @Cleanup Statement st = con.createStatement();
+                st.execute(statement);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Migration {
+        void migrate(Connection con) throws SQLException;
+    }
+
+}
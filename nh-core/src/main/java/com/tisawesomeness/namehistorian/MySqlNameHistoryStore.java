@@ -0,0 +1,87 @@
+package com.tisawesomeness.namehistorian;
+
+import com.tisawesomeness.namehistorian.util.Util;
+import lombok.Cleanup;
+
+import javax.annotation.Nullable;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Stores name history in a MySQL or MariaDB server, so several Minecraft servers can share one history.
+ * The JDBC driver is not bundled, Spigot already ships one.
+ * Each server serializes its own writes, and a player's current name row is locked while it is being changed
+ * so servers recording the same player at the same time don't overwrite each other.
+ * Current names are never cached, since another server may change them at any time.
+ */
+public final class MySqlNameHistoryStore extends AbstractJdbcStore {
+
+    private static final String READ_CURRENT_NAME_SQL = "" +
+            "SELECT `history_id`, `username`, `first_seen_time`\n" +
+            "FROM `current_name`\n" +
+            "WHERE `uuid` = ?\n" +
+            "FOR UPDATE;";
+    private static final String UPDATE_LAST_SEEN_SQL = "" +
+            "UPDATE `name_history`\n" +
+            "SET `last_seen_time` = GREATEST(`last_seen_time`, ?)\n" +
+            "WHERE `id` = ?;";
+    private static final String UPSERT_CURRENT_NAME_SQL = "" +
+            "INSERT INTO `current_name` (\n" +
+            "    `uuid`,\n" +
+            "    `history_id`,\n" +
+            "    `username`,\n" +
+            "    `first_seen_time`\n" +
+            ") VALUES (?, ?, ?, ?)\n" +
+            "ON DUPLICATE KEY UPDATE\n" +
+            "    `history_id` = VALUES(`history_id`),\n" +
+            "    `username` = VALUES(`username`),\n" +
+            "    `first_seen_time` = VALUES(`first_seen_time`);";
+
+    /**
+     * Connects to a database server, creating the tables if they don't exist.
+     * The connections stay open until {@link #close()} is called.
+     * @param url the JDBC URL, such as {@code jdbc:mysql://localhost:3306/namehistorian}
+     * @param username the database user, or null if the URL contains it
+     * @param password the database password, or null if the URL contains it
+     * @param poolSize the number of connections used for reads, must be at least 1.
+     *                 One additional connection is always kept open for writes.
+     * @throws SQLException if the database cannot be accessed or an error occurs when creating the tables
+     */
+    public MySqlNameHistoryStore(String url, @Nullable String username, @Nullable String password,
+                                 int poolSize) throws SQLException {
+        super(new ConnectionPool(() -> DriverManager.getConnection(url, username, password), poolSize, con -> { }), 0);
+        try {
+            pool.write(con -> {
+                createTables(con.getConnection());
+                return null;
+            });
+        } catch (SQLException | RuntimeException ex) {
+            pool.close();
+            throw ex;
+        }
+    }
+    private static void createTables(Connection con) throws SQLException {
+        for (String statement : Util.loadResource("mysql/schema.sql").split(";")) {
+            if (!Util.isBlank(statement)) {
+                @Cleanup Statement st = con.createStatement();
+                st.execute(statement);
+            }
+        }
+    }
+
+    @Override
+    protected String readCurrentNameSql() {
+        return READ_CURRENT_NAME_SQL;
+    }
+    @Override
+    protected String updateLastSeenSql() {
+        return UPDATE_LAST_SEEN_SQL;
+    }
+    @Override
+    protected String upsertCurrentNameSql() {
+        return UPSERT_CURRENT_NAME_SQL;
+    }
+
+}
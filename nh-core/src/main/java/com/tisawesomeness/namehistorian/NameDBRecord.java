@@ -10,7 +10,7 @@ import java.util.UUID;
 @Value
 public class NameDBRecord {
     int id;
-    String uuid;
+    UUID uuid;
     String username;
     long firstSeenTime;
     @Nullable Long detectedTime;
@@ -18,7 +18,7 @@ public class NameDBRecord {
 
     public NameRecord toNameRecord() {
         return new NameRecord(
-                UUID.fromString(uuid),
+                uuid,
                 username,
                 Instant.ofEpochMilli(firstSeenTime),
                 Util.mapNullable(detectedTime, Instant::ofEpochMilli),
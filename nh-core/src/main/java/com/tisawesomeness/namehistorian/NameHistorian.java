@@ -1,93 +1,138 @@
 package com.tisawesomeness.namehistorian;
 
-import com.tisawesomeness.namehistorian.util.Util;
-import lombok.Cleanup;
-import org.sqlite.SQLiteDataSource;
-
-import javax.annotation.Nullable;
-import javax.sql.DataSource;
 import java.nio.file.Path;
-import java.sql.*;
+import java.sql.SQLException;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-public final class NameHistorian {
-
-    private static final int VERSION = 0;
+/**
+ * Records and looks up player name history, kept in a {@link NameHistoryStore}.
+ * Every operation has a blocking version and an async version. The async versions run on a dedicated,
+ * bounded pool of query threads, so callers on a latency-sensitive thread never touch the store.
+ * Every store operation is counted and timed in {@link #getMetrics()}.
+ * Every recorded username is also kept in a {@link UsernameIndex} for prefix completion,
+ * which {@link #loadUsernameIndexAsync()} fills with the names recorded before startup.
+ */
+public final class NameHistorian implements AutoCloseable {
 
-    private static final String GET_VERSION_SQL = "" +
-            "SELECT `version` FROM `version`;";
-    private static final String READ_ALL_HISTORY_SQL = "" +
-            "SELECT `id`, `username`, `first_seen_time`, `detected_time`, `last_seen_time`\n" +
-            "FROM `name_history`\n" +
-            "WHERE `uuid` = ?\n" +
-            "ORDER BY `first_seen_time` DESC, `last_seen_time` DESC;";
-    private static final String READ_LATEST_UUID_SQL = "" +
-            "SELECT `id`, `username`, `first_seen_time`, `detected_time`, `last_seen_time`\n" +
-            "FROM `name_history`\n" +
-            "WHERE `uuid` = ?\n" +
-            "ORDER BY `first_seen_time` DESC\n" +
-            "LIMIT 1;";
-    private static final String READ_LATEST_USERNAME_SQL = "" +
-            "SELECT `id`, `uuid`, `first_seen_time`, `detected_time`, `last_seen_time`\n" +
-            "FROM `name_history`\n" +
-            "WHERE `username` = ?\n" +
-            "ORDER BY `first_seen_time` DESC\n" +
-            "LIMIT 1;";
-    private static final String UPDATE_LAST_SEEN_SQL = "" +
-            "UPDATE `name_history`\n" +
-            "SET `last_seen_time` = ?\n" +
-            "WHERE `id` = ?;";
-    private static final String INSERT_NAME_RECORD_SQL = "" +
-            "INSERT INTO `name_history` (\n" +
-            "    `uuid`,\n" +
-            "    `username`,\n" +
-            "    `first_seen_time`,\n" +
-            "    `detected_time`,\n" +
-            "    `last_seen_time`\n" +
-            ") VALUES (?, ?, ?, ?, ?);";
+    /** The default number of reader connections */
+    public static final int DEFAULT_POOL_SIZE = 4;
+    /** The default number of players whose current name is kept in memory */
+    public static final int DEFAULT_CACHE_SIZE = 10_000;
+    /** The default number of threads that run async operations */
+    public static final int DEFAULT_QUERY_THREADS = 2;
+    /** The default number of async operations that can wait for a query thread */
+    public static final int DEFAULT_QUERY_QUEUE_CAPACITY = 1000;
+    /** The default number of name records read from the store at a time during an export */
+    public static final int DEFAULT_EXPORT_FETCH_SIZE = 1000;
+    /** The default maximum number of distinct usernames kept in the username index */
+    public static final int DEFAULT_USERNAME_INDEX_SIZE = 500_000;
+    private static final long QUERY_SHUTDOWN_TIMEOUT_MILLIS = 5000;
 
-    private final DataSource source;
+    private final NameHistoryStore store;
+    private final ThreadPoolExecutor queryExecutor;
+    private final UsernameIndex usernameIndex;
+    private final ExecutorService indexLoader;
+    private final Metrics metrics = new Metrics();
+    private final Operation recordNameOp = new Operation("store.record_name");
+    private final Operation recordNamesOp = new Operation("store.record_names");
+    private final Operation getHistoryOp = new Operation("store.get_history");
+    private final Operation getHistoryPageOp = new Operation("store.get_history_page");
+    private final Operation getLatestByUsernameOp = new Operation("store.get_latest_by_username");
+    private final Operation getAllHoldersOfOp = new Operation("store.get_all_holders_of");
+    private final Operation getHoldersBetweenOp = new Operation("store.get_holders_between");
+    private final Operation exportBatchOp = new Operation("store.export_batch");
+    private final LatencyHistogram queryWait = metrics.histogram("query.wait");
+    private final LongAdder queryRejected = metrics.counter("query.rejected");
 
     /**
-     * Initializes NameHistorian by connecting to a SQLite database.
+     * Initializes NameHistorian by connecting to a SQLite database with the default pool and cache sizes
+     * and the {@link StorageProfile#DURABILITY durability} storage profile.
      * If the database doesn't exist, creates it.
      * @param databasePath the path to the database file
      * @throws SQLException if the database cannot be accessed, the parent folder doesn't exist,
      * or an error occurs when creating the table
-     * @throws IllegalStateException if the database is not at the correct version
+     * @throws IllegalStateException if the database is newer than this version of NameHistorian supports
+     * @see #NameHistorian(Path, int, int, StorageProfile)
      */
     public NameHistorian(Path databasePath) throws SQLException {
-        SQLiteDataSource ds = new SQLiteDataSource();
-        ds.setUrl("jdbc:sqlite:" + databasePath.toFile().getAbsolutePath());
-        source = ds;
-
-        runScript("schema.sql");
-        if (getVersion() != VERSION) {
-            throw new IllegalStateException("Database version is not " + VERSION);
-        }
+        this(databasePath, DEFAULT_POOL_SIZE, DEFAULT_CACHE_SIZE, StorageProfile.DURABILITY);
     }
-
-    private int getVersion() throws SQLException {
-        @Cleanup Connection con = source.getConnection();
-        @Cleanup Statement st = con.createStatement();
-        @Cleanup ResultSet rs = st.executeQuery(GET_VERSION_SQL);
-        if (!rs.next()) {
-            throw new IllegalStateException("Database version is not set");
-        }
-        return rs.getInt("version");
+    /**
+     * Initializes NameHistorian by connecting to a SQLite database.
+     * If the database doesn't exist, creates it. If the database is from an older version, upgrades it.
+     * The connections stay open until {@link #close()} is called.
+     * @param databasePath the path to the database file
+     * @param poolSize the number of connections used for reads, must be at least 1.
+     *                 One additional connection is always kept open for writes.
+     * @param cacheSize the number of players whose current name is kept in memory, 0 to disable
+     * @param profile the SQLite settings applied to every connection
+     * @throws SQLException if the database cannot be accessed, the parent folder doesn't exist,
+     * or an error occurs when creating or upgrading the tables
+     * @throws IllegalStateException if the database is newer than this version of NameHistorian supports
+     */
+    public NameHistorian(Path databasePath, int poolSize, int cacheSize, StorageProfile profile)
+            throws SQLException {
+        this(new SqliteNameHistoryStore(databasePath, poolSize, cacheSize, profile));
     }
-
-    private void runScript(String scriptName) throws SQLException {
-        String sql = Util.loadResource(scriptName);
-        @Cleanup Connection con = source.getConnection();
-        for (String statement : sql.split(";")) {
-            if (!Util.isBlank(statement)) {
-                @Cleanup Statement st = con.createStatement();
-                st.execute(statement);
-            }
+    /**
+     * Initializes NameHistorian with any store and the default number of query threads.
+     * @param store the store, closed when NameHistorian is closed
+     */
+    public NameHistorian(NameHistoryStore store) {
+        this(store, DEFAULT_QUERY_THREADS, DEFAULT_QUERY_QUEUE_CAPACITY);
+    }
+    /**
+     * Initializes NameHistorian with any store.
+     * @param store the store, closed when NameHistorian is closed
+     * @param queryThreads the number of threads that run async operations, must be at least 1
+     * @param queryQueueCapacity the maximum number of async operations waiting for a query thread, must be at least 1.
+     *                           Operations submitted while the queue is full fail with a
+     *                           {@link RejectedExecutionException}.
+     */
+    public NameHistorian(NameHistoryStore store, int queryThreads, int queryQueueCapacity) {
+        this(store, queryThreads, queryQueueCapacity, DEFAULT_USERNAME_INDEX_SIZE);
+    }
+    /**
+     * Initializes NameHistorian with any store.
+     * @param store the store, closed when NameHistorian is closed
+     * @param queryThreads the number of threads that run async operations, must be at least 1
+     * @param queryQueueCapacity the maximum number of async operations waiting for a query thread, must be at least 1.
+     *                           Operations submitted while the queue is full fail with a
+     *                           {@link RejectedExecutionException}.
+     * @param usernameIndexSize the maximum number of distinct usernames kept in the username index, 0 to disable it
+     */
+    public NameHistorian(NameHistoryStore store, int queryThreads, int queryQueueCapacity, int usernameIndexSize) {
+        if (queryThreads < 1) {
+            throw new IllegalArgumentException("queryThreads must be at least 1 but was " + queryThreads);
         }
+        this.store = store;
+        usernameIndex = new UsernameIndex(usernameIndexSize);
+        indexLoader = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "NameHistorian-Index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger threadCount = new AtomicInteger();
+        queryExecutor = new ThreadPoolExecutor(queryThreads, queryThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queryQueueCapacity), r -> {
+                    Thread thread = new Thread(r, "NameHistorian-Query-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        metrics.gauge("query.queued", () -> queryExecutor.getQueue().size());
+        metrics.gauge("query.active", queryExecutor::getActiveCount);
+        metrics.gauge("cache.hits", () -> store.getCacheStats().getHits());
+        metrics.gauge("cache.misses", () -> store.getCacheStats().getMisses());
+        metrics.gauge("username_index.size", usernameIndex::size);
+        metrics.gauge("username_index.bytes", usernameIndex::getSegmentBytes);
+        metrics.gauge("username_index.dropped", usernameIndex::getDropped);
     }
 
     /**
@@ -103,7 +148,26 @@ public final class NameHistorian {
         recordName(new NameRecord(uuid, username, now, null, now));
     }
     public void recordName(NameRecord nr) throws SQLException {
-        asTransaction(con -> recordName(con, nr));
+        recordNameOp.run(() -> {
+            store.recordName(nr);
+            return null;
+        });
+        usernameIndex.add(nr.getUsername());
+    }
+    /**
+     * Records a player name on a query thread.
+     * @param uuid the player's UUID
+     * @param username the player's username
+     * @return a future completed once the name is recorded
+     * @see #recordName(UUID, String)
+     */
+    public CompletableFuture<Void> recordNameAsync(UUID uuid, String username) {
+        Instant now = Instant.now();
+        NameRecord nr = new NameRecord(uuid, username, now, null, now);
+        return supplyAsync(() -> {
+            recordName(nr);
+            return null;
+        });
     }
 
     /**
@@ -120,60 +184,21 @@ public final class NameHistorian {
                 .collect(Collectors.toList());
         recordNameRecords(records);
     }
-    private void recordNameRecords(Collection<NameRecord> records) throws SQLException {
-        if (records.isEmpty()) {
-            return; // Skip making db connection
-        }
-        asTransaction(con -> {
-            for (NameRecord nr : records) {
-                recordName(con, nr);
-            }
+    /**
+     * Records a collection of name records in a single transaction.
+     * If the player was previously seen with the given username, updates the last seen time.
+     * Otherwise, records a name change.
+     * @param records the name records, in the order they were observed
+     * @throws SQLException on database error
+     */
+    public void recordNameRecords(Collection<NameRecord> records) throws SQLException {
+        recordNamesOp.run(() -> {
+            store.recordNameRecords(records);
+            return null;
         });
-    }
-
-    private static void recordName(Connection con, NameRecord recordToAdd) throws SQLException {
-        NameDBRecord latestRecord = findNameRecord(con, recordToAdd.getUuid());
-        if (latestRecord != null && latestRecord.getUsername().equals(recordToAdd.getUsername())) {
-            updateLastSeenTime(con, latestRecord.getId());
-        } else {
-            recordNewName(con, recordToAdd);
-        }
-    }
-
-    private static @Nullable NameDBRecord findNameRecord(Connection con, UUID uuid) throws SQLException {
-        @Cleanup PreparedStatement st = con.prepareStatement(READ_LATEST_UUID_SQL);
-        st.setString(1, uuid.toString());
-        @Cleanup ResultSet rs = st.executeQuery();
-        if (rs.next()) {
-            return readDBRecord(rs, uuid);
+        for (NameRecord nr : records) {
+            usernameIndex.add(nr.getUsername());
         }
-        return null;
-    }
-    private static @Nullable NameDBRecord findNameRecord(Connection con, String username) throws SQLException {
-        @Cleanup PreparedStatement st = con.prepareStatement(READ_LATEST_USERNAME_SQL);
-        st.setString(1, username);
-        @Cleanup ResultSet rs = st.executeQuery();
-        if (rs.next()) {
-            return readDBRecord(rs, username);
-        }
-        return null;
-    }
-
-    private static void updateLastSeenTime(Connection con, int id) throws SQLException {
-        @Cleanup PreparedStatement st = con.prepareStatement(UPDATE_LAST_SEEN_SQL);
-        st.setLong(1, System.currentTimeMillis());
-        st.setInt(2, id);
-        st.executeUpdate();
-    }
-
-    private static void recordNewName(Connection con, NameRecord nr) throws SQLException {
-        @Cleanup PreparedStatement st = con.prepareStatement(INSERT_NAME_RECORD_SQL);
-        st.setString(1, nr.getUuid().toString());
-        st.setString(2, nr.getUsername());
-        st.setLong(3, nr.getFirstSeenTime().toEpochMilli());
-        setNullableLong(st, 4, Util.mapNullable(nr.getRawDetectedTime(), Instant::toEpochMilli));
-        st.setLong(5, nr.getLastSeenTime().toEpochMilli());
-        st.executeUpdate();
     }
 
     /**
@@ -184,75 +209,326 @@ public final class NameHistorian {
      * @throws SQLException on database error
      */
     public List<NameRecord> getNameHistory(UUID uuid) throws SQLException {
-        @Cleanup Connection con = source.getConnection();
-        @Cleanup PreparedStatement st = con.prepareStatement(READ_ALL_HISTORY_SQL);
-        st.setString(1, uuid.toString());
-        @Cleanup ResultSet rs = st.executeQuery();
-        List<NameRecord> list = new ArrayList<>();
-        while (rs.next()) {
-            list.add(readDBRecord(rs, uuid).toNameRecord());
+        return getHistoryOp.run(() -> store.getNameHistory(uuid));
+    }
+    /**
+     * Gets the player's name history on a query thread.
+     * @param uuid the player's UUID
+     * @return a future completed with the name history
+     * @see #getNameHistory(UUID)
+     */
+    public CompletableFuture<List<NameRecord>> getNameHistoryAsync(UUID uuid) {
+        return supplyAsync(() -> getNameHistory(uuid));
+    }
+
+    /**
+     * Gets one page of the player's name history, most recent first.
+     * @param uuid the player's UUID
+     * @param after {@link HistoryCursor#START} for the first page, or {@link HistoryPage#getNext()} of the previous page
+     * @param pageSize the maximum number of records on the page, must be at least 1
+     * @return the page, with the cursor of the next page and the player's total number of records
+     * @throws SQLException on database error
+     */
+    public HistoryPage getNameHistoryPage(UUID uuid, HistoryCursor after, int pageSize) throws SQLException {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be at least 1 but was " + pageSize);
+        }
+        return getHistoryPageOp.run(() -> store.getNameHistoryPage(uuid, after, pageSize));
+    }
+    /**
+     * Gets a numbered page of the player's name history, most recent first.
+     * Pages are read with cursors, so this reads every page up to the requested one,
+     * but only keeps one page in memory at a time. Meant for the small page numbers a player types into a command.
+     * @param uuid the player's UUID
+     * @param page the page number, starting at 1
+     * @param pageSize the maximum number of records on each page, must be at least 1
+     * @return the page, with no records if the page number is past the last page
+     * @throws SQLException on database error
+     */
+    public HistoryPage getNameHistoryPage(UUID uuid, int page, int pageSize) throws SQLException {
+        if (page < 1) {
+            throw new IllegalArgumentException("page must be at least 1 but was " + page);
+        }
+        HistoryPage current = getNameHistoryPage(uuid, HistoryCursor.START, pageSize);
+        for (int i = 1; i < page; i++) {
+            HistoryCursor next = current.getNext();
+            if (next == null) {
+                return new HistoryPage(new ArrayList<>(), null, current.getTotalCount());
+            }
+            current = getNameHistoryPage(uuid, next, pageSize);
         }
-        return list;
+        return current;
+    }
+    /**
+     * Gets a numbered page of the player's name history on a query thread.
+     * @param uuid the player's UUID
+     * @param page the page number, starting at 1
+     * @param pageSize the maximum number of records on each page, must be at least 1
+     * @return a future completed with the page
+     * @see #getNameHistoryPage(UUID, int, int)
+     */
+    public CompletableFuture<HistoryPage> getNameHistoryPageAsync(UUID uuid, int page, int pageSize) {
+        return supplyAsync(() -> getNameHistoryPage(uuid, page, pageSize));
     }
 
     /**
-     * Gets the most recent name record containing the given username.
+     * Gets the most recent name record containing the given username, ignoring case.
      * @param username the username
      * @return the name record, or empty if the username has never been seen
      * @throws SQLException on database error
      */
     public Optional<NameRecord> getLatestByUsername(String username) throws SQLException {
-        @Cleanup Connection con = source.getConnection();
-        return Optional.ofNullable(findNameRecord(con, username)).map(NameDBRecord::toNameRecord);
+        return getLatestByUsernameOp.run(() -> store.getLatestByUsername(username));
+    }
+    /**
+     * Gets the most recent name record containing the given username, ignoring case, on a query thread.
+     * @param username the username
+     * @return a future completed with the name record, or empty if the username has never been seen
+     * @see #getLatestByUsername(String)
+     */
+    public CompletableFuture<Optional<NameRecord>> getLatestByUsernameAsync(String username) {
+        return supplyAsync(() -> getLatestByUsername(username));
     }
 
-    private static NameDBRecord readDBRecord(ResultSet rs, UUID uuid) throws SQLException {
-        return new NameDBRecord(
-                rs.getInt("id"),
-                uuid.toString(),
-                rs.getString("username"),
-                rs.getLong("first_seen_time"),
-                readNullableLong(rs, "detected_time"),
-                rs.getLong("last_seen_time")
-        );
-    }
-    private static NameDBRecord readDBRecord(ResultSet rs, String username) throws SQLException {
-        return new NameDBRecord(
-                rs.getInt("id"),
-                rs.getString("uuid"),
-                username,
-                rs.getLong("first_seen_time"),
-                readNullableLong(rs, "detected_time"),
-                rs.getLong("last_seen_time")
-        );
+    /**
+     * Gets every name record containing the given username, ignoring case, across all players.
+     * Reads only the records for that username, so it stays fast however large the history grows.
+     * @param username the username
+     * @return the name records, most recent first, or empty if the username has never been seen
+     * @throws SQLException on database error
+     * @see NameHistoryStore#getAllHoldersOf(String)
+     */
+    public List<NameRecord> getAllHoldersOf(String username) throws SQLException {
+        return getAllHoldersOfOp.run(() -> store.getAllHoldersOf(username));
+    }
+    /**
+     * Gets every name record containing the given username, ignoring case, across all players, on a query thread.
+     * @param username the username
+     * @return a future completed with the name records, most recent first
+     * @see #getAllHoldersOf(String)
+     */
+    public CompletableFuture<List<NameRecord>> getAllHoldersOfAsync(String username) {
+        return supplyAsync(() -> getAllHoldersOf(username));
+    }
+
+    /**
+     * Gets the name records of the players seen with the given username, ignoring case, at an instant.
+     * Players are only known to hold a name from when they were first seen with it until they were last seen with it,
+     * so an instant between a player's last sighting and their next name change finds nobody.
+     * @param username the username
+     * @param time the instant
+     * @return the name records, usually at most one, most recent first
+     * @throws SQLException on database error
+     * @see NameHistoryStore#getHoldersBetween(String, Instant, Instant)
+     */
+    public List<NameRecord> getHoldersAt(String username, Instant time) throws SQLException {
+        return getHoldersBetween(username, time, time);
+    }
+    /**
+     * Gets the name records of the players seen with the given username, ignoring case, at any point in a time range.
+     * @param username the username
+     * @param start the start of the range, inclusive
+     * @param end the end of the range, inclusive
+     * @return the name records, most recent first
+     * @throws SQLException on database error
+     * @throws IllegalArgumentException if {@code end} is before {@code start}
+     * @see NameHistoryStore#getHoldersBetween(String, Instant, Instant)
+     */
+    public List<NameRecord> getHoldersBetween(String username, Instant start, Instant end) throws SQLException {
+        if (end.isBefore(start)) {
+            throw new IllegalArgumentException("end " + end + " is before start " + start);
+        }
+        return getHoldersBetweenOp.run(() -> store.getHoldersBetween(username, start, end));
+    }
+    /**
+     * Gets the name records of the players seen with the given username, ignoring case, at any point in a time range,
+     * on a query thread.
+     * @param username the username
+     * @param start the start of the range, inclusive
+     * @param end the end of the range, inclusive
+     * @return a future completed with the name records, most recent first
+     * @see #getHoldersBetween(String, Instant, Instant)
+     */
+    public CompletableFuture<List<NameRecord>> getHoldersBetweenAsync(String username, Instant start, Instant end) {
+        return supplyAsync(() -> getHoldersBetween(username, start, end));
+    }
+
+    /**
+     * Streams every name record, in the order they were first recorded, with the default fetch size.
+     * @return a lazy stream of name records
+     * @see #exportAll(int)
+     */
+    public Stream<NameRecord> exportAll() {
+        return exportAll(DEFAULT_EXPORT_FETCH_SIZE);
+    }
+    /**
+     * Streams every name record, in the order they were first recorded.
+     * The stream is lazy: records are read from the store one batch at a time as the stream is consumed,
+     * so memory use doesn't grow with the amount of history, and names can still be recorded between batches.
+     * Records added while the stream is consumed may or may not be included.
+     * The stream runs on the calling thread, so don't consume it on a latency-sensitive thread.
+     * @param fetchSize the number of records read from the store at a time, must be at least 1
+     * @return a lazy stream of name records, which throws {@link UncheckedSQLException} on database error
+     */
+    public Stream<NameRecord> exportAll(int fetchSize) {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("fetchSize must be at least 1 but was " + fetchSize);
+        }
+        Spliterator<NameRecord> spliterator = Spliterators.spliteratorUnknownSize(new ExportIterator(fetchSize),
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false);
+    }
+
+    /**
+     * Gets the index of every username recorded since startup, plus those loaded by
+     * {@link #loadUsernameIndexAsync()}. Lookups are in memory, so it's safe to use on a latency-sensitive thread.
+     * @return the username index
+     */
+    public UsernameIndex getUsernameIndex() {
+        return usernameIndex;
+    }
+    /**
+     * Loads every username in the store into the username index on a background thread,
+     * reading the store in batches like {@link #exportAll()}. Names recorded during the load are indexed as usual.
+     * Query threads are not used, so a long load doesn't hold up other operations.
+     * @return a future completed once every name is loaded, which fails with {@link UncheckedSQLException}
+     * on database error, or with a {@link CancellationException} if NameHistorian is closed during the load
+     */
+    public CompletableFuture<Void> loadUsernameIndexAsync() {
+        return CompletableFuture.runAsync(() -> {
+            try (Stream<NameRecord> records = exportAll()) {
+                usernameIndex.addAll(records.map(NameRecord::getUsername).iterator());
+            }
+        }, indexLoader);
     }
 
-    private static @Nullable Long readNullableLong(ResultSet rs, String column) throws SQLException {
-        long l = rs.getLong(column);
-        return rs.wasNull() ? null : l;
-    }
-    private static void setNullableLong(PreparedStatement st, int index, @Nullable Long value) throws SQLException {
-        if (value == null) {
-            st.setNull(index, Types.INTEGER);
-        } else {
-            st.setLong(index, value);
+    /**
+     * Runs an operation on a query thread.
+     * The returned future fails with the {@link SQLException} thrown by the store, unwrapped,
+     * or with a {@link RejectedExecutionException} if the queue is full or NameHistorian is closed.
+     */
+    private <T> CompletableFuture<T> supplyAsync(SqlSupplier<T> operation) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long submitted = System.nanoTime();
+        try {
+            queryExecutor.execute(() -> {
+                queryWait.recordSince(submitted);
+                try {
+                    future.complete(operation.get());
+                } catch (SQLException | RuntimeException ex) {
+                    future.completeExceptionally(ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            queryRejected.increment();
+            future.completeExceptionally(ex);
         }
+        return future;
+    }
+
+    /**
+     * Gets the metrics of this NameHistorian. Every store operation has a latency histogram named
+     * {@code store.<operation>} and an error counter named {@code store.<operation>.errors},
+     * and async operations record how long they waited for a query thread in {@code query.wait}.
+     * Other components may register their own metrics here to have them shown together.
+     * @return the metrics registry
+     */
+    public Metrics getMetrics() {
+        return metrics;
     }
 
-    private void asTransaction(SqlFunction func) throws SQLException {
-        @Cleanup Connection con = source.getConnection();
-        con.setAutoCommit(false);
+    /**
+     * Gets the hit and miss counts of the store's current name cache, which is checked every time a name is recorded.
+     * @return the cache stats
+     */
+    public CacheStats getCacheStats() {
+        return store.getCacheStats();
+    }
+
+    /**
+     * Waits for async operations that were already submitted to finish, then closes the store.
+     * A username index load that is still running is stopped.
+     * Any method called after this will throw a {@link SQLException},
+     * and any async method will return a future that fails with a {@link RejectedExecutionException}.
+     * @throws SQLException if the store could not be closed
+     */
+    @Override
+    public void close() throws SQLException {
+        // Loading the index can take a while, stop it instead of waiting
+        indexLoader.shutdownNow();
+        queryExecutor.shutdown();
         try {
-            func.accept(con);
-            con.commit();
-        } catch (Exception e) {
-            con.rollback();
-            throw e;
+            if (!queryExecutor.awaitTermination(QUERY_SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                queryExecutor.shutdownNow();
+            }
+        } catch (InterruptedException ex) {
+            queryExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
         }
+        store.close();
     }
+
+    private class ExportIterator implements Iterator<NameRecord> {
+        private final int fetchSize;
+        private Iterator<NameRecord> batch = Collections.emptyIterator();
+        private long cursor;
+        private boolean lastBatch;
+
+        private ExportIterator(int fetchSize) {
+            this.fetchSize = fetchSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!batch.hasNext() && !lastBatch) {
+                ExportBatch next;
+                try {
+                    next = exportBatchOp.run(() -> store.readExportBatch(cursor, fetchSize));
+                } catch (SQLException ex) {
+                    throw new UncheckedSQLException(ex);
+                }
+                batch = next.getRecords().iterator();
+                cursor = next.getCursor();
+                lastBatch = next.getRecords().size() < fetchSize;
+            }
+            return batch.hasNext();
+        }
+
+        @Override
+        public NameRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return batch.next();
+        }
+    }
+
+    /** Times one kind of store operation and counts its failures */
+    private final class Operation {
+        private final LatencyHistogram latency;
+        private final LongAdder errors;
+
+        private Operation(String name) {
+            latency = metrics.histogram(name);
+            errors = metrics.counter(name + ".errors");
+        }
+
+        private <T> T run(SqlSupplier<T> operation) throws SQLException {
+            long start = System.nanoTime();
+            try {
+                return operation.get();
+            } catch (SQLException | RuntimeException ex) {
+                errors.increment();
+                throw ex;
+            } finally {
+                latency.recordSince(start);
+            }
+        }
+    }
+
     @FunctionalInterface
-    private interface SqlFunction {
-        void accept(Connection con) throws SQLException;
+    private interface SqlSupplier<T> {
+        T get() throws SQLException;
     }
 
 }
@@ -0,0 +1,116 @@
+package com.tisawesomeness.namehistorian;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.OptionalLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports every name record to a gzipped NDJSON file, one object per line with the keys {@code uuid},
+ * {@code username}, {@code first_seen}, {@code detected} (only if known), and {@code last_seen},
+ * with times as epoch milliseconds. Once decompressed, the file can be read by {@link NameHistoryImporter}.
+ * <p>
+ * Records are streamed from the store one batch at a time with {@link NameHistorian#exportAll(int)},
+ * so memory use doesn't grow with the amount of history. The export is written to a temporary file
+ * and only moved into place once complete, so a cancelled or failed export never leaves a partial file behind.
+ */
+public final class NameHistoryExporter {
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final NameHistorian historian;
+    private final Path file;
+    private final int fetchSize;
+    private volatile boolean cancelled;
+
+    /**
+     * Prepares an export. Nothing is read until {@link #run(Listener)} is called.
+     * @param historian the historian to read names from
+     * @param file the file to write, replaced if it exists
+     * @param fetchSize the number of records read from the store at a time, must be at least 1
+     */
+    public NameHistoryExporter(NameHistorian historian, Path file, int fetchSize) {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("fetchSize must be at least 1 but was " + fetchSize);
+        }
+        this.historian = historian;
+        this.file = file;
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Exports on the calling thread, which should not be a latency-sensitive thread.
+     * @param listener notified after every batch
+     * @return the number of records exported, or empty if the export was cancelled
+     * @throws IOException if the file could not be written
+     * @throws UncheckedSQLException if the names could not be read
+     */
+    public OptionalLong run(Listener listener) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long exported = 0;
+        try {
+            try (Stream<NameRecord> records = historian.exportAll(fetchSize);
+                 Writer writer = new OutputStreamWriter(new GZIPOutputStream(
+                         new BufferedOutputStream(Files.newOutputStream(temp)), WRITE_BUFFER_SIZE),
+                         StandardCharsets.UTF_8)) {
+                // Lenient allows one top-level object per line, the writer writes straight through without buffering
+                JsonWriter json = new JsonWriter(writer);
+                json.setLenient(true);
+                Iterator<NameRecord> it = records.iterator();
+                while (!cancelled && it.hasNext()) {
+                    writeJson(json, it.next());
+                    writer.write('\n');
+                    exported++;
+                    if (exported % fetchSize == 0) {
+                        listener.onProgress(exported);
+                    }
+                }
+            }
+            if (cancelled) {
+                Files.delete(temp);
+                return OptionalLong.empty();
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(temp);
+            throw ex;
+        }
+        listener.onProgress(exported);
+        return OptionalLong.of(exported);
+    }
+
+    /**
+     * Stops the export before its next record. Nothing is written.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private static void writeJson(JsonWriter json, NameRecord nr) throws IOException {
+        json.beginObject();
+        json.name("uuid").value(nr.getUuid().toString());
+        json.name("username").value(nr.getUsername());
+        json.name("first_seen").value(nr.getFirstSeenTime().toEpochMilli());
+        if (nr.getRawDetectedTime() != null) {
+            json.name("detected").value(nr.getRawDetectedTime().toEpochMilli());
+        }
+        json.name("last_seen").value(nr.getLastSeenTime().toEpochMilli());
+        json.endObject();
+    }
+
+    public interface Listener {
+        /**
+         * Called on the exporting thread after every batch and once more when the export finishes.
+         * @param exported the number of records exported so far
+         */
+        default void onProgress(long exported) { }
+    }
+
+}
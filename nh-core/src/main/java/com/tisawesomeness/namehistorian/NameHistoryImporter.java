@@ -0,0 +1,401 @@
+package com.tisawesomeness.namehistorian;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.tisawesomeness.namehistorian.util.Util;
+import lombok.Value;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * Imports name history exported by other plugins, one row per line, without reading the whole file into memory.
+ * <p>
+ * Two formats are supported, both with the columns {@code uuid}, {@code username}, {@code first_seen},
+ * and {@code last_seen}, with times as epoch milliseconds or ISO-8601 instants:
+ * <ul>
+ *     <li>CSV, in that column order, with an optional header line</li>
+ *     <li>NDJSON, one object per line with those keys and an optional {@code detected} time,
+ *     as written by {@link NameHistoryExporter}</li>
+ * </ul>
+ * Rows are recorded in batches, one transaction per batch. After every batch, the position in the file is saved
+ * to a progress file next to it, so an interrupted import continues where it left off when run again.
+ * The progress file is deleted once the import finishes.
+ * Invalid rows are skipped and reported to the listener.
+ */
+public final class NameHistoryImporter {
+
+    /** The default number of rows recorded in one transaction */
+    public static final int DEFAULT_BATCH_SIZE = 5000;
+    private static final int MAX_LINE_BYTES = 64 * 1024;
+    private static final int MAX_USERNAME_LENGTH = 32;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final NameHistorian historian;
+    private final Path file;
+    private final Format format;
+    private final int batchSize;
+    private volatile boolean cancelled;
+
+    /**
+     * Prepares an import. Nothing is read until {@link #run(Listener)} is called.
+     * @param historian the historian to record names with
+     * @param file the file to import
+     * @param format the file's format
+     * @param batchSize the number of rows recorded in one transaction, must be at least 1
+     */
+    public NameHistoryImporter(NameHistorian historian, Path file, Format format, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1 but was " + batchSize);
+        }
+        this.historian = historian;
+        this.file = file;
+        this.format = format;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Gets the file the import position is saved to, next to the imported file.
+     * @return the path to the progress file
+     */
+    public Path getProgressFile() {
+        return file.resolveSibling(file.getFileName() + ".progress");
+    }
+
+    /**
+     * Imports the file on the calling thread, which should not be a latency-sensitive thread.
+     * Continues from the saved position if a previous import of the same file was interrupted.
+     * @param listener notified after every batch and for every invalid row
+     * @return the final progress, not complete if the import was cancelled
+     * @throws IOException if the file could not be read or the progress could not be saved
+     * @throws SQLException if a batch could not be recorded, the import can be resumed from the last batch
+     */
+    public Progress run(Listener listener) throws IOException, SQLException {
+        long totalBytes = Files.size(file);
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        Progress progress = readProgress(totalBytes, lastModified);
+        if (progress == null) {
+            progress = new Progress(0, totalBytes, 0, 0, 0, false);
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.position(progress.getBytesRead());
+            LineReader reader = new LineReader(Channels.newInputStream(channel), progress.getBytesRead());
+            long linesRead = progress.getLinesRead();
+            long imported = progress.getImported();
+            long skipped = progress.getSkipped();
+            List<NameRecord> batch = new ArrayList<>(batchSize);
+
+            String line;
+            while (!cancelled && (line = reader.readLine()) != null) {
+                linesRead++;
+                if (line.isEmpty() || (linesRead == 1 && isHeader(line))) {
+                    continue;
+                }
+                try {
+                    if (reader.isTooLong()) {
+                        throw new InvalidRowException("Line is longer than " + MAX_LINE_BYTES + " bytes");
+                    }
+                    batch.add(format == Format.CSV ? parseCsv(line) : parseJson(line));
+                } catch (InvalidRowException ex) {
+                    skipped++;
+                    listener.onInvalidRow(linesRead, ex.getMessage());
+                }
+                if (batch.size() >= batchSize) {
+                    historian.recordNameRecords(batch);
+                    imported += batch.size();
+                    batch.clear();
+                    progress = new Progress(reader.getOffset(), totalBytes, linesRead, imported, skipped, false);
+                    writeProgress(progress, lastModified);
+                    listener.onProgress(progress);
+                }
+            }
+            if (!batch.isEmpty()) {
+                historian.recordNameRecords(batch);
+                imported += batch.size();
+            }
+            boolean complete = !cancelled;
+            progress = new Progress(reader.getOffset(), totalBytes, linesRead, imported, skipped, complete);
+        }
+        if (progress.isComplete()) {
+            Files.deleteIfExists(getProgressFile());
+        } else {
+            writeProgress(progress, lastModified);
+        }
+        listener.onProgress(progress);
+        return progress;
+    }
+
+    /**
+     * Stops the import after the current batch. The import can be resumed later by running it again.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private boolean isHeader(String line) {
+        return format == Format.CSV && line.toLowerCase(Locale.ROOT).startsWith("uuid");
+    }
+
+    private static NameRecord parseCsv(String line) throws InvalidRowException {
+        String[] fields = line.split(",", -1);
+        if (fields.length < 4) {
+            throw new InvalidRowException("Expected 4 columns but found " + fields.length);
+        }
+        return toRecord(unquote(fields[0]), unquote(fields[1]), unquote(fields[2]), null, unquote(fields[3]));
+    }
+    private static String unquote(String field) {
+        String trimmed = field.trim();
+        if (trimmed.length() >= 2 && trimmed.startsWith("\"") && trimmed.endsWith("\"")) {
+            return trimmed.substring(1, trimmed.length() - 1);
+        }
+        return trimmed;
+    }
+
+    private static NameRecord parseJson(String line) throws InvalidRowException {
+        Map<String, String> values = new HashMap<>();
+        try (JsonReader reader = new JsonReader(new StringReader(line))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                JsonToken token = reader.peek();
+                if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+                    // Numbers are read as strings so millisecond timestamps keep full precision
+                    values.put(key, reader.nextString());
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException ex) {
+            throw new InvalidRowException("Malformed JSON: " + ex.getMessage());
+        }
+        return toRecord(values.get("uuid"), values.get("username"), values.get("first_seen"), values.get("detected"),
+                values.get("last_seen"));
+    }
+
+    private static NameRecord toRecord(@Nullable String uuidStr, @Nullable String username,
+                                       @Nullable String firstSeenStr, @Nullable String detectedStr,
+                                       @Nullable String lastSeenStr) throws InvalidRowException {
+        if (uuidStr == null) {
+            throw new InvalidRowException("Missing uuid");
+        }
+        UUID uuid = Util.parseUUID(uuidStr)
+                .orElseThrow(() -> new InvalidRowException("Invalid uuid: " + uuidStr));
+        if (username == null || Util.isBlank(username) || username.length() > MAX_USERNAME_LENGTH) {
+            throw new InvalidRowException("Invalid username: " + username);
+        }
+        Instant firstSeen = parseTime("first_seen", firstSeenStr);
+        Instant lastSeen = parseTime("last_seen", lastSeenStr);
+        if (lastSeen.isBefore(firstSeen)) {
+            throw new InvalidRowException("last_seen is before first_seen");
+        }
+        Instant detected = detectedStr == null ? null : parseTime("detected", detectedStr);
+        return new NameRecord(uuid, username, firstSeen, detected, lastSeen);
+    }
+    private static Instant parseTime(String column, @Nullable String str) throws InvalidRowException {
+        if (str == null || str.isEmpty()) {
+            throw new InvalidRowException("Missing " + column);
+        }
+        try {
+            return Instant.ofEpochMilli(Long.parseLong(str));
+        } catch (NumberFormatException ignored) {
+            // Not milliseconds, try ISO-8601
+        }
+        try {
+            return Instant.parse(str);
+        } catch (DateTimeParseException ex) {
+            throw new InvalidRowException("Invalid " + column + ": " + str);
+        }
+    }
+
+    private @Nullable Progress readProgress(long totalBytes, long lastModified) throws IOException {
+        Path progressFile = getProgressFile();
+        if (!Files.exists(progressFile)) {
+            return null;
+        }
+        Properties props = new Properties();
+        try (Reader reader = Files.newBufferedReader(progressFile, StandardCharsets.UTF_8)) {
+            props.load(reader);
+        }
+        try {
+            // The file was changed since the last import, the saved position means nothing anymore
+            if (Long.parseLong(props.getProperty("size")) != totalBytes
+                    || Long.parseLong(props.getProperty("modified")) != lastModified) {
+                return null;
+            }
+            return new Progress(
+                    Long.parseLong(props.getProperty("offset")),
+                    totalBytes,
+                    Long.parseLong(props.getProperty("lines")),
+                    Long.parseLong(props.getProperty("imported")),
+                    Long.parseLong(props.getProperty("skipped")),
+                    false
+            );
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+    private void writeProgress(Progress progress, long lastModified) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("size", String.valueOf(progress.getTotalBytes()));
+        props.setProperty("modified", String.valueOf(lastModified));
+        props.setProperty("offset", String.valueOf(progress.getBytesRead()));
+        props.setProperty("lines", String.valueOf(progress.getLinesRead()));
+        props.setProperty("imported", String.valueOf(progress.getImported()));
+        props.setProperty("skipped", String.valueOf(progress.getSkipped()));
+        Path progressFile = getProgressFile();
+        Path temp = progressFile.resolveSibling(progressFile.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            props.store(writer, "NameHistorian import progress for " + file.getFileName());
+        }
+        Files.move(temp, progressFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public enum Format {
+        CSV, NDJSON;
+
+        /**
+         * Guesses the format from a file extension: .csv, .ndjson, .jsonl, or .json.
+         * @param fileName the file name
+         * @return the format, or empty if the extension isn't known
+         */
+        public static Optional<Format> fromFileName(String fileName) {
+            String lower = fileName.toLowerCase(Locale.ROOT);
+            if (lower.endsWith(".csv")) {
+                return Optional.of(CSV);
+            }
+            if (lower.endsWith(".ndjson") || lower.endsWith(".jsonl") || lower.endsWith(".json")) {
+                return Optional.of(NDJSON);
+            }
+            return Optional.empty();
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Called on the importing thread after every recorded batch and once more when the import ends.
+         * @param progress the progress so far
+         */
+        default void onProgress(Progress progress) { }
+        /**
+         * Called on the importing thread for every row that could not be imported.
+         * @param line the line number, starting at 1
+         * @param reason why the row is invalid
+         */
+        default void onInvalidRow(long line, String reason) { }
+    }
+
+    @Value
+    public static class Progress {
+        /** The number of bytes of the file that were read and recorded */
+        long bytesRead;
+        /** The size of the file in bytes */
+        long totalBytes;
+        /** The number of lines read, including the header and invalid lines */
+        long linesRead;
+        /** The number of rows recorded */
+        long imported;
+        /** The number of invalid rows skipped */
+        long skipped;
+        /** Whether the whole file was imported */
+        boolean complete;
+
+        /**
+         * Gets how much of the file was imported.
+         * @return the fraction of bytes read, from 0 to 1
+         */
+        public double getFraction() {
+            return totalBytes == 0 ? 1 : (double) bytesRead / totalBytes;
+        }
+    }
+
+    private static class InvalidRowException extends Exception {
+        private InvalidRowException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * Reads UTF-8 lines while keeping track of the byte offset, which {@link BufferedReader} can't do.
+     * Lines longer than the maximum are cut off rather than buffered, and flagged as too long.
+     */
+    private static class LineReader {
+        private final InputStream in;
+        private final byte[] chunk = new byte[READ_BUFFER_SIZE];
+        private int pos;
+        private int limit;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        private boolean tooLong;
+        private long offset;
+
+        private LineReader(InputStream in, long offset) {
+            this.in = in;
+            this.offset = offset;
+        }
+
+        private long getOffset() {
+            return offset;
+        }
+        private boolean isTooLong() {
+            return tooLong;
+        }
+
+        private @Nullable String readLine() throws IOException {
+            line.reset();
+            tooLong = false;
+            boolean readAny = false;
+            while (true) {
+                if (pos == limit) {
+                    limit = Math.max(0, in.read(chunk));
+                    pos = 0;
+                    if (limit == 0) {
+                        return readAny ? toLine() : null;
+                    }
+                }
+                readAny = true;
+                int start = pos;
+                while (pos < limit && chunk[pos] != '\n') {
+                    pos++;
+                }
+                append(start, pos - start);
+                if (pos < limit) {
+                    pos++; // Newline
+                    offset += pos - start;
+                    return toLine();
+                }
+                offset += pos - start;
+            }
+        }
+        private void append(int start, int length) {
+            int room = MAX_LINE_BYTES - line.size();
+            if (length > room) {
+                tooLong = true;
+            }
+            line.write(chunk, start, Math.min(length, room));
+        }
+        private String toLine() {
+            String str = new String(line.toByteArray(), StandardCharsets.UTF_8);
+            if (str.endsWith("\r")) {
+                str = str.substring(0, str.length() - 1);
+            }
+            // Byte order mark some editors add to the start of the file
+            if (str.startsWith("\uFEFF")) {
+                str = str.substring(1);
+            }
+            return str;
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.tisawesomeness.namehistorian;
+
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Where name history is kept. {@link NameHistorian} does all reads and writes through a store.
+ * Implementations must be thread-safe.
+ * Stores that aren't backed by a database still use {@link SQLException} to report errors.
+ */
+public interface NameHistoryStore extends AutoCloseable {
+
+    /**
+     * Records a single name record.
+     * If the player's current name has the same username, updates its last seen time.
+     * Otherwise, records a name change.
+     * @param nr the name record
+     * @throws SQLException on storage error
+     */
+    void recordName(NameRecord nr) throws SQLException;
+
+    /**
+     * Records a collection of name records atomically, as if each was passed to {@link #recordName(NameRecord)}
+     * in iteration order.
+     * @param records the name records, in the order they were observed
+     * @throws SQLException on storage error
+     */
+    void recordNameRecords(Collection<NameRecord> records) throws SQLException;
+
+    /**
+     * Gets a player's name history, ordered by first seen time, then last seen time, then insertion order,
+     * most recent first.
+     * @param uuid the player's UUID
+     * @return a list of name records or empty if the player has never been seen
+     * @throws SQLException on storage error
+     */
+    List<NameRecord> getNameHistory(UUID uuid) throws SQLException;
+
+    /**
+     * Gets one page of a player's name history, in the same order as {@link #getNameHistory(UUID)}.
+     * Pages are found with the cursor rather than an offset, so reading a page only reads that page's records.
+     * @param uuid the player's UUID
+     * @param after {@link HistoryCursor#START} for the first page, or the cursor of the previous page
+     * @param limit the maximum number of records on the page, must be at least 1
+     * @return the page, with no records if the player has never been seen or the cursor is past the last record
+     * @throws SQLException on storage error
+     */
+    HistoryPage getNameHistoryPage(UUID uuid, HistoryCursor after, int limit) throws SQLException;
+
+    /**
+     * Gets the most recent name record containing the given username, ignoring case.
+     * @param username the username
+     * @return the name record, or empty if the username has never been seen
+     * @throws SQLException on storage error
+     */
+    Optional<NameRecord> getLatestByUsername(String username) throws SQLException;
+
+    /**
+     * Gets every name record containing the given username, ignoring case, across all players.
+     * A player who held the name more than once has a record for each time.
+     * @param username the username
+     * @return the name records ordered by first seen time, then insertion order, most recent first,
+     * so the first record is the one returned by {@link #getLatestByUsername(String)}.
+     * Empty if the username has never been seen.
+     * @throws SQLException on storage error
+     */
+    List<NameRecord> getAllHoldersOf(String username) throws SQLException;
+
+    /**
+     * Gets the name records containing the given username, ignoring case, that were seen at some point in a time range.
+     * A record covers its first seen time through its last seen time, inclusive, with millisecond precision.
+     * Pass the same instant twice to find who held the name at that instant.
+     * @param username the username
+     * @param start the start of the range, inclusive
+     * @param end the end of the range, inclusive, not before {@code start}
+     * @return the name records whose range overlaps the given range, in the same order as
+     * {@link #getAllHoldersOf(String)}, or empty if nobody was seen with the username then
+     * @throws SQLException on storage error
+     */
+    List<NameRecord> getHoldersBetween(String username, Instant start, Instant end) throws SQLException;
+
+    /**
+     * Reads the next batch of every name record in the store, for exports.
+     * Records are read in the order they were first recorded, and the store is only locked while a batch is read,
+     * so names can be recorded between batches. Records added during an export may or may not be included.
+     * @param cursor 0 to read the first batch, or the cursor of the previous batch
+     * @param limit the maximum number of records to read, must be at least 1
+     * @return the batch, with fewer than {@code limit} records once the end is reached
+     * @throws SQLException on storage error
+     */
+    ExportBatch readExportBatch(long cursor, int limit) throws SQLException;
+
+    /**
+     * Gets the hit and miss counts of the store's current name cache.
+     * @return the cache stats, or {@link CacheStats#NONE} if the store doesn't cache current names
+     */
+    default CacheStats getCacheStats() {
+        return CacheStats.NONE;
+    }
+
+    /**
+     * Releases all resources held by the store. Any method called after this will throw a {@link SQLException}.
+     * @throws SQLException if the store could not be closed cleanly
+     */
+    @Override
+    void close() throws SQLException;
+
+}
@@ -0,0 +1,210 @@
+package com.tisawesomeness.namehistorian;
+
+import com.tisawesomeness.namehistorian.util.Util;
+import lombok.Cleanup;
+import org.sqlite.SQLiteDataSource;
+
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Stores name history in a local SQLite database file.
+ * SQLite only allows one writer at a time, so writes go through a single connection
+ * while reads are spread across a pool of reader connections.
+ */
+public final class SqliteNameHistoryStore extends AbstractJdbcStore {
+
+    // Below this many records, creating and clearing the staging table costs more than it saves
+    private static final int STAGING_THRESHOLD = 32;
+
+    private static final String READ_CURRENT_NAME_SQL = "" +
+            "SELECT `history_id`, `username`, `first_seen_time`\n" +
+            "FROM `current_name`\n" +
+            "WHERE `uuid` = ?;";
+    private static final String UPDATE_LAST_SEEN_SQL = "" +
+            "UPDATE `name_history`\n" +
+            "SET `last_seen_time` = MAX(`last_seen_time`, ?)\n" +
+            "WHERE `id` = ?;";
+    private static final String UPSERT_CURRENT_NAME_SQL = "" +
+            "INSERT OR REPLACE INTO `current_name` (\n" +
+            "    `uuid`,\n" +
+            "    `history_id`,\n" +
+            "    `username`,\n" +
+            "    `first_seen_time`\n" +
+            ") VALUES (?, ?, ?, ?);";
+    private static final String CREATE_STAGED_NAME_SQL = "" +
+            "CREATE TEMP TABLE IF NOT EXISTS `staged_name` (\n" +
+            "    `uuid` BLOB PRIMARY KEY NOT NULL,\n" +
+            "    `username` TEXT NOT NULL,\n" +
+            "    `username_lower` TEXT NOT NULL,\n" +
+            "    `first_seen_time` INTEGER NOT NULL,\n" +
+            "    `detected_time` INTEGER,\n" +
+            "    `last_seen_time` INTEGER NOT NULL\n" +
+            ");";
+    private static final String INSERT_STAGED_NAME_SQL = "" +
+            "INSERT INTO `staged_name` (\n" +
+            "    `uuid`,\n" +
+            "    `username`,\n" +
+            "    `username_lower`,\n" +
+            "    `first_seen_time`,\n" +
+            "    `detected_time`,\n" +
+            "    `last_seen_time`\n" +
+            ") VALUES (?, ?, ?, ?, ?, ?);";
+    private static final String TOUCH_STAGED_NAMES_SQL = "" +
+            "UPDATE `name_history`\n" +
+            "SET `last_seen_time` = MAX(`last_seen_time`, (\n" +
+            "    SELECT `s`.`last_seen_time`\n" +
+            "    FROM `staged_name` `s`\n" +
+            "    JOIN `current_name` `c` ON `c`.`uuid` = `s`.`uuid`\n" +
+            "    WHERE `c`.`history_id` = `name_history`.`id`\n" +
+            "))\n" +
+            "WHERE `id` IN (\n" +
+            "    SELECT `c`.`history_id`\n" +
+            "    FROM `staged_name` `s`\n" +
+            "    JOIN `current_name` `c` ON `c`.`uuid` = `s`.`uuid` AND `c`.`username` = `s`.`username`\n" +
+            ");";
+    private static final String READ_MAX_HISTORY_ID_SQL = "" +
+            "SELECT COALESCE(MAX(`id`), 0) FROM `name_history`;";
+    private static final String INSERT_STAGED_NAME_CHANGES_SQL = "" +
+            "INSERT INTO `name_history` (\n" +
+            "    `uuid`,\n" +
+            "    `username`,\n" +
+            "    `username_lower`,\n" +
+            "    `first_seen_time`,\n" +
+            "    `detected_time`,\n" +
+            "    `last_seen_time`\n" +
+            ")\n" +
+            "SELECT `s`.`uuid`, `s`.`username`, `s`.`username_lower`,\n" +
+            "    `s`.`first_seen_time`, `s`.`detected_time`, `s`.`last_seen_time`\n" +
+            "FROM `staged_name` `s`\n" +
+            "LEFT JOIN `current_name` `c` ON `c`.`uuid` = `s`.`uuid`\n" +
+            "WHERE `c`.`uuid` IS NULL OR `c`.`username` <> `s`.`username`;";
+    private static final String UPSERT_STAGED_CURRENT_NAMES_SQL = "" +
+            "INSERT OR REPLACE INTO `current_name` (`uuid`, `history_id`, `username`, `first_seen_time`)\n" +
+            "SELECT `h`.`uuid`, `h`.`id`, `h`.`username`, `h`.`first_seen_time`\n" +
+            "FROM `name_history` `h`\n" +
+            "LEFT JOIN `current_name` `c` ON `c`.`uuid` = `h`.`uuid`\n" +
+            "WHERE `h`.`id` > ? AND (`c`.`uuid` IS NULL OR `h`.`first_seen_time` >= `c`.`first_seen_time`);";
+    private static final String READ_STAGED_CURRENT_NAMES_SQL = "" +
+            "SELECT `c`.`uuid`, `c`.`history_id`, `c`.`username`, `c`.`first_seen_time`\n" +
+            "FROM `staged_name` `s`\n" +
+            "JOIN `current_name` `c` ON `c`.`uuid` = `s`.`uuid`;";
+    private static final String CLEAR_STAGED_NAMES_SQL = "" +
+            "DELETE FROM `staged_name`;";
+
+    /**
+     * Opens a SQLite database, creating it if it doesn't exist and upgrading it if it is from an older version.
+     * The connections stay open until {@link #close()} is called.
+     * @param databasePath the path to the database file
+     * @param poolSize the number of connections used for reads, must be at least 1.
+     *                 One additional connection is always kept open for writes.
+     * @param cacheSize the number of players whose current name is kept in memory, 0 to disable
+     * @param profile the SQLite settings applied to every connection
+     * @throws SQLException if the database cannot be accessed, the parent folder doesn't exist,
+     * or an error occurs when creating or upgrading the tables
+     * @throws IllegalStateException if the database is newer than this version of NameHistorian supports
+     */
+    public SqliteNameHistoryStore(Path databasePath, int poolSize, int cacheSize, StorageProfile profile)
+            throws SQLException {
+        super(openPool(databasePath, poolSize, profile), cacheSize);
+        try {
+            pool.write(con -> {
+                Migrations.migrate(con.getConnection());
+                return null;
+            });
+        } catch (SQLException | RuntimeException ex) {
+            pool.close();
+            throw ex;
+        }
+    }
+    private static ConnectionPool openPool(Path databasePath, int poolSize, StorageProfile profile)
+            throws SQLException {
+        SQLiteDataSource ds = new SQLiteDataSource();
+        ds.setUrl("jdbc:sqlite:" + databasePath.toFile().getAbsolutePath());
+        return new ConnectionPool(ds::getConnection, poolSize, profile::apply);
+    }
+
+    @Override
+    protected String readCurrentNameSql() {
+        return READ_CURRENT_NAME_SQL;
+    }
+    @Override
+    protected String updateLastSeenSql() {
+        return UPDATE_LAST_SEEN_SQL;
+    }
+    @Override
+    protected String upsertCurrentNameSql() {
+        return UPSERT_CURRENT_NAME_SQL;
+    }
+
+    @Override
+    protected void recordNameRecords(CachingConnection con, Collection<NameRecord> records) throws SQLException {
+        if (records.size() >= STAGING_THRESHOLD && hasDistinctPlayers(records)) {
+            recordNameRecordsStaged(con, records);
+        } else {
+            super.recordNameRecords(con, records);
+        }
+    }
+    private static boolean hasDistinctPlayers(Collection<NameRecord> records) {
+        Set<UUID> uuids = new HashSet<>();
+        for (NameRecord nr : records) {
+            if (!uuids.add(nr.getUuid())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Records every name with a fixed number of statements, no matter how many records there are.
+     * The records are loaded into a temp table, then unchanged names are touched and changed names are inserted
+     * with one statement each. Each player may only appear once, since the statements don't see each other's
+     * changes to the same player the way recording the records one by one would.
+     */
+    private void recordNameRecordsStaged(CachingConnection con, Collection<NameRecord> records) throws SQLException {
+        con.prepare(CREATE_STAGED_NAME_SQL).executeUpdate();
+        PreparedStatement stageSt = con.prepare(INSERT_STAGED_NAME_SQL);
+        try {
+            for (NameRecord nr : records) {
+                bindNewName(stageSt, nr);
+                stageSt.addBatch();
+            }
+            stageSt.executeBatch();
+        } finally {
+            stageSt.clearBatch();
+        }
+
+        con.prepare(TOUCH_STAGED_NAMES_SQL).executeUpdate();
+        int maxHistoryId = readMaxHistoryId(con);
+        con.prepare(INSERT_STAGED_NAME_CHANGES_SQL).executeUpdate();
+        PreparedStatement upsertSt = con.prepare(UPSERT_STAGED_CURRENT_NAMES_SQL);
+        upsertSt.setInt(1, maxHistoryId);
+        upsertSt.executeUpdate();
+
+        // The statements above skipped the cache
+        refreshStagedPlayers(con);
+        con.prepare(CLEAR_STAGED_NAMES_SQL).executeUpdate();
+    }
+    private void refreshStagedPlayers(CachingConnection con) throws SQLException {
+        @Cleanup ResultSet rs = con.prepare(READ_STAGED_CURRENT_NAMES_SQL).executeQuery();
+        while (rs.next()) {
+            cache.put(Util.uuidFromBytes(rs.getBytes("uuid")), new CurrentName(
+                    rs.getInt("history_id"),
+                    rs.getString("username"),
+                    rs.getLong("first_seen_time")
+            ));
+        }
+    }
+    private static int readMaxHistoryId(CachingConnection con) throws SQLException {
+        @Cleanup ResultSet rs = con.prepare(READ_MAX_HISTORY_ID_SQL).executeQuery();
+        rs.next();
+        return rs.getInt(1);
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.tisawesomeness.namehistorian;
+
+import lombok.Cleanup;
+import lombok.Value;
+import lombok.With;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+
+/**
+ * SQLite settings applied to every connection when it is opened.
+ * Settings the SQLite version in use doesn't support are ignored, as SQLite does with unknown pragmas.
+ */
+@Value
+@With
+public class StorageProfile {
+
+    /**
+     * Favors fast writes. Readers and the writer don't block each other, and commits only wait for the disk
+     * at checkpoints. A power loss may lose the last few recorded names, but never corrupts the database.
+     */
+    public static final StorageProfile THROUGHPUT = new StorageProfile(
+            JournalMode.WAL, Synchronous.NORMAL, 8 * 1024, 64 * 1024, Duration.ofSeconds(5));
+    /**
+     * Favors never losing a committed name. Readers and the writer still don't block each other,
+     * but every commit waits for the disk.
+     */
+    public static final StorageProfile DURABILITY = new StorageProfile(
+            JournalMode.WAL, Synchronous.FULL, 2 * 1024, 0, Duration.ofSeconds(5));
+
+    /** How SQLite keeps transactions atomic */
+    JournalMode journalMode;
+    /** How often SQLite waits for writes to reach the disk */
+    Synchronous synchronous;
+    /** The size of each connection's page cache, in KiB */
+    int cacheSizeKib;
+    /** The amount of the database file read through memory-mapped I/O, in KiB, 0 to disable */
+    long mmapSizeKib;
+    /** How long a connection waits for a lock held by another connection before failing */
+    Duration busyTimeout;
+
+    /**
+     * Applies this profile to a newly opened connection.
+     * @param con the connection, must not be in a transaction
+     * @throws SQLException on database error
+     */
+    public void apply(Connection con) throws SQLException {
+        @Cleanup Statement st = con.createStatement();
+        st.execute("PRAGMA journal_mode = " + journalMode);
+        st.execute("PRAGMA synchronous = " + synchronous);
+        st.execute("PRAGMA cache_size = " + cacheSizeKib * 1024L / readPageSize(st));
+        st.execute("PRAGMA mmap_size = " + mmapSizeKib * 1024L);
+        st.execute("PRAGMA busy_timeout = " + busyTimeout.toMillis());
+        // Older SQLite versions don't have the busy_timeout pragma,
+        // the bundled driver sets the connection's busy timeout through the statement's query timeout instead
+        st.setQueryTimeout((int) Math.max(1, (busyTimeout.toMillis() + 999) / 1000));
+    }
+    private static int readPageSize(Statement st) throws SQLException {
+        @Cleanup ResultSet rs = st.executeQuery("PRAGMA page_size");
+        return rs.next() ? Math.max(1, rs.getInt(1)) : 1024;
+    }
+
+    public enum JournalMode {
+        /** Rollback journal deleted after each transaction. Readers block the writer. */
+        DELETE,
+        /** Rollback journal truncated after each transaction. Readers block the writer. */
+        TRUNCATE,
+        /** Rollback journal overwritten after each transaction. Readers block the writer. */
+        PERSIST,
+        /** Write-ahead log. Readers and the writer don't block each other. */
+        WAL
+    }
+
+    public enum Synchronous {
+        /** Never wait for the disk. A power loss or OS crash may corrupt the database. */
+        OFF,
+        /** Wait for the disk at critical moments. With WAL, a power loss may lose recent commits. */
+        NORMAL,
+        /** Wait for the disk on every commit. */
+        FULL
+    }
+
+}
@@ -0,0 +1,19 @@
+package com.tisawesomeness.namehistorian;
+
+import java.sql.SQLException;
+
+/**
+ * Wraps a {@link SQLException} thrown where checked exceptions aren't allowed, such as inside a stream.
+ */
+public final class UncheckedSQLException extends RuntimeException {
+
+    public UncheckedSQLException(SQLException cause) {
+        super(cause);
+    }
+
+    @Override
+    public synchronized SQLException getCause() {
+        return (SQLException) super.getCause();
+    }
+
+}
@@ -0,0 +1,336 @@
+package com.tisawesomeness.namehistorian;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory index of every distinct username, ignoring case, for prefix completion.
+ * <p>
+ * Most names live in a packed segment: the names' bytes back to back in one array, sorted ignoring case,
+ * with an array of offsets, so each name costs its length plus 4 bytes instead of a String object.
+ * New names go into a small sorted map first, which is merged into a new packed segment once it grows past
+ * the merge threshold. Lookups binary search the segment and walk the map, so they never wait for a merge.
+ * <p>
+ * Memory is bounded by the maximum number of names, once full, new names are dropped and counted.
+ * Only ASCII names are indexed, which covers every valid Minecraft username.
+ * All methods are thread-safe.
+ */
+public final class UsernameIndex {
+
+    /** The default number of new names kept outside the packed segment before merging */
+    public static final int DEFAULT_MERGE_THRESHOLD = 4096;
+    // Bulk loads are merged in larger chunks, so loading n names doesn't copy the segment n / threshold times
+    private static final int LOAD_CHUNK_SIZE = 65_536;
+
+    private final int maxNames;
+    private final int mergeThreshold;
+
+    private volatile Segment segment = Segment.EMPTY;
+    // Keys are lowercase names, values are the names as first seen
+    private final ConcurrentSkipListMap<String, String> pending = new ConcurrentSkipListMap<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final Object mergeLock = new Object();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Creates an empty index.
+     * @param maxNames the maximum number of names kept, 0 to keep none
+     */
+    public UsernameIndex(int maxNames) {
+        this(maxNames, DEFAULT_MERGE_THRESHOLD);
+    }
+    UsernameIndex(int maxNames, int mergeThreshold) {
+        if (maxNames < 0) {
+            throw new IllegalArgumentException("maxNames must be non-negative but was " + maxNames);
+        }
+        if (mergeThreshold < 1) {
+            throw new IllegalArgumentException("mergeThreshold must be at least 1 but was " + mergeThreshold);
+        }
+        this.maxNames = maxNames;
+        this.mergeThreshold = mergeThreshold;
+    }
+
+    /**
+     * Adds a username, doing nothing if it's already indexed in any case.
+     * @param username the username
+     */
+    public void add(String username) {
+        if (!isIndexable(username)) {
+            return;
+        }
+        String key = username.toLowerCase(Locale.ROOT);
+        if (pending.containsKey(key) || segment.contains(key)) {
+            return;
+        }
+        if (size() >= maxNames) {
+            dropped.incrementAndGet();
+            return;
+        }
+        if (pending.putIfAbsent(key, username) == null && pendingCount.incrementAndGet() >= mergeThreshold) {
+            synchronized (mergeLock) {
+                if (pendingCount.get() >= mergeThreshold) {
+                    mergePending();
+                }
+            }
+        }
+    }
+    /**
+     * Adds every username, sorting them in large chunks, which is much faster than adding them one at a time.
+     * Meant for loading the index from the database in the background. Stops reading once the index is full.
+     * @param usernames the usernames, in any order and with any duplicates
+     * @throws CancellationException if the thread is interrupted, the names added so far are kept
+     */
+    public void addAll(Iterator<String> usernames) {
+        SortedMap<String, String> chunk = new TreeMap<>();
+        while (size() < maxNames && usernames.hasNext()) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("Interrupted while loading usernames");
+            }
+            String username = usernames.next();
+            if (isIndexable(username)) {
+                chunk.putIfAbsent(username.toLowerCase(Locale.ROOT), username);
+            }
+            if (chunk.size() >= LOAD_CHUNK_SIZE) {
+                mergeChunk(chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            mergeChunk(chunk);
+        }
+    }
+    private static boolean isIndexable(String username) {
+        if (username.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < username.length(); i++) {
+            if (username.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void mergeChunk(SortedMap<String, String> chunk) {
+        synchronized (mergeLock) {
+            segment = segment.merge(chunk, maxNames - size(), dropped);
+        }
+    }
+    // Must hold mergeLock
+    private void mergePending() {
+        SortedMap<String, String> snapshot = new TreeMap<>(pending);
+        // Pending names already count towards the limit, so all of them fit
+        segment = segment.merge(snapshot, Integer.MAX_VALUE, dropped);
+        // Only remove what was merged, names added during the merge stay pending.
+        // A name removed here may be added again by a thread that checked the old segment,
+        // which only costs a duplicate that the next merge and every lookup skip.
+        for (String key : snapshot.keySet()) {
+            if (pending.remove(key) != null) {
+                pendingCount.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Finds usernames starting with a prefix, ignoring case.
+     * @param prefix the prefix, empty to match every name
+     * @param limit the maximum number of names returned
+     * @return up to {@code limit} names as first recorded, sorted ignoring case
+     */
+    public List<String> complete(String prefix, int limit) {
+        if (limit < 1 || (!prefix.isEmpty() && !isIndexable(prefix))) {
+            return Collections.emptyList();
+        }
+        String key = prefix.toLowerCase(Locale.ROOT);
+        byte[] keyBytes = ascii(key);
+        Segment current = segment;
+        int i = current.lowerBound(keyBytes);
+        Iterator<Map.Entry<String, String>> it = pending.tailMap(key).entrySet().iterator();
+        Map.Entry<String, String> next = nextMatch(it, key);
+
+        List<String> results = new ArrayList<>(Math.min(limit, 16));
+        String last = null;
+        while (results.size() < limit) {
+            boolean segmentHas = i < current.size && current.startsWith(i, keyBytes);
+            if (!segmentHas && next == null) {
+                break;
+            }
+            String candidateKey;
+            String candidate;
+            if (segmentHas && (next == null || current.compareTo(i, ascii(next.getKey())) <= 0)) {
+                candidate = current.get(i++);
+                candidateKey = candidate.toLowerCase(Locale.ROOT);
+            } else {
+                candidateKey = next.getKey();
+                candidate = next.getValue();
+                next = nextMatch(it, key);
+            }
+            if (!candidateKey.equals(last)) {
+                results.add(candidate);
+                last = candidateKey;
+            }
+        }
+        return results;
+    }
+    private static @Nullable Map.Entry<String, String> nextMatch(Iterator<Map.Entry<String, String>> it, String key) {
+        if (it.hasNext()) {
+            Map.Entry<String, String> entry = it.next();
+            if (entry.getKey().startsWith(key)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the number of names indexed, which may briefly count a few names twice while merging.
+     * @return the number of names
+     */
+    public int size() {
+        return segment.size + pendingCount.get();
+    }
+    /**
+     * Estimates the memory used by the packed segment, not counting names that haven't been merged yet.
+     * @return the size in bytes
+     */
+    public long getSegmentBytes() {
+        Segment current = segment;
+        return current.data.length + 4L * current.offsets.length;
+    }
+    /**
+     * Gets the number of names that were not added because the index was full.
+     * @return the number of names
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < s.length(); i++) {
+            bytes[i] = (byte) s.charAt(i);
+        }
+        return bytes;
+    }
+    private static int lower(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+
+    /** An immutable, sorted, packed array of ASCII names */
+    private static final class Segment {
+        static final Segment EMPTY = new Segment(new byte[0], new int[]{0}, 0);
+
+        final byte[] data;
+        // Name i is data[offsets[i]] until data[offsets[i + 1]]
+        final int[] offsets;
+        final int size;
+
+        Segment(byte[] data, int[] offsets, int size) {
+            this.data = data;
+            this.offsets = offsets;
+            this.size = size;
+        }
+
+        String get(int i) {
+            int start = offsets[i];
+            char[] chars = new char[offsets[i + 1] - start];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = (char) data[start + j];
+            }
+            return new String(chars);
+        }
+        boolean contains(String key) {
+            byte[] keyBytes = ascii(key);
+            int i = lowerBound(keyBytes);
+            return i < size && compareTo(i, keyBytes) == 0;
+        }
+        // Compares name i, lowercased, to a lowercase key
+        int compareTo(int i, byte[] key) {
+            int start = offsets[i];
+            int len = offsets[i + 1] - start;
+            int n = Math.min(len, key.length);
+            for (int j = 0; j < n; j++) {
+                int diff = lower(data[start + j]) - key[j];
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return len - key.length;
+        }
+        boolean startsWith(int i, byte[] prefix) {
+            int start = offsets[i];
+            if (offsets[i + 1] - start < prefix.length) {
+                return false;
+            }
+            for (int j = 0; j < prefix.length; j++) {
+                if (lower(data[start + j]) != prefix[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        // The index of the first name not less than the key
+        int lowerBound(byte[] key) {
+            int lo = 0;
+            int hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compareTo(mid, key) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        /**
+         * Merges sorted names into a new segment, skipping names already in this one.
+         * @param names lowercase keys to names
+         * @param maxNew the maximum number of new names to add, the rest are dropped and counted
+         */
+        Segment merge(SortedMap<String, String> names, int maxNew, AtomicLong dropped) {
+            int capacity = size + Math.min(names.size(), Math.max(0, maxNew));
+            int[] newOffsets = new int[capacity + 1];
+            byte[] newData = new byte[data.length + names.keySet().stream().mapToInt(String::length).sum()];
+            int newSize = 0;
+            int pos = 0;
+            int added = 0;
+            int i = 0;
+            Iterator<Map.Entry<String, String>> it = names.entrySet().iterator();
+            Map.Entry<String, String> next = it.hasNext() ? it.next() : null;
+            while (i < size || next != null) {
+                int cmp = next == null ? -1 : i == size ? 1 : compareTo(i, ascii(next.getKey()));
+                if (cmp <= 0) {
+                    int start = offsets[i];
+                    int len = offsets[i + 1] - start;
+                    System.arraycopy(data, start, newData, pos, len);
+                    pos += len;
+                    newOffsets[++newSize] = pos;
+                    i++;
+                    if (cmp == 0) {
+                        next = it.hasNext() ? it.next() : null;
+                    }
+                } else {
+                    if (added < maxNew) {
+                        String name = next.getValue();
+                        for (int j = 0; j < name.length(); j++) {
+                            newData[pos++] = (byte) name.charAt(j);
+                        }
+                        newOffsets[++newSize] = pos;
+                        added++;
+                    } else {
+                        dropped.incrementAndGet();
+                    }
+                    next = it.hasNext() ? it.next() : null;
+                }
+            }
+            return new Segment(Arrays.copyOf(newData, pos), Arrays.copyOf(newOffsets, newSize + 1), newSize);
+        }
+    }
+
+}
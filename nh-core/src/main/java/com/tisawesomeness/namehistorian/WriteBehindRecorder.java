@@ -0,0 +1,227 @@
+package com.tisawesomeness.namehistorian;
+
+import lombok.Value;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Records player names in the background.
+ * Observations are queued without blocking the caller, then a dedicated writer thread commits them
+ * in batches, one transaction per batch.
+ * A batch is committed once it reaches the maximum batch size, or once the flush interval has passed
+ * since the first record in the batch was queued, whichever comes first.
+ */
+public final class WriteBehindRecorder {
+
+    // Marker used to wake up the writer thread on close, compared by identity
+    private static final NameRecord WAKE_UP = new NameRecord(new UUID(0, 0), "", Instant.EPOCH, null, Instant.EPOCH);
+
+    private final NameHistorian historian;
+    private final int maxBatchSize;
+    private final long flushIntervalNanos;
+    private final BiConsumer<List<NameRecord>, SQLException> errorHandler;
+    private final BlockingQueue<NameRecord> queue;
+    private final Thread writerThread;
+    private volatile boolean closed;
+    private volatile boolean aborted;
+
+    private final AtomicLong batchesCommitted = new AtomicLong();
+    private final AtomicLong recordsCommitted = new AtomicLong();
+    private final AtomicLong batchesFailed = new AtomicLong();
+    private final AtomicLong totalBatchNanos = new AtomicLong();
+    private volatile long lastBatchNanos;
+    private volatile long maxBatchNanos;
+
+    /**
+     * Creates a recorder and starts its writer thread.
+     * @param historian the historian to record names with
+     * @param maxBatchSize the maximum number of records committed in one transaction, must be at least 1
+     * @param flushInterval the maximum time a record waits in the queue before its batch is committed
+     * @param queueCapacity the maximum number of records waiting to be committed, must be at least 1
+     * @param errorHandler called on the writer thread with the batch that could not be committed
+     */
+    public WriteBehindRecorder(NameHistorian historian, int maxBatchSize, Duration flushInterval, int queueCapacity,
+                               BiConsumer<List<NameRecord>, SQLException> errorHandler) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1 but was " + maxBatchSize);
+        }
+        if (flushInterval.isNegative()) {
+            throw new IllegalArgumentException("flushInterval must not be negative but was " + flushInterval);
+        }
+        this.historian = historian;
+        this.maxBatchSize = maxBatchSize;
+        flushIntervalNanos = flushInterval.toNanos();
+        this.errorHandler = errorHandler;
+        queue = new LinkedBlockingQueue<>(queueCapacity);
+        writerThread = new Thread(this::run, "NameHistorian-Writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Queues a player name to be recorded, using the current time as the time the player was seen.
+     * Never blocks.
+     * @param player the player's UUID and username
+     * @return true if the name was queued, false if the queue is full or the recorder is closed
+     */
+    public boolean offer(NamedPlayer player) {
+        Instant now = Instant.now();
+        return offer(new NameRecord(player.getUuid(), player.getUsername(), now, null, now));
+    }
+    /**
+     * Queues a name record to be recorded. Never blocks.
+     * @param nr the name record
+     * @return true if the record was queued, false if the queue is full or the recorder is closed
+     */
+    public boolean offer(NameRecord nr) {
+        if (closed) {
+            return false;
+        }
+        return queue.offer(nr);
+    }
+
+    private void run() {
+        List<NameRecord> batch = new ArrayList<>(maxBatchSize);
+        while (!aborted) {
+            try {
+                fillBatch(batch);
+            } catch (InterruptedException ex) {
+                // Only happens if something outside the recorder interrupts the thread, treat as an abort
+                aborted = true;
+            }
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+            if (closed && queue.isEmpty()) {
+                return;
+            }
+        }
+    }
+
+    private void fillBatch(List<NameRecord> batch) throws InterruptedException {
+        NameRecord first = queue.take();
+        if (first != WAKE_UP) {
+            batch.add(first);
+        }
+        long deadline = System.nanoTime() + flushIntervalNanos;
+        while (batch.size() < maxBatchSize) {
+            // Don't wait for more records if shutting down, commit what's already queued
+            if (closed) {
+                drainWithoutWakeUps(batch);
+                return;
+            }
+            long remaining = deadline - System.nanoTime();
+            NameRecord nr = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+            if (nr == null) {
+                return;
+            }
+            if (nr != WAKE_UP) {
+                batch.add(nr);
+            }
+        }
+    }
+    private void drainWithoutWakeUps(List<NameRecord> batch) {
+        List<NameRecord> drained = new ArrayList<>();
+        queue.drainTo(drained, maxBatchSize - batch.size());
+        for (NameRecord nr : drained) {
+            if (nr != WAKE_UP) {
+                batch.add(nr);
+            }
+        }
+    }
+
+    private void commit(List<NameRecord> batch) {
+        long start = System.nanoTime();
+        try {
+            historian.recordNameRecords(batch);
+        } catch (SQLException ex) {
+            batchesFailed.incrementAndGet();
+            errorHandler.accept(new ArrayList<>(batch), ex);
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        batchesCommitted.incrementAndGet();
+        recordsCommitted.addAndGet(batch.size());
+        totalBatchNanos.addAndGet(elapsed);
+        lastBatchNanos = elapsed;
+        if (elapsed > maxBatchNanos) {
+            maxBatchNanos = elapsed; // Only written by the writer thread
+        }
+    }
+
+    /**
+     * Gets the number of records waiting to be committed.
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Takes a snapshot of the recorder's statistics.
+     * @return the stats
+     */
+    public Stats getStats() {
+        long batches = batchesCommitted.get();
+        long average = batches == 0 ? 0 : totalBatchNanos.get() / batches;
+        return new Stats(
+                getQueueDepth(),
+                batches,
+                recordsCommitted.get(),
+                batchesFailed.get(),
+                Duration.ofNanos(lastBatchNanos),
+                Duration.ofNanos(average),
+                Duration.ofNanos(maxBatchNanos)
+        );
+    }
+
+    /**
+     * Stops accepting new records and waits for all queued records to be committed.
+     * If the queue could not be drained in time, the writer thread stops after its current batch
+     * and the remaining records are discarded.
+     * @param timeout the maximum time to wait
+     * @return true if every queued record was committed (or failed with an error) before the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean close(Duration timeout) throws InterruptedException {
+        closed = true;
+        // Queue may be full, in which case the writer thread is already awake
+        queue.offer(WAKE_UP);
+        writerThread.join(Math.max(1, timeout.toMillis()));
+        if (writerThread.isAlive()) {
+            aborted = true;
+            return false;
+        }
+        return true;
+    }
+
+    @Value
+    public static class Stats {
+        /** The number of records waiting to be committed */
+        int queueDepth;
+        /** The number of batches successfully committed */
+        long batchesCommitted;
+        /** The number of records successfully committed */
+        long recordsCommitted;
+        /** The number of batches that failed to commit */
+        long batchesFailed;
+        /** The time it took to commit the last successful batch */
+        Duration lastBatchLatency;
+        /** The average time it took to commit a successful batch */
+        Duration averageBatchLatency;
+        /** The longest time it took to commit a successful batch */
+        Duration maxBatchLatency;
+    }
+
+}
@@ -0,0 +1,292 @@
+package com.tisawesomeness.namehistorian.mojang;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.tisawesomeness.namehistorian.LatencyHistogram;
+import com.tisawesomeness.namehistorian.Metrics;
+import com.tisawesomeness.namehistorian.util.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Resolves usernames to UUIDs with Mojang's bulk profile lookup, which takes up to {@link #MAX_BATCH_SIZE}
+ * usernames in a single POST. Lookups are collected for a short window and sent together,
+ * so a burst of lookups costs one request instead of one per username.
+ * Concurrent lookups of the same username, ignoring case, share a single request.
+ * <p>
+ * Requests are sent one at a time on a dedicated thread through an {@link HttpTransport},
+ * each waiting for a permit from a {@link RateLimiter}.
+ * Names are counted by outcome in {@code mojang.found} and {@code mojang.not_found}, failed requests in
+ * {@code mojang.rate_limited}, {@code mojang.timeout}, and {@code mojang.error},
+ * and requests are timed in {@code mojang.request}.
+ */
+public final class BulkUuidResolver implements AutoCloseable {
+
+    /** The bulk profile lookup endpoint */
+    public static final String DEFAULT_ENDPOINT = "https://api.mojang.com/profiles/minecraft";
+    /** The maximum number of usernames Mojang accepts in one request */
+    public static final int MAX_BATCH_SIZE = 10;
+    /** The default time a lookup waits for other lookups to share its request */
+    public static final Duration DEFAULT_WINDOW = Duration.ofMillis(50);
+
+    private final URL endpoint;
+    private final HttpTransport transport;
+    private final long windowNanos;
+    private final RateLimiter limiter;
+    private final ScheduledExecutorService executor;
+
+    private final Object lock = new Object();
+    // Guarded by lock, keys are lowercase usernames
+    private final Map<String, CompletableFuture<Optional<UUID>>> inFlight = new HashMap<>();
+    private final Deque<String> pending = new ArrayDeque<>();
+    private boolean flushScheduled;
+    private boolean closed;
+
+    private final LatencyHistogram requestLatency;
+    private final LongAdder found;
+    private final LongAdder notFound;
+    private final LongAdder rateLimited;
+    private final LongAdder timedOut;
+    private final LongAdder failed;
+    private final LongAdder coalesced;
+
+    /**
+     * Creates a resolver and starts its request thread.
+     * @param endpoint the bulk profile lookup URL, usually {@link #DEFAULT_ENDPOINT}
+     * @param transport sends the requests, may be shared with other kinds of requests and is not closed by this
+     * @param window how long the first lookup of a batch waits for more lookups before the batch is sent
+     * @param limiter the rate limiter every request waits for, may be shared with other kinds of requests
+     * @param metrics where to record requests
+     */
+    public BulkUuidResolver(URL endpoint, HttpTransport transport, Duration window, RateLimiter limiter,
+                            Metrics metrics) {
+        if (window.isNegative()) {
+            throw new IllegalArgumentException("window must be non-negative but was " + window);
+        }
+        this.endpoint = endpoint;
+        this.transport = transport;
+        windowNanos = window.toNanos();
+        this.limiter = limiter;
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "NameHistorian-Mojang");
+            thread.setDaemon(true);
+            return thread;
+        });
+        requestLatency = metrics.histogram("mojang.request");
+        found = metrics.counter("mojang.found");
+        notFound = metrics.counter("mojang.not_found");
+        rateLimited = metrics.counter("mojang.rate_limited");
+        timedOut = metrics.counter("mojang.timeout");
+        failed = metrics.counter("mojang.error");
+        coalesced = metrics.counter("mojang.coalesced");
+    }
+
+    /**
+     * Looks up the UUID of a username. The lookup is sent after the batch window,
+     * or right away if enough other lookups are waiting to fill a request.
+     * @param username the username, which must be a valid Minecraft username
+     * @return a future completed with the UUID, or empty if no player has the username.
+     * The future fails with a {@link RateLimitedException} if the request was turned away by rate limiting,
+     * with an {@link IOException} if the request failed,
+     * or with a {@link RejectedExecutionException} if the resolver is closed.
+     */
+    public CompletableFuture<Optional<UUID>> resolve(String username) {
+        String key = username.toLowerCase(Locale.ROOT);
+        CompletableFuture<Optional<UUID>> future;
+        synchronized (lock) {
+            if (closed) {
+                CompletableFuture<Optional<UUID>> rejected = new CompletableFuture<>();
+                rejected.completeExceptionally(new RejectedExecutionException("Resolver is closed"));
+                return rejected;
+            }
+            future = inFlight.get(key);
+            if (future != null) {
+                coalesced.increment();
+            } else {
+                future = new CompletableFuture<>();
+                inFlight.put(key, future);
+                pending.add(key);
+                if (pending.size() >= MAX_BATCH_SIZE) {
+                    List<String> batch = takeBatch();
+                    executor.execute(() -> send(batch));
+                } else if (!flushScheduled) {
+                    flushScheduled = true;
+                    executor.schedule(this::flush, windowNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+        // Callers get their own future so one caller can't complete or cancel the shared lookup for everyone
+        return future.thenApply(uuidOpt -> uuidOpt);
+    }
+
+    private void flush() {
+        while (true) {
+            List<String> batch;
+            synchronized (lock) {
+                if (pending.isEmpty()) {
+                    flushScheduled = false;
+                    return;
+                }
+                batch = takeBatch();
+            }
+            send(batch);
+        }
+    }
+    // Must hold lock
+    private List<String> takeBatch() {
+        List<String> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (batch.size() < MAX_BATCH_SIZE && !pending.isEmpty()) {
+            batch.add(pending.poll());
+        }
+        return batch;
+    }
+
+    private void send(List<String> batch) {
+        Map<String, UUID> uuids;
+        try {
+            limiter.acquire();
+            uuids = request(batch);
+        } catch (InterruptedException ex) {
+            // Only interrupted when closing
+            Thread.currentThread().interrupt();
+            fail(batch, new RejectedExecutionException("Resolver is closed"));
+            return;
+        } catch (IOException | RuntimeException ex) {
+            if (ex instanceof RateLimitedException) {
+                rateLimited.increment();
+            } else if (ex instanceof SocketTimeoutException) {
+                timedOut.increment();
+            } else {
+                failed.increment();
+            }
+            fail(batch, ex);
+            return;
+        }
+        List<CompletableFuture<Optional<UUID>>> futures = finish(batch);
+        for (int i = 0; i < batch.size(); i++) {
+            Optional<UUID> uuidOpt = Optional.ofNullable(uuids.get(batch.get(i)));
+            (uuidOpt.isPresent() ? found : notFound).increment();
+            CompletableFuture<Optional<UUID>> future = futures.get(i);
+            if (future != null) {
+                future.complete(uuidOpt);
+            }
+        }
+    }
+    private void fail(List<String> batch, Exception ex) {
+        for (CompletableFuture<Optional<UUID>> future : finish(batch)) {
+            if (future != null) {
+                future.completeExceptionally(ex);
+            }
+        }
+    }
+    // Later lookups of the same names start a new request instead of joining a finished one.
+    // A future is null if the resolver was closed while its request was being sent.
+    private List<CompletableFuture<Optional<UUID>>> finish(List<String> batch) {
+        List<CompletableFuture<Optional<UUID>>> futures = new ArrayList<>(batch.size());
+        synchronized (lock) {
+            for (String key : batch) {
+                futures.add(inFlight.remove(key));
+            }
+        }
+        return futures;
+    }
+
+    private Map<String, UUID> request(List<String> usernames) throws IOException {
+        byte[] body = writeNames(usernames);
+        long start = System.nanoTime();
+        try {
+            return transport.post(endpoint, body, response -> {
+                int status = response.getStatus();
+                // Mojang may answer 204 instead of an empty array when none of the names exist
+                if (status == 204) {
+                    return Collections.emptyMap();
+                }
+                if (status == 429) {
+                    throw limiter.onTooManyRequests(response.getHeader("Retry-After"));
+                }
+                if (status != 200) {
+                    throw new IOException("Bulk profile lookup returned status " + status);
+                }
+                return readProfiles(new JsonReader(new InputStreamReader(response.getBody(), StandardCharsets.UTF_8)));
+            });
+        } finally {
+            requestLatency.recordSince(start);
+        }
+    }
+    private static byte[] writeNames(List<String> usernames) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(bytes, StandardCharsets.UTF_8)) {
+            JsonWriter json = new JsonWriter(writer);
+            json.beginArray();
+            for (String username : usernames) {
+                json.value(username);
+            }
+            json.endArray();
+        }
+        return bytes.toByteArray();
+    }
+
+    // The response is an array of {"id": "<undashed uuid>", "name": "<username>"}, missing names are left out
+    private static Map<String, UUID> readProfiles(JsonReader reader) throws IOException {
+        Map<String, UUID> uuids = new HashMap<>();
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String id = null;
+                String name = null;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String key = reader.nextName();
+                    if (key.equals("id") && reader.peek() == JsonToken.STRING) {
+                        id = reader.nextString();
+                    } else if (key.equals("name") && reader.peek() == JsonToken.STRING) {
+                        name = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (id != null && name != null) {
+                    String finalName = name;
+                    Util.parseUUID(id).ifPresent(uuid -> uuids.put(finalName.toLowerCase(Locale.ROOT), uuid));
+                }
+            }
+            reader.endArray();
+        } catch (IllegalStateException ex) {
+            throw new IOException("Malformed bulk profile lookup response", ex);
+        }
+        return uuids;
+    }
+
+    /**
+     * Stops the request thread. Lookups that haven't been sent yet fail with a {@link RejectedExecutionException},
+     * and a request that is already being sent is abandoned.
+     */
+    @Override
+    public void close() {
+        List<CompletableFuture<Optional<UUID>>> unsent;
+        synchronized (lock) {
+            closed = true;
+            unsent = new ArrayList<>(inFlight.values());
+            inFlight.clear();
+            pending.clear();
+        }
+        executor.shutdownNow();
+        for (CompletableFuture<Optional<UUID>> future : unsent) {
+            future.completeExceptionally(new RejectedExecutionException("Resolver is closed"));
+        }
+    }
+
+}
@@ -0,0 +1,202 @@
+package com.tisawesomeness.namehistorian.mojang;
+
+import lombok.Value;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Stops sending Mojang requests while Mojang appears to be down, so lookups fail right away
+ * instead of each waiting for the full timeout.
+ * <ul>
+ *     <li>Closed: requests are allowed. The outcomes of the last {@code windowSize} requests are kept,
+ *     and once the window is full and the share of failures reaches the threshold, the circuit opens.</li>
+ *     <li>Open: requests are turned away. Once the cooldown has passed, {@link #tryStartProbe()}
+ *     moves the circuit to half-open so a single probe request can be sent.</li>
+ *     <li>Half-open: requests are still turned away while the probe is sent. If the probe succeeds,
+ *     the circuit closes with an empty window, otherwise it opens for another cooldown.</li>
+ * </ul>
+ * The probe is meant to be sent in the background, so no player's lookup has to find out whether Mojang is back.
+ */
+public final class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int windowSize;
+    private final int failureRatePercent;
+    private final long cooldownNanos;
+    private final Consumer<State> listener;
+
+    // Guarded by this. The window is a ring buffer of outcomes, true for failures.
+    private State state = State.CLOSED;
+    private final boolean[] window;
+    private int windowPos;
+    private int windowCount;
+    private int windowFailures;
+    private long openedAt;
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timesOpened = new AtomicLong();
+
+    /**
+     * Creates a closed circuit breaker.
+     * @param windowSize the number of recent requests the failure rate is measured over, must be at least 1
+     * @param failureRatePercent the percentage of failed requests that opens the circuit, from 1 to 100
+     * @param cooldown how long the circuit stays open before a probe is allowed
+     * @param listener called with the new state whenever the state changes, outside of any lock
+     */
+    public CircuitBreaker(int windowSize, int failureRatePercent, Duration cooldown, Consumer<State> listener) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be at least 1 but was " + windowSize);
+        }
+        if (failureRatePercent < 1 || failureRatePercent > 100) {
+            throw new IllegalArgumentException("failureRatePercent must be from 1 to 100 but was " +
+                    failureRatePercent);
+        }
+        this.windowSize = windowSize;
+        this.failureRatePercent = failureRatePercent;
+        cooldownNanos = cooldown.toNanos();
+        this.listener = listener;
+        window = new boolean[windowSize];
+    }
+
+    /**
+     * Checks whether a request may be sent. Requests turned away are counted.
+     * @return true if the circuit is closed
+     */
+    public boolean allowRequest() {
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                return true;
+            }
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Records a request that reached Mojang and got an answer, or a successful probe.
+     */
+    public void onSuccess() {
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                record(false);
+                return;
+            }
+            if (state == State.OPEN) {
+                // A request sent before the circuit opened
+                return;
+            }
+            state = State.CLOSED;
+            clearWindow();
+        }
+        listener.accept(State.CLOSED);
+    }
+    /**
+     * Records a failed request or probe.
+     * @return true if this failure opened the circuit, in which case a probe should be scheduled after the cooldown
+     */
+    public boolean onFailure() {
+        return onFailure(System.nanoTime());
+    }
+    boolean onFailure(long now) {
+        synchronized (this) {
+            if (state == State.OPEN) {
+                // A request sent before the circuit opened
+                return false;
+            }
+            if (state == State.CLOSED) {
+                record(true);
+                if (windowCount < windowSize || windowFailures * 100 < failureRatePercent * windowSize) {
+                    return false;
+                }
+            }
+            state = State.OPEN;
+            openedAt = now;
+        }
+        timesOpened.incrementAndGet();
+        listener.accept(State.OPEN);
+        return true;
+    }
+    private void record(boolean failure) {
+        if (windowCount == windowSize) {
+            if (window[windowPos]) {
+                windowFailures--;
+            }
+        } else {
+            windowCount++;
+        }
+        window[windowPos] = failure;
+        if (failure) {
+            windowFailures++;
+        }
+        windowPos = (windowPos + 1) % windowSize;
+    }
+    private void clearWindow() {
+        windowPos = 0;
+        windowCount = 0;
+        windowFailures = 0;
+    }
+
+    /**
+     * Moves an open circuit to half-open if the cooldown has passed. The caller must then send a probe
+     * and report it with {@link #onSuccess()} or {@link #onFailure()}.
+     * @return true if the caller should send a probe
+     */
+    public boolean tryStartProbe() {
+        return tryStartProbe(System.nanoTime());
+    }
+    boolean tryStartProbe(long now) {
+        synchronized (this) {
+            if (state != State.OPEN || now - openedAt < cooldownNanos) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+        }
+        listener.accept(State.HALF_OPEN);
+        return true;
+    }
+
+    /**
+     * Gets the time until a probe is allowed.
+     * @return the time left, zero if the circuit isn't open or the cooldown has passed
+     */
+    public Duration getRemainingCooldown() {
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (state != State.OPEN) {
+                return Duration.ZERO;
+            }
+            return Duration.ofNanos(Math.max(0, openedAt + cooldownNanos - now));
+        }
+    }
+
+    /**
+     * Takes a snapshot of the breaker's state and statistics.
+     * @return the stats
+     */
+    public Stats getStats() {
+        State currentState;
+        int failureRate;
+        synchronized (this) {
+            currentState = state;
+            failureRate = windowCount == 0 ? 0 : windowFailures * 100 / windowCount;
+        }
+        return new Stats(currentState, failureRate, rejected.get(), timesOpened.get());
+    }
+
+    @Value
+    public static class Stats {
+        State state;
+        /** The percentage of failed requests in the current window, rounded down */
+        int failureRatePercent;
+        /** The number of requests turned away while the circuit wasn't closed */
+        long rejected;
+        /** The number of times the circuit opened */
+        long timesOpened;
+    }
+
+}
@@ -0,0 +1,28 @@
+package com.tisawesomeness.namehistorian.mojang;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Thrown when a Mojang request is not sent because the {@link CircuitBreaker} is open,
+ * meaning recent requests mostly failed and Mojang appears to be down.
+ * Like a rate limited lookup, this result should not be cached.
+ */
+public final class CircuitOpenException extends IOException {
+
+    private final Duration retryAfter;
+
+    public CircuitOpenException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Gets the time until Mojang is probed again. Lookups stay turned away until a probe succeeds.
+     * @return the time to wait, zero if a probe is already being sent
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+}
@@ -0,0 +1,65 @@
+package com.tisawesomeness.namehistorian.mojang;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/**
+ * Sends HTTP requests to Mojang. Responses are handed to a {@link ResponseHandler} while the body is still
+ * being received, so it can be parsed straight off the connection without buffering it first.
+ * Implementations must be thread-safe.
+ */
+public interface HttpTransport extends AutoCloseable {
+
+    /**
+     * Sends a GET request.
+     * @param url the URL
+     * @param handler reads the response, called once the status and headers are received
+     * @return the handler's result
+     * @param <T> the type of the result
+     * @throws IOException if the request failed or the handler threw
+     */
+    <T> T get(URL url, ResponseHandler<T> handler) throws IOException;
+
+    /**
+     * Sends a POST request with a JSON body.
+     * @param url the URL
+     * @param json the UTF-8 encoded JSON body
+     * @param handler reads the response, called once the status and headers are received
+     * @return the handler's result
+     * @param <T> the type of the result
+     * @throws IOException if the request failed or the handler threw
+     */
+    <T> T post(URL url, byte[] json, ResponseHandler<T> handler) throws IOException;
+
+    /**
+     * Releases any idle connections. Requests already being sent may still finish.
+     */
+    @Override
+    void close();
+
+    /**
+     * A received response. Only valid until the handler returns.
+     */
+    interface Response {
+        /** @return the HTTP status code */
+        int getStatus();
+        /**
+         * @param name the header name, ignoring case
+         * @return the header value, or null if missing
+         */
+        @Nullable String getHeader(String name);
+        /**
+         * Gets the response body. The handler doesn't have to read all of it or close it.
+         * @return the body, which is empty if the response has no body
+         */
+        InputStream getBody();
+    }
+
+    @FunctionalInterface
+    interface ResponseHandler<T> {
+        T handle(Response response) throws IOException;
+    }
+
+}
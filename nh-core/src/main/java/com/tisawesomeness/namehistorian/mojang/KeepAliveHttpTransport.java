@@ -0,0 +1,175 @@
+package com.tisawesomeness.namehistorian.mojang;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link HttpTransport} built on {@link HttpURLConnection} that keeps connections open between requests.
+ * The JDK keeps a connection alive once its response body is read to the end and closed,
+ * so this drains every response instead of calling {@link HttpURLConnection#disconnect()},
+ * and the next request to the same host reuses the socket and TLS session.
+ * A connection is only dropped if the request fails partway.
+ * <p>
+ * At most {@code maxConcurrentRequests} requests are sent at once, later requests wait in line for up to
+ * the timeout. The JDK keeps up to 5 idle connections per host by default (the {@code http.maxConnections}
+ * system property), so a higher limit still works but won't reuse every connection.
+ */
+public final class KeepAliveHttpTransport implements HttpTransport {
+
+    private static final InputStream EMPTY = new ByteArrayInputStream(new byte[0]);
+
+    private final int timeout;
+    private final int maxConcurrentRequests;
+    private final Semaphore permits;
+
+    /**
+     * Creates a new transport.
+     * @param timeout the connect and read timeout in milliseconds, and the longest time a request waits
+     *                for another to finish, 0 for no timeout
+     * @param maxConcurrentRequests the maximum number of requests sent at once, must be at least 1
+     */
+    public KeepAliveHttpTransport(int timeout, int maxConcurrentRequests) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout must be non-negative but was " + timeout);
+        }
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("maxConcurrentRequests must be at least 1 but was " +
+                    maxConcurrentRequests);
+        }
+        this.timeout = timeout;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        permits = new Semaphore(maxConcurrentRequests, true);
+    }
+
+    @Override
+    public <T> T get(URL url, ResponseHandler<T> handler) throws IOException {
+        return send("GET", url, null, handler);
+    }
+    @Override
+    public <T> T post(URL url, byte[] json, ResponseHandler<T> handler) throws IOException {
+        return send("POST", url, json, handler);
+    }
+
+    private <T> T send(String method, URL url, @Nullable byte[] body, ResponseHandler<T> handler)
+            throws IOException {
+        acquire();
+        try {
+            HttpURLConnection con = (HttpURLConnection) url.openConnection();
+            try {
+                con.setRequestMethod(method);
+                con.setRequestProperty("Accept", "application/json");
+                con.setConnectTimeout(timeout);
+                con.setReadTimeout(timeout);
+                if (body != null) {
+                    con.setRequestProperty("Content-Type", "application/json");
+                    con.setFixedLengthStreamingMode(body.length);
+                    con.setDoOutput(true);
+                    try (OutputStream os = con.getOutputStream()) {
+                        os.write(body);
+                    }
+                }
+                int status = con.getResponseCode();
+                try (InputStream is = openBody(con, status)) {
+                    T result = handler.handle(new UrlConnectionResponse(con, status, new UncloseableStream(is)));
+                    drain(is);
+                    return result;
+                }
+            } catch (IOException | RuntimeException ex) {
+                // The connection may have unread data or be broken, so it can't be reused
+                con.disconnect();
+                throw ex;
+            }
+        } finally {
+            permits.release();
+        }
+    }
+    private void acquire() throws IOException {
+        try {
+            if (timeout == 0) {
+                permits.acquire();
+            } else if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                throw new SocketTimeoutException("Timed out waiting for other requests to finish");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for other requests to finish");
+        }
+    }
+    private static InputStream openBody(HttpURLConnection con, int status) throws IOException {
+        InputStream is = status >= 400 ? con.getErrorStream() : con.getInputStream();
+        return is == null ? EMPTY : is;
+    }
+    private static void drain(InputStream is) throws IOException {
+        byte[] buf = new byte[1024];
+        while (is.read(buf) != -1) {
+            // Discard
+        }
+    }
+
+    /**
+     * Gets the number of requests being sent.
+     * @return the number of requests
+     */
+    public int getActive() {
+        return maxConcurrentRequests - permits.availablePermits();
+    }
+    /**
+     * Gets the number of requests waiting for another request to finish.
+     * @return the number of requests
+     */
+    public int getWaiting() {
+        return permits.getQueueLength();
+    }
+
+    @Override
+    public void close() {
+        // Idle connections are owned by the JDK's keep-alive cache, which closes them after they time out
+    }
+
+    private static class UrlConnectionResponse implements Response {
+        private final HttpURLConnection con;
+        private final int status;
+        private final InputStream body;
+
+        private UrlConnectionResponse(HttpURLConnection con, int status, InputStream body) {
+            this.con = con;
+            this.status = status;
+            this.body = body;
+        }
+
+        @Override
+        public int getStatus() {
+            return status;
+        }
+        @Override
+        public @Nullable String getHeader(String name) {
+            return con.getHeaderField(name);
+        }
+        @Override
+        public InputStream getBody() {
+            return body;
+        }
+    }
+
+    // The transport drains and closes the body itself, so a handler closing it early can't drop the connection
+    private static class UncloseableStream extends FilterInputStream {
+        private UncloseableStream(InputStream in) {
+            super(in);
+        }
+        @Override
+        public void close() {
+            // Closed by the transport
+        }
+    }
+
+}
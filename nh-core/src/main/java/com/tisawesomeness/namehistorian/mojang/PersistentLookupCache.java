@@ -0,0 +1,187 @@
+package com.tisawesomeness.namehistorian.mojang;
+
+import com.tisawesomeness.namehistorian.util.Util;
+import lombok.Cleanup;
+import lombok.Value;
+import org.sqlite.SQLiteDataSource;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Keeps Mojang lookup results in a small SQLite file, so they survive reloads and restarts.
+ * Both found players and players that don't exist are kept, each with the time it expires.
+ * Meant as a second-level cache behind an in-memory cache, so it is only read on an in-memory miss.
+ * Methods are synchronized on a single connection, since lookups are rare compared to the rest of the plugin.
+ */
+public final class PersistentLookupCache implements AutoCloseable {
+
+    private static final String CREATE_UUID_LOOKUP_SQL = "" +
+            "CREATE TABLE IF NOT EXISTS `uuid_lookup` (\n" +
+            "    `username_lower` TEXT PRIMARY KEY NOT NULL,\n" +
+            "    `uuid` BLOB,\n" +
+            "    `expires_at` INTEGER NOT NULL\n" +
+            ");";
+    private static final String CREATE_USERNAME_LOOKUP_SQL = "" +
+            "CREATE TABLE IF NOT EXISTS `username_lookup` (\n" +
+            "    `uuid` BLOB PRIMARY KEY NOT NULL,\n" +
+            "    `username` TEXT,\n" +
+            "    `expires_at` INTEGER NOT NULL\n" +
+            ");";
+    private static final String READ_UUID_SQL = "" +
+            "SELECT `uuid`, `expires_at`\n" +
+            "FROM `uuid_lookup`\n" +
+            "WHERE `username_lower` = ? AND `expires_at` > ?;";
+    private static final String WRITE_UUID_SQL = "" +
+            "INSERT OR REPLACE INTO `uuid_lookup` (\n" +
+            "    `username_lower`,\n" +
+            "    `uuid`,\n" +
+            "    `expires_at`\n" +
+            ") VALUES (?, ?, ?);";
+    private static final String READ_USERNAME_SQL = "" +
+            "SELECT `username`, `expires_at`\n" +
+            "FROM `username_lookup`\n" +
+            "WHERE `uuid` = ? AND `expires_at` > ?;";
+    private static final String WRITE_USERNAME_SQL = "" +
+            "INSERT OR REPLACE INTO `username_lookup` (\n" +
+            "    `uuid`,\n" +
+            "    `username`,\n" +
+            "    `expires_at`\n" +
+            ") VALUES (?, ?, ?);";
+    private static final String DELETE_EXPIRED_UUIDS_SQL = "" +
+            "DELETE FROM `uuid_lookup` WHERE `expires_at` <= ?;";
+    private static final String DELETE_EXPIRED_USERNAMES_SQL = "" +
+            "DELETE FROM `username_lookup` WHERE `expires_at` <= ?;";
+
+    private final Connection con;
+
+    /**
+     * Opens the cache, creating the file if it doesn't exist and deleting any expired lookups.
+     * @param file the path to the database file
+     * @throws SQLException if the file cannot be opened or the parent folder doesn't exist
+     */
+    public PersistentLookupCache(Path file) throws SQLException {
+        SQLiteDataSource ds = new SQLiteDataSource();
+        ds.setUrl("jdbc:sqlite:" + file.toFile().getAbsolutePath());
+        con = ds.getConnection();
+        try {
+            @Cleanup Statement st = con.createStatement();
+            st.executeUpdate(CREATE_UUID_LOOKUP_SQL);
+            st.executeUpdate(CREATE_USERNAME_LOOKUP_SQL);
+            purgeExpired(Instant.now());
+        } catch (SQLException ex) {
+            con.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Gets a cached UUID lookup.
+     * @param username the username, ignoring case
+     * @param now the current time, lookups that expired before this are ignored
+     * @return the lookup, or empty if the username isn't cached
+     * @throws SQLException on database error
+     */
+    public synchronized Optional<Entry<UUID>> getUUID(String username, Instant now) throws SQLException {
+        @Cleanup PreparedStatement st = con.prepareStatement(READ_UUID_SQL);
+        st.setString(1, username.toLowerCase(Locale.ROOT));
+        st.setLong(2, now.toEpochMilli());
+        @Cleanup ResultSet rs = st.executeQuery();
+        if (!rs.next()) {
+            return Optional.empty();
+        }
+        byte[] uuidBytes = rs.getBytes("uuid");
+        Optional<UUID> uuidOpt = uuidBytes == null ? Optional.empty() : Optional.of(Util.uuidFromBytes(uuidBytes));
+        return Optional.of(new Entry<>(uuidOpt, Instant.ofEpochMilli(rs.getLong("expires_at"))));
+    }
+    /**
+     * Caches a UUID lookup, replacing any previous lookup of the same username.
+     * @param username the username, ignoring case
+     * @param uuid the player's UUID, or empty if no player has the username
+     * @param expiresAt when the lookup should no longer be used
+     * @throws SQLException on database error
+     */
+    public synchronized void putUUID(String username, Optional<UUID> uuid, Instant expiresAt) throws SQLException {
+        @Cleanup PreparedStatement st = con.prepareStatement(WRITE_UUID_SQL);
+        st.setString(1, username.toLowerCase(Locale.ROOT));
+        if (uuid.isPresent()) {
+            st.setBytes(2, Util.uuidToBytes(uuid.get()));
+        } else {
+            st.setNull(2, Types.BLOB);
+        }
+        st.setLong(3, expiresAt.toEpochMilli());
+        st.executeUpdate();
+    }
+
+    /**
+     * Gets a cached username lookup.
+     * @param uuid the player's UUID
+     * @param now the current time, lookups that expired before this are ignored
+     * @return the lookup, or empty if the UUID isn't cached
+     * @throws SQLException on database error
+     */
+    public synchronized Optional<Entry<String>> getUsername(UUID uuid, Instant now) throws SQLException {
+        @Cleanup PreparedStatement st = con.prepareStatement(READ_USERNAME_SQL);
+        st.setBytes(1, Util.uuidToBytes(uuid));
+        st.setLong(2, now.toEpochMilli());
+        @Cleanup ResultSet rs = st.executeQuery();
+        if (!rs.next()) {
+            return Optional.empty();
+        }
+        Optional<String> usernameOpt = Optional.ofNullable(rs.getString("username"));
+        return Optional.of(new Entry<>(usernameOpt, Instant.ofEpochMilli(rs.getLong("expires_at"))));
+    }
+    /**
+     * Caches a username lookup, replacing any previous lookup of the same UUID.
+     * @param uuid the player's UUID
+     * @param username the player's username, or empty if no player has the UUID
+     * @param expiresAt when the lookup should no longer be used
+     * @throws SQLException on database error
+     */
+    public synchronized void putUsername(UUID uuid, Optional<String> username, Instant expiresAt) throws SQLException {
+        @Cleanup PreparedStatement st = con.prepareStatement(WRITE_USERNAME_SQL);
+        st.setBytes(1, Util.uuidToBytes(uuid));
+        st.setString(2, username.orElse(null));
+        st.setLong(3, expiresAt.toEpochMilli());
+        st.executeUpdate();
+    }
+
+    /**
+     * Deletes every lookup that expired before the given time, so the file doesn't keep growing.
+     * @param now the current time
+     * @return the number of lookups deleted
+     * @throws SQLException on database error
+     */
+    public synchronized int purgeExpired(Instant now) throws SQLException {
+        int deleted = 0;
+        for (String sql : new String[]{DELETE_EXPIRED_UUIDS_SQL, DELETE_EXPIRED_USERNAMES_SQL}) {
+            @Cleanup PreparedStatement st = con.prepareStatement(sql);
+            st.setLong(1, now.toEpochMilli());
+            deleted += st.executeUpdate();
+        }
+        return deleted;
+    }
+
+    @Override
+    public synchronized void close() throws SQLException {
+        con.close();
+    }
+
+    @Value
+    public static class Entry<T> {
+        /** The lookup result, or empty if the player doesn't exist */
+        Optional<T> value;
+        /** When the lookup should no longer be used */
+        Instant expiresAt;
+    }
+
+}
@@ -0,0 +1,28 @@
+package com.tisawesomeness.namehistorian.mojang;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Thrown when a Mojang request is not sent because of rate limiting, either because too many requests
+ * are already waiting for the {@link RateLimiter} or because Mojang answered 429 Too Many Requests.
+ * Unlike a player that doesn't exist, this result should not be cached.
+ */
+public final class RateLimitedException extends IOException {
+
+    private final Duration retryAfter;
+
+    public RateLimitedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Gets the time until requests are expected to be allowed again.
+     * @return the time to wait
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+}
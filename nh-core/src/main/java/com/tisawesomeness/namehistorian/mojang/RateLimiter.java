@@ -0,0 +1,202 @@
+package com.tisawesomeness.namehistorian.mojang;
+
+import lombok.Value;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket that keeps Mojang requests under a per-IP rate limit.
+ * Up to {@code burst} requests are sent right away, after that one request is allowed every refill interval.
+ * Callers over the limit wait in line, in the order they arrived. A caller that would have to wait longer than
+ * the maximum wait is turned away with a {@link RateLimitedException} instead, so a burst of lookups
+ * can't build an unbounded queue.
+ * <p>
+ * When Mojang answers 429 Too Many Requests anyway, {@link #onTooManyRequests(String)} empties the bucket
+ * and pauses every request until the Retry-After time has passed.
+ */
+public final class RateLimiter {
+
+    /** How long requests are paused after a 429 response without a usable Retry-After header */
+    public static final Duration DEFAULT_RETRY_AFTER = Duration.ofSeconds(30);
+
+    private final int burst;
+    private final long nanosPerPermit;
+    private final long maxWaitNanos;
+
+    // Guarded by this. Tokens go negative while callers are waiting for a permit,
+    // and the last refill time is in the future while paused by a 429.
+    private double tokens;
+    private long lastRefill;
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong granted = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong tooManyRequests = new AtomicLong();
+
+    /**
+     * Creates a full token bucket.
+     * @param permitsPerMinute the sustained number of requests allowed per minute, must be at least 1
+     * @param burst the number of requests that can be sent at once after a quiet period, must be at least 1
+     * @param maxWait the longest time a caller waits for a permit before being turned away
+     */
+    public RateLimiter(int permitsPerMinute, int burst, Duration maxWait) {
+        this(permitsPerMinute, burst, maxWait, System.nanoTime());
+    }
+    RateLimiter(int permitsPerMinute, int burst, Duration maxWait, long nowNanos) {
+        if (permitsPerMinute < 1) {
+            throw new IllegalArgumentException("permitsPerMinute must be at least 1 but was " + permitsPerMinute);
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be at least 1 but was " + burst);
+        }
+        this.burst = burst;
+        nanosPerPermit = TimeUnit.MINUTES.toNanos(1) / permitsPerMinute;
+        maxWaitNanos = maxWait.toNanos();
+        tokens = burst;
+        lastRefill = nowNanos;
+    }
+
+    /**
+     * Waits for a permit to send one request.
+     * @throws RateLimitedException if the wait would be longer than the maximum wait
+     * @throws InterruptedException if interrupted while waiting, the permit is lost
+     */
+    public void acquire() throws RateLimitedException, InterruptedException {
+        long wait = reserve(System.nanoTime());
+        if (wait > 0) {
+            waiting.incrementAndGet();
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } finally {
+                waiting.decrementAndGet();
+            }
+        }
+    }
+    /**
+     * Takes a permit, possibly one that only becomes available in the future.
+     * @param now the current {@link System#nanoTime()}
+     * @return how long to wait before using the permit, 0 to use it now
+     * @throws RateLimitedException if the wait would be longer than the maximum wait, no permit is taken
+     */
+    synchronized long reserve(long now) throws RateLimitedException {
+        refill(now);
+        long wait = Math.max(0, lastRefill - now);
+        if (tokens < 1) {
+            wait += (long) Math.ceil((1 - tokens) * nanosPerPermit);
+        }
+        if (wait > maxWaitNanos) {
+            rejected.incrementAndGet();
+            throw new RateLimitedException("Too many Mojang requests are waiting", Duration.ofNanos(wait));
+        }
+        tokens--;
+        granted.incrementAndGet();
+        if (wait > 0) {
+            throttled.incrementAndGet();
+        }
+        return wait;
+    }
+    private void refill(long now) {
+        if (now <= lastRefill) {
+            return;
+        }
+        tokens = Math.min(burst, tokens + (double) (now - lastRefill) / nanosPerPermit);
+        lastRefill = now;
+    }
+
+    /**
+     * Handles a 429 Too Many Requests response by pausing all requests.
+     * @param retryAfterHeader the value of the Retry-After header, or null if missing
+     * @return an exception for the request that was turned away
+     */
+    public RateLimitedException onTooManyRequests(@Nullable String retryAfterHeader) {
+        Duration retryAfter = parseRetryAfter(retryAfterHeader, Instant.now()).orElse(DEFAULT_RETRY_AFTER);
+        backOff(System.nanoTime(), retryAfter);
+        return new RateLimitedException("Mojang API rate limit reached", retryAfter);
+    }
+    synchronized void backOff(long now, Duration retryAfter) {
+        tooManyRequests.incrementAndGet();
+        refill(now);
+        // Callers already waiting keep their place in line, but behind the pause
+        tokens = Math.min(tokens, 0);
+        lastRefill = Math.max(lastRefill, now + retryAfter.toNanos());
+    }
+
+    /**
+     * Parses a Retry-After header, which is either a number of seconds or an HTTP date.
+     * @param header the header value, or null if missing
+     * @param now the current time, used for HTTP dates
+     * @return the time to wait, or empty if the header is missing or invalid
+     */
+    static Optional<Duration> parseRetryAfter(@Nullable String header, Instant now) {
+        if (header == null) {
+            return Optional.empty();
+        }
+        String trimmed = header.trim();
+        try {
+            long seconds = Long.parseLong(trimmed);
+            return seconds < 0 ? Optional.empty() : Optional.of(Duration.ofSeconds(seconds));
+        } catch (NumberFormatException ignored) {
+            // Not seconds, try a date
+        }
+        try {
+            Instant retryAt = ZonedDateTime.parse(trimmed, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            Duration wait = Duration.between(now, retryAt);
+            return Optional.of(wait.isNegative() ? Duration.ZERO : wait);
+        } catch (DateTimeParseException ex) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Takes a snapshot of the limiter's state and statistics.
+     * @return the stats
+     */
+    public Stats getStats() {
+        long now = System.nanoTime();
+        double available;
+        long pausedNanos;
+        synchronized (this) {
+            refill(now);
+            available = tokens;
+            pausedNanos = Math.max(0, lastRefill - now);
+        }
+        return new Stats(
+                (int) Math.max(0, Math.floor(available)),
+                waiting.get(),
+                Duration.ofNanos(pausedNanos),
+                granted.get(),
+                throttled.get(),
+                rejected.get(),
+                tooManyRequests.get()
+        );
+    }
+
+    @Value
+    public static class Stats {
+        /** The number of requests that can be sent right now without waiting */
+        int available;
+        /** The number of callers currently waiting for a permit */
+        int waiting;
+        /** The remaining time requests are paused after a 429 response, zero if not paused */
+        Duration pausedFor;
+        /** The number of requests allowed */
+        long granted;
+        /** The number of requests allowed only after waiting */
+        long throttled;
+        /** The number of requests turned away because the wait would be too long */
+        long rejected;
+        /** The number of 429 responses received */
+        long tooManyRequests;
+    }
+
+}
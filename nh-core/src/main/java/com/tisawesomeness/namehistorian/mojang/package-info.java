@@ -0,0 +1,4 @@
+@AllNonnullByDefault
+package com.tisawesomeness.namehistorian.mojang;
+
+import com.tisawesomeness.namehistorian.util.AllNonnullByDefault;
\ No newline at end of file
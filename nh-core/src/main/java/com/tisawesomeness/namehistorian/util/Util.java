@@ -5,6 +5,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Optional;
 import java.util.UUID;
@@ -78,6 +79,31 @@ public final class Util {
         return str;
     }
 
+    /**
+     * Converts a UUID to its 16-byte big-endian binary form, most significant bits first.
+     * @param uuid the UUID
+     * @return a new 16-byte array
+     */
+    public static byte[] uuidToBytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+    /**
+     * Converts a UUID from its 16-byte binary form, as returned by {@link #uuidToBytes(UUID)}.
+     * @param bytes the 16-byte array
+     * @return the UUID
+     * @throws IllegalArgumentException if the array is not 16 bytes long
+     */
+    public static UUID uuidFromBytes(byte[] bytes) {
+        if (bytes.length != 16) {
+            throw new IllegalArgumentException("A binary UUID must be 16 bytes but was " + bytes.length);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        return new UUID(buf.getLong(), buf.getLong());
+    }
+
     /**
      * Reads an embedded resource file as a string.
      * @param name The name of the resource file
@@ -0,0 +1,16 @@
+CREATE TABLE IF NOT EXISTS `current_name` (
+    `uuid` TEXT PRIMARY KEY NOT NULL,
+    `history_id` INTEGER NOT NULL,
+    `username` TEXT NOT NULL,
+    `first_seen_time` INTEGER NOT NULL
+);
+INSERT OR REPLACE INTO `current_name` (`uuid`, `history_id`, `username`, `first_seen_time`)
+SELECT `h`.`uuid`, `h`.`id`, `h`.`username`, `h`.`first_seen_time`
+FROM `name_history` `h`
+WHERE `h`.`id` = (
+    SELECT `latest`.`id`
+    FROM `name_history` `latest`
+    WHERE `latest`.`uuid` = `h`.`uuid`
+    ORDER BY `latest`.`first_seen_time` DESC, `latest`.`id` DESC
+    LIMIT 1
+);
@@ -0,0 +1,3 @@
+ALTER TABLE `name_history` ADD COLUMN `username_lower` TEXT NOT NULL DEFAULT '';
+UPDATE `name_history` SET `username_lower` = lower(`username`);
+CREATE INDEX IF NOT EXISTS `username_lower_index` ON `name_history` (`username_lower`, `first_seen_time` DESC);
@@ -0,0 +1,18 @@
+CREATE TABLE IF NOT EXISTS `name_history` (
+    `id` INT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    `uuid` BINARY(16) NOT NULL,
+    `username` VARCHAR(32) NOT NULL,
+    `username_lower` VARCHAR(32) NOT NULL,
+    `first_seen_time` BIGINT NOT NULL,
+    `detected_time` BIGINT,
+    `last_seen_time` BIGINT NOT NULL,
+    INDEX `uuid_index` (`uuid`),
+    INDEX `first_seen_time_index` (`first_seen_time`),
+    INDEX `username_lower_index` (`username_lower`, `first_seen_time`)
+);
+CREATE TABLE IF NOT EXISTS `current_name` (
+    `uuid` BINARY(16) NOT NULL PRIMARY KEY,
+    `history_id` INT NOT NULL,
+    `username` VARCHAR(32) NOT NULL,
+    `first_seen_time` BIGINT NOT NULL
+);
@@ -0,0 +1,50 @@
+package com.tisawesomeness.namehistorian;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LatestNameCacheTest {
+
+    private static final UUID UUID_1 = new UUID(0, 1);
+    private static final UUID UUID_2 = new UUID(0, 2);
+    private static final UUID UUID_3 = new UUID(0, 3);
+
+    @Test
+    public void testHitAndMiss() {
+        LatestNameCache cache = new LatestNameCache(10);
+        assertThat(cache.get(UUID_1)).isNull();
+        cache.put(UUID_1, new CurrentName(1, "test", 1000));
+        assertThat(cache.get(UUID_1)).isEqualTo(new CurrentName(1, "test", 1000));
+
+        CacheStats stats = cache.getStats();
+        assertThat(stats.getHits()).isEqualTo(1);
+        assertThat(stats.getMisses()).isEqualTo(1);
+        assertThat(stats.getHitRate()).isEqualTo(0.5);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        LatestNameCache cache = new LatestNameCache(2);
+        cache.put(UUID_1, new CurrentName(1, "one", 1000));
+        cache.put(UUID_2, new CurrentName(2, "two", 1000));
+        cache.get(UUID_1);
+        cache.put(UUID_3, new CurrentName(3, "three", 1000));
+
+        assertThat(cache.get(UUID_1)).isNotNull();
+        assertThat(cache.get(UUID_2)).isNull();
+        assertThat(cache.get(UUID_3)).isNotNull();
+        assertThat(cache.getStats().getSize()).isEqualTo(2);
+    }
+
+    @Test
+    public void testDisabled() {
+        LatestNameCache cache = new LatestNameCache(0);
+        cache.put(UUID_1, new CurrentName(1, "test", 1000));
+        assertThat(cache.get(UUID_1)).isNull();
+        assertThat(cache.getStats().getSize()).isZero();
+    }
+
+}
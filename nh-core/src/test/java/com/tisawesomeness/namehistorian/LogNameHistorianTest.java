@@ -0,0 +1,240 @@
+package com.tisawesomeness.namehistorian;
+
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Runs every {@link NameHistorianTest} against {@link LogNameHistoryStore}, plus tests specific to the log.
+ * Segments are kept tiny so the tests cross segment boundaries and trigger compaction.
+ */
+public class LogNameHistorianTest extends NameHistorianTest {
+
+    private static final UUID TIS_UUID = UUID.fromString("f6489b79-7a9f-49e2-980e-265a05dbc3af");
+    private static final UUID JEB_UUID = UUID.fromString("853c80ef-3c37-49fd-aa49-938b674adae6");
+    private static final Instant START = Instant.parse("2020-01-01T00:00:00Z");
+    private static final int SEGMENT_ENTRIES = 16;
+
+    @Override
+    protected NameHistorian open(Path parent) throws SQLException, IOException {
+        Path logPath = parent.resolve("test-log");
+        deleteRecursively(logPath);
+        return new NameHistorian(new LogNameHistoryStore(logPath, SEGMENT_ENTRIES, false));
+    }
+
+    @Test
+    @Override
+    @Disabled("The log has no current name cache")
+    public void testCacheHit() {
+    }
+    @Test
+    @Override
+    @Disabled("SQLite only")
+    public void testMigrateFromV0() {
+    }
+    @Test
+    @Override
+    @Disabled("SQLite only")
+    public void testResumeBinaryUuidMigration() {
+    }
+    @Test
+    @Override
+    @Disabled("SQLite only")
+    public void testNewerVersion() {
+    }
+
+    private static Path freshLog() throws IOException {
+        Path logPath = Paths.get("target", "log-test");
+        deleteRecursively(logPath);
+        return logPath;
+    }
+    private static LogNameHistoryStore openStore(Path logPath) throws SQLException {
+        return new LogNameHistoryStore(logPath, SEGMENT_ENTRIES, false);
+    }
+    private static NameRecord record(UUID uuid, String username, long day) {
+        Instant time = START.plus(Duration.ofDays(day));
+        return new NameRecord(uuid, username, time, null, time);
+    }
+
+    @Test
+    public void testReopen() throws SQLException, IOException {
+        Path logPath = freshLog();
+        List<NameRecord> history;
+        try (LogNameHistoryStore store = openStore(logPath)) {
+            for (int day = 0; day < 40; day++) {
+                store.recordName(record(TIS_UUID, "name" + day / 10, day));
+            }
+            store.recordName(new NameRecord(JEB_UUID, "jeb_", START, START.plusSeconds(1), START));
+            history = store.getNameHistory(TIS_UUID);
+        }
+        try (LogNameHistoryStore store = openStore(logPath)) {
+            assertThat(store.getNameHistory(TIS_UUID)).isEqualTo(history);
+            assertThat(store.getNameHistory(JEB_UUID)).singleElement()
+                    .satisfies(nr -> assertThat(nr.getRawDetectedTime()).isEqualTo(START.plusSeconds(1)));
+            assertThat(store.getLatestByUsername("NAME3").map(NameRecord::getUuid)).contains(TIS_UUID);
+        }
+    }
+
+    @Test
+    public void testReplayWithoutCheckpoint() throws SQLException, IOException {
+        Path logPath = freshLog();
+        try (LogNameHistoryStore store = openStore(logPath)) {
+            store.recordName(record(TIS_UUID, "test", 0));
+            store.recordName(record(TIS_UUID, "test", 1));
+            store.recordName(record(TIS_UUID, "test2", 2));
+        }
+        Files.delete(logPath.resolve("checkpoint"));
+        try (LogNameHistoryStore store = openStore(logPath)) {
+            List<NameRecord> history = store.getNameHistory(TIS_UUID);
+            assertThat(history).extracting(NameRecord::getUsername).containsExactly("test2", "test");
+            assertThat(history.get(1).getLastSeenTime()).isEqualTo(START.plus(Duration.ofDays(1)));
+        }
+    }
+
+    @Test
+    public void testTornBatchIgnored() throws SQLException, IOException {
+        Path logPath = freshLog();
+        try (LogNameHistoryStore store = openStore(logPath)) {
+            store.recordName(record(TIS_UUID, "test", 0));
+            store.recordNameRecords(Arrays.asList(record(TIS_UUID, "test2", 1), record(JEB_UUID, "jeb_", 1)));
+            assertThat(store.getEntryCount()).isEqualTo(3);
+        }
+        Files.delete(logPath.resolve("checkpoint"));
+        // Damage the last entry, as if the process died while writing it
+        try (FileChannel channel = FileChannel.open(logPath.resolve("segment-0-00000000.log"),
+                StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{42}), 2L * LogNameHistoryStore.ENTRY_SIZE + 1);
+        }
+
+        try (LogNameHistoryStore store = openStore(logPath)) {
+            assertThat(store.getEntryCount()).isEqualTo(1);
+            assertThat(store.getNameHistory(TIS_UUID)).extracting(NameRecord::getUsername).containsExactly("test");
+            assertThat(store.getNameHistory(JEB_UUID)).isEmpty();
+            store.recordName(record(JEB_UUID, "jeb_", 2));
+        }
+        try (LogNameHistoryStore store = openStore(logPath)) {
+            assertThat(store.getNameHistory(TIS_UUID)).hasSize(1);
+            assertThat(store.getNameHistory(JEB_UUID)).hasSize(1);
+        }
+    }
+
+    @Test
+    public void testCompaction() throws SQLException, IOException {
+        Path logPath = freshLog();
+        List<NameRecord> records = new ArrayList<>();
+        // Few enough touches to stay under the automatic compaction threshold
+        for (int day = 0; day < 8; day++) {
+            records.add(record(TIS_UUID, "test", day));
+            records.add(record(JEB_UUID, day < 5 ? "jeb_" : "jeb2", day));
+        }
+        try (LogNameHistoryStore store = openStore(logPath)) {
+            store.recordNameRecords(records);
+            assertThat(store.getEntryCount()).isEqualTo(16);
+            List<NameRecord> tisHistory = store.getNameHistory(TIS_UUID);
+            List<NameRecord> jebHistory = store.getNameHistory(JEB_UUID);
+
+            store.compact();
+            assertThat(store.getEntryCount()).isEqualTo(3);
+            assertThat(store.getNameHistory(TIS_UUID)).isEqualTo(tisHistory);
+            assertThat(store.getNameHistory(JEB_UUID)).isEqualTo(jebHistory);
+            store.recordName(record(TIS_UUID, "test", 20));
+        }
+        try (Stream<Path> files = Files.list(logPath)) {
+            assertThat(files.map(p -> p.getFileName().toString()))
+                    .containsExactlyInAnyOrder("checkpoint", "segment-1-00000000.log");
+        }
+        try (LogNameHistoryStore store = openStore(logPath)) {
+            assertThat(store.getNameHistory(TIS_UUID)).singleElement()
+                    .satisfies(nr -> assertThat(nr.getLastSeenTime()).isEqualTo(START.plus(Duration.ofDays(20))));
+            assertThat(store.getNameHistory(JEB_UUID)).extracting(NameRecord::getUsername)
+                    .containsExactly("jeb2", "jeb_");
+        }
+    }
+
+    @Test
+    public void testAutomaticCompaction() throws SQLException, IOException {
+        try (LogNameHistoryStore store = openStore(freshLog())) {
+            for (int day = 0; day < 100; day++) {
+                store.recordName(record(TIS_UUID, "test", day));
+            }
+            assertThat(store.getEntryCount()).isLessThanOrEqualTo(SEGMENT_ENTRIES);
+            assertThat(store.getNameHistory(TIS_UUID)).singleElement()
+                    .satisfies(nr -> assertThat(nr.getLastSeenTime()).isEqualTo(START.plus(Duration.ofDays(99))));
+        }
+    }
+
+    @Test
+    public void testExportAcrossCompaction() throws SQLException, IOException {
+        try (LogNameHistoryStore store = openStore(freshLog())) {
+            store.recordName(record(TIS_UUID, "test", 0));
+            for (int day = 1; day < 6; day++) {
+                store.recordName(record(TIS_UUID, "test", day));
+            }
+            store.recordName(record(JEB_UUID, "jeb_", 6));
+            store.recordName(record(TIS_UUID, "test2", 7));
+
+            ExportBatch first = store.readExportBatch(0, 2);
+            assertThat(first.getRecords()).extracting(NameRecord::getUsername).containsExactly("test", "jeb_");
+            store.compact();
+            ExportBatch second = store.readExportBatch(first.getCursor(), 2);
+            assertThat(second.getRecords()).extracting(NameRecord::getUsername).containsExactly("test2");
+        }
+    }
+
+    @Test
+    public void testHistoryPageAcrossCompaction() throws SQLException, IOException {
+        try (LogNameHistoryStore store = openStore(freshLog())) {
+            for (int day = 0; day < 4; day++) {
+                store.recordName(record(JEB_UUID, "jeb_", day));
+                store.recordName(record(TIS_UUID, "name" + day, day));
+            }
+            HistoryPage first = store.getNameHistoryPage(TIS_UUID, HistoryCursor.START, 2);
+            store.compact();
+            HistoryPage second = store.getNameHistoryPage(TIS_UUID, first.getNext(), 2);
+            assertThat(second.getRecords()).extracting(NameRecord::getUsername).containsExactly("name1", "name0");
+            assertThat(second.getNext()).isNull();
+        }
+    }
+
+    @Test
+    public void testUsernameTooLong() throws SQLException, IOException {
+        try (LogNameHistoryStore store = openStore(freshLog())) {
+            char[] username = new char[33];
+            Arrays.fill(username, 'a');
+            assertThatThrownBy(() -> store.recordName(record(TIS_UUID, new String(username), 0)))
+                    .isInstanceOf(SQLException.class);
+            assertThat(store.getEntryCount()).isZero();
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.tisawesomeness.namehistorian;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+public class MetricsTest {
+
+    @Test
+    public void testEmptyHistogram() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+        assertThat(snapshot.getCount()).isZero();
+        assertThat(snapshot.getMean()).isEqualTo(Duration.ZERO);
+        assertThat(snapshot.getP99()).isEqualTo(Duration.ZERO);
+        assertThat(snapshot.getMax()).isEqualTo(Duration.ZERO);
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 90 fast operations and 10 slow ones
+        for (int i = 0; i < 90; i++) {
+            histogram.record(Duration.ofMillis(1).toNanos());
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(Duration.ofMillis(100).toNanos());
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.getCount()).isEqualTo(100);
+        assertThat(snapshot.getMean()).isEqualTo(Duration.ofNanos(10_900_000));
+        assertThat(snapshot.getMax()).isEqualTo(Duration.ofMillis(100));
+        // Percentiles are rounded up to the next power of two microseconds, but never past the max
+        assertThat(snapshot.getP50()).isBetween(Duration.ofMillis(1), Duration.ofMillis(2));
+        assertThat(snapshot.getP95()).isEqualTo(Duration.ofMillis(100));
+        assertThat(snapshot.getP99()).isEqualTo(Duration.ofMillis(100));
+    }
+
+    @Test
+    public void testExtremeLatencies() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(0);
+        histogram.record(Long.MAX_VALUE);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.getCount()).isEqualTo(3);
+        assertThat(snapshot.getP50()).isLessThanOrEqualTo(Duration.ofNanos(1000));
+        assertThat(snapshot.getMax()).isEqualTo(Duration.ofNanos(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testRegistry() {
+        Metrics metrics = new Metrics();
+        metrics.counter("b.counter").increment();
+        metrics.counter("b.counter").add(2);
+        AtomicLong gaugeValue = new AtomicLong(5);
+        metrics.gauge("a.gauge", gaugeValue::get);
+        metrics.histogram("c.latency").record(Duration.ofMillis(3).toNanos());
+
+        assertThat(metrics.counter("b.counter")).isSameAs(metrics.counter("b.counter"));
+        assertThat(metrics.histogram("c.latency")).isSameAs(metrics.histogram("c.latency"));
+
+        Metrics.Snapshot snapshot = metrics.snapshot();
+        assertThat(snapshot.getValues()).containsExactly(entry("a.gauge", 5L), entry("b.counter", 3L));
+        assertThat(snapshot.getLatencies().get("c.latency").getCount()).isEqualTo(1);
+
+        gaugeValue.set(7);
+        assertThat(metrics.snapshot().getValues()).containsEntry("a.gauge", 7L);
+    }
+
+    @Test
+    public void testFormat() {
+        Metrics metrics = new Metrics();
+        metrics.counter("requests").add(4);
+        metrics.histogram("latency").record(Duration.ofMillis(2).toNanos());
+        assertThat(metrics.snapshot().format())
+                .contains("requests: 4")
+                .contains("latency: 1 calls")
+                .contains("max 2.000 ms");
+    }
+
+}
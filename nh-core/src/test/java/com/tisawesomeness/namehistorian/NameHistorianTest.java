@@ -1,19 +1,35 @@
 package com.tisawesomeness.namehistorian;
 
+import com.tisawesomeness.namehistorian.util.Util;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.sqlite.SQLiteDataSource;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
 
 public class NameHistorianTest {
 
@@ -26,9 +42,21 @@ public class NameHistorianTest {
     public void setUp() throws SQLException, IOException {
         Path parent = Paths.get("target");
         Files.createDirectories(parent);
+        historian = open(parent);
+    }
+    /**
+     * Opens an empty historian, overridden to run these tests against other storage engines.
+     * @param parent the folder to keep any files in
+     * @return the historian
+     */
+    protected NameHistorian open(Path parent) throws SQLException, IOException {
         Path dbPath = parent.resolve("test.db");
         Files.deleteIfExists(dbPath);
-        historian = new NameHistorian(dbPath);
+        return new NameHistorian(dbPath);
+    }
+    @AfterEach
+    public void tearDown() throws SQLException {
+        historian.close();
     }
 
     @Test
@@ -86,4 +114,561 @@ public class NameHistorianTest {
                 .containsExactly("test2");
     }
 
+    @Test
+    public void testBulkRecordSamePlayer() throws SQLException {
+        historian.recordName(TIS_UUID, "test");
+        historian.recordNames(Arrays.asList(
+                new NamedPlayer(TIS_UUID, "test"),
+                new NamedPlayer(JEB_UUID, "test3"),
+                new NamedPlayer(TIS_UUID, "test2"),
+                new NamedPlayer(TIS_UUID, "test2")
+        ));
+        assertThat(historian.getNameHistory(TIS_UUID))
+                .extracting(NameRecord::getUsername)
+                .containsExactly("test2", "test");
+        assertThat(historian.getNameHistory(JEB_UUID))
+                .extracting(NameRecord::getUsername)
+                .containsExactly("test3");
+    }
+
+    @Test
+    public void testStagedBulkRecord() throws SQLException {
+        Instant past = Instant.now().minus(Duration.ofDays(1000));
+        Instant older = past.minus(Duration.ofDays(1000));
+        List<NamedPlayer> players = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            UUID uuid = new UUID(0, i);
+            historian.recordName(new NameRecord(uuid, "player" + i, past, null, past));
+            players.add(new NamedPlayer(uuid, i % 2 == 0 ? "player" + i : "renamed" + i));
+        }
+        List<NameRecord> records = new ArrayList<>();
+        records.add(new NameRecord(TIS_UUID, "test", past, null, past));
+        records.add(new NameRecord(new UUID(0, 0), "ancient", older, null, older));
+        for (int i = 1; i < 50; i++) {
+            records.add(new NameRecord(new UUID(1, i), "new" + i, past, null, past));
+        }
+
+        historian.recordNames(players);
+        historian.recordNameRecords(records);
+
+        List<NameRecord> unchanged = historian.getNameHistory(new UUID(0, 2));
+        assertThat(unchanged).extracting(NameRecord::getUsername).containsExactly("player2");
+        assertThat(unchanged.get(0).getLastSeenTime()).isAfter(past);
+        assertThat(historian.getNameHistory(new UUID(0, 3)))
+                .extracting(NameRecord::getUsername)
+                .containsExactly("renamed3", "player3");
+        assertThat(historian.getNameHistory(new UUID(0, 0)))
+                .extracting(NameRecord::getUsername)
+                .containsExactly("player0", "ancient");
+        assertThat(historian.getNameHistory(TIS_UUID))
+                .extracting(NameRecord::getUsername)
+                .containsExactly("test");
+
+        // Current names must still be correct after the bulk writes
+        historian.recordName(new UUID(0, 0), "player0");
+        historian.recordName(new UUID(0, 3), "renamed3");
+        assertThat(historian.getNameHistory(new UUID(0, 0))).hasSize(2);
+        assertThat(historian.getNameHistory(new UUID(0, 3))).hasSize(2);
+        assertThat(historian.getLatestByUsername("RENAMED3").map(NameRecord::getUuid)).contains(new UUID(0, 3));
+    }
+
+    @Test
+    public void testRepeatedName() throws SQLException {
+        historian.recordName(TIS_UUID, "test");
+        historian.recordName(TIS_UUID, "test");
+        assertThat(historian.getNameHistory(TIS_UUID)).hasSize(1);
+    }
+
+    @Test
+    public void testOlderExternalName() throws SQLException {
+        historian.recordName(TIS_UUID, "test");
+        Instant past = Instant.now().minus(Duration.ofDays(1000));
+        historian.recordName(new NameRecord(TIS_UUID, "old", past, null, past));
+        historian.recordName(TIS_UUID, "test");
+
+        assertThat(historian.getNameHistory(TIS_UUID))
+                .extracting(NameRecord::getUsername)
+                .containsExactly("test", "old");
+    }
+
+    @Test
+    public void testCacheHit() throws SQLException {
+        historian.recordName(TIS_UUID, "test");
+        historian.recordName(TIS_UUID, "test");
+        historian.recordName(TIS_UUID, "test2");
+        historian.recordName(TIS_UUID, "test2");
+
+        assertThat(historian.getNameHistory(TIS_UUID))
+                .extracting(NameRecord::getUsername)
+                .containsExactly("test2", "test");
+        CacheStats stats = historian.getCacheStats();
+        assertThat(stats.getMisses()).isEqualTo(1);
+        assertThat(stats.getHits()).isEqualTo(3);
+    }
+
+    @Test
+    public void testCacheKeepsCurrentName() throws SQLException {
+        historian.recordName(TIS_UUID, "test");
+        Instant past = Instant.now().minus(Duration.ofDays(1000));
+        historian.recordName(new NameRecord(TIS_UUID, "old", past, null, past));
+        historian.recordNames(Arrays.asList(
+                new NamedPlayer(TIS_UUID, "test"),
+                new NamedPlayer(TIS_UUID, "test2"),
+                new NamedPlayer(TIS_UUID, "test2")
+        ));
+
+        assertThat(historian.getNameHistory(TIS_UUID))
+                .extracting(NameRecord::getUsername)
+                .containsExactly("test2", "test", "old");
+    }
+
+    @Test
+    public void testLatestByUsername() throws SQLException {
+        assertThat(historian.getLatestByUsername("test")).isEmpty();
+        Instant past = Instant.now().minus(Duration.ofDays(1000));
+        historian.recordName(new NameRecord(JEB_UUID, "Test", past, null, past));
+        historian.recordName(TIS_UUID, "test");
+
+        assertThat(historian.getLatestByUsername("TEST")).hasValueSatisfying(nr -> {
+            assertThat(nr.getUuid()).isEqualTo(TIS_UUID);
+            assertThat(nr.getUsername()).isEqualTo("test");
+        });
+        assertThat(historian.getLatestByUsername("tEsT").map(NameRecord::getUuid)).contains(TIS_UUID);
+    }
+
+    @Test
+    public void testAllHoldersOf() throws SQLException, InterruptedException, ExecutionException, TimeoutException {
+        assertThat(historian.getAllHoldersOf("test")).isEmpty();
+        Instant past = Instant.now().minus(Duration.ofDays(1000));
+        historian.recordName(new NameRecord(JEB_UUID, "Test", past, null, past));
+        historian.recordName(TIS_UUID, "test");
+        historian.recordName(TIS_UUID, "test2");
+
+        assertThat(historian.getAllHoldersOf("TEST"))
+                .extracting(NameRecord::getUuid, NameRecord::getUsername)
+                .containsExactly(tuple(TIS_UUID, "test"), tuple(JEB_UUID, "Test"));
+        assertThat(historian.getAllHoldersOfAsync("test2").get(5, TimeUnit.SECONDS))
+                .extracting(NameRecord::getUuid)
+                .containsExactly(TIS_UUID);
+    }
+
+    @Test
+    public void testHoldersAt() throws SQLException, InterruptedException, ExecutionException, TimeoutException {
+        Instant past = Instant.now().minus(Duration.ofDays(1000));
+        historian.recordName(new NameRecord(JEB_UUID, "Test", past, null, past.plus(Duration.ofDays(10))));
+        historian.recordName(TIS_UUID, "test");
+
+        assertThat(historian.getHoldersAt("TEST", past.plus(Duration.ofDays(5))))
+                .extracting(NameRecord::getUuid)
+                .containsExactly(JEB_UUID);
+        assertThat(historian.getHoldersAt("test", past.plus(Duration.ofDays(100)))).isEmpty();
+        assertThat(historian.getHoldersBetweenAsync("test", past, Instant.now()).get(5, TimeUnit.SECONDS))
+                .extracting(NameRecord::getUuid)
+                .containsExactly(TIS_UUID, JEB_UUID);
+        assertThatThrownBy(() -> historian.getHoldersBetween("test", Instant.now(), past))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testMigrateFromV0() throws SQLException, IOException {
+        Path dbPath = Paths.get("target", "migration-test.db");
+        Files.deleteIfExists(dbPath);
+        try (Connection con = openRaw(dbPath)) {
+            runStatements(con, Util.loadResource("schema.sql"));
+            insertV0(con, TIS_UUID, "old", 1000, 2000);
+            insertV0(con, TIS_UUID, "test", 3000, 4000);
+            insertV0(con, JEB_UUID, "jeb_", 1000, 1000);
+        }
+
+        try (NameHistorian migrated = new NameHistorian(dbPath)) {
+            migrated.recordName(TIS_UUID, "test");
+            migrated.recordName(JEB_UUID, "jeb_");
+            assertThat(migrated.getNameHistory(TIS_UUID))
+                    .extracting(NameRecord::getUsername)
+                    .containsExactly("test", "old");
+            assertThat(migrated.getNameHistory(JEB_UUID))
+                    .extracting(NameRecord::getUsername)
+                    .containsExactly("jeb_");
+
+            migrated.recordName(TIS_UUID, "old");
+            assertThat(migrated.getNameHistory(TIS_UUID))
+                    .extracting(NameRecord::getUsername)
+                    .containsExactly("old", "test", "old");
+            assertThat(migrated.getLatestByUsername("JEB_").map(NameRecord::getUuid)).contains(JEB_UUID);
+        }
+    }
+
+    @Test
+    public void testResumeBinaryUuidMigration() throws SQLException, IOException {
+        Path dbPath = Paths.get("target", "migration-test.db");
+        Files.deleteIfExists(dbPath);
+        try (Connection con = openRaw(dbPath)) {
+            runStatements(con, Util.loadResource("schema.sql"));
+            insertV0(con, TIS_UUID, "old", 1000, 2000);
+            insertV0(con, TIS_UUID, "test", 3000, 4000);
+            insertV0(con, JEB_UUID, "jeb_", 1000, 1000);
+            runStatements(con, Util.loadResource("migrations/v1.sql"));
+            runStatements(con, "UPDATE `version` SET `version` = 1");
+            // Simulate a crash after the first row was copied
+            runStatements(con, "" +
+                    "CREATE TABLE `name_history_v2` (\n" +
+                    "    `id` INTEGER PRIMARY KEY NOT NULL,\n" +
+                    "    `uuid` BLOB NOT NULL,\n" +
+                    "    `username` TEXT NOT NULL,\n" +
+                    "    `first_seen_time` INTEGER NOT NULL,\n" +
+                    "    `detected_time` INTEGER,\n" +
+                    "    `last_seen_time` INTEGER NOT NULL\n" +
+                    ");");
+            try (PreparedStatement st = con.prepareStatement("INSERT INTO `name_history_v2` " +
+                    "(`id`, `uuid`, `username`, `first_seen_time`, `last_seen_time`) VALUES (1, ?, 'old', 1000, 2000);")) {
+                st.setBytes(1, Util.uuidToBytes(TIS_UUID));
+                st.executeUpdate();
+            }
+        }
+
+        try (NameHistorian migrated = new NameHistorian(dbPath)) {
+            assertThat(migrated.getNameHistory(TIS_UUID))
+                    .extracting(NameRecord::getUsername)
+                    .containsExactly("test", "old");
+            assertThat(migrated.getNameHistory(JEB_UUID))
+                    .extracting(NameRecord::getUsername)
+                    .containsExactly("jeb_");
+            migrated.recordName(TIS_UUID, "test");
+            assertThat(migrated.getNameHistory(TIS_UUID)).hasSize(2);
+        }
+    }
+
+    @Test
+    public void testNewerVersion() throws SQLException, IOException {
+        Path dbPath = Paths.get("target", "migration-test.db");
+        Files.deleteIfExists(dbPath);
+        try (Connection con = openRaw(dbPath)) {
+            runStatements(con, Util.loadResource("schema.sql"));
+            runStatements(con, "UPDATE `version` SET `version` = 999999");
+        }
+        assertThatThrownBy(() -> new NameHistorian(dbPath)).isInstanceOf(IllegalStateException.class);
+    }
+
+    private static Connection openRaw(Path dbPath) throws SQLException {
+        SQLiteDataSource ds = new SQLiteDataSource();
+        ds.setUrl("jdbc:sqlite:" + dbPath.toAbsolutePath());
+        return ds.getConnection();
+    }
+    private static void insertV0(Connection con, UUID uuid, String username, long firstSeen, long lastSeen)
+            throws SQLException {
+        String sql = "INSERT INTO `name_history` (`uuid`, `username`, `first_seen_time`, `last_seen_time`)\n" +
+                "VALUES (?, ?, ?, ?);";
+        try (PreparedStatement st = con.prepareStatement(sql)) {
+            st.setString(1, uuid.toString());
+            st.setString(2, username);
+            st.setLong(3, firstSeen);
+            st.setLong(4, lastSeen);
+            st.executeUpdate();
+        }
+    }
+    private static void runStatements(Connection con, String sql) throws SQLException {
+        for (String statement : sql.split(";")) {
+            if (!Util.isBlank(statement)) {
+                try (Statement st = con.createStatement()) {
+                    st.execute(statement);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentReads() throws SQLException, InterruptedException {
+        historian.recordName(TIS_UUID, "test");
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < NameHistorian.DEFAULT_POOL_SIZE * 2; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    assertThat(historian.getNameHistory(TIS_UUID)).hasSize(1);
+                } catch (Throwable ex) {
+                    errors.add(ex);
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertThat(errors).isEmpty();
+    }
+
+    @Test
+    public void testClosed() throws SQLException {
+        historian.close();
+        assertThatThrownBy(() -> historian.getNameHistory(TIS_UUID)).isInstanceOf(SQLException.class);
+        assertThatThrownBy(() -> historian.recordName(TIS_UUID, "test")).isInstanceOf(SQLException.class);
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        historian.recordNameAsync(TIS_UUID, "test").get(5, TimeUnit.SECONDS);
+        assertThat(historian.getNameHistoryAsync(TIS_UUID).get(5, TimeUnit.SECONDS))
+                .extracting(NameRecord::getUsername)
+                .containsExactly("test");
+        assertThat(historian.getLatestByUsernameAsync("TEST").get(5, TimeUnit.SECONDS))
+                .hasValueSatisfying(nr -> assertThat(nr.getUuid()).isEqualTo(TIS_UUID));
+    }
+
+    @Test
+    public void testAsyncNeverUsesCallerThread() throws Exception {
+        ThreadRecordingStore store = new ThreadRecordingStore(false);
+        try (NameHistorian asyncHistorian = new NameHistorian(store, 2, 10)) {
+            CompletableFuture.allOf(
+                    asyncHistorian.recordNameAsync(TIS_UUID, "test"),
+                    asyncHistorian.getNameHistoryAsync(JEB_UUID),
+                    asyncHistorian.getLatestByUsernameAsync("test")
+            ).get(5, TimeUnit.SECONDS);
+        }
+        assertThat(store.threads)
+                .hasSize(3)
+                .doesNotContain(Thread.currentThread())
+                .allSatisfy(t -> assertThat(t.getName()).startsWith("NameHistorian-Query-"));
+    }
+
+    @Test
+    public void testAsyncError() throws Exception {
+        InMemoryNameHistoryStore store = new InMemoryNameHistoryStore();
+        store.close();
+        try (NameHistorian asyncHistorian = new NameHistorian(store)) {
+            CompletableFuture<List<NameRecord>> future = asyncHistorian.getNameHistoryAsync(TIS_UUID);
+            assertThatThrownBy(() -> future.get(5, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(SQLException.class);
+        }
+    }
+
+    @Test
+    public void testAsyncQueueFull() throws Exception {
+        ThreadRecordingStore store = new ThreadRecordingStore(true);
+        try (NameHistorian asyncHistorian = new NameHistorian(store, 1, 1)) {
+            CompletableFuture<List<NameRecord>> running = asyncHistorian.getNameHistoryAsync(TIS_UUID);
+            assertThat(store.started.await(5, TimeUnit.SECONDS)).isTrue();
+            CompletableFuture<List<NameRecord>> queued = asyncHistorian.getNameHistoryAsync(TIS_UUID);
+            CompletableFuture<List<NameRecord>> rejected = asyncHistorian.getNameHistoryAsync(TIS_UUID);
+            assertThatThrownBy(rejected::join).hasCauseInstanceOf(RejectedExecutionException.class);
+
+            store.gate.countDown();
+            assertThat(running.get(5, TimeUnit.SECONDS)).isEmpty();
+            assertThat(queued.get(5, TimeUnit.SECONDS)).isEmpty();
+        }
+    }
+
+    @Test
+    public void testAsyncClosed() throws SQLException {
+        historian.close();
+        assertThatThrownBy(() -> historian.getNameHistoryAsync(TIS_UUID).join())
+                .hasCauseInstanceOf(RejectedExecutionException.class);
+    }
+
+    /**
+     * Remembers which thread called each method. History reads can be held until the gate opens.
+     */
+    @Test
+    public void testHistoryPages() throws SQLException {
+        for (int i = 0; i < 5; i++) {
+            historian.recordName(TIS_UUID, "name" + i);
+        }
+        List<NameRecord> history = historian.getNameHistory(TIS_UUID);
+
+        HistoryPage first = historian.getNameHistoryPage(TIS_UUID, 1, 2);
+        assertThat(first.getRecords()).isEqualTo(history.subList(0, 2));
+        assertThat(first.getTotalCount()).isEqualTo(5);
+        assertThat(first.getNext()).isNotNull();
+        HistoryPage last = historian.getNameHistoryPage(TIS_UUID, 3, 2);
+        assertThat(last.getRecords()).isEqualTo(history.subList(4, 5));
+        assertThat(last.getNext()).isNull();
+        HistoryPage past = historian.getNameHistoryPage(TIS_UUID, 4, 2);
+        assertThat(past.getRecords()).isEmpty();
+        assertThat(past.getTotalCount()).isEqualTo(5);
+        assertThat(historian.getNameHistoryPage(JEB_UUID, 1, 2).getTotalCount()).isZero();
+    }
+
+    @Test
+    public void testHistoryPageAsync() throws SQLException, InterruptedException, ExecutionException {
+        historian.recordName(TIS_UUID, "test");
+        assertThat(historian.getNameHistoryPageAsync(TIS_UUID, 1, 10).get().getRecords())
+                .isEqualTo(historian.getNameHistory(TIS_UUID));
+        assertThatThrownBy(() -> historian.getNameHistoryPageAsync(TIS_UUID, 0, 10).get())
+                .hasCauseInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testExportAll() throws SQLException {
+        List<NamedPlayer> players = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            players.add(new NamedPlayer(new UUID(0, i), "player" + i));
+        }
+        historian.recordNames(players);
+        historian.recordName(new UUID(0, 3), "renamed3");
+
+        List<NameRecord> exported;
+        try (Stream<NameRecord> stream = historian.exportAll(7)) {
+            exported = stream.collect(Collectors.toList());
+        }
+        assertThat(exported).hasSize(26);
+        assertThat(exported.subList(0, 25)).extracting(NameRecord::getUsername)
+                .isEqualTo(players.stream().map(NamedPlayer::getUsername).collect(Collectors.toList()));
+        assertThat(exported.get(25).getUsername()).isEqualTo("renamed3");
+        assertThat(exported.get(25).getUuid()).isEqualTo(new UUID(0, 3));
+    }
+
+    @Test
+    public void testExportWhileRecording() throws SQLException {
+        for (int i = 0; i < 10; i++) {
+            historian.recordName(new UUID(0, i), "player" + i);
+        }
+        List<String> usernames = new ArrayList<>();
+        Iterator<NameRecord> it = historian.exportAll(4).iterator();
+        while (it.hasNext()) {
+            NameRecord nr = it.next();
+            usernames.add(nr.getUsername());
+            if (nr.getUsername().equals("player1")) {
+                historian.recordName(new UUID(0, 100), "late");
+                historian.recordName(new UUID(0, 0), "player0");
+            }
+        }
+        // Every record is exported exactly once, touching an exported record doesn't move it
+        assertThat(usernames).startsWith("player0", "player1").doesNotHaveDuplicates().hasSize(11);
+    }
+
+    @Test
+    public void testExportEmpty() {
+        assertThat(historian.exportAll(1)).isEmpty();
+    }
+
+    @Test
+    public void testExportClosed() throws SQLException {
+        historian.recordName(TIS_UUID, "test");
+        Stream<NameRecord> stream = historian.exportAll();
+        historian.close();
+        assertThatThrownBy(() -> stream.forEach(nr -> { }))
+                .isInstanceOf(UncheckedSQLException.class)
+                .hasCauseInstanceOf(SQLException.class);
+    }
+
+    @Test
+    public void testMetrics() throws SQLException, InterruptedException, ExecutionException {
+        historian.recordName(TIS_UUID, "test");
+        historian.recordNames(Arrays.asList(new NamedPlayer(TIS_UUID, "test"), new NamedPlayer(JEB_UUID, "jeb_")));
+        historian.getNameHistory(TIS_UUID);
+        historian.getNameHistoryAsync(TIS_UUID).get();
+        historian.getLatestByUsername("jeb_");
+
+        Metrics.Snapshot snapshot = historian.getMetrics().snapshot();
+        assertThat(snapshot.getLatencies().get("store.record_name").getCount()).isEqualTo(1);
+        assertThat(snapshot.getLatencies().get("store.record_names").getCount()).isEqualTo(1);
+        assertThat(snapshot.getLatencies().get("store.get_history").getCount()).isEqualTo(2);
+        assertThat(snapshot.getLatencies().get("store.get_latest_by_username").getCount()).isEqualTo(1);
+        assertThat(snapshot.getLatencies().get("query.wait").getCount()).isEqualTo(1);
+        assertThat(snapshot.getValues()).containsEntry("store.get_history.errors", 0L);
+    }
+
+    @Test
+    public void testMetricsErrors() throws SQLException {
+        historian.close();
+        assertThatThrownBy(() -> historian.getNameHistory(TIS_UUID)).isInstanceOf(SQLException.class);
+        assertThat(historian.getNameHistoryAsync(TIS_UUID)).isCompletedExceptionally();
+
+        Metrics.Snapshot snapshot = historian.getMetrics().snapshot();
+        assertThat(snapshot.getValues())
+                .containsEntry("store.get_history.errors", 1L)
+                .containsEntry("query.rejected", 1L);
+    }
+
+    @Test
+    public void testRecordAddsToUsernameIndex() throws SQLException {
+        historian.recordName(TIS_UUID, "Tis_awesomeness");
+        historian.recordNames(Arrays.asList(
+                new NamedPlayer(JEB_UUID, "jeb_"),
+                new NamedPlayer(TIS_UUID, "test")
+        ));
+        assertThat(historian.getUsernameIndex().complete("t", 10)).containsExactly("test", "Tis_awesomeness");
+        assertThat(historian.getUsernameIndex().complete("J", 10)).containsExactly("jeb_");
+    }
+
+    @Test
+    public void testLoadUsernameIndex() throws Exception {
+        NameHistoryStore store = new InMemoryNameHistoryStore();
+        Instant now = Instant.now();
+        store.recordName(new NameRecord(TIS_UUID, "test", now, null, now));
+        store.recordName(new NameRecord(TIS_UUID, "test2", now, null, now));
+        store.recordName(new NameRecord(JEB_UUID, "jeb_", now, null, now));
+        try (NameHistorian loadingHistorian = new NameHistorian(store, 1, 1, 2)) {
+            loadingHistorian.loadUsernameIndexAsync().get(5, TimeUnit.SECONDS);
+            UsernameIndex index = loadingHistorian.getUsernameIndex();
+            assertThat(index.size()).isEqualTo(2);
+            assertThat(index.getDropped()).isPositive();
+        }
+    }
+
+    private static class ThreadRecordingStore implements NameHistoryStore {
+        private final NameHistoryStore delegate = new InMemoryNameHistoryStore();
+        private final List<Thread> threads = new CopyOnWriteArrayList<>();
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch gate;
+
+        private ThreadRecordingStore(boolean blockReads) {
+            gate = new CountDownLatch(blockReads ? 1 : 0);
+        }
+
+        @Override
+        public void recordName(NameRecord nr) throws SQLException {
+            threads.add(Thread.currentThread());
+            delegate.recordName(nr);
+        }
+        @Override
+        public void recordNameRecords(Collection<NameRecord> records) throws SQLException {
+            threads.add(Thread.currentThread());
+            delegate.recordNameRecords(records);
+        }
+        @Override
+        public List<NameRecord> getNameHistory(UUID uuid) throws SQLException {
+            threads.add(Thread.currentThread());
+            started.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new SQLException(ex);
+            }
+            return delegate.getNameHistory(uuid);
+        }
+        @Override
+        public HistoryPage getNameHistoryPage(UUID uuid, HistoryCursor after, int limit) throws SQLException {
+            threads.add(Thread.currentThread());
+            return delegate.getNameHistoryPage(uuid, after, limit);
+        }
+        @Override
+        public Optional<NameRecord> getLatestByUsername(String username) throws SQLException {
+            threads.add(Thread.currentThread());
+            return delegate.getLatestByUsername(username);
+        }
+        @Override
+        public List<NameRecord> getAllHoldersOf(String username) throws SQLException {
+            threads.add(Thread.currentThread());
+            return delegate.getAllHoldersOf(username);
+        }
+        @Override
+        public List<NameRecord> getHoldersBetween(String username, Instant start, Instant end) throws SQLException {
+            threads.add(Thread.currentThread());
+            return delegate.getHoldersBetween(username, start, end);
+        }
+        @Override
+        public ExportBatch readExportBatch(long cursor, int limit) throws SQLException {
+            threads.add(Thread.currentThread());
+            return delegate.readExportBatch(cursor, limit);
+        }
+        @Override
+        public void close() throws SQLException {
+            delegate.close();
+        }
+    }
+
 }
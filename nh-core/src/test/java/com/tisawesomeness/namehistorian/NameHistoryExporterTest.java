@@ -0,0 +1,94 @@
+package com.tisawesomeness.namehistorian;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NameHistoryExporterTest {
+
+    private static final UUID TIS_UUID = UUID.fromString("f6489b79-7a9f-49e2-980e-265a05dbc3af");
+    private static final UUID JEB_UUID = UUID.fromString("853c80ef-3c37-49fd-aa49-938b674adae6");
+    private NameHistorian historian;
+    private Path file;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        historian = new NameHistorian(new InMemoryNameHistoryStore());
+        Path parent = Paths.get("target");
+        Files.createDirectories(parent);
+        file = parent.resolve("export-test.ndjson.gz");
+        Files.deleteIfExists(file);
+    }
+    @AfterEach
+    public void tearDown() throws SQLException {
+        historian.close();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException, SQLException {
+        Instant time = Instant.ofEpochMilli(1000);
+        historian.recordName(new NameRecord(TIS_UUID, "test", time, null, time.plusMillis(500)));
+        historian.recordName(new NameRecord(TIS_UUID, "test2", time.plusMillis(2000), time.plusMillis(3000),
+                time.plusMillis(4000)));
+        historian.recordName(new NameRecord(JEB_UUID, "jeb_", time, null, time));
+
+        List<Long> progress = new ArrayList<>();
+        OptionalLong exported = new NameHistoryExporter(historian, file, 2).run(new NameHistoryExporter.Listener() {
+            @Override
+            public void onProgress(long count) {
+                progress.add(count);
+            }
+        });
+        assertThat(exported).hasValue(3);
+        assertThat(progress).containsExactly(2L, 3L);
+
+        Path decompressed = file.resolveSibling("export-test.ndjson");
+        try (InputStream is = new GZIPInputStream(Files.newInputStream(file))) {
+            Files.copy(is, decompressed, StandardCopyOption.REPLACE_EXISTING);
+        }
+        NameHistorian imported = new NameHistorian(new InMemoryNameHistoryStore());
+        try {
+            NameHistoryImporter importer = new NameHistoryImporter(imported, decompressed,
+                    NameHistoryImporter.Format.NDJSON, 10);
+            assertThat(importer.run(new NameHistoryImporter.Listener() { }).getImported()).isEqualTo(3);
+            assertThat(imported.getNameHistory(TIS_UUID)).isEqualTo(historian.getNameHistory(TIS_UUID));
+            assertThat(imported.getNameHistory(JEB_UUID)).isEqualTo(historian.getNameHistory(JEB_UUID));
+        } finally {
+            imported.close();
+        }
+    }
+
+    @Test
+    public void testCancelled() throws IOException, SQLException {
+        for (int i = 0; i < 10; i++) {
+            historian.recordName(new UUID(0, i), "player" + i);
+        }
+        NameHistoryExporter exporter = new NameHistoryExporter(historian, file, 2);
+        OptionalLong exported = exporter.run(new NameHistoryExporter.Listener() {
+            @Override
+            public void onProgress(long count) {
+                exporter.cancel();
+            }
+        });
+        assertThat(exported).isEmpty();
+        assertThat(file).doesNotExist();
+        assertThat(file.resolveSibling(file.getFileName() + ".tmp")).doesNotExist();
+    }
+
+}
@@ -0,0 +1,174 @@
+package com.tisawesomeness.namehistorian;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NameHistoryImporterTest {
+
+    private static final UUID TIS_UUID = UUID.fromString("f6489b79-7a9f-49e2-980e-265a05dbc3af");
+    private static final UUID JEB_UUID = UUID.fromString("853c80ef-3c37-49fd-aa49-938b674adae6");
+    private NameHistorian historian;
+    private Path file;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        historian = new NameHistorian(new InMemoryNameHistoryStore());
+        Path parent = Paths.get("target");
+        Files.createDirectories(parent);
+        file = parent.resolve("import-test.csv");
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(parent.resolve("import-test.csv.progress"));
+    }
+    @AfterEach
+    public void tearDown() throws SQLException {
+        historian.close();
+    }
+
+    private void write(String... lines) throws IOException {
+        Files.write(file, Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testCsv() throws IOException, SQLException {
+        write(
+                "uuid,username,first_seen,last_seen",
+                TIS_UUID + ",test,1000,2000",
+                "f6489b797a9f49e2980e265a05dbc3af,test2,3000,4000",
+                "",
+                JEB_UUID + ",\"jeb_\",1970-01-01T00:00:01Z,1970-01-01T00:00:05Z"
+        );
+        NameHistoryImporter importer = new NameHistoryImporter(historian, file, NameHistoryImporter.Format.CSV, 10);
+        NameHistoryImporter.Progress progress = importer.run(new NameHistoryImporter.Listener() { });
+
+        assertThat(progress.isComplete()).isTrue();
+        assertThat(progress.getImported()).isEqualTo(3);
+        assertThat(progress.getSkipped()).isZero();
+        assertThat(progress.getFraction()).isEqualTo(1);
+        assertThat(importer.getProgressFile()).doesNotExist();
+
+        List<NameRecord> history = historian.getNameHistory(TIS_UUID);
+        assertThat(history).extracting(NameRecord::getUsername).containsExactly("test2", "test");
+        assertThat(history.get(1).getFirstSeenTime()).isEqualTo(Instant.ofEpochMilli(1000));
+        assertThat(history.get(1).getLastSeenTime()).isEqualTo(Instant.ofEpochMilli(2000));
+        assertThat(historian.getNameHistory(JEB_UUID)).singleElement()
+                .satisfies(nr -> assertThat(nr.getLastSeenTime()).isEqualTo(Instant.ofEpochSecond(5)));
+    }
+
+    @Test
+    public void testNdjson() throws IOException, SQLException {
+        write(
+                "{\"uuid\": \"" + TIS_UUID + "\", \"username\": \"test\", \"first_seen\": 1000, \"last_seen\": 2000}",
+                "{\"uuid\": \"" + JEB_UUID + "\", \"username\": \"jeb_\", \"first_seen\": \"1970-01-01T00:00:01Z\", "
+                        + "\"last_seen\": \"1970-01-01T00:00:02Z\", \"source\": {\"plugin\": \"other\"}}"
+        );
+        NameHistoryImporter importer = new NameHistoryImporter(historian, file, NameHistoryImporter.Format.NDJSON, 10);
+        NameHistoryImporter.Progress progress = importer.run(new NameHistoryImporter.Listener() { });
+
+        assertThat(progress.getImported()).isEqualTo(2);
+        assertThat(historian.getNameHistory(TIS_UUID)).hasSize(1);
+        assertThat(historian.getNameHistory(JEB_UUID)).hasSize(1);
+    }
+
+    @Test
+    public void testInvalidRows() throws IOException, SQLException {
+        write(
+                TIS_UUID + ",test,1000,2000",
+                "not-a-uuid,test,1000,2000",
+                TIS_UUID + ",,1000,2000",
+                TIS_UUID + ",test,yesterday,2000",
+                TIS_UUID + ",test,3000,2000",
+                TIS_UUID + ",test",
+                JEB_UUID + ",jeb_,1000,2000"
+        );
+        List<Long> invalidLines = new ArrayList<>();
+        NameHistoryImporter importer = new NameHistoryImporter(historian, file, NameHistoryImporter.Format.CSV, 10);
+        NameHistoryImporter.Progress progress = importer.run(new NameHistoryImporter.Listener() {
+            @Override
+            public void onInvalidRow(long line, String reason) {
+                invalidLines.add(line);
+            }
+        });
+
+        assertThat(progress.getImported()).isEqualTo(2);
+        assertThat(progress.getSkipped()).isEqualTo(5);
+        assertThat(invalidLines).containsExactly(2L, 3L, 4L, 5L, 6L);
+    }
+
+    @Test
+    public void testResume() throws IOException, SQLException {
+        int rows = 1000;
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < rows; i++) {
+                writer.write(new UUID(0, i) + ",player" + i + "," + i + "," + (i + 1));
+                writer.newLine();
+            }
+        }
+
+        NameHistoryImporter first = new NameHistoryImporter(historian, file, NameHistoryImporter.Format.CSV, 100);
+        NameHistoryImporter.Progress stopped = first.run(new NameHistoryImporter.Listener() {
+            @Override
+            public void onProgress(NameHistoryImporter.Progress progress) {
+                if (progress.getImported() >= 300) {
+                    first.cancel();
+                }
+            }
+        });
+        assertThat(stopped.isComplete()).isFalse();
+        assertThat(stopped.getImported()).isEqualTo(300);
+        assertThat(stopped.getFraction()).isBetween(0.0, 1.0);
+        assertThat(first.getProgressFile()).exists();
+
+        NameHistoryImporter second = new NameHistoryImporter(historian, file, NameHistoryImporter.Format.CSV, 100);
+        NameHistoryImporter.Progress finished = second.run(new NameHistoryImporter.Listener() { });
+        assertThat(finished.isComplete()).isTrue();
+        assertThat(finished.getImported()).isEqualTo(rows);
+        assertThat(finished.getLinesRead()).isEqualTo(rows);
+        assertThat(second.getProgressFile()).doesNotExist();
+        for (int i = 0; i < rows; i++) {
+            assertThat(historian.getNameHistory(new UUID(0, i))).hasSize(1);
+        }
+    }
+
+    @Test
+    public void testChangedFileStartsOver() throws IOException, SQLException {
+        write(TIS_UUID + ",test,1000,2000", JEB_UUID + ",jeb_,1000,2000");
+        NameHistoryImporter first = new NameHistoryImporter(historian, file, NameHistoryImporter.Format.CSV, 1);
+        first.run(new NameHistoryImporter.Listener() {
+            @Override
+            public void onProgress(NameHistoryImporter.Progress progress) {
+                first.cancel();
+            }
+        });
+        assertThat(first.getProgressFile()).exists();
+
+        write(JEB_UUID + ",jeb2,3000,4000", TIS_UUID + ",test2,3000,4000", TIS_UUID + ",test3,5000,6000");
+        NameHistoryImporter second = new NameHistoryImporter(historian, file, NameHistoryImporter.Format.CSV, 1);
+        NameHistoryImporter.Progress progress = second.run(new NameHistoryImporter.Listener() { });
+        assertThat(progress.getImported()).isEqualTo(3);
+        assertThat(historian.getNameHistory(JEB_UUID)).extracting(NameRecord::getUsername).containsExactly("jeb2");
+    }
+
+    @Test
+    public void testFormatFromFileName() {
+        assertThat(NameHistoryImporter.Format.fromFileName("names.CSV")).contains(NameHistoryImporter.Format.CSV);
+        assertThat(NameHistoryImporter.Format.fromFileName("names.jsonl")).contains(NameHistoryImporter.Format.NDJSON);
+        assertThat(NameHistoryImporter.Format.fromFileName("names.txt")).isEmpty();
+    }
+
+}
@@ -0,0 +1,275 @@
+package com.tisawesomeness.namehistorian;
+
+import org.h2.tools.Server;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Checks that every store behaves the same. The MySQL store runs against H2 in MySQL mode over TCP.
+ */
+public class NameHistoryStoreTest {
+
+    private static final UUID TIS_UUID = UUID.fromString("f6489b79-7a9f-49e2-980e-265a05dbc3af");
+    private static final UUID JEB_UUID = UUID.fromString("853c80ef-3c37-49fd-aa49-938b674adae6");
+    private static final Instant START = Instant.parse("2020-01-01T00:00:00Z");
+    private static Server server;
+    private static int databaseCount;
+    private NameHistoryStore store;
+
+    @BeforeAll
+    public static void startServer() throws SQLException {
+        server = Server.createTcpServer("-tcpPort", "0", "-ifNotExists").start();
+    }
+    @AfterAll
+    public static void stopServer() {
+        server.stop();
+    }
+    @AfterEach
+    public void tearDown() throws SQLException {
+        store.close();
+    }
+
+    private NameHistoryStore open(String type) throws SQLException, IOException {
+        switch (type) {
+            case "sqlite":
+                Path dbPath = Paths.get("target", "store-test.db");
+                Files.createDirectories(dbPath.getParent());
+                Files.deleteIfExists(dbPath);
+                return new SqliteNameHistoryStore(dbPath, 2, 100, StorageProfile.DURABILITY);
+            case "memory":
+                return new InMemoryNameHistoryStore();
+            case "mysql":
+                // A fresh in-memory database per test, kept alive as long as the pool's connections are open
+                String url = String.format("jdbc:h2:tcp://localhost:%d/mem:store%d;MODE=MySQL;DATABASE_TO_LOWER=TRUE",
+                        server.getPort(), databaseCount++);
+                return new MySqlNameHistoryStore(url, "sa", "", 2);
+            default:
+                throw new IllegalArgumentException(type);
+        }
+    }
+
+    private static NameRecord record(UUID uuid, String username, long day) {
+        Instant time = START.plus(Duration.ofDays(day));
+        return new NameRecord(uuid, username, time, null, time);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"sqlite", "memory", "mysql"})
+    public void testHistory(String type) throws SQLException, IOException {
+        store = open(type);
+        assertThat(store.getNameHistory(TIS_UUID)).isEmpty();
+        store.recordName(record(TIS_UUID, "test", 0));
+        store.recordName(record(TIS_UUID, "test", 1));
+        store.recordName(record(TIS_UUID, "test2", 2));
+        store.recordName(record(JEB_UUID, "jeb_", 2));
+
+        List<NameRecord> history = store.getNameHistory(TIS_UUID);
+        assertThat(history).extracting(NameRecord::getUsername).containsExactly("test2", "test");
+        assertThat(history.get(1).getLastSeenTime()).isEqualTo(START.plus(Duration.ofDays(1)));
+        assertThat(store.getNameHistory(JEB_UUID)).extracting(NameRecord::getUsername).containsExactly("jeb_");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"sqlite", "memory", "mysql"})
+    public void testLastSeenOnlyIncreases(String type) throws SQLException, IOException {
+        store = open(type);
+        store.recordName(record(TIS_UUID, "test", 5));
+        store.recordName(new NameRecord(TIS_UUID, "test", START, null, START));
+        assertThat(store.getNameHistory(TIS_UUID).get(0).getLastSeenTime()).isEqualTo(START.plus(Duration.ofDays(5)));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"sqlite", "memory", "mysql"})
+    public void testOlderExternalName(String type) throws SQLException, IOException {
+        store = open(type);
+        store.recordName(record(TIS_UUID, "test", 10));
+        store.recordName(record(TIS_UUID, "old", 0));
+        store.recordName(record(TIS_UUID, "test", 11));
+        assertThat(store.getNameHistory(TIS_UUID)).extracting(NameRecord::getUsername).containsExactly("test", "old");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"sqlite", "memory", "mysql"})
+    public void testBulkRecord(String type) throws SQLException, IOException {
+        store = open(type);
+        store.recordName(record(TIS_UUID, "test", 0));
+        store.recordNameRecords(Arrays.asList(
+                record(TIS_UUID, "test", 1),
+                record(JEB_UUID, "jeb_", 1),
+                record(TIS_UUID, "test2", 2),
+                record(TIS_UUID, "test2", 3)
+        ));
+        assertThat(store.getNameHistory(TIS_UUID)).extracting(NameRecord::getUsername).containsExactly("test2", "test");
+        assertThat(store.getNameHistory(JEB_UUID)).extracting(NameRecord::getUsername).containsExactly("jeb_");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"sqlite", "memory", "mysql"})
+    public void testLargeBulkRecord(String type) throws SQLException, IOException {
+        store = open(type);
+        List<NameRecord> records = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            records.add(record(new UUID(0, i), "player" + i, 0));
+        }
+        store.recordNameRecords(records);
+        records.clear();
+        for (int i = 0; i < 100; i++) {
+            records.add(record(new UUID(0, i), i % 2 == 0 ? "player" + i : "renamed" + i, 1));
+        }
+        store.recordNameRecords(records);
+
+        assertThat(store.getNameHistory(new UUID(0, 2))).extracting(NameRecord::getUsername)
+                .containsExactly("player2");
+        assertThat(store.getNameHistory(new UUID(0, 3))).extracting(NameRecord::getUsername)
+                .containsExactly("renamed3", "player3");
+        store.recordName(record(new UUID(0, 3), "renamed3", 2));
+        assertThat(store.getNameHistory(new UUID(0, 3))).hasSize(2);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"sqlite", "memory", "mysql"})
+    public void testLatestByUsername(String type) throws SQLException, IOException {
+        store = open(type);
+        assertThat(store.getLatestByUsername("test")).isEmpty();
+        store.recordName(record(JEB_UUID, "Test", 0));
+        store.recordName(record(TIS_UUID, "test", 1));
+        assertThat(store.getLatestByUsername("TEST")).hasValueSatisfying(nr -> {
+            assertThat(nr.getUuid()).isEqualTo(TIS_UUID);
+            assertThat(nr.getUsername()).isEqualTo("test");
+        });
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"sqlite", "memory", "mysql"})
+    public void testAllHoldersOf(String type) throws SQLException, IOException {
+        store = open(type);
+        UUID otherUuid = new UUID(0, 1);
+        assertThat(store.getAllHoldersOf("test")).isEmpty();
+        store.recordName(record(JEB_UUID, "Test", 0));
+        store.recordName(record(TIS_UUID, "test", 1));
+        store.recordName(record(TIS_UUID, "other", 2));
+        store.recordName(record(otherUuid, "TEST", 2)); // Same first seen time as other, ordered by insertion
+        store.recordName(record(TIS_UUID, "test", 3)); // Held again after a change
+        store.recordName(record(TIS_UUID, "test", 4)); // Only updates the last seen time
+
+        List<NameRecord> holders = store.getAllHoldersOf("tEsT");
+        assertThat(holders)
+                .extracting(NameRecord::getUuid)
+                .containsExactly(TIS_UUID, otherUuid, TIS_UUID, JEB_UUID);
+        assertThat(holders)
+                .extracting(NameRecord::getUsername)
+                .containsExactly("test", "TEST", "test", "Test");
+        assertThat(holders.get(0).getLastSeenTime()).isEqualTo(START.plus(Duration.ofDays(4)));
+        assertThat(store.getLatestByUsername("test")).contains(holders.get(0));
+        assertThat(store.getAllHoldersOf("other")).hasSize(1);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"sqlite", "memory", "mysql"})
+    public void testHoldersBetween(String type) throws SQLException, IOException {
+        store = open(type);
+        UUID otherUuid = new UUID(0, 1);
+        store.recordName(record(JEB_UUID, "Test", 0));
+        store.recordName(record(JEB_UUID, "Test", 2));
+        store.recordName(record(JEB_UUID, "jeb_", 4));
+        store.recordName(record(otherUuid, "test", 5));
+        store.recordName(record(otherUuid, "test", 7));
+
+        assertThat(holdersBetween("TEST", 1, 1)).containsExactly(JEB_UUID);
+        // Both ends are inclusive
+        assertThat(holdersBetween("test", 0, 0)).containsExactly(JEB_UUID);
+        assertThat(holdersBetween("test", 2, 2)).containsExactly(JEB_UUID);
+        // Nobody was seen with the name between sightings
+        assertThat(holdersBetween("test", 3, 4)).isEmpty();
+        assertThat(holdersBetween("test", 6, 6)).containsExactly(otherUuid);
+        assertThat(holdersBetween("test", 1, 5)).containsExactly(otherUuid, JEB_UUID);
+        assertThat(holdersBetween("test", 8, 8)).isEmpty();
+        assertThat(holdersBetween("jeb_", 1, 1)).isEmpty();
+    }
+    private List<UUID> holdersBetween(String username, long startDay, long endDay) throws SQLException {
+        List<UUID> uuids = new ArrayList<>();
+        for (NameRecord nr : store.getHoldersBetween(username,
+                START.plus(Duration.ofDays(startDay)), START.plus(Duration.ofDays(endDay)))) {
+            uuids.add(nr.getUuid());
+        }
+        return uuids;
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"sqlite", "memory", "mysql"})
+    public void testHistoryPages(String type) throws SQLException, IOException {
+        store = open(type);
+        store.recordName(record(TIS_UUID, "a", 0));
+        store.recordName(record(TIS_UUID, "b", 1));
+        store.recordName(record(TIS_UUID, "c", 1)); // Same times as b, ordered by insertion
+        store.recordName(record(TIS_UUID, "d", 3));
+        store.recordName(record(TIS_UUID, "e", 2));
+        store.recordName(record(JEB_UUID, "jeb_", 0));
+        List<NameRecord> history = store.getNameHistory(TIS_UUID);
+
+        List<NameRecord> paged = new ArrayList<>();
+        HistoryCursor cursor = HistoryCursor.START;
+        int pages = 0;
+        while (cursor != null) {
+            HistoryPage page = store.getNameHistoryPage(TIS_UUID, cursor, 2);
+            assertThat(page.getRecords()).hasSizeBetween(1, 2);
+            assertThat(page.getTotalCount()).isEqualTo(5);
+            paged.addAll(page.getRecords());
+            cursor = page.getNext();
+            pages++;
+        }
+        assertThat(pages).isEqualTo(3);
+        assertThat(paged).isEqualTo(history);
+        assertThat(paged).extracting(NameRecord::getUsername).containsExactly("d", "e", "c", "b", "a");
+
+        HistoryPage empty = store.getNameHistoryPage(UUID.randomUUID(), HistoryCursor.START, 2);
+        assertThat(empty.getRecords()).isEmpty();
+        assertThat(empty.getNext()).isNull();
+        assertThat(empty.getTotalCount()).isZero();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"sqlite", "memory", "mysql"})
+    public void testExportBatches(String type) throws SQLException, IOException {
+        store = open(type);
+        store.recordName(record(TIS_UUID, "test", 0));
+        store.recordName(record(JEB_UUID, "jeb_", 1));
+        store.recordName(record(TIS_UUID, "test2", 2));
+        store.recordName(new NameRecord(JEB_UUID, "jeb2", START, START.plusSeconds(1), START));
+
+        ExportBatch first = store.readExportBatch(0, 3);
+        assertThat(first.getRecords()).extracting(NameRecord::getUsername).containsExactly("test", "jeb_", "test2");
+        ExportBatch second = store.readExportBatch(first.getCursor(), 3);
+        assertThat(second.getRecords()).singleElement()
+                .satisfies(nr -> assertThat(nr.getRawDetectedTime()).isEqualTo(START.plusSeconds(1)));
+        assertThat(store.readExportBatch(second.getCursor(), 3).getRecords()).isEmpty();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"sqlite", "memory", "mysql"})
+    public void testClosed(String type) throws SQLException, IOException {
+        store = open(type);
+        store.close();
+        assertThatThrownBy(() -> store.getNameHistory(TIS_UUID)).isInstanceOf(SQLException.class);
+        assertThatThrownBy(() -> store.recordName(record(TIS_UUID, "test", 0))).isInstanceOf(SQLException.class);
+    }
+
+}
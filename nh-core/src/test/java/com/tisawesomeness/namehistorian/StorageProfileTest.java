@@ -0,0 +1,48 @@
+package com.tisawesomeness.namehistorian;
+
+import org.junit.jupiter.api.Test;
+import org.sqlite.SQLiteDataSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StorageProfileTest {
+
+    @Test
+    public void testApply() throws SQLException, IOException {
+        Path dbPath = Paths.get("target", "profile-test.db");
+        Files.createDirectories(dbPath.getParent());
+        Files.deleteIfExists(dbPath);
+        SQLiteDataSource ds = new SQLiteDataSource();
+        ds.setUrl("jdbc:sqlite:" + dbPath.toAbsolutePath());
+        StorageProfile profile = StorageProfile.THROUGHPUT
+                .withSynchronous(StorageProfile.Synchronous.OFF)
+                .withCacheSizeKib(4096)
+                .withBusyTimeout(Duration.ofSeconds(1));
+
+        try (Connection con = ds.getConnection()) {
+            profile.apply(con);
+            assertThat(readPragma(con, "journal_mode")).isEqualToIgnoringCase("wal");
+            assertThat(readPragma(con, "synchronous")).isEqualTo("0");
+            int pageSize = Integer.parseInt(readPragma(con, "page_size"));
+            assertThat(readPragma(con, "cache_size")).isEqualTo(String.valueOf(4096 * 1024 / pageSize));
+        }
+    }
+
+    private static String readPragma(Connection con, String pragma) throws SQLException {
+        try (Statement st = con.createStatement(); ResultSet rs = st.executeQuery("PRAGMA " + pragma)) {
+            assertThat(rs.next()).isTrue();
+            return rs.getString(1);
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+package com.tisawesomeness.namehistorian;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class UsernameIndexTest {
+
+    @Test
+    public void testEmpty() {
+        UsernameIndex index = new UsernameIndex(100);
+        assertThat(index.complete("", 10)).isEmpty();
+        assertThat(index.size()).isZero();
+    }
+
+    @Test
+    public void testPrefix() {
+        UsernameIndex index = new UsernameIndex(100);
+        for (String name : Arrays.asList("jeb_", "Notch", "Tis_awesomeness", "test", "test2")) {
+            index.add(name);
+        }
+        assertThat(index.complete("te", 10)).containsExactly("test", "test2");
+        assertThat(index.complete("test", 10)).containsExactly("test", "test2");
+        assertThat(index.complete("test2", 10)).containsExactly("test2");
+        assertThat(index.complete("test23", 10)).isEmpty();
+        assertThat(index.complete("a", 10)).isEmpty();
+        assertThat(index.complete("", 10)).containsExactly("jeb_", "Notch", "test", "test2", "Tis_awesomeness");
+    }
+
+    @Test
+    public void testIgnoresCase() {
+        UsernameIndex index = new UsernameIndex(100);
+        index.add("Notch");
+        index.add("NOTCH");
+        index.add("notch");
+        assertThat(index.size()).isEqualTo(1);
+        // The first spelling seen is kept
+        assertThat(index.complete("nOt", 10)).containsExactly("Notch");
+    }
+
+    @Test
+    public void testLimit() {
+        UsernameIndex index = new UsernameIndex(100);
+        for (int i = 0; i < 20; i++) {
+            index.add("player" + (char) ('a' + i));
+        }
+        assertThat(index.complete("player", 3)).containsExactly("playera", "playerb", "playerc");
+        assertThat(index.complete("player", 0)).isEmpty();
+    }
+
+    @Test
+    public void testMerge() {
+        UsernameIndex index = new UsernameIndex(100, 3);
+        List<String> names = Arrays.asList("e", "B", "d", "a", "C", "b", "f", "g");
+        for (String name : names) {
+            index.add(name);
+        }
+        assertThat(index.size()).isEqualTo(7);
+        assertThat(index.getSegmentBytes()).isPositive();
+        assertThat(index.complete("", 10)).containsExactly("a", "B", "C", "d", "e", "f", "g");
+    }
+
+    @Test
+    public void testMergedAndPendingInterleave() {
+        UsernameIndex index = new UsernameIndex(100, 4);
+        index.addAll(Arrays.asList("ab", "ad", "af", "ah").iterator());
+        index.add("ac");
+        index.add("ag");
+        index.add("AD");
+        assertThat(index.complete("a", 10)).containsExactly("ab", "ac", "ad", "af", "ag", "ah");
+        assertThat(index.complete("a", 3)).containsExactly("ab", "ac", "ad");
+    }
+
+    @Test
+    public void testFull() {
+        UsernameIndex index = new UsernameIndex(3, 2);
+        for (String name : Arrays.asList("a", "b", "c", "d", "e")) {
+            index.add(name);
+        }
+        assertThat(index.size()).isEqualTo(3);
+        assertThat(index.getDropped()).isEqualTo(2);
+        // Names already indexed are not counted as dropped
+        index.add("a");
+        assertThat(index.getDropped()).isEqualTo(2);
+    }
+
+    @Test
+    public void testDisabled() {
+        UsernameIndex index = new UsernameIndex(0);
+        index.add("jeb_");
+        index.addAll(Collections.singletonList("Notch").iterator());
+        assertThat(index.complete("", 10)).isEmpty();
+    }
+
+    @Test
+    public void testSkipsNonAscii() {
+        UsernameIndex index = new UsernameIndex(100);
+        index.add("");
+        index.add("tést");
+        index.add("test");
+        assertThat(index.size()).isEqualTo(1);
+        assertThat(index.complete("té", 10)).isEmpty();
+    }
+
+    @Test
+    public void testAddAll() {
+        UsernameIndex index = new UsernameIndex(200_000);
+        List<String> names = IntStream.range(0, 100_000)
+                .mapToObj(i -> "player" + i)
+                .collect(Collectors.toList());
+        List<String> shuffled = new ArrayList<>(names);
+        shuffled.addAll(names);
+        Collections.shuffle(shuffled);
+        index.addAll(shuffled.iterator());
+        assertThat(index.size()).isEqualTo(100_000);
+        assertThat(index.complete("player9999", 20))
+                .containsExactly("player9999", "player99990", "player99991", "player99992", "player99993",
+                        "player99994", "player99995", "player99996", "player99997", "player99998", "player99999");
+    }
+
+    @Test
+    public void testAddAllFull() {
+        UsernameIndex index = new UsernameIndex(2);
+        index.addAll(Arrays.asList("a", "b", "c").iterator());
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.getDropped()).isEqualTo(1);
+    }
+
+    @Test
+    public void testAddAllInterrupted() {
+        UsernameIndex index = new UsernameIndex(100);
+        Thread.currentThread().interrupt();
+        try {
+            assertThatThrownBy(() -> index.addAll(Collections.singletonList("a").iterator()))
+                    .isInstanceOf(CancellationException.class);
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void testConcurrentAdds() throws InterruptedException {
+        UsernameIndex index = new UsernameIndex(100_000, 64);
+        ExecutorService exe = Executors.newFixedThreadPool(4);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            for (int t = 0; t < 4; t++) {
+                exe.execute(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    for (int i = 0; i < 5000; i++) {
+                        index.add("player" + i);
+                    }
+                });
+            }
+            start.countDown();
+        } finally {
+            exe.shutdown();
+            assertThat(exe.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        }
+        // Every thread adds the same names, so each is completed exactly once
+        assertThat(index.complete("player", 10_000)).hasSize(5000).doesNotHaveDuplicates();
+    }
+
+}
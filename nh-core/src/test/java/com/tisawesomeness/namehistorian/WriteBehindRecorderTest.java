@@ -0,0 +1,104 @@
+package com.tisawesomeness.namehistorian;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WriteBehindRecorderTest {
+
+    private static final UUID TIS_UUID = UUID.fromString("f6489b79-7a9f-49e2-980e-265a05dbc3af");
+    private static final UUID JEB_UUID = UUID.fromString("853c80ef-3c37-49fd-aa49-938b674adae6");
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private NameHistorian historian;
+    private List<SQLException> errors;
+
+    @BeforeEach
+    public void setUp() throws SQLException, IOException {
+        Path parent = Paths.get("target");
+        Files.createDirectories(parent);
+        Path dbPath = parent.resolve("recorder-test.db");
+        Files.deleteIfExists(dbPath);
+        historian = new NameHistorian(dbPath);
+        errors = new CopyOnWriteArrayList<>();
+    }
+    @AfterEach
+    public void tearDown() throws SQLException {
+        historian.close();
+    }
+
+    private WriteBehindRecorder createRecorder(int maxBatchSize, Duration flushInterval) {
+        return new WriteBehindRecorder(historian, maxBatchSize, flushInterval, 1000, (batch, ex) -> errors.add(ex));
+    }
+
+    @Test
+    public void testDrainOnClose() throws SQLException, InterruptedException {
+        WriteBehindRecorder recorder = createRecorder(100, Duration.ofHours(1));
+        assertThat(recorder.offer(new NamedPlayer(TIS_UUID, "test"))).isTrue();
+        assertThat(recorder.offer(new NamedPlayer(TIS_UUID, "test2"))).isTrue();
+        assertThat(recorder.offer(new NamedPlayer(JEB_UUID, "jeb_"))).isTrue();
+
+        assertThat(recorder.close(TIMEOUT)).isTrue();
+        assertThat(errors).isEmpty();
+        assertThat(recorder.getQueueDepth()).isZero();
+        assertThat(historian.getNameHistory(TIS_UUID))
+                .extracting(NameRecord::getUsername)
+                .containsExactly("test2", "test");
+        assertThat(historian.getNameHistory(JEB_UUID))
+                .extracting(NameRecord::getUsername)
+                .containsExactly("jeb_");
+    }
+
+    @Test
+    public void testBatchSize() throws InterruptedException {
+        WriteBehindRecorder recorder = createRecorder(2, Duration.ofHours(1));
+        for (int i = 0; i < 4; i++) {
+            recorder.offer(new NamedPlayer(new UUID(0, i), "player" + i));
+        }
+        assertThat(recorder.close(TIMEOUT)).isTrue();
+        assertThat(recorder.getStats())
+                .extracting(WriteBehindRecorder.Stats::getBatchesCommitted, WriteBehindRecorder.Stats::getRecordsCommitted)
+                .containsExactly(2L, 4L);
+    }
+
+    @Test
+    public void testFlushInterval() throws SQLException, InterruptedException {
+        WriteBehindRecorder recorder = createRecorder(100, Duration.ofMillis(10));
+        recorder.offer(new NamedPlayer(TIS_UUID, "test"));
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (recorder.getStats().getRecordsCommitted() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(historian.getNameHistory(TIS_UUID)).hasSize(1);
+        assertThat(recorder.close(TIMEOUT)).isTrue();
+    }
+
+    @Test
+    public void testRejectAfterClose() throws InterruptedException {
+        WriteBehindRecorder recorder = createRecorder(100, Duration.ofHours(1));
+        assertThat(recorder.close(TIMEOUT)).isTrue();
+        assertThat(recorder.offer(new NamedPlayer(TIS_UUID, "test"))).isFalse();
+    }
+
+    @Test
+    public void testErrorHandler() throws SQLException, InterruptedException {
+        WriteBehindRecorder recorder = createRecorder(100, Duration.ofHours(1));
+        historian.close();
+        recorder.offer(new NamedPlayer(TIS_UUID, "test"));
+        assertThat(recorder.close(TIMEOUT)).isTrue();
+        assertThat(errors).hasSize(1);
+        assertThat(recorder.getStats().getBatchesFailed()).isEqualTo(1);
+    }
+
+}
@@ -0,0 +1,200 @@
+package com.tisawesomeness.namehistorian.mojang;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.tisawesomeness.namehistorian.Metrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BulkUuidResolverTest {
+
+    private static final Gson GSON = new Gson();
+    private static final Duration WINDOW = Duration.ofMillis(200);
+
+    private HttpServer server;
+    private final List<List<String>> requests = new CopyOnWriteArrayList<>();
+    private volatile int status = 200;
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+    private final Metrics metrics = new Metrics();
+    private final RateLimiter limiter = new RateLimiter(6000, 100, Duration.ofSeconds(5));
+    private BulkUuidResolver resolver;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/profiles/minecraft", this::handle);
+        server.start();
+        URL endpoint = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/profiles/minecraft");
+        resolver = new BulkUuidResolver(endpoint, new KeepAliveHttpTransport(5000, 4), WINDOW, limiter, metrics);
+    }
+    @AfterEach
+    public void tearDown() {
+        resolver.close();
+        server.stop(0);
+    }
+
+    // Every username exists except those starting with "missing", and the UUID is derived from the name
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            gate.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        String[] names = GSON.fromJson(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8),
+                String[].class);
+        requests.add(Arrays.asList(names));
+        StringBuilder sb = new StringBuilder("[");
+        for (String name : names) {
+            if (name.startsWith("missing")) {
+                continue;
+            }
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            String id = uuidOf(name).toString().replace("-", "");
+            sb.append("{\"id\":\"").append(id).append("\",\"name\":\"").append(name).append("\"}");
+        }
+        byte[] body = sb.append(']').toString().getBytes(StandardCharsets.UTF_8);
+        if (status == 429) {
+            exchange.getResponseHeaders().set("Retry-After", "120");
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+    private static UUID uuidOf(String name) {
+        return UUID.nameUUIDFromBytes(name.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testBatchesLookups() throws ExecutionException, InterruptedException {
+        CompletableFuture<Optional<UUID>> tis = resolver.resolve("Tis_awesomeness");
+        CompletableFuture<Optional<UUID>> jeb = resolver.resolve("jeb_");
+        CompletableFuture<Optional<UUID>> missing = resolver.resolve("missing");
+
+        assertThat(tis.get()).contains(uuidOf("Tis_awesomeness"));
+        assertThat(jeb.get()).contains(uuidOf("jeb_"));
+        assertThat(missing.get()).isEmpty();
+        assertThat(requests).hasSize(1);
+        assertThat(requests.get(0)).containsExactlyInAnyOrder("tis_awesomeness", "jeb_", "missing");
+        assertThat(metrics.snapshot().getValues())
+                .containsEntry("mojang.found", 2L)
+                .containsEntry("mojang.not_found", 1L);
+    }
+
+    @Test
+    public void testCoalescesSameName() throws ExecutionException, InterruptedException {
+        CompletableFuture<Optional<UUID>> first = resolver.resolve("jeb_");
+        CompletableFuture<Optional<UUID>> second = resolver.resolve("JEB_");
+
+        assertThat(first.get()).contains(uuidOf("jeb_"));
+        assertThat(second.get()).contains(uuidOf("jeb_"));
+        assertThat(requests).containsExactly(Arrays.asList("jeb_"));
+        assertThat(metrics.snapshot().getValues()).containsEntry("mojang.coalesced", 1L);
+    }
+
+    @Test
+    public void testCallerCannotCompleteSharedLookup() throws ExecutionException, InterruptedException {
+        CompletableFuture<Optional<UUID>> first = resolver.resolve("jeb_");
+        CompletableFuture<Optional<UUID>> second = resolver.resolve("jeb_");
+        first.cancel(true);
+        assertThat(second.get()).contains(uuidOf("jeb_"));
+    }
+
+    @Test
+    public void testFullBatchSentWithoutWaiting() throws ExecutionException, InterruptedException, TimeoutException {
+        List<CompletableFuture<Optional<UUID>>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < BulkUuidResolver.MAX_BATCH_SIZE; i++) {
+            futures.add(resolver.resolve("player" + i));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        assertThat(requests).hasSize(1);
+        // The full batch doesn't wait for the window, but this is only checked loosely to avoid a flaky test
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(WINDOW.multipliedBy(10));
+    }
+
+    @Test
+    public void testSplitsIntoBatches() throws ExecutionException, InterruptedException {
+        List<CompletableFuture<Optional<UUID>>> futures = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            futures.add(resolver.resolve("player" + i));
+        }
+        for (int i = 0; i < 25; i++) {
+            assertThat(futures.get(i).get()).contains(uuidOf("player" + i));
+        }
+        assertThat(requests).hasSize(3);
+        assertThat(requests).allSatisfy(names -> assertThat(names).hasSizeLessThanOrEqualTo(10));
+    }
+
+    @Test
+    public void testErrorStatus() {
+        status = 500;
+        CompletableFuture<Optional<UUID>> future = resolver.resolve("jeb_");
+        assertThatThrownBy(future::get).hasCauseInstanceOf(IOException.class);
+        assertThat(metrics.snapshot().getValues()).containsEntry("mojang.error", 1L);
+    }
+
+    @Test
+    public void testTooManyRequests() {
+        status = 429;
+        CompletableFuture<Optional<UUID>> future = resolver.resolve("jeb_");
+        assertThatThrownBy(future::get)
+                .hasCauseInstanceOf(RateLimitedException.class)
+                .satisfies(ex -> assertThat(((RateLimitedException) ex.getCause()).getRetryAfter())
+                        .isEqualTo(Duration.ofSeconds(120)));
+        assertThat(metrics.snapshot().getValues()).containsEntry("mojang.rate_limited", 1L);
+
+        // Paused for longer than the limiter's max wait, so the next lookup is turned away without a request
+        status = 200;
+        assertThatThrownBy(() -> resolver.resolve("Tis_awesomeness").get())
+                .hasCauseInstanceOf(RateLimitedException.class);
+        assertThat(requests).hasSize(1);
+        assertThat(limiter.getStats().getTooManyRequests()).isEqualTo(1);
+    }
+
+    @Test
+    public void testNewLookupAfterFinished() throws ExecutionException, InterruptedException {
+        assertThat(resolver.resolve("jeb_").get()).isPresent();
+        assertThat(resolver.resolve("jeb_").get()).isPresent();
+        assertThat(requests).hasSize(2);
+    }
+
+    @Test
+    public void testClose() {
+        gate = new CountDownLatch(1);
+        CompletableFuture<Optional<UUID>> future = resolver.resolve("jeb_");
+        resolver.close();
+        gate.countDown();
+        assertThatThrownBy(future::get).hasCauseInstanceOf(RejectedExecutionException.class);
+        assertThatThrownBy(() -> resolver.resolve("jeb_").get()).hasCauseInstanceOf(RejectedExecutionException.class);
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.tisawesomeness.namehistorian.mojang;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CircuitBreakerTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long START = 1000 * SECOND;
+    private static final Duration COOLDOWN = Duration.ofSeconds(30);
+
+    private final List<CircuitBreaker.State> transitions = new CopyOnWriteArrayList<>();
+
+    private CircuitBreaker breaker(int windowSize, int failureRatePercent) {
+        return new CircuitBreaker(windowSize, failureRatePercent, COOLDOWN, transitions::add);
+    }
+
+    @Test
+    public void testStartsClosed() {
+        CircuitBreaker breaker = breaker(4, 50);
+        assertThat(breaker.allowRequest()).isTrue();
+        assertThat(breaker.getStats().getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(breaker.getStats().getFailureRatePercent()).isZero();
+    }
+
+    @Test
+    public void testOpensOnlyOnceWindowFull() {
+        CircuitBreaker breaker = breaker(4, 50);
+        assertThat(breaker.onFailure(START)).isFalse();
+        assertThat(breaker.onFailure(START)).isFalse();
+        breaker.onSuccess();
+        assertThat(breaker.allowRequest()).isTrue();
+        assertThat(breaker.onFailure(START)).isTrue();
+        assertThat(breaker.allowRequest()).isFalse();
+        assertThat(transitions).containsExactly(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    public void testStaysClosedUnderThreshold() {
+        CircuitBreaker breaker = breaker(4, 75);
+        breaker.onSuccess();
+        breaker.onSuccess();
+        assertThat(breaker.onFailure(START)).isFalse();
+        assertThat(breaker.onFailure(START)).isFalse();
+        assertThat(breaker.getStats().getFailureRatePercent()).isEqualTo(50);
+        assertThat(breaker.allowRequest()).isTrue();
+    }
+
+    @Test
+    public void testOldOutcomesLeaveWindow() {
+        CircuitBreaker breaker = breaker(3, 100);
+        breaker.onSuccess();
+        breaker.onFailure(START);
+        breaker.onFailure(START);
+        // The success is pushed out of the window
+        assertThat(breaker.onFailure(START)).isTrue();
+    }
+
+    @Test
+    public void testProbeWaitsForCooldown() {
+        CircuitBreaker breaker = breaker(1, 100);
+        breaker.onFailure(START);
+        assertThat(breaker.tryStartProbe(START + SECOND)).isFalse();
+        assertThat(breaker.tryStartProbe(START + 30 * SECOND)).isTrue();
+        assertThat(breaker.getStats().getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        // Only one probe at a time, and lookups are still turned away while probing
+        assertThat(breaker.tryStartProbe(START + 30 * SECOND)).isFalse();
+        assertThat(breaker.allowRequest()).isFalse();
+    }
+
+    @Test
+    public void testProbeSuccessCloses() {
+        CircuitBreaker breaker = breaker(2, 100);
+        breaker.onFailure(START);
+        breaker.onFailure(START);
+        breaker.tryStartProbe(START + 30 * SECOND);
+        breaker.onSuccess();
+        assertThat(breaker.allowRequest()).isTrue();
+        // The window starts over, so a single failure doesn't reopen it
+        assertThat(breaker.onFailure(START + 31 * SECOND)).isFalse();
+        assertThat(transitions).containsExactly(
+                CircuitBreaker.State.OPEN, CircuitBreaker.State.HALF_OPEN, CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void testProbeFailureReopens() {
+        CircuitBreaker breaker = breaker(1, 100);
+        breaker.onFailure(START);
+        breaker.tryStartProbe(START + 30 * SECOND);
+        assertThat(breaker.onFailure(START + 31 * SECOND)).isTrue();
+        assertThat(breaker.getStats().getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        // The cooldown starts over from the failed probe
+        assertThat(breaker.tryStartProbe(START + 60 * SECOND)).isFalse();
+        assertThat(breaker.tryStartProbe(START + 61 * SECOND)).isTrue();
+        assertThat(breaker.getStats().getTimesOpened()).isEqualTo(2);
+    }
+
+    @Test
+    public void testLateOutcomesIgnoredWhileOpen() {
+        CircuitBreaker breaker = breaker(1, 100);
+        breaker.onFailure(START);
+        breaker.onSuccess();
+        assertThat(breaker.onFailure(START + SECOND)).isFalse();
+        assertThat(breaker.getStats().getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(breaker.getStats().getTimesOpened()).isEqualTo(1);
+    }
+
+    @Test
+    public void testCountsRejected() {
+        CircuitBreaker breaker = breaker(1, 100);
+        breaker.onFailure(START);
+        breaker.allowRequest();
+        breaker.allowRequest();
+        assertThat(breaker.getStats().getRejected()).isEqualTo(2);
+    }
+
+}
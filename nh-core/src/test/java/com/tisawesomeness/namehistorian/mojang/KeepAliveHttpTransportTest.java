@@ -0,0 +1,213 @@
+package com.tisawesomeness.namehistorian.mojang;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class KeepAliveHttpTransportTest {
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private URL url;
+    private final List<Integer> clientPorts = new CopyOnWriteArrayList<>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    private volatile int status = 200;
+    private volatile int delayMillis = 0;
+    private volatile String body = "hello";
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+    }
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    // Echoes the request body for POST, otherwise answers with the current body after the current delay
+    private void handle(HttpExchange exchange) throws IOException {
+        int now = active.incrementAndGet();
+        maxActive.accumulateAndGet(now, Math::max);
+        try {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            byte[] request = readAll(exchange.getRequestBody());
+            if (delayMillis > 0) {
+                Thread.sleep(delayMillis);
+            }
+            byte[] response = exchange.getRequestMethod().equals("POST") ? request :
+                    body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("X-Test", "header");
+            exchange.sendResponseHeaders(status, response.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            active.decrementAndGet();
+        }
+    }
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int read;
+        while ((read = is.read(buf)) != -1) {
+            bytes.write(buf, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+    private static String readString(HttpTransport.Response response) throws IOException {
+        return new String(readAll(response.getBody()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testGet() throws IOException {
+        KeepAliveHttpTransport transport = new KeepAliveHttpTransport(5000, 1);
+        String result = transport.get(url, response -> {
+            assertThat(response.getStatus()).isEqualTo(200);
+            assertThat(response.getHeader("x-test")).isEqualTo("header");
+            return readString(response);
+        });
+        assertThat(result).isEqualTo("hello");
+    }
+
+    @Test
+    public void testPost() throws IOException {
+        KeepAliveHttpTransport transport = new KeepAliveHttpTransport(5000, 1);
+        byte[] json = "[\"jeb_\"]".getBytes(StandardCharsets.UTF_8);
+        assertThat(transport.post(url, json, KeepAliveHttpTransportTest::readString)).isEqualTo("[\"jeb_\"]");
+    }
+
+    @Test
+    public void testErrorStatus() throws IOException {
+        KeepAliveHttpTransport transport = new KeepAliveHttpTransport(5000, 1);
+        status = 500;
+        body = "oops";
+        String result = transport.get(url, response -> response.getStatus() + " " + readString(response));
+        assertThat(result).isEqualTo("500 oops");
+    }
+
+    @Test
+    public void testReusesConnection() throws IOException {
+        KeepAliveHttpTransport transport = new KeepAliveHttpTransport(5000, 1);
+        for (int i = 0; i < 3; i++) {
+            transport.get(url, KeepAliveHttpTransportTest::readString);
+        }
+        assertThat(clientPorts).hasSize(3);
+        assertThat(new ArrayList<>(clientPorts)).containsOnly(clientPorts.get(0));
+    }
+
+    @Test
+    public void testReusesConnectionWhenBodyNotRead() throws IOException {
+        KeepAliveHttpTransport transport = new KeepAliveHttpTransport(5000, 1);
+        body = String.join("", Collections.nCopies(10_000, "x"));
+        transport.get(url, HttpTransport.Response::getStatus);
+        status = 404;
+        transport.get(url, HttpTransport.Response::getStatus);
+        status = 200;
+        transport.get(url, KeepAliveHttpTransportTest::readString);
+        assertThat(new ArrayList<>(clientPorts)).containsOnly(clientPorts.get(0));
+    }
+
+    @Test
+    public void testHandlerException() throws IOException {
+        KeepAliveHttpTransport transport = new KeepAliveHttpTransport(5000, 1);
+        assertThatThrownBy(() -> transport.get(url, response -> {
+            throw new IOException("bad response");
+        })).hasMessage("bad response");
+        assertThat(transport.getActive()).isZero();
+        // The failed connection is dropped and the next request opens a new one
+        assertThat(transport.get(url, KeepAliveHttpTransportTest::readString)).isEqualTo("hello");
+    }
+
+    @Test
+    public void testReadTimeout() {
+        KeepAliveHttpTransport transport = new KeepAliveHttpTransport(200, 1);
+        delayMillis = 2000;
+        assertThatThrownBy(() -> transport.get(url, KeepAliveHttpTransportTest::readString))
+                .isInstanceOf(SocketTimeoutException.class);
+        assertThat(transport.getActive()).isZero();
+    }
+
+    @Test
+    public void testConcurrencyLimit() throws InterruptedException, ExecutionException {
+        KeepAliveHttpTransport transport = new KeepAliveHttpTransport(10_000, 2);
+        delayMillis = 100;
+        ExecutorService clients = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                futures.add(clients.submit(() -> transport.get(url, KeepAliveHttpTransportTest::readString)));
+            }
+            for (Future<String> future : futures) {
+                assertThat(future.get()).isEqualTo("hello");
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+        assertThat(maxActive.get()).isLessThanOrEqualTo(2);
+        assertThat(transport.getActive()).isZero();
+        assertThat(transport.getWaiting()).isZero();
+    }
+
+    @Test
+    public void testTimesOutWaitingForOtherRequests() throws InterruptedException {
+        KeepAliveHttpTransport transport = new KeepAliveHttpTransport(500, 1);
+        delayMillis = 300;
+        ExecutorService clients = Executors.newFixedThreadPool(4);
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+        AtomicInteger succeeded = new AtomicInteger();
+        try {
+            for (int i = 0; i < 4; i++) {
+                clients.execute(() -> {
+                    try {
+                        transport.get(url, KeepAliveHttpTransportTest::readString);
+                        succeeded.incrementAndGet();
+                    } catch (IOException ex) {
+                        failures.add(ex);
+                    }
+                });
+            }
+        } finally {
+            clients.shutdown();
+            assertThat(clients.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        }
+        // Requests take 300ms one at a time, so the later ones can't get a turn within 500ms
+        assertThat(succeeded.get()).isPositive();
+        assertThat(failures).isNotEmpty()
+                .allSatisfy(ex -> assertThat(ex).isInstanceOf(SocketTimeoutException.class));
+        assertThat(maxActive.get()).isEqualTo(1);
+    }
+
+}
@@ -0,0 +1,133 @@
+package com.tisawesomeness.namehistorian.mojang;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PersistentLookupCacheTest {
+
+    private static final UUID TIS_UUID = UUID.fromString("f6489b79-7a9f-49e2-980e-265a05dbc3af");
+    private static final String TIS_NAME = "Tis_awesomeness";
+    private static final Instant NOW = Instant.parse("2022-01-01T00:00:00Z");
+
+    private Path dbPath;
+    private PersistentLookupCache cache;
+
+    @BeforeEach
+    public void setUp() throws SQLException, IOException {
+        Path parent = Paths.get("target");
+        Files.createDirectories(parent);
+        dbPath = parent.resolve("mojang-cache-test.db");
+        Files.deleteIfExists(dbPath);
+        cache = new PersistentLookupCache(dbPath);
+    }
+    @AfterEach
+    public void tearDown() throws SQLException {
+        cache.close();
+    }
+
+    @Test
+    public void testEmpty() throws SQLException {
+        assertThat(cache.getUUID(TIS_NAME, NOW)).isEmpty();
+        assertThat(cache.getUsername(TIS_UUID, NOW)).isEmpty();
+    }
+
+    @Test
+    public void testUUID() throws SQLException {
+        Instant expiresAt = NOW.plus(Duration.ofMinutes(1));
+        cache.putUUID(TIS_NAME, Optional.of(TIS_UUID), expiresAt);
+        assertThat(cache.getUUID(TIS_NAME, NOW))
+                .contains(new PersistentLookupCache.Entry<>(Optional.of(TIS_UUID), expiresAt));
+    }
+
+    @Test
+    public void testUUIDIgnoresCase() throws SQLException {
+        cache.putUUID(TIS_NAME, Optional.of(TIS_UUID), NOW.plus(Duration.ofMinutes(1)));
+        assertThat(cache.getUUID(TIS_NAME.toUpperCase(), NOW)).isPresent();
+    }
+
+    @Test
+    public void testUsername() throws SQLException {
+        Instant expiresAt = NOW.plus(Duration.ofMinutes(1));
+        cache.putUsername(TIS_UUID, Optional.of(TIS_NAME), expiresAt);
+        assertThat(cache.getUsername(TIS_UUID, NOW))
+                .contains(new PersistentLookupCache.Entry<>(Optional.of(TIS_NAME), expiresAt));
+    }
+
+    @Test
+    public void testNotFound() throws SQLException {
+        Instant expiresAt = NOW.plus(Duration.ofSeconds(30));
+        cache.putUUID(TIS_NAME, Optional.empty(), expiresAt);
+        cache.putUsername(TIS_UUID, Optional.empty(), expiresAt);
+        assertThat(cache.getUUID(TIS_NAME, NOW))
+                .contains(new PersistentLookupCache.Entry<>(Optional.empty(), expiresAt));
+        assertThat(cache.getUsername(TIS_UUID, NOW))
+                .contains(new PersistentLookupCache.Entry<>(Optional.empty(), expiresAt));
+    }
+
+    @Test
+    public void testReplace() throws SQLException {
+        cache.putUUID(TIS_NAME, Optional.empty(), NOW.plus(Duration.ofSeconds(30)));
+        cache.putUUID(TIS_NAME, Optional.of(TIS_UUID), NOW.plus(Duration.ofMinutes(1)));
+        assertThat(cache.getUUID(TIS_NAME, NOW))
+                .map(PersistentLookupCache.Entry::getValue)
+                .contains(Optional.of(TIS_UUID));
+    }
+
+    @Test
+    public void testExpired() throws SQLException {
+        Instant expiresAt = NOW.plus(Duration.ofMinutes(1));
+        cache.putUUID(TIS_NAME, Optional.of(TIS_UUID), expiresAt);
+        cache.putUsername(TIS_UUID, Optional.of(TIS_NAME), expiresAt);
+        assertThat(cache.getUUID(TIS_NAME, expiresAt)).isEmpty();
+        assertThat(cache.getUsername(TIS_UUID, expiresAt)).isEmpty();
+    }
+
+    @Test
+    public void testPurgeExpired() throws SQLException {
+        cache.putUUID(TIS_NAME, Optional.of(TIS_UUID), NOW.plus(Duration.ofMinutes(1)));
+        cache.putUsername(TIS_UUID, Optional.of(TIS_NAME), NOW.plus(Duration.ofMinutes(2)));
+        assertThat(cache.purgeExpired(NOW.plus(Duration.ofMinutes(1)))).isEqualTo(1);
+        assertThat(cache.purgeExpired(NOW.plus(Duration.ofMinutes(2)))).isEqualTo(1);
+        assertThat(cache.getUsername(TIS_UUID, NOW)).isEmpty();
+    }
+
+    @Test
+    public void testSurvivesReopen() throws SQLException {
+        Instant expiresAt = Instant.now().plus(Duration.ofHours(1));
+        cache.putUUID(TIS_NAME, Optional.of(TIS_UUID), expiresAt);
+        cache.putUsername(TIS_UUID, Optional.of(TIS_NAME), expiresAt);
+        cache.close();
+
+        cache = new PersistentLookupCache(dbPath);
+        Instant now = Instant.now();
+        assertThat(cache.getUUID(TIS_NAME, now))
+                .map(PersistentLookupCache.Entry::getValue)
+                .contains(Optional.of(TIS_UUID));
+        assertThat(cache.getUsername(TIS_UUID, now))
+                .map(PersistentLookupCache.Entry::getValue)
+                .contains(Optional.of(TIS_NAME));
+    }
+
+    @Test
+    public void testReopenPurgesExpired() throws SQLException {
+        cache.putUUID(TIS_NAME, Optional.of(TIS_UUID), Instant.now().minus(Duration.ofMinutes(1)));
+        cache.close();
+
+        cache = new PersistentLookupCache(dbPath);
+        assertThat(cache.purgeExpired(Instant.now())).isZero();
+    }
+
+}
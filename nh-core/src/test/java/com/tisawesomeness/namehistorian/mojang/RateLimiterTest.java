@@ -0,0 +1,93 @@
+package com.tisawesomeness.namehistorian.mojang;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class RateLimiterTest {
+
+    // 60 per minute is one permit per second
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long START = 1000 * SECOND;
+
+    @Test
+    public void testBurst() throws RateLimitedException {
+        RateLimiter limiter = new RateLimiter(60, 3, Duration.ofMinutes(1), START);
+        assertThat(limiter.reserve(START)).isZero();
+        assertThat(limiter.reserve(START)).isZero();
+        assertThat(limiter.reserve(START)).isZero();
+        assertThat(limiter.reserve(START)).isEqualTo(SECOND);
+    }
+
+    @Test
+    public void testWaitersQueueInOrder() throws RateLimitedException {
+        RateLimiter limiter = new RateLimiter(60, 1, Duration.ofMinutes(1), START);
+        assertThat(limiter.reserve(START)).isZero();
+        assertThat(limiter.reserve(START)).isEqualTo(SECOND);
+        assertThat(limiter.reserve(START)).isEqualTo(2 * SECOND);
+        assertThat(limiter.reserve(START + SECOND)).isEqualTo(2 * SECOND);
+    }
+
+    @Test
+    public void testRefillCappedAtBurst() throws RateLimitedException {
+        RateLimiter limiter = new RateLimiter(60, 2, Duration.ofMinutes(1), START);
+        limiter.reserve(START);
+        limiter.reserve(START);
+        long later = START + 100 * SECOND;
+        assertThat(limiter.reserve(later)).isZero();
+        assertThat(limiter.reserve(later)).isZero();
+        assertThat(limiter.reserve(later)).isEqualTo(SECOND);
+    }
+
+    @Test
+    public void testRejectsLongWait() throws RateLimitedException {
+        RateLimiter limiter = new RateLimiter(60, 1, Duration.ofMillis(1500), START);
+        limiter.reserve(START);
+        limiter.reserve(START);
+        assertThatThrownBy(() -> limiter.reserve(START))
+                .isInstanceOf(RateLimitedException.class)
+                .satisfies(ex -> assertThat(((RateLimitedException) ex).getRetryAfter())
+                        .isEqualTo(Duration.ofSeconds(2)));
+        // A rejected caller doesn't take a place in line
+        assertThat(limiter.reserve(START + SECOND)).isEqualTo(SECOND);
+        assertThat(limiter.getStats().getRejected()).isEqualTo(1);
+        assertThat(limiter.getStats().getThrottled()).isEqualTo(2);
+    }
+
+    @Test
+    public void testBackOff() throws RateLimitedException {
+        RateLimiter limiter = new RateLimiter(60, 5, Duration.ofMinutes(1), START);
+        limiter.backOff(START, Duration.ofSeconds(10));
+        // Tokens don't refill while paused, so requests are spread out after the pause instead of bursting
+        assertThat(limiter.reserve(START)).isEqualTo(11 * SECOND);
+        assertThat(limiter.reserve(START + 5 * SECOND)).isEqualTo(7 * SECOND);
+        assertThat(limiter.getStats().getTooManyRequests()).isEqualTo(1);
+    }
+
+    @Test
+    public void testBackOffRejectsPastMaxWait() {
+        RateLimiter limiter = new RateLimiter(60, 5, Duration.ofSeconds(5), START);
+        limiter.backOff(START, Duration.ofSeconds(30));
+        assertThatThrownBy(() -> limiter.reserve(START)).isInstanceOf(RateLimitedException.class);
+    }
+
+    @Test
+    public void testParseRetryAfter() {
+        Instant now = Instant.parse("2015-10-21T07:28:00Z");
+        assertThat(RateLimiter.parseRetryAfter("120", now)).contains(Duration.ofSeconds(120));
+        assertThat(RateLimiter.parseRetryAfter(" 5 ", now)).contains(Duration.ofSeconds(5));
+        assertThat(RateLimiter.parseRetryAfter("Wed, 21 Oct 2015 07:28:30 GMT", now))
+                .contains(Duration.ofSeconds(30));
+        assertThat(RateLimiter.parseRetryAfter("Wed, 21 Oct 2015 07:27:00 GMT", now)).contains(Duration.ZERO);
+        assertThat(RateLimiter.parseRetryAfter("-1", now)).isEmpty();
+        assertThat(RateLimiter.parseRetryAfter("soon", now)).isEmpty();
+        assertThat(RateLimiter.parseRetryAfter(null, now)).isEqualTo(Optional.empty());
+    }
+
+}
@@ -9,6 +9,7 @@ import org.junit.jupiter.params.provider.ValueSource;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class UtilTest {
 
@@ -92,4 +93,29 @@ public class UtilTest {
         assertThat(Util.parseUUID(candidate)).isEmpty();
     }
 
+    @ParameterizedTest(name = "{index} ==> UUID {0} survives a round trip through bytes")
+    @ValueSource(strings = {
+            "00000000-0000-0000-0000-000000000000",
+            "ffffffff-ffff-ffff-ffff-ffffffffffff",
+            "f6489b79-7a9f-49e2-980e-265a05dbc3af",
+            "853c80ef-3c37-49fd-aa49-938b674adae6"
+    })
+    public void testUuidBytesRoundTrip(String candidate) {
+        UUID uuid = UUID.fromString(candidate);
+        assertThat(Util.uuidToBytes(uuid)).hasSize(16);
+        assertThat(Util.uuidFromBytes(Util.uuidToBytes(uuid))).isEqualTo(uuid);
+    }
+    @Test
+    public void testUuidBytesOrder() {
+        UUID uuid = UUID.fromString("00112233-4455-6677-8899-aabbccddeeff");
+        assertThat(Util.uuidToBytes(uuid)).containsExactly(
+                0x00, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66, 0x77,
+                0x88, 0x99, 0xaa, 0xbb, 0xcc, 0xdd, 0xee, 0xff
+        );
+    }
+    @Test
+    public void testUuidBytesWrongLength() {
+        assertThatThrownBy(() -> Util.uuidFromBytes(new byte[15])).isInstanceOf(IllegalArgumentException.class);
+    }
+
 }
@@ -0,0 +1,121 @@
+package com.tisawesomeness.namehistorian.spigot;
+
+import com.tisawesomeness.namehistorian.NameHistorian;
+import com.tisawesomeness.namehistorian.NameHistoryExporter;
+import lombok.RequiredArgsConstructor;
+import net.kyori.adventure.text.Component;
+import org.bukkit.command.CommandSender;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.OptionalLong;
+
+/**
+ * Runs at most one name history export at a time on its own thread,
+ * reporting progress to whoever started it.
+ */
+@RequiredArgsConstructor
+public final class ExportRunner {
+
+    private static final long PROGRESS_INTERVAL_MILLIS = 5000;
+    private static final DateTimeFormatter FILE_NAME_FORMATTER =
+            DateTimeFormatter.ofPattern("'history-'yyyyMMdd-HHmmss'.ndjson.gz'");
+
+    private final NameHistorianSpigot plugin;
+    private @Nullable NameHistoryExporter exporter;
+    private @Nullable Thread thread;
+
+    /**
+     * Starts exporting every name record in the background to a new file in the exports folder.
+     * @param sender who to send progress messages to
+     * @return the path of the export relative to the plugin folder, or null if another export is still running
+     */
+    public synchronized @Nullable String start(CommandSender sender) {
+        if (isRunning()) {
+            return null;
+        }
+        Path dataPath = plugin.getDataFolder().toPath();
+        String relativePath = "exports/" + FILE_NAME_FORMATTER.format(LocalDateTime.now());
+        Path file = dataPath.resolve(relativePath);
+        NameHistoryExporter newExporter = new NameHistoryExporter(plugin.getHistorian(), file,
+                NameHistorian.DEFAULT_EXPORT_FETCH_SIZE);
+        exporter = newExporter;
+        thread = new Thread(() -> run(sender, file, relativePath, newExporter), "NameHistorian-Export");
+        thread.setDaemon(true);
+        thread.start();
+        return relativePath;
+    }
+
+    private void run(CommandSender sender, Path file, String relativePath, NameHistoryExporter exporter) {
+        plugin.log("Exporting name history to %s", file);
+        try {
+            Files.createDirectories(file.getParent());
+            OptionalLong exported = exporter.run(new ProgressReporter(sender));
+            if (exported.isPresent()) {
+                plugin.log("Exported %d names to %s", exported.getAsLong(), file);
+                tell(sender, Messages.EXPORT_FINISHED.build(exported.getAsLong(), relativePath));
+            } else {
+                plugin.log("Export to %s was stopped", file);
+            }
+        } catch (IOException | RuntimeException ex) {
+            plugin.err("Export to %s failed", ex, file);
+            tell(sender, Messages.EXPORT_FAILED);
+        }
+    }
+
+    /**
+     * Checks whether an export is running.
+     * @return true if running
+     */
+    public synchronized boolean isRunning() {
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * Stops the running export, if any, and waits for it to clean up its unfinished file.
+     * @param timeout the maximum time to wait
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void close(Duration timeout) throws InterruptedException {
+        Thread toJoin;
+        synchronized (this) {
+            if (!isRunning()) {
+                return;
+            }
+            assert exporter != null;
+            exporter.cancel();
+            toJoin = thread;
+        }
+        assert toJoin != null;
+        toJoin.join(Math.max(1, timeout.toMillis()));
+    }
+
+    // Messages are sent on the main thread, and not at all once the plugin is disabled
+    private void tell(CommandSender sender, Component msg) {
+        if (plugin.isEnabled()) {
+            plugin.scheduleNextTick(() -> plugin.sendMessage(sender, msg));
+        }
+    }
+
+    @RequiredArgsConstructor
+    private class ProgressReporter implements NameHistoryExporter.Listener {
+        private final CommandSender sender;
+        private long lastReport = System.currentTimeMillis();
+
+        @Override
+        public void onProgress(long exported) {
+            long now = System.currentTimeMillis();
+            if (now - lastReport < PROGRESS_INTERVAL_MILLIS) {
+                return;
+            }
+            lastReport = now;
+            tell(sender, Messages.EXPORT_PROGRESS.build(exported));
+        }
+    }
+
+}
@@ -1,8 +1,13 @@
 package com.tisawesomeness.namehistorian.spigot;
 
+import com.tisawesomeness.namehistorian.HistoryPage;
 import com.tisawesomeness.namehistorian.NameRecord;
+import com.tisawesomeness.namehistorian.mojang.CircuitOpenException;
+import com.tisawesomeness.namehistorian.mojang.RateLimitedException;
+import com.tisawesomeness.namehistorian.mojang.RateLimiter;
 import com.tisawesomeness.namehistorian.util.Util;
 import lombok.AllArgsConstructor;
+import lombok.Value;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
@@ -12,9 +17,14 @@ import org.bukkit.util.StringUtil;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
-import java.sql.SQLException;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -23,6 +33,11 @@ import java.util.stream.Collectors;
 @AllArgsConstructor
 public final class HistoryCommand implements CommandExecutor, TabCompleter {
 
+    // Clients only show so many suggestions, no need to send more
+    private static final int MAX_COMPLETIONS = 100;
+    private static final String HOLDERS = "holders";
+    private static final String AT = "at";
+
     private final NameHistorianSpigot plugin;
 
     @Override
@@ -31,170 +46,375 @@ public final class HistoryCommand implements CommandExecutor, TabCompleter {
             plugin.sendMessage(sender, Messages.HISTORY_USAGE, label);
             return true;
         }
+        // Players named "holders" or "at" can still be looked up by UUID, or without a page number
+        if (args.length == 2 && args[0].equalsIgnoreCase(HOLDERS)) {
+            runHolders(sender, args[1], System.nanoTime());
+            return true;
+        }
+        if ((args.length == 3 || args.length == 4) && args[0].equalsIgnoreCase(AT)) {
+            runHoldersAt(sender, args, System.nanoTime());
+            return true;
+        }
+        int pageNumber = args.length > 1 ? parsePageNumber(args[1]) : 1;
+        if (pageNumber < 1) {
+            plugin.sendMessage(sender, Messages.INVALID_PAGE, args[1]);
+            return true;
+        }
+        PageRequest page = new PageRequest(label, args[0], pageNumber, System.nanoTime());
         Optional<UUID> uuidOpt = Util.parseUUID(args[0]);
         if (uuidOpt.isPresent()) {
-            runWithUuid(sender, uuidOpt.get());
+            runWithUuid(sender, uuidOpt.get(), page);
             return true;
         }
         Optional<APICompatibleUsername> usernameOpt = APICompatibleUsername.of(args[0]);
         if (usernameOpt.isPresent()) {
-            runWithUsername(sender, usernameOpt.get());
+            runWithUsername(sender, usernameOpt.get(), page);
             return true;
         }
         plugin.sendMessage(sender, Messages.INVALID_PLAYER, args[0]);
         return true;
     }
 
-    private void runWithUuid(CommandSender sender, UUID uuid) {
+    // Returns 0 if invalid
+    private static int parsePageNumber(String input) {
+        try {
+            return Math.max(0, Integer.parseInt(input));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    // Mojang only knows who holds a name now, so past holders come from the database alone
+    private void runHolders(CommandSender sender, String input, long startNanos) {
+        Optional<APICompatibleUsername> usernameOpt = APICompatibleUsername.of(input);
+        if (!usernameOpt.isPresent()) {
+            plugin.sendMessage(sender, Messages.INVALID_USERNAME, input);
+            return;
+        }
+        String username = usernameOpt.get().toString();
+        plugin.getHistorian().getAllHoldersOfAsync(username)
+                .whenComplete((holders, ex) -> plugin.scheduleNextTick(() -> {
+                    if (ex != null) {
+                        plugin.err("Error fetching holders of %s", ex, username);
+                        plugin.sendMessage(sender, Messages.FETCH_ERROR);
+                    } else if (holders.isEmpty()) {
+                        plugin.sendMessage(sender, Messages.NO_HOLDERS);
+                    } else {
+                        plugin.sendMessage(sender, Messages.HOLDERS_TITLE, username);
+                        printHolders(sender, holders);
+                    }
+                    plugin.getHistorian().getMetrics().histogram("command.history_holders").recordSince(startNanos);
+                }));
+    }
+
+    // args are "at", the username, the date, and optionally the time
+    private void runHoldersAt(CommandSender sender, String[] args, long startNanos) {
+        Optional<APICompatibleUsername> usernameOpt = APICompatibleUsername.of(args[1]);
+        if (!usernameOpt.isPresent()) {
+            plugin.sendMessage(sender, Messages.INVALID_USERNAME, args[1]);
+            return;
+        }
+        String username = usernameOpt.get().toString();
+        String when = args.length > 3 ? args[2] + " " + args[3] : args[2];
+        TimeRange range = parseTimeRange(args[2], args.length > 3 ? args[3] : null);
+        if (range == null) {
+            plugin.sendMessage(sender, Messages.INVALID_DATE, when);
+            return;
+        }
+        plugin.getHistorian().getHoldersBetweenAsync(username, range.getStart(), range.getEnd())
+                .whenComplete((holders, ex) -> plugin.scheduleNextTick(() -> {
+                    if (ex != null) {
+                        plugin.err("Error fetching holders of %s at %s", ex, username, when);
+                        plugin.sendMessage(sender, Messages.FETCH_ERROR);
+                    } else if (holders.isEmpty()) {
+                        plugin.sendMessage(sender, Messages.NO_HOLDERS_AT, username, when);
+                    } else {
+                        plugin.sendMessage(sender, Messages.HOLDERS_AT_TITLE, username, when);
+                        printHolders(sender, holders);
+                    }
+                    plugin.getHistorian().getMetrics().histogram("command.history_at").recordSince(startNanos);
+                }));
+    }
+    // Dates and times are in the server's time zone, like the dates shown in name history.
+    // Returns null if invalid.
+    private static @Nullable TimeRange parseTimeRange(String date, @Nullable String time) {
+        try {
+            LocalDate day = LocalDate.parse(date);
+            ZoneId zone = ZoneId.systemDefault();
+            if (time == null) {
+                // The whole day, names are stored to the millisecond
+                Instant start = day.atStartOfDay(zone).toInstant();
+                Instant end = day.plusDays(1).atStartOfDay(zone).toInstant().minusMillis(1);
+                return new TimeRange(start, end);
+            }
+            Instant instant = day.atTime(LocalTime.parse(time)).atZone(zone).toInstant();
+            return new TimeRange(instant, instant);
+        } catch (DateTimeParseException ex) {
+            return null;
+        }
+    }
+
+    private void printHolders(CommandSender sender, List<NameRecord> holders) {
+        for (int i = 0; i < holders.size(); i++) {
+            NameRecord nr = holders.get(i);
+            // Holders are newest to oldest, numbered in reverse like name history
+            plugin.sendMessage(sender, Messages.HOLDER_LINE, holders.size() - i, nr.getUsername(), nr.getUuid());
+            plugin.sendMessage(sender, Messages.DATE_LINE, nr.getFirstSeenTime(), nr.getLastSeenTime());
+        }
+    }
+
+    private void runWithUuid(CommandSender sender, UUID uuid, PageRequest page) {
         JoinStatus joinStatus = plugin.getPlayer(uuid)
                 .map(p -> p.isOnline() ? JoinStatus.ONLINE : JoinStatus.OFFLINE)
                 .orElse(JoinStatus.NEVER_JOINED);
         Optional<MojangAPI> apiOpt = plugin.getMojangAPI();
         if (joinStatus == JoinStatus.ONLINE || !apiOpt.isPresent()) {
-            fetchNameHistory(sender, uuid, joinStatus);
+            fetchNameHistory(sender, uuid, joinStatus, page);
             return;
         }
         plugin.log("Fetching username for %s from Mojang API", uuid);
         plugin.sendMessage(sender, Messages.MOJANG_LOOKUP);
-        plugin.scheduleAsync(() -> lookupUsernameFromMojangAsync(sender, uuid, joinStatus, apiOpt.get()));
+        plugin.scheduleAsync(() -> lookupUsernameFromMojangAsync(sender, uuid, joinStatus, apiOpt.get(), page));
     }
-    private void lookupUsernameFromMojangAsync(CommandSender sender, UUID uuid, JoinStatus joinStatus, MojangAPI api) {
+    private void lookupUsernameFromMojangAsync(CommandSender sender, UUID uuid, JoinStatus joinStatus, MojangAPI api,
+                                               PageRequest page) {
         try {
             String username = api.getUsername(uuid).orElse(null);
-            plugin.scheduleNextTick(() -> processUsernameSync(sender, uuid, username, joinStatus));
+            plugin.scheduleNextTick(() -> processUsernameSync(sender, uuid, username, joinStatus, page));
         } catch (IOException ex) {
-            plugin.err("Error fetching name history for %s", ex, uuid);
-            plugin.scheduleNextTick(() -> processUsernameErrorSync(sender, uuid, joinStatus));
+            logLookupError(api, ex, uuid);
+            plugin.scheduleNextTick(() -> processUsernameErrorSync(sender, uuid, joinStatus, ex, page));
         }
     }
-    private void processUsernameSync(CommandSender sender, UUID uuid, @Nullable String username, JoinStatus joinStatus) {
+    private void processUsernameSync(CommandSender sender, UUID uuid, @Nullable String username, JoinStatus joinStatus,
+                                     PageRequest page) {
         if (username != null) {
-            tryRecordName(uuid, username);
+            recordThenFetchNameHistory(sender, uuid, username, joinStatus, page);
         } else {
             plugin.sendMessage(sender, Messages.MOJANG_UNKNOWN);
+            fetchNameHistory(sender, uuid, joinStatus, page);
         }
-        fetchNameHistory(sender, uuid, joinStatus);
     }
-    private void processUsernameErrorSync(CommandSender sender, UUID uuid, JoinStatus joinStatus) {
-        plugin.sendMessage(sender, Messages.MOJANG_ERROR);
-        fetchNameHistory(sender, uuid, joinStatus);
+    private void processUsernameErrorSync(CommandSender sender, UUID uuid, JoinStatus joinStatus, IOException ex,
+                                          PageRequest page) {
+        sendLookupError(sender, ex);
+        fetchNameHistory(sender, uuid, joinStatus, page);
     }
 
-    private void runWithUsername(CommandSender sender, APICompatibleUsername username) {
+    private void runWithUsername(CommandSender sender, APICompatibleUsername username, PageRequest page) {
         Optional<Player> playerOpt = plugin.getOnlinePlayer(username.toString());
         if (playerOpt.isPresent()) {
             Player player = playerOpt.get();
-            fetchNameHistory(sender, player.getUniqueId(), JoinStatus.ONLINE);
+            fetchNameHistory(sender, player.getUniqueId(), JoinStatus.ONLINE, page);
             return;
         }
         Optional<MojangAPI> apiOpt = plugin.getMojangAPI();
         if (!apiOpt.isPresent()) {
-            lookupLatestByUsername(sender, username);
+            lookupLatestByUsername(sender, username, page);
             return;
         }
         plugin.log("Fetching UUID for %s from Mojang API", username);
         plugin.sendMessage(sender, Messages.MOJANG_LOOKUP);
-        plugin.scheduleAsync(() -> lookupUuidFromMojangAsync(sender, username, apiOpt.get()));
+        plugin.scheduleAsync(() -> lookupUuidFromMojangAsync(sender, username, apiOpt.get(), page));
     }
-    private void lookupUuidFromMojangAsync(CommandSender sender, APICompatibleUsername username, MojangAPI api) {
+    private void lookupUuidFromMojangAsync(CommandSender sender, APICompatibleUsername username, MojangAPI api,
+                                           PageRequest page) {
         try {
             UUID uuid = api.getUUID(username).orElse(null);
-            plugin.scheduleNextTick(() -> processUuidLookupSync(sender, username, uuid));
+            plugin.scheduleNextTick(() -> processUuidLookupSync(sender, username, uuid, page));
         } catch (IOException ex) {
-            plugin.err("Error fetching name history for %s", ex, username);
-            plugin.scheduleNextTick(() -> processUuidLookupErrorSync(sender, username));
+            logLookupError(api, ex, username);
+            plugin.scheduleNextTick(() -> processUuidLookupErrorSync(sender, username, ex, page));
         }
     }
-    private void processUuidLookupSync(CommandSender sender, APICompatibleUsername username, @Nullable UUID uuid) {
+    private void processUuidLookupSync(CommandSender sender, APICompatibleUsername username, @Nullable UUID uuid,
+                                       PageRequest page) {
         if (uuid == null) {
             plugin.sendMessage(sender, Messages.MOJANG_UNKNOWN);
-            lookupLatestByUsername(sender, username);
+            lookupLatestByUsername(sender, username, page);
             return;
         }
-        processUuidSync(sender, username, uuid, true);
+        processUuidSync(sender, username, uuid, true, page);
     }
-    private void processUuidLookupErrorSync(CommandSender sender, APICompatibleUsername username) {
-        plugin.sendMessage(sender, Messages.MOJANG_ERROR);
-        lookupLatestByUsername(sender, username);
+    private void processUuidLookupErrorSync(CommandSender sender, APICompatibleUsername username, IOException ex,
+                                            PageRequest page) {
+        sendLookupError(sender, ex);
+        lookupLatestByUsername(sender, username, page);
     }
-    private void lookupLatestByUsername(CommandSender sender, APICompatibleUsername username) {
-        try {
-            UUID uuid = plugin.getHistorian().getLatestByUsername(username.toString())
-                    .map(NameRecord::getUuid)
-                    .orElse(null);
-            processUuidSync(sender, username, uuid, false);
-        } catch (SQLException ex) {
-            plugin.err("Error fetching latest name for %s", ex, username);
-            plugin.sendMessage(sender, Messages.FETCH_ERROR);
+
+    // Rate limiting is expected under load, so it's logged without a stack trace.
+    // Lookups skipped by the circuit breaker aren't logged at all, the plugin logs when it opens and closes.
+    private void logLookupError(MojangAPI api, IOException ex, Object player) {
+        if (ex instanceof CircuitOpenException) {
+            return;
+        }
+        if (ex instanceof RateLimitedException) {
+            RateLimiter.Stats stats = api.getLimiterStats();
+            plugin.warn("Mojang lookup for %s was rate limited: %s (%d requests available, %d waiting, paused for %d s)",
+                    player, ex.getMessage(), stats.getAvailable(), stats.getWaiting(), stats.getPausedFor().getSeconds());
+        } else {
+            plugin.err("Error fetching name history for %s", ex, player);
+        }
+    }
+    private void sendLookupError(CommandSender sender, IOException ex) {
+        if (ex instanceof CircuitOpenException) {
+            plugin.sendMessage(sender, Messages.MOJANG_UNAVAILABLE);
+        } else if (ex instanceof RateLimitedException) {
+            // Round up so the player isn't told to retry in 0 seconds
+            long seconds = (((RateLimitedException) ex).getRetryAfter().toMillis() + 999) / 1000;
+            plugin.sendMessage(sender, Messages.MOJANG_RATE_LIMITED, seconds);
+        } else {
+            plugin.sendMessage(sender, Messages.MOJANG_ERROR);
         }
     }
-    private void processUuidSync(CommandSender sender, APICompatibleUsername username, @Nullable UUID uuid, boolean shouldRecord) {
+    private void lookupLatestByUsername(CommandSender sender, APICompatibleUsername username, PageRequest page) {
+        plugin.getHistorian().getLatestByUsernameAsync(username.toString())
+                .whenComplete((nrOpt, ex) -> plugin.scheduleNextTick(() -> {
+                    if (ex != null) {
+                        plugin.err("Error fetching latest name for %s", ex, username);
+                        plugin.sendMessage(sender, Messages.FETCH_ERROR);
+                        recordLatency(page);
+                        return;
+                    }
+                    processUuidSync(sender, username, nrOpt.map(NameRecord::getUuid).orElse(null), false, page);
+                }));
+    }
+    private void processUuidSync(CommandSender sender, APICompatibleUsername username, @Nullable UUID uuid, boolean shouldRecord,
+                                 PageRequest page) {
         if (uuid == null) {
             plugin.sendMessage(sender, Messages.UNKNOWN_PLAYER);
+            recordLatency(page);
             return;
         }
-        if (shouldRecord) {
-            tryRecordName(uuid, username.toString());
-        }
         boolean hasJoined = plugin.getPlayer(uuid).isPresent();
         JoinStatus joinStatus = hasJoined ? JoinStatus.OFFLINE : JoinStatus.NEVER_JOINED;
-        fetchNameHistory(sender, uuid, joinStatus);
+        if (shouldRecord) {
+            recordThenFetchNameHistory(sender, uuid, username.toString(), joinStatus, page);
+        } else {
+            fetchNameHistory(sender, uuid, joinStatus, page);
+        }
     }
 
-    private void tryRecordName(UUID uuid, String username) {
-        try {
-            plugin.getHistorian().recordName(uuid, username);
-        } catch (SQLException ex) {
-            plugin.err("Error recording name for %s - %s", ex, username, uuid);
-        }
+    // Database calls run on the historian's query threads, only the results come back to the main thread
+
+    private void recordThenFetchNameHistory(CommandSender sender, UUID uuid, String username, JoinStatus joinStatus,
+                                            PageRequest page) {
+        plugin.getHistorian().recordNameAsync(uuid, username)
+                .whenComplete((v, ex) -> {
+                    if (ex != null) {
+                        // Still show whatever history was already recorded
+                        plugin.err("Error recording name for %s - %s", ex, username, uuid);
+                    }
+                    fetchNameHistory(sender, uuid, joinStatus, page);
+                });
     }
 
-    private void fetchNameHistory(CommandSender sender, UUID uuid, JoinStatus joinStatus) {
-        try {
-            List<NameRecord> history = plugin.getHistorian().getNameHistory(uuid);
-            printNameHistory(sender, history, joinStatus);
-        } catch (SQLException ex) {
-            plugin.err("Error fetching name history for %s", ex, uuid);
-            plugin.sendMessage(sender, Messages.FETCH_ERROR);
-        }
+    private void fetchNameHistory(CommandSender sender, UUID uuid, JoinStatus joinStatus, PageRequest page) {
+        int pageSize = plugin.getNHConfig().getHistoryPageSize();
+        plugin.getHistorian().getNameHistoryPageAsync(uuid, page.getNumber(), pageSize)
+                .whenComplete((history, ex) -> plugin.scheduleNextTick(() -> {
+                    if (ex != null) {
+                        plugin.err("Error fetching name history for %s", ex, uuid);
+                        plugin.sendMessage(sender, Messages.FETCH_ERROR);
+                    } else {
+                        printNameHistory(sender, uuid, history, joinStatus, page, pageSize);
+                    }
+                    recordLatency(page);
+                }));
     }
 
-    private void printNameHistory(CommandSender sender, List<NameRecord> nameHistory, JoinStatus joinStatus) {
-        if (nameHistory.isEmpty()) {
+    // End-to-end, including Mojang lookups and waiting for the main thread
+    private void recordLatency(PageRequest page) {
+        plugin.getHistorian().getMetrics().histogram("command.history").recordSince(page.getStartNanos());
+    }
+
+    private void printNameHistory(CommandSender sender, UUID uuid, HistoryPage history, JoinStatus joinStatus,
+                                  PageRequest page, int pageSize) {
+        int totalCount = history.getTotalCount();
+        if (totalCount == 0) {
             plugin.sendMessage(sender, Messages.NO_HISTORY);
             return;
         }
+        int pageCount = (totalCount + pageSize - 1) / pageSize;
+        List<NameRecord> nameHistory = history.getRecords();
+        if (nameHistory.isEmpty()) {
+            plugin.sendMessage(sender, Messages.PAGE_OUT_OF_RANGE, page.getNumber(), pageCount);
+            return;
+        }
 
-        UUID uuid = nameHistory.get(0).getUuid();
         plugin.sendMessage(sender, Messages.HISTORY_TITLE, uuid);
 
         if (joinStatus == JoinStatus.NEVER_JOINED) {
             plugin.sendMessage(sender, Messages.NEVER_JOINED);
         }
 
+        int offset = (page.getNumber() - 1) * pageSize;
         for (int i = 0; i < nameHistory.size(); i++) {
             NameRecord nr = nameHistory.get(i);
 
             // History is newest to oldest, changes printed in reverse
-            int changeNumber = nameHistory.size() - i;
+            int changeNumber = totalCount - offset - i;
             plugin.sendMessage(sender, Messages.USERNAME_LINE, changeNumber, nr.getUsername());
 
             // If the player is online, the player was last seen now
-            Instant lastSeen = i == 0 && joinStatus == JoinStatus.ONLINE ? Instant.now() : nr.getLastSeenTime();
+            boolean current = offset + i == 0;
+            Instant lastSeen = current && joinStatus == JoinStatus.ONLINE ? Instant.now() : nr.getLastSeenTime();
             plugin.sendMessage(sender, Messages.DATE_LINE, nr.getFirstSeenTime(), lastSeen);
         }
+
+        if (history.getNext() != null) {
+            String nextCommand = String.format("/%s %s %d", page.getLabel(), page.getPlayer(), page.getNumber() + 1);
+            plugin.sendMessage(sender, Messages.HISTORY_NEXT_PAGE, page.getNumber(), pageCount, nextCommand);
+        } else if (pageCount > 1) {
+            plugin.sendMessage(sender, Messages.HISTORY_PAGE, page.getNumber(), pageCount);
+        }
     }
 
     @Override
     public @Nullable List<String> onTabComplete(CommandSender sender, Command command, String label, String[] args) {
         if (args.length == 1) {
-            List<String> completions = plugin.getServer().getOnlinePlayers().stream()
-                    .map(Player::getName)
-                    .collect(Collectors.toList());
-            return StringUtil.copyPartialMatches(args[0], completions, new ArrayList<>());
+            List<String> completions = completeUsername(args[0]);
+            for (String subcommand : Arrays.asList(AT, HOLDERS)) {
+                if (completions.size() < MAX_COMPLETIONS && StringUtil.startsWithIgnoreCase(subcommand, args[0])) {
+                    completions.add(subcommand);
+                }
+            }
+            return completions;
+        }
+        if (args.length == 2 && (args[0].equalsIgnoreCase(HOLDERS) || args[0].equalsIgnoreCase(AT))) {
+            return completeUsername(args[1]);
+        }
+        if (args.length == 3 && args[0].equalsIgnoreCase(AT)) {
+            List<String> today = Collections.singletonList(LocalDate.now().toString());
+            return StringUtil.copyPartialMatches(args[2], today, new ArrayList<>());
         }
         return null;
     }
+    private List<String> completeUsername(String input) {
+        if (plugin.getNHConfig().getUsernameIndexSize() > 0) {
+            return new ArrayList<>(plugin.getHistorian().getUsernameIndex().complete(input, MAX_COMPLETIONS));
+        }
+        List<String> completions = plugin.getServer().getOnlinePlayers().stream()
+                .map(Player::getName)
+                .collect(Collectors.toList());
+        return StringUtil.copyPartialMatches(input, completions, new ArrayList<>());
+    }
+
+    @Value
+    private static class TimeRange {
+        Instant start;
+        Instant end;
+    }
+
+    @Value
+    private static class PageRequest {
+        String label;
+        /** The {@code <player>} argument as typed */
+        String player;
+        int number;
+        /** The {@link System#nanoTime()} the command was run */
+        long startNanos;
+    }
 
     private enum JoinStatus {
         ONLINE, OFFLINE, NEVER_JOINED
@@ -0,0 +1,141 @@
+package com.tisawesomeness.namehistorian.spigot;
+
+import com.tisawesomeness.namehistorian.NameHistoryImporter;
+import lombok.RequiredArgsConstructor;
+import net.kyori.adventure.text.Component;
+import org.bukkit.command.CommandSender;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+
+/**
+ * Runs at most one name history import at a time on its own thread,
+ * reporting progress to whoever started it.
+ */
+@RequiredArgsConstructor
+public final class ImportRunner {
+
+    private static final long PROGRESS_INTERVAL_MILLIS = 5000;
+    private static final int MAX_LOGGED_INVALID_ROWS = 10;
+
+    private final NameHistorianSpigot plugin;
+    private @Nullable NameHistoryImporter importer;
+    private @Nullable Thread thread;
+
+    /**
+     * Starts importing a file in the background, continuing a previous import of the same file if there was one.
+     * @param sender who to send progress messages to
+     * @param file the file to import
+     * @param format the file's format
+     * @return false if another import is still running
+     */
+    public synchronized boolean start(CommandSender sender, Path file, NameHistoryImporter.Format format) {
+        if (isRunning()) {
+            return false;
+        }
+        int batchSize = plugin.getNHConfig().getImportBatchSize();
+        NameHistoryImporter newImporter = new NameHistoryImporter(plugin.getHistorian(), file, format, batchSize);
+        importer = newImporter;
+        thread = new Thread(() -> run(sender, file, newImporter), "NameHistorian-Import");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    private void run(CommandSender sender, Path file, NameHistoryImporter importer) {
+        plugin.log("Importing name history from %s", file);
+        try {
+            NameHistoryImporter.Progress progress = importer.run(new ProgressReporter(sender));
+            if (progress.isComplete()) {
+                plugin.log("Imported %d names from %s, skipped %d invalid rows",
+                        progress.getImported(), file, progress.getSkipped());
+                tell(sender, Messages.IMPORT_FINISHED.build(progress.getImported(), progress.getSkipped()));
+            } else {
+                plugin.log("Import of %s stopped after %d names", file, progress.getImported());
+                tell(sender, Messages.IMPORT_CANCELLED.build(progress.getImported()));
+            }
+        } catch (IOException | SQLException | RuntimeException ex) {
+            plugin.err("Import of %s failed", ex, file);
+            tell(sender, Messages.IMPORT_FAILED);
+        }
+    }
+
+    /**
+     * Checks whether an import is running.
+     * @return true if running
+     */
+    public synchronized boolean isRunning() {
+        return thread != null && thread.isAlive();
+    }
+
+    /**
+     * Stops the running import after its current batch. It can be continued by starting it again.
+     * @return false if no import is running
+     */
+    public synchronized boolean cancel() {
+        if (!isRunning()) {
+            return false;
+        }
+        assert importer != null;
+        importer.cancel();
+        return true;
+    }
+
+    /**
+     * Stops the running import, if any, and waits for its current batch to be recorded.
+     * @param timeout the maximum time to wait
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void close(Duration timeout) throws InterruptedException {
+        Thread toJoin;
+        synchronized (this) {
+            if (!cancel()) {
+                return;
+            }
+            toJoin = thread;
+        }
+        assert toJoin != null;
+        toJoin.join(Math.max(1, timeout.toMillis()));
+    }
+
+    // Messages are sent on the main thread, and not at all once the plugin is disabled
+    private void tell(CommandSender sender, Component msg) {
+        if (plugin.isEnabled()) {
+            plugin.scheduleNextTick(() -> plugin.sendMessage(sender, msg));
+        }
+    }
+
+    @RequiredArgsConstructor
+    private class ProgressReporter implements NameHistoryImporter.Listener {
+        private final CommandSender sender;
+        private long lastReport = System.currentTimeMillis();
+        private long invalidRows;
+
+        @Override
+        public void onProgress(NameHistoryImporter.Progress progress) {
+            long now = System.currentTimeMillis();
+            if (progress.isComplete() || now - lastReport < PROGRESS_INTERVAL_MILLIS) {
+                return;
+            }
+            lastReport = now;
+            int percent = (int) (progress.getFraction() * 100);
+            plugin.log("Import progress: %d names (%d%%), %d invalid rows",
+                    progress.getImported(), percent, progress.getSkipped());
+            tell(sender, Messages.IMPORT_PROGRESS.build(progress.getImported(), percent, progress.getSkipped()));
+        }
+
+        @Override
+        public void onInvalidRow(long line, String reason) {
+            invalidRows++;
+            if (invalidRows <= MAX_LOGGED_INVALID_ROWS) {
+                plugin.warn("Skipped line %d: %s", line, reason);
+            } else if (invalidRows == MAX_LOGGED_INVALID_ROWS + 1) {
+                plugin.warn("Too many invalid rows, no longer logging them");
+            }
+        }
+    }
+
+}
@@ -1,12 +1,15 @@
 package com.tisawesomeness.namehistorian.spigot;
 
+import com.tisawesomeness.namehistorian.LatencyHistogram;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.event.ClickEvent;
 import net.kyori.adventure.text.format.NamedTextColor;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Locale;
 import java.util.UUID;
 
 public class Messages {
@@ -21,6 +24,18 @@ public class Messages {
     public static final A1<String> INVALID_PLAYER = input -> Component.translatable("namehistorian.invalid_player")
             .color(NamedTextColor.RED)
             .arguments(Component.text(input));
+    /** input ({@code [page]} argument) */
+    public static final A1<String> INVALID_PAGE = input -> Component.translatable("namehistorian.invalid_page")
+            .color(NamedTextColor.RED)
+            .arguments(Component.text(input));
+    /** input ({@code <name>} argument) */
+    public static final A1<String> INVALID_USERNAME = input -> Component.translatable("namehistorian.invalid_username")
+            .color(NamedTextColor.RED)
+            .arguments(Component.text(input));
+    /** input ({@code <date> [time]} arguments) */
+    public static final A1<String> INVALID_DATE = input -> Component.translatable("namehistorian.invalid_date")
+            .color(NamedTextColor.RED)
+            .arguments(Component.text(input));
     public static final Component UNKNOWN_PLAYER = Component.translatable("namehistorian.unknown_player")
             .color(NamedTextColor.RED);
     public static final Component FETCH_ERROR = Component.translatable("namehistorian.fetch_error")
@@ -31,6 +46,12 @@ public class Messages {
             .color(NamedTextColor.GRAY);
     public static final Component MOJANG_ERROR = Component.translatable("namehistorian.mojang_error")
             .color(NamedTextColor.GRAY);
+    public static final Component MOJANG_UNAVAILABLE = Component.translatable("namehistorian.mojang_unavailable")
+            .color(NamedTextColor.GRAY);
+    /** retryAfterSeconds */
+    public static final A1<Long> MOJANG_RATE_LIMITED = seconds -> Component.translatable("namehistorian.mojang_rate_limited")
+            .color(NamedTextColor.GRAY)
+            .arguments(Component.text(seconds));
     public static final Component NO_HISTORY = Component.translatable("namehistorian.no_history")
             .color(NamedTextColor.RED);
     /** uuid */
@@ -53,6 +74,47 @@ public class Messages {
                     Component.text(format(firstSeen)).color(NamedTextColor.GREEN),
                     Component.text(format(lastSeen)).color(NamedTextColor.GREEN)
             );
+    public static final Component NO_HOLDERS = Component.translatable("namehistorian.no_holders")
+            .color(NamedTextColor.RED);
+    /** username */
+    public static final A1<String> HOLDERS_TITLE = username -> Component.translatable("namehistorian.holders_title")
+            .color(NamedTextColor.GOLD)
+            .arguments(Component.text(username).color(NamedTextColor.LIGHT_PURPLE));
+    /** username, dateTime (as typed) */
+    public static final A2<String, String> NO_HOLDERS_AT = (username, when) -> Component.translatable("namehistorian.no_holders_at")
+            .color(NamedTextColor.RED)
+            .arguments(Component.text(username), Component.text(when));
+    /** username, dateTime (as typed) */
+    public static final A2<String, String> HOLDERS_AT_TITLE = (username, when) -> Component.translatable("namehistorian.holders_at_title")
+            .color(NamedTextColor.GOLD)
+            .arguments(
+                    Component.text(username).color(NamedTextColor.LIGHT_PURPLE),
+                    Component.text(when).color(NamedTextColor.GREEN)
+            );
+    /** number, username, uuid */
+    public static final A3<Integer, String, UUID> HOLDER_LINE = (number, username, uuid) -> Component.translatable("namehistorian.holder_line")
+            .color(NamedTextColor.BLUE)
+            .arguments(
+                    Component.text(number),
+                    Component.text(username).color(NamedTextColor.LIGHT_PURPLE),
+                    copyableText(uuid.toString()).color(NamedTextColor.GREEN)
+            );
+    /** page, pageCount */
+    public static final A2<Integer, Integer> HISTORY_PAGE = (page, pageCount) -> Component.translatable("namehistorian.history_page")
+            .color(NamedTextColor.GRAY)
+            .arguments(Component.text(page), Component.text(pageCount));
+    /** page, pageCount, nextPageCommand */
+    public static final A3<Integer, Integer, String> HISTORY_NEXT_PAGE = (page, pageCount, command) -> Component.translatable("namehistorian.history_next_page")
+            .color(NamedTextColor.GRAY)
+            .arguments(
+                    Component.text(page),
+                    Component.text(pageCount),
+                    Component.text(command).color(NamedTextColor.GREEN).clickEvent(ClickEvent.runCommand(command))
+            );
+    /** page, pageCount */
+    public static final A2<Integer, Integer> PAGE_OUT_OF_RANGE = (page, pageCount) -> Component.translatable("namehistorian.page_out_of_range")
+            .color(NamedTextColor.RED)
+            .arguments(Component.text(page), Component.text(pageCount));
     /** commandLabel */
     public static final A1<String> NAMEHISTORIAN_USAGE = label -> Component.translatable("namehistorian.namehistorian_usage")
             .color(NamedTextColor.RED)
@@ -60,6 +122,75 @@ public class Messages {
     public static final Component RELOAD_FAILED = Component.translatable("namehistorian.reload_failed")
             .color(NamedTextColor.RED);
     public static final Component RELOAD_SUCCESS = Component.translatable("namehistorian.reload_success");
+    /** commandLabel */
+    public static final A1<String> IMPORT_USAGE = label -> Component.translatable("namehistorian.import_usage")
+            .color(NamedTextColor.RED)
+            .arguments(Component.text(label));
+    /** fileName */
+    public static final A1<String> IMPORT_NOT_FOUND = fileName -> Component.translatable("namehistorian.import_not_found")
+            .color(NamedTextColor.RED)
+            .arguments(Component.text(fileName));
+    /** fileName */
+    public static final A1<String> IMPORT_UNKNOWN_FORMAT = fileName -> Component.translatable("namehistorian.import_unknown_format")
+            .color(NamedTextColor.RED)
+            .arguments(Component.text(fileName));
+    /** commandLabel */
+    public static final A1<String> IMPORT_RUNNING = label -> Component.translatable("namehistorian.import_running")
+            .color(NamedTextColor.RED)
+            .arguments(Component.text(label));
+    public static final Component IMPORT_NOT_RUNNING = Component.translatable("namehistorian.import_not_running")
+            .color(NamedTextColor.RED);
+    /** fileName */
+    public static final A1<String> IMPORT_STARTED = fileName -> Component.translatable("namehistorian.import_started")
+            .color(NamedTextColor.GRAY)
+            .arguments(Component.text(fileName));
+    /** imported, percent, skipped */
+    public static final A3<Long, Integer, Long> IMPORT_PROGRESS = (imported, percent, skipped) -> Component.translatable("namehistorian.import_progress")
+            .color(NamedTextColor.GRAY)
+            .arguments(Component.text(imported), Component.text(percent), Component.text(skipped));
+    /** imported, skipped */
+    public static final A2<Long, Long> IMPORT_FINISHED = (imported, skipped) -> Component.translatable("namehistorian.import_finished")
+            .arguments(Component.text(imported), Component.text(skipped));
+    public static final Component IMPORT_CANCELLING = Component.translatable("namehistorian.import_cancelling")
+            .color(NamedTextColor.GRAY);
+    /** imported */
+    public static final A1<Long> IMPORT_CANCELLED = imported -> Component.translatable("namehistorian.import_cancelled")
+            .color(NamedTextColor.GRAY)
+            .arguments(Component.text(imported));
+    public static final Component IMPORT_FAILED = Component.translatable("namehistorian.import_failed")
+            .color(NamedTextColor.RED);
+    public static final Component EXPORT_RUNNING = Component.translatable("namehistorian.export_running")
+            .color(NamedTextColor.RED);
+    /** fileName */
+    public static final A1<String> EXPORT_STARTED = fileName -> Component.translatable("namehistorian.export_started")
+            .color(NamedTextColor.GRAY)
+            .arguments(Component.text(fileName));
+    /** exported */
+    public static final A1<Long> EXPORT_PROGRESS = exported -> Component.translatable("namehistorian.export_progress")
+            .color(NamedTextColor.GRAY)
+            .arguments(Component.text(exported));
+    /** exported, fileName */
+    public static final A2<Long, String> EXPORT_FINISHED = (exported, fileName) -> Component.translatable("namehistorian.export_finished")
+            .arguments(Component.text(exported), copyableText(fileName));
+    public static final Component EXPORT_FAILED = Component.translatable("namehistorian.export_failed")
+            .color(NamedTextColor.RED);
+    public static final Component STATS_TITLE = Component.translatable("namehistorian.stats_title")
+            .color(NamedTextColor.GOLD);
+    /** name, value */
+    public static final A2<String, Long> STATS_VALUE = (name, value) -> Component.translatable("namehistorian.stats_value")
+            .color(NamedTextColor.GRAY)
+            .arguments(Component.text(name).color(NamedTextColor.WHITE), Component.text(value));
+    /** state, failureRatePercent, rejected */
+    public static final A3<String, Integer, Long> STATS_BREAKER = (state, failureRate, rejected) -> Component.translatable("namehistorian.stats_breaker")
+            .color(NamedTextColor.GRAY)
+            .arguments(Component.text(state).color(NamedTextColor.WHITE), Component.text(failureRate),
+                    Component.text(rejected));
+    /** name, latency */
+    public static final A2<String, LatencyHistogram.Snapshot> STATS_LATENCY = (name, latency) -> Component.translatable("namehistorian.stats_latency")
+            .color(NamedTextColor.GRAY)
+            .arguments(Component.text(name).color(NamedTextColor.WHITE), Component.text(latency.getCount()),
+                    millis(latency.getMean()), millis(latency.getP50()), millis(latency.getP99()),
+                    millis(latency.getMax()));
 
     private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
@@ -72,6 +203,9 @@ public class Messages {
                 .clickEvent(ClickEvent.copyToClipboard(str))
                 .hoverEvent(Component.translatable("namehistorian.click_to_copy").asHoverEvent());
     }
+    private static Component millis(Duration duration) {
+        return Component.text(String.format(Locale.ROOT, "%.2f", duration.toNanos() / 1_000_000.0));
+    }
     private static String format(Instant time) {
         return FORMATTER.format(time.atZone(ZoneOffset.systemDefault()));
     }
@@ -82,5 +216,8 @@ public class Messages {
     public interface A2<A0, A1> {
         Component build(A0 a0, A1 a1);
     }
+    public interface A3<A0, A1, A2> {
+        Component build(A0 a0, A1 a1, A2 a2);
+    }
 
 }
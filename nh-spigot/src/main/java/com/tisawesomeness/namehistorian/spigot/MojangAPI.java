@@ -2,74 +2,309 @@ package com.tisawesomeness.namehistorian.spigot;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
-import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.tisawesomeness.namehistorian.LatencyHistogram;
+import com.tisawesomeness.namehistorian.Metrics;
+import com.tisawesomeness.namehistorian.mojang.BulkUuidResolver;
+import com.tisawesomeness.namehistorian.mojang.CircuitBreaker;
+import com.tisawesomeness.namehistorian.mojang.CircuitOpenException;
+import com.tisawesomeness.namehistorian.mojang.HttpTransport;
+import com.tisawesomeness.namehistorian.mojang.PersistentLookupCache;
+import com.tisawesomeness.namehistorian.mojang.RateLimitedException;
+import com.tisawesomeness.namehistorian.mojang.RateLimiter;
 import com.tisawesomeness.namehistorian.util.ThrowingFunction;
-import com.tisawesomeness.namehistorian.util.Util;
 import lombok.Value;
 import org.jetbrains.annotations.Range;
 
 import javax.annotation.Nonnegative;
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
-public class MojangAPI {
+/**
+ * Looks up UUIDs and usernames from Mojang servers, caching the results.
+ * Players that were found and players that don't exist are cached for separate lifetimes,
+ * failed and rate limited lookups aren't cached at all.
+ * UUID lookups are batched by a {@link BulkUuidResolver}, username lookups are sent one at a time,
+ * and both wait for the same {@link RateLimiter} and are sent through the same {@link HttpTransport}.
+ * While a {@link CircuitBreaker} is open, lookups that would need a request fail right away with a
+ * {@link CircuitOpenException}, and a background thread probes Mojang until it answers again.
+ * If given a {@link PersistentLookupCache}, it is checked before sending a request and filled with the result,
+ * so lookups made before a reload or restart don't have to be sent again.
+ * Requests are counted by outcome in {@code mojang.found}, {@code mojang.not_found}, {@code mojang.rate_limited},
+ * {@code mojang.timeout}, and {@code mojang.error}, and timed in {@code mojang.request}.
+ * Reads from the persistent cache are counted in {@code mojang.disk_cache.hits}, {@code mojang.disk_cache.misses},
+ * and {@code mojang.disk_cache.errors}.
+ */
+public class MojangAPI implements AutoCloseable {
 
-    private static final Gson GSON = new Gson();
+    // Notch, any UUID would do
+    private static final UUID PROBE_UUID = UUID.fromString("069a79f4-44e9-4726-a5be-fca90e38aaf5");
 
-    private final LoadingCache<String, Optional<UUID>> uuidLookupCache;
-    private final LoadingCache<UUID, Optional<String>> usernameLookupCache;
-    @Nonnegative
-    private final int timeout;
+    private final LoadingCache<String, Lookup<UUID>> uuidLookupCache;
+    private final LoadingCache<UUID, Lookup<String>> usernameLookupCache;
+    private final BulkUuidResolver uuidResolver;
+    private final RateLimiter limiter;
+    private final CircuitBreaker breaker;
+    private final ScheduledExecutorService probeExecutor;
+    private final HttpTransport transport;
+    private final @Nullable PersistentLookupCache diskCache;
+    private final Consumer<SQLException> diskErrorHandler;
+    private final long lifetimeNanos;
+    private final long negativeLifetimeNanos;
+    private final LatencyHistogram requestLatency;
+    private final LongAdder found;
+    private final LongAdder notFound;
+    private final LongAdder rateLimited;
+    private final LongAdder timedOut;
+    private final LongAdder failed;
+    private final LongAdder diskHits;
+    private final LongAdder diskMisses;
+    private final LongAdder diskErrors;
 
-    public MojangAPI(@Nonnegative int timeout, @Range(from = 60, to = Integer.MAX_VALUE) int lifetime) {
-        this.timeout = timeout;
+    /**
+     * Creates a new Mojang API client with empty caches. The client must be closed once no longer used.
+     * @param transport sends every request, closed with this client
+     * @param lifetime the time in seconds a player that was found is cached for
+     * @param negativeLifetime the time in seconds a player that doesn't exist is cached for, 0 to not cache
+     * @param limiter the rate limiter every request waits for
+     * @param breaker the circuit breaker every request goes through
+     * @param metrics where to record requests and cache hit rates, replacing the cache gauges of any previous client
+     * @param diskCache the cache checked before sending a request, or null to only cache in memory,
+     *                  not closed by this client since it outlives reloads
+     * @param diskErrorHandler called when the disk cache can't be read or written,
+     *                         the lookup continues as if the cache missed
+     */
+    public MojangAPI(HttpTransport transport, @Range(from = 60, to = Integer.MAX_VALUE) int lifetime,
+                     @Nonnegative int negativeLifetime, RateLimiter limiter, CircuitBreaker breaker, Metrics metrics,
+                     @Nullable PersistentLookupCache diskCache, Consumer<SQLException> diskErrorHandler) {
+        this.transport = transport;
+        this.limiter = limiter;
+        this.breaker = breaker;
+        probeExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "NameHistorian-Mojang-Probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.diskCache = diskCache;
+        this.diskErrorHandler = diskErrorHandler;
+        lifetimeNanos = TimeUnit.SECONDS.toNanos(lifetime);
+        negativeLifetimeNanos = TimeUnit.SECONDS.toNanos(negativeLifetime);
+        uuidResolver = new BulkUuidResolver(parseURL(BulkUuidResolver.DEFAULT_ENDPOINT), transport,
+                BulkUuidResolver.DEFAULT_WINDOW, limiter, metrics);
+        // Entries also expire individually, depending on whether the player was found
+        int maxLifetime = Math.max(lifetime, negativeLifetime);
         uuidLookupCache = CacheBuilder.newBuilder()
-                .expireAfterWrite(lifetime, TimeUnit.SECONDS)
-                .build(loader(this::lookupUUID));
+                .expireAfterWrite(maxLifetime, TimeUnit.SECONDS)
+                .recordStats()
+                .build(loader(PersistentLookupCache::getUUID, this::lookupUUID, PersistentLookupCache::putUUID));
         usernameLookupCache = CacheBuilder.newBuilder()
-                .expireAfterWrite(lifetime, TimeUnit.SECONDS)
-                .build(loader(this::lookupUsername));
+                .expireAfterWrite(maxLifetime, TimeUnit.SECONDS)
+                .recordStats()
+                .build(loader(PersistentLookupCache::getUsername, this::lookupUsername,
+                        PersistentLookupCache::putUsername));
+        requestLatency = metrics.histogram("mojang.request");
+        found = metrics.counter("mojang.found");
+        notFound = metrics.counter("mojang.not_found");
+        rateLimited = metrics.counter("mojang.rate_limited");
+        timedOut = metrics.counter("mojang.timeout");
+        failed = metrics.counter("mojang.error");
+        diskHits = metrics.counter("mojang.disk_cache.hits");
+        diskMisses = metrics.counter("mojang.disk_cache.misses");
+        diskErrors = metrics.counter("mojang.disk_cache.errors");
+        registerCacheGauges(metrics, "mojang.uuid_cache", uuidLookupCache);
+        registerCacheGauges(metrics, "mojang.username_cache", usernameLookupCache);
+        metrics.gauge("mojang.limiter.available", () -> limiter.getStats().getAvailable());
+        metrics.gauge("mojang.limiter.waiting", () -> limiter.getStats().getWaiting());
+        metrics.gauge("mojang.limiter.paused_seconds", () -> limiter.getStats().getPausedFor().getSeconds());
+        // 0 closed, 1 open, 2 half-open
+        metrics.gauge("mojang.breaker.state", () -> breaker.getStats().getState().ordinal());
+        metrics.gauge("mojang.breaker.failure_rate_percent", () -> breaker.getStats().getFailureRatePercent());
+        metrics.gauge("mojang.breaker.rejected", () -> breaker.getStats().getRejected());
+        metrics.gauge("mojang.breaker.opened", () -> breaker.getStats().getTimesOpened());
     }
-    private static <K, V> CacheLoader<K, V> loader(ThrowingFunction<K, V> func) {
-        return new CacheLoader<K, V>() {
+    private static void registerCacheGauges(Metrics metrics, String name, LoadingCache<?, ?> cache) {
+        metrics.gauge(name + ".hits", () -> cache.stats().hitCount());
+        metrics.gauge(name + ".misses", () -> cache.stats().missCount());
+        metrics.gauge(name + ".hit_rate_percent", () -> {
+            CacheStats stats = cache.stats();
+            return stats.requestCount() == 0 ? 0 : Math.round(stats.hitRate() * 100);
+        });
+    }
+    private static URL parseURL(String url) {
+        try {
+            return new URL(url);
+        } catch (MalformedURLException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+    private <K, V> CacheLoader<K, Lookup<V>> loader(DiskRead<K, V> diskRead, ThrowingFunction<K, Optional<V>> func,
+                                                    DiskWrite<K, V> diskWrite) {
+        return new CacheLoader<K, Lookup<V>>() {
             @Override
-            public V load(K key) throws Exception {
-                return func.apply(key);
+            public Lookup<V> load(K key) throws Exception {
+                Optional<Lookup<V>> cached = readDisk(diskRead, key);
+                if (cached.isPresent()) {
+                    return cached.get();
+                }
+                Optional<V> value = callMojang(func, key);
+                writeDisk(diskWrite, key, value);
+                return lookup(value);
             }
         };
     }
+    private <K, V> Optional<V> callMojang(ThrowingFunction<K, Optional<V>> func, K key) throws Exception {
+        if (!breaker.allowRequest()) {
+            throw new CircuitOpenException("Mojang API appears to be down", breaker.getRemainingCooldown());
+        }
+        Optional<V> value;
+        try {
+            value = func.apply(key);
+        } catch (RateLimitedException ex) {
+            // Rate limiting isn't an outage, so it doesn't count either way
+            throw ex;
+        } catch (IOException ex) {
+            if (breaker.onFailure()) {
+                scheduleProbe();
+            }
+            throw ex;
+        }
+        breaker.onSuccess();
+        return value;
+    }
+    private void scheduleProbe() {
+        try {
+            probeExecutor.schedule(this::probe, breaker.getRemainingCooldown().toNanos(), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException ignored) {
+            // Closed
+        }
+    }
+    // Any answer means Mojang is back, including a player that doesn't exist or a 429
+    private void probe() {
+        if (!breaker.tryStartProbe()) {
+            return;
+        }
+        try {
+            lookupUsername(PROBE_UUID);
+        } catch (RateLimitedException ignored) {
+            // Mojang answered
+        } catch (IOException ex) {
+            if (breaker.onFailure()) {
+                scheduleProbe();
+            }
+            return;
+        }
+        breaker.onSuccess();
+    }
+
+    private <K, V> Optional<Lookup<V>> readDisk(DiskRead<K, V> diskRead, K key) {
+        if (diskCache == null) {
+            return Optional.empty();
+        }
+        Optional<PersistentLookupCache.Entry<V>> entryOpt;
+        try {
+            entryOpt = diskRead.read(diskCache, key, Instant.now());
+        } catch (SQLException ex) {
+            diskErrors.increment();
+            diskErrorHandler.accept(ex);
+            return Optional.empty();
+        }
+        if (!entryOpt.isPresent()) {
+            diskMisses.increment();
+            return Optional.empty();
+        }
+        diskHits.increment();
+        PersistentLookupCache.Entry<V> entry = entryOpt.get();
+        // The disk cache uses wall clock time, convert the time left to nanoTime
+        long remaining = Math.max(0, Duration.between(Instant.now(), entry.getExpiresAt()).toNanos());
+        return Optional.of(new Lookup<>(entry.getValue(), System.nanoTime() + remaining));
+    }
+    private <K, V> void writeDisk(DiskWrite<K, V> diskWrite, K key, Optional<V> value) {
+        long lifetime = value.isPresent() ? lifetimeNanos : negativeLifetimeNanos;
+        if (diskCache == null || lifetime == 0) {
+            return;
+        }
+        try {
+            diskWrite.write(diskCache, key, value, Instant.now().plusNanos(lifetime));
+        } catch (SQLException ex) {
+            diskErrors.increment();
+            diskErrorHandler.accept(ex);
+        }
+    }
+    private <V> Lookup<V> lookup(Optional<V> value) {
+        long lifetime = value.isPresent() ? lifetimeNanos : negativeLifetimeNanos;
+        return new Lookup<>(value, System.nanoTime() + lifetime);
+    }
+    @FunctionalInterface
+    private interface DiskRead<K, V> {
+        Optional<PersistentLookupCache.Entry<V>> read(PersistentLookupCache cache, K key, Instant now)
+                throws SQLException;
+    }
+    @FunctionalInterface
+    private interface DiskWrite<K, V> {
+        void write(PersistentLookupCache cache, K key, Optional<V> value, Instant expiresAt) throws SQLException;
+    }
+    private static <K, V> Optional<V> get(LoadingCache<K, Lookup<V>> cache, K key) throws ExecutionException {
+        // Reading through the map view doesn't count towards the hit rate
+        Lookup<V> cached = cache.asMap().get(key);
+        if (cached != null && cached.isExpired()) {
+            // Only remove this lookup, another thread may have already replaced it
+            cache.asMap().remove(key, cached);
+        }
+        return cache.get(key).getValue();
+    }
 
     public Optional<UUID> getUUID(APICompatibleUsername username) throws IOException {
         try {
             String usernameStr = username.toString();
-            Optional<UUID> uuidOpt = uuidLookupCache.get(usernameStr);
-            uuidOpt.ifPresent(uuid -> usernameLookupCache.asMap().putIfAbsent(uuid, Optional.of(usernameStr)));
+            Optional<UUID> uuidOpt = get(uuidLookupCache, usernameStr);
+            uuidOpt.ifPresent(uuid ->
+                    usernameLookupCache.asMap().putIfAbsent(uuid, lookup(Optional.of(usernameStr))));
             return uuidOpt;
         } catch (ExecutionException ex) {
             return rethrow(ex);
         }
     }
-    private Optional<UUID> lookupUUID(String username) throws IOException {
-        URL url = new URL("https://api.mojang.com/users/profiles/minecraft/" + username);
-        return makeRequest(url)
-                .map(Response::getId)
-                .flatMap(Util::parseUUID);
+    // Concurrent lookups of different usernames share a request, so this may wait a little for others to join
+    private Optional<UUID> lookupUUID(String username) throws IOException, InterruptedException {
+        try {
+            return uuidResolver.resolve(username).get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Could not look up UUID of " + username, cause);
+        }
     }
 
     public Optional<String> getUsername(UUID uuid) throws IOException {
         try {
-            Optional<String> usernameOpt = usernameLookupCache.get(uuid);
-            usernameOpt.ifPresent(username -> uuidLookupCache.asMap().putIfAbsent(username, Optional.of(uuid)));
-            return usernameLookupCache.get(uuid);
+            Optional<String> usernameOpt = get(usernameLookupCache, uuid);
+            usernameOpt.ifPresent(username ->
+                    uuidLookupCache.asMap().putIfAbsent(username, lookup(Optional.of(uuid))));
+            return usernameOpt;
         } catch (ExecutionException ex) {
             return rethrow(ex);
         }
@@ -77,8 +312,7 @@ public class MojangAPI {
     private Optional<String> lookupUsername(UUID uuid) throws IOException {
         String undashedUuid = uuid.toString().replace("-", "");
         URL url = new URL("https://sessionserver.mojang.com/session/minecraft/profile/" + undashedUuid);
-        return makeRequest(url)
-                .map(Response::getName);
+        return makeRequest(url);
     }
 
     private <T> T rethrow(ExecutionException ex) throws IOException {
@@ -89,40 +323,105 @@ public class MojangAPI {
         throw new RuntimeException(cause);
     }
 
-    private Optional<Response> makeRequest(URL url) throws IOException {
-        HttpURLConnection con = getConnection(url);
+    private Optional<String> makeRequest(URL url) throws IOException {
         try {
-            con.connect();
-            if (con.getResponseCode() != 200) {
-                return Optional.empty();
-            }
-            return read(con.getInputStream());
+            limiter.acquire();
+        } catch (RateLimitedException ex) {
+            rateLimited.increment();
+            throw ex;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the rate limiter");
+        }
+        long start = System.nanoTime();
+        try {
+            Optional<String> nameOpt = transport.get(url, response -> {
+                int status = response.getStatus();
+                // Mojang answers 204 or 404 for players that don't exist
+                if (status == 204 || status == 404) {
+                    return Optional.empty();
+                }
+                if (status == 429) {
+                    throw limiter.onTooManyRequests(response.getHeader("Retry-After"));
+                }
+                if (status != 200) {
+                    throw new IOException("Mojang API returned status " + status);
+                }
+                return Optional.of(readName(response.getBody()));
+            });
+            (nameOpt.isPresent() ? found : notFound).increment();
+            return nameOpt;
+        } catch (RateLimitedException ex) {
+            rateLimited.increment();
+            throw ex;
+        } catch (SocketTimeoutException ex) {
+            timedOut.increment();
+            throw ex;
+        } catch (IOException ex) {
+            failed.increment();
+            throw ex;
         } finally {
-            con.disconnect();
+            requestLatency.recordSince(start);
         }
     }
-    private HttpURLConnection getConnection(URL url) throws IOException {
-        HttpURLConnection con = (HttpURLConnection) url.openConnection();
-        con.setRequestMethod("GET");
-        con.setRequestProperty("Content-Type", "application/json");
-        con.setRequestProperty("Accept", "application/json");
-        con.setConnectTimeout(timeout);
-        con.setReadTimeout(timeout);
-        return con;
-    }
 
-    private static Optional<Response> read(InputStream is) throws IOException {
-        try (InputStreamReader isr = new InputStreamReader(is)) {
-            return Optional.of(GSON.fromJson(isr, Response.class));
-        } catch (JsonSyntaxException ex) {
-            return Optional.empty();
+    // Reads only the name, skipping the rest of the profile (mostly the base64 skin textures) without keeping it
+    private static String readName(InputStream is) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+        String name = null;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("name") && reader.peek() == JsonToken.STRING) {
+                    name = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException ex) {
+            throw new IOException("Mojang API returned malformed JSON", ex);
+        }
+        if (name == null) {
+            throw new IOException("Mojang API returned an empty profile");
         }
+        return name;
     }
-    // Shared across both endpoints
     @Value
-    private static class Response {
-        String id;
-        String name;
+    private static class Lookup<T> {
+        Optional<T> value;
+        /** The {@link System#nanoTime()} this lookup expires */
+        long expiresAt;
+
+        boolean isExpired() {
+            return System.nanoTime() - expiresAt >= 0;
+        }
+    }
+
+    /**
+     * Takes a snapshot of the rate limiter's state and statistics.
+     * @return the stats
+     */
+    public RateLimiter.Stats getLimiterStats() {
+        return limiter.getStats();
+    }
+    /**
+     * Takes a snapshot of the circuit breaker's state and statistics.
+     * @return the stats
+     */
+    public CircuitBreaker.Stats getBreakerStats() {
+        return breaker.getStats();
+    }
+
+    /**
+     * Stops batching UUID lookups and probing, and closes the transport. Lookups that are waiting for a request fail.
+     * The disk cache is left open.
+     */
+    @Override
+    public void close() {
+        probeExecutor.shutdownNow();
+        uuidResolver.close();
+        transport.close();
     }
 
 }
@@ -1,5 +1,8 @@
 package com.tisawesomeness.namehistorian.spigot;
 
+import com.tisawesomeness.namehistorian.Metrics;
+import com.tisawesomeness.namehistorian.NameHistoryImporter;
+import com.tisawesomeness.namehistorian.mojang.CircuitBreaker;
 import lombok.AllArgsConstructor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
@@ -8,9 +11,14 @@ import org.bukkit.command.TabCompleter;
 import org.bukkit.util.StringUtil;
 
 import javax.annotation.Nullable;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
 
 @AllArgsConstructor
 public final class NameHistorianCommand implements CommandExecutor, TabCompleter {
@@ -19,28 +27,108 @@ public final class NameHistorianCommand implements CommandExecutor, TabCompleter
 
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
-        if (args.length == 0 || !args[0].equalsIgnoreCase("reload")) {
+        if (args.length == 0) {
             plugin.sendMessage(sender, Messages.NAMEHISTORIAN_USAGE, label);
             return true;
         }
+        switch (args[0].toLowerCase(Locale.ROOT)) {
+            case "reload":
+                runReload(sender);
+                break;
+            case "import":
+                runImport(sender, label, args);
+                break;
+            case "export":
+                runExport(sender);
+                break;
+            case "stats":
+                runStats(sender);
+                break;
+            default:
+                plugin.sendMessage(sender, Messages.NAMEHISTORIAN_USAGE, label);
+        }
+        return true;
+    }
+
+    private void runReload(CommandSender sender) {
         try {
             plugin.reload();
         } catch (Exception ex) {
             plugin.err("Reload failed", ex);
             plugin.sendMessage(sender, Messages.RELOAD_FAILED);
-            return true;
+            return;
         }
         plugin.sendMessage(sender, Messages.RELOAD_SUCCESS);
-        return true;
+    }
+
+    private void runImport(CommandSender sender, String label, String[] args) {
+        if (args.length < 2) {
+            plugin.sendMessage(sender, Messages.IMPORT_USAGE, label);
+            return;
+        }
+        ImportRunner runner = plugin.getImportRunner();
+        if (args[1].equalsIgnoreCase("cancel")) {
+            plugin.sendMessage(sender, runner.cancel() ? Messages.IMPORT_CANCELLING : Messages.IMPORT_NOT_RUNNING);
+            return;
+        }
+        // File names may contain spaces
+        String fileName = String.join(" ", Arrays.copyOfRange(args, 1, args.length));
+        Path dataPath = plugin.getDataFolder().toPath().toAbsolutePath().normalize();
+        Path file = dataPath.resolve(fileName).normalize();
+        if (!file.startsWith(dataPath) || !Files.isRegularFile(file)) {
+            plugin.sendMessage(sender, Messages.IMPORT_NOT_FOUND, fileName);
+            return;
+        }
+        Optional<NameHistoryImporter.Format> formatOpt = NameHistoryImporter.Format.fromFileName(fileName);
+        if (!formatOpt.isPresent()) {
+            plugin.sendMessage(sender, Messages.IMPORT_UNKNOWN_FORMAT, fileName);
+            return;
+        }
+        if (!runner.start(sender, file, formatOpt.get())) {
+            plugin.sendMessage(sender, Messages.IMPORT_RUNNING, label);
+            return;
+        }
+        plugin.sendMessage(sender, Messages.IMPORT_STARTED, fileName);
+    }
+
+    private void runExport(CommandSender sender) {
+        String fileName = plugin.getExportRunner().start(sender);
+        if (fileName == null) {
+            plugin.sendMessage(sender, Messages.EXPORT_RUNNING);
+            return;
+        }
+        plugin.sendMessage(sender, Messages.EXPORT_STARTED, fileName);
+    }
+
+    private void runStats(CommandSender sender) {
+        Metrics.Snapshot snapshot = plugin.getHistorian().getMetrics().snapshot();
+        plugin.sendMessage(sender, Messages.STATS_TITLE);
+        plugin.getMojangAPI().ifPresent(api -> {
+            CircuitBreaker.Stats breaker = api.getBreakerStats();
+            plugin.sendMessage(sender, Messages.STATS_BREAKER, breaker.getState().name().toLowerCase(Locale.ROOT),
+                    breaker.getFailureRatePercent(), breaker.getRejected());
+        });
+        snapshot.getValues().forEach((name, value) -> plugin.sendMessage(sender, Messages.STATS_VALUE, name, value));
+        snapshot.getLatencies().forEach((name, latency) ->
+                plugin.sendMessage(sender, Messages.STATS_LATENCY, name, latency));
     }
 
     @Override
     public @Nullable List<String> onTabComplete(CommandSender sender, Command command, String label, String[] args) {
         if (args.length == 1) {
-            List<String> completions = Collections.singletonList("reload");
+            List<String> completions = Arrays.asList("reload", "import", "export", "stats");
             return StringUtil.copyPartialMatches(args[0], completions, new ArrayList<>());
         }
-        return null;
+        if (args.length == 2 && args[0].equalsIgnoreCase("import")) {
+            List<String> completions = new ArrayList<>(Collections.singletonList("cancel"));
+            String[] files = plugin.getDataFolder().list((dir, name) ->
+                    NameHistoryImporter.Format.fromFileName(name).isPresent());
+            if (files != null) {
+                completions.addAll(Arrays.asList(files));
+            }
+            return StringUtil.copyPartialMatches(args[1], completions, new ArrayList<>());
+        }
+        return Collections.emptyList();
     }
 
 }
@@ -1,5 +1,7 @@
 package com.tisawesomeness.namehistorian.spigot;
 
+import com.tisawesomeness.namehistorian.NameHistorian;
+import com.tisawesomeness.namehistorian.StorageProfile;
 import com.tisawesomeness.namehistorian.util.Util;
 import lombok.Getter;
 import net.kyori.adventure.translation.Translator;
@@ -8,6 +10,7 @@ import org.jetbrains.annotations.Range;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nullable;
+import java.time.Duration;
 import java.util.Locale;
 
 @Getter
@@ -15,19 +18,134 @@ public class NameHistorianConfig {
 
     private final boolean perUserTranslations;
     private final Locale defaultLocale;
+    @Range(from = 1, to = Integer.MAX_VALUE)
+    private final int historyPageSize;
     private final boolean enableMojangLookups;
     @Nonnegative
     private final int mojangTimeout;
     @Range(from = 60, to = Integer.MAX_VALUE)
     private final int mojangLifetime;
+    @Nonnegative
+    private final int mojangNegativeLifetime;
+    @Range(from = 1, to = Integer.MAX_VALUE)
+    private final int mojangRateLimit;
+    @Range(from = 1, to = Integer.MAX_VALUE)
+    private final int mojangRateBurst;
+    @Nonnegative
+    private final int mojangQueueTimeout;
+    @Range(from = 1, to = Integer.MAX_VALUE)
+    private final int mojangMaxConnections;
+    @Range(from = 1, to = 100)
+    private final int mojangBreakerFailureRate;
+    @Range(from = 1, to = Integer.MAX_VALUE)
+    private final int mojangBreakerWindow;
+    @Range(from = 1, to = Integer.MAX_VALUE)
+    private final int mojangBreakerCooldown;
+    @Range(from = 1, to = Integer.MAX_VALUE)
+    private final int databasePoolSize;
+    @Nonnegative
+    private final int latestNameCacheSize;
+    @Nonnegative
+    private final int usernameIndexSize;
+    private final StorageBackend storageBackend;
+    private final StorageProfile storageProfile;
+    private final String mysqlUrl;
+    private final @Nullable String mysqlUsername;
+    private final @Nullable String mysqlPassword;
+    @Range(from = 1, to = Integer.MAX_VALUE)
+    private final int recordBatchSize;
+    @Nonnegative
+    private final int recordBatchInterval;
+    @Nonnegative
+    private final int recordShutdownTimeout;
+    @Range(from = 1, to = Integer.MAX_VALUE)
+    private final int importBatchSize;
+    @Nonnegative
+    private final int metricsDumpInterval;
 
     public NameHistorianConfig(NameHistorianSpigot plugin) {
         FileConfiguration conf = plugin.getConfig();
         perUserTranslations = conf.getBoolean("per-user-translations", false);
         defaultLocale = Util.nullOr(parseLocale(plugin), BaseLocale.DEFAULT.getLocale());
+        historyPageSize = Math.max(1, conf.getInt("history-page-size", 10));
         enableMojangLookups = conf.getBoolean("enable-mojang-lookups", true);
         mojangTimeout = Math.max(0, conf.getInt("mojang-timeout", 5000));
         mojangLifetime = Math.max(60, conf.getInt("mojang-lifetime", 60));
+        mojangNegativeLifetime = Math.max(0, conf.getInt("mojang-negative-lifetime", 30));
+        mojangRateLimit = Math.max(1, conf.getInt("mojang-rate-limit", 60));
+        mojangRateBurst = Math.max(1, conf.getInt("mojang-rate-burst", 10));
+        mojangQueueTimeout = Math.max(0, conf.getInt("mojang-queue-timeout", 5000));
+        mojangMaxConnections = Math.max(1, conf.getInt("mojang-max-connections", 4));
+        mojangBreakerFailureRate = Math.min(100, Math.max(1, conf.getInt("mojang-breaker-failure-rate", 50)));
+        mojangBreakerWindow = Math.max(1, conf.getInt("mojang-breaker-window", 10));
+        mojangBreakerCooldown = Math.max(1, conf.getInt("mojang-breaker-cooldown", 30));
+        databasePoolSize = Math.max(1, conf.getInt("database-pool-size", 4));
+        latestNameCacheSize = Math.max(0, conf.getInt("latest-name-cache-size", 10000));
+        usernameIndexSize = Math.max(0, conf.getInt("username-index-size", NameHistorian.DEFAULT_USERNAME_INDEX_SIZE));
+        storageBackend = parseStorageBackend(plugin);
+        storageProfile = parseStorageProfile(plugin);
+        mysqlUrl = conf.getString("mysql-url", "jdbc:mysql://localhost:3306/namehistorian");
+        mysqlUsername = conf.getString("mysql-username", null);
+        mysqlPassword = conf.getString("mysql-password", null);
+        recordBatchSize = Math.max(1, conf.getInt("record-batch-size", 100));
+        recordBatchInterval = Math.max(0, conf.getInt("record-batch-interval", 1000));
+        recordShutdownTimeout = Math.max(0, conf.getInt("record-shutdown-timeout", 10000));
+        importBatchSize = Math.max(1, conf.getInt("import-batch-size", 5000));
+        metricsDumpInterval = Math.max(0, conf.getInt("metrics-dump-interval", 0));
+    }
+
+    private static StorageBackend parseStorageBackend(NameHistorianSpigot plugin) {
+        String backendStr = plugin.getConfig().getString("storage-backend", "sqlite");
+        try {
+            return StorageBackend.valueOf(backendStr.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            plugin.err("Unknown storage-backend %s, using sqlite instead", backendStr);
+            return StorageBackend.SQLITE;
+        }
+    }
+
+    private static StorageProfile parseStorageProfile(NameHistorianSpigot plugin) {
+        FileConfiguration conf = plugin.getConfig();
+        String presetStr = conf.getString("storage-profile", "throughput");
+        StorageProfile profile;
+        if ("durability".equalsIgnoreCase(presetStr)) {
+            profile = StorageProfile.DURABILITY;
+        } else {
+            if (!"throughput".equalsIgnoreCase(presetStr)) {
+                plugin.err("Unknown storage-profile %s, using throughput instead", presetStr);
+            }
+            profile = StorageProfile.THROUGHPUT;
+        }
+        StorageProfile.JournalMode journalMode = parseEnum(plugin, "journal-mode", StorageProfile.JournalMode.class);
+        if (journalMode != null) {
+            profile = profile.withJournalMode(journalMode);
+        }
+        StorageProfile.Synchronous synchronous = parseEnum(plugin, "synchronous", StorageProfile.Synchronous.class);
+        if (synchronous != null) {
+            profile = profile.withSynchronous(synchronous);
+        }
+        if (conf.contains("database-cache-size")) {
+            profile = profile.withCacheSizeKib(Math.max(0, conf.getInt("database-cache-size")));
+        }
+        if (conf.contains("database-mmap-size")) {
+            profile = profile.withMmapSizeKib(Math.max(0, conf.getLong("database-mmap-size")));
+        }
+        if (conf.contains("database-busy-timeout")) {
+            profile = profile.withBusyTimeout(Duration.ofMillis(Math.max(0, conf.getInt("database-busy-timeout"))));
+        }
+        return profile;
+    }
+    private static <E extends Enum<E>> @Nullable E parseEnum(NameHistorianSpigot plugin, String path, Class<E> clazz) {
+        String str = plugin.getConfig().getString(path, null);
+        if (str == null) {
+            return null;
+        }
+        try {
+            return Enum.valueOf(clazz, str.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            plugin.err("Unknown %s %s, using the storage profile's setting instead", path, str);
+            return null;
+        }
     }
 
     private static @Nullable Locale parseLocale(NameHistorianSpigot plugin) {
@@ -43,4 +161,15 @@ public class NameHistorianConfig {
         return locale;
     }
 
+    public enum StorageBackend {
+        /** A SQLite database file in the plugin folder */
+        SQLITE,
+        /** An append-only log of memory-mapped files in the plugin folder */
+        LOG,
+        /** Memory only, history is lost on restart */
+        MEMORY,
+        /** A MySQL or MariaDB server, may be shared between servers */
+        MYSQL
+    }
+
 }
@@ -1,8 +1,22 @@
 package com.tisawesomeness.namehistorian.spigot;
 
 import com.tchristofferson.configupdater.ConfigUpdater;
+import com.tisawesomeness.namehistorian.CacheStats;
+import com.tisawesomeness.namehistorian.InMemoryNameHistoryStore;
+import com.tisawesomeness.namehistorian.LogNameHistoryStore;
+import com.tisawesomeness.namehistorian.Metrics;
+import com.tisawesomeness.namehistorian.MySqlNameHistoryStore;
 import com.tisawesomeness.namehistorian.NameHistorian;
+import com.tisawesomeness.namehistorian.NameHistoryStore;
 import com.tisawesomeness.namehistorian.NamedPlayer;
+import com.tisawesomeness.namehistorian.SqliteNameHistoryStore;
+import com.tisawesomeness.namehistorian.StorageProfile;
+import com.tisawesomeness.namehistorian.UsernameIndex;
+import com.tisawesomeness.namehistorian.WriteBehindRecorder;
+import com.tisawesomeness.namehistorian.mojang.CircuitBreaker;
+import com.tisawesomeness.namehistorian.mojang.KeepAliveHttpTransport;
+import com.tisawesomeness.namehistorian.mojang.PersistentLookupCache;
+import com.tisawesomeness.namehistorian.mojang.RateLimiter;
 import net.kyori.adventure.platform.bukkit.BukkitAudiences;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.JoinConfiguration;
@@ -12,19 +26,25 @@ import org.bukkit.OfflinePlayer;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
 
 import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 public final class NameHistorianSpigot extends JavaPlugin {
@@ -43,12 +63,20 @@ public final class NameHistorianSpigot extends JavaPlugin {
             Component.text(" ")
     );
 
+    private static final int RECORD_QUEUE_CAPACITY = 10_000;
+    private static final long TICKS_PER_SECOND = 20;
+
     // Null until plugin enabled
     private @Nullable BukkitAudiences adventure;
     private @Nullable NameHistorianConfig config;
     private @Nullable TranslationManager translationManager;
     private @Nullable MojangAPI mojangAPI; // null if disabled in config
+    private @Nullable PersistentLookupCache lookupCache; // kept open across reloads, null until lookups enabled
     private @Nullable NameHistorian historian;
+    private @Nullable WriteBehindRecorder recorder;
+    private @Nullable ImportRunner importRunner;
+    private @Nullable ExportRunner exportRunner;
+    private @Nullable BukkitTask metricsDumpTask; // null if disabled in config
 
     @Override
     public void onEnable() {
@@ -79,16 +107,33 @@ public final class NameHistorianSpigot extends JavaPlugin {
         assert config != null;
         translationManager.init();
 
-        if (config.isEnableMojangLookups()) {
-            mojangAPI = new MojangAPI(config.getMojangTimeout(), config.getMojangLifetime());
-        }
-
-        Path dbPath = dataPath.resolve("history.db");
         try {
-            historian = new NameHistorian(dbPath);
+            historian = new NameHistorian(openStore(dataPath), config.getDatabasePoolSize(),
+                    NameHistorian.DEFAULT_QUERY_QUEUE_CAPACITY, config.getUsernameIndexSize());
         } catch (SQLException ex) {
             throw new RuntimeException(ex);
         }
+        if (config.getUsernameIndexSize() > 0) {
+            loadUsernameIndex(historian);
+        }
+        Metrics metrics = historian.getMetrics();
+        if (config.isEnableMojangLookups()) {
+            mojangAPI = openMojangAPI();
+        }
+        WriteBehindRecorder newRecorder = new WriteBehindRecorder(historian, config.getRecordBatchSize(),
+                Duration.ofMillis(config.getRecordBatchInterval()), RECORD_QUEUE_CAPACITY,
+                (batch, ex) -> err("Could not record %d names", ex, batch.size()));
+        metrics.gauge("recorder.queued", newRecorder::getQueueDepth);
+        metrics.gauge("recorder.records_committed", () -> newRecorder.getStats().getRecordsCommitted());
+        metrics.gauge("recorder.batches_failed", () -> newRecorder.getStats().getBatchesFailed());
+        recorder = newRecorder;
+        importRunner = new ImportRunner(this);
+        exportRunner = new ExportRunner(this);
+        if (config.getMetricsDumpInterval() > 0) {
+            long period = config.getMetricsDumpInterval() * TICKS_PER_SECOND;
+            metricsDumpTask = getServer().getScheduler().runTaskTimerAsynchronously(this,
+                    () -> dumpMetrics(metrics, dataPath.resolve("metrics.txt")), period, period);
+        }
 
         getServer().getPluginManager().registerEvents(new SeenListener(this), this);
         Objects.requireNonNull(getCommand("history")).setExecutor(new HistoryCommand(this));
@@ -102,6 +147,42 @@ public final class NameHistorianSpigot extends JavaPlugin {
         }
     }
 
+    private void loadUsernameIndex(NameHistorian historian) {
+        long start = System.nanoTime();
+        historian.loadUsernameIndexAsync().whenComplete((ignored, ex) -> {
+            if (ex == null) {
+                UsernameIndex index = historian.getUsernameIndex();
+                log("Loaded %d usernames for tab completion in %d ms", index.size(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                if (index.getDropped() > 0) {
+                    warn("The username index is full, raise username-index-size to complete every name");
+                }
+            } else if (!(ex.getCause() instanceof CancellationException)) {
+                // Cancelled only when shutting down
+                err("Could not load usernames for tab completion", ex);
+            }
+        });
+    }
+
+    private NameHistoryStore openStore(Path dataPath) throws SQLException {
+        switch (config.getStorageBackend()) {
+            case MEMORY:
+                log("Using in-memory storage, name history will be lost on restart");
+                return new InMemoryNameHistoryStore();
+            case LOG:
+                // Only the durability profile waits for the disk, same as with SQLite
+                boolean forceWrites = config.getStorageProfile().getSynchronous() == StorageProfile.Synchronous.FULL;
+                return new LogNameHistoryStore(dataPath.resolve("history-log"),
+                        LogNameHistoryStore.DEFAULT_SEGMENT_ENTRIES, forceWrites);
+            case MYSQL:
+                return new MySqlNameHistoryStore(config.getMysqlUrl(), config.getMysqlUsername(),
+                        config.getMysqlPassword(), config.getDatabasePoolSize());
+            default:
+                return new SqliteNameHistoryStore(dataPath.resolve("history.db"), config.getDatabasePoolSize(),
+                        config.getLatestNameCacheSize(), config.getStorageProfile());
+        }
+    }
+
     /**
      * Reloads the config, translations, and Mojang API cache.
      */
@@ -111,10 +192,11 @@ public final class NameHistorianSpigot extends JavaPlugin {
         if (translationManager != null) {
             translationManager.init();
         }
+        if (mojangAPI != null) {
+            closeMojangAPI();
+        }
         if (config.isEnableMojangLookups()) {
-            mojangAPI = new MojangAPI(config.getMojangTimeout(), config.getMojangLifetime());
-        } else {
-            mojangAPI = null;
+            mojangAPI = openMojangAPI();
         }
     }
 
@@ -124,13 +206,141 @@ public final class NameHistorianSpigot extends JavaPlugin {
             adventure.close();
             adventure = null;
         }
+        if (metricsDumpTask != null) {
+            metricsDumpTask.cancel();
+            metricsDumpTask = null;
+        }
+        if (mojangAPI != null) {
+            closeMojangAPI();
+        }
+        if (lookupCache != null) {
+            try {
+                lookupCache.close();
+            } catch (SQLException ex) {
+                err("Could not close the Mojang lookup cache", ex);
+            }
+            lookupCache = null;
+        }
+        if (importRunner != null || exportRunner != null) {
+            stopBackgroundTasks();
+        }
+        if (recorder != null) {
+            drainRecorder();
+        }
         if (historian != null) {
             try {
                 recordOnlinePlayers();
             } catch (SQLException ex) {
                 throw new RuntimeException(ex);
+            } finally {
+                closeHistorian();
+            }
+        }
+    }
+    private MojangAPI openMojangAPI() {
+        NameHistorianConfig config = getNHConfig();
+        RateLimiter limiter = new RateLimiter(config.getMojangRateLimit(), config.getMojangRateBurst(),
+                Duration.ofMillis(config.getMojangQueueTimeout()));
+        KeepAliveHttpTransport transport = new KeepAliveHttpTransport(config.getMojangTimeout(),
+                config.getMojangMaxConnections());
+        Metrics metrics = getHistorian().getMetrics();
+        metrics.gauge("mojang.http.active", transport::getActive);
+        metrics.gauge("mojang.http.waiting", transport::getWaiting);
+        CircuitBreaker breaker = new CircuitBreaker(config.getMojangBreakerWindow(),
+                config.getMojangBreakerFailureRate(), Duration.ofSeconds(config.getMojangBreakerCooldown()),
+                this::logBreakerState);
+        return new MojangAPI(transport, config.getMojangLifetime(), config.getMojangNegativeLifetime(),
+                limiter, breaker, metrics, openLookupCache(),
+                ex -> warn("Could not use the Mojang lookup cache: %s", ex));
+    }
+    private void logBreakerState(CircuitBreaker.State state) {
+        switch (state) {
+            case OPEN:
+                warn("Mojang API appears to be down, lookups will use the local database until it answers again");
+                break;
+            case HALF_OPEN:
+                log("Checking whether Mojang API is back");
+                break;
+            default:
+                log("Mojang API is back, lookups resumed");
+        }
+    }
+    private @Nullable PersistentLookupCache openLookupCache() {
+        if (lookupCache == null) {
+            try {
+                lookupCache = new PersistentLookupCache(getDataFolder().toPath().resolve("mojang-cache.db"));
+            } catch (SQLException ex) {
+                err("Could not open the Mojang lookup cache, lookups will only be cached in memory", ex);
+                // Non-fatal, try again on the next reload
             }
         }
+        return lookupCache;
+    }
+    private void closeMojangAPI() {
+        assert mojangAPI != null;
+        RateLimiter.Stats stats = mojangAPI.getLimiterStats();
+        log("Mojang rate limiter: %d requests sent, %d delayed, %d turned away, %d rate limited by Mojang",
+                stats.getGranted(), stats.getThrottled(), stats.getRejected(), stats.getTooManyRequests());
+        mojangAPI.close();
+        mojangAPI = null;
+    }
+    private void stopBackgroundTasks() {
+        Duration timeout = Duration.ofMillis(getNHConfig().getRecordShutdownTimeout());
+        try {
+            if (importRunner != null) {
+                importRunner.close(timeout);
+            }
+            if (exportRunner != null) {
+                exportRunner.close(timeout);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            warn("Interrupted while waiting for the import or export to stop");
+        }
+        importRunner = null;
+        exportRunner = null;
+    }
+    private void drainRecorder() {
+        assert recorder != null;
+        Duration timeout = Duration.ofMillis(getNHConfig().getRecordShutdownTimeout());
+        try {
+            if (!recorder.close(timeout)) {
+                warn("Timed out waiting for names to be recorded, %d names were not recorded",
+                        recorder.getQueueDepth());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            warn("Interrupted while waiting for names to be recorded");
+        }
+        WriteBehindRecorder.Stats stats = recorder.getStats();
+        log("Recorded %d names in %d batches (average %d ms, max %d ms, %d failed)",
+                stats.getRecordsCommitted(), stats.getBatchesCommitted(),
+                stats.getAverageBatchLatency().toMillis(), stats.getMaxBatchLatency().toMillis(),
+                stats.getBatchesFailed());
+        recorder = null;
+    }
+    private void closeHistorian() {
+        assert historian != null;
+        CacheStats stats = historian.getCacheStats();
+        log("Latest name cache: %d hits, %d misses (%.1f%% hit rate)",
+                stats.getHits(), stats.getMisses(), stats.getHitRate() * 100);
+        try {
+            historian.close();
+        } catch (SQLException ex) {
+            err("Could not close database connections", ex);
+        }
+        historian = null;
+    }
+
+    // Written to a temporary file first so a reader never sees a half-written dump
+    private void dumpMetrics(Metrics metrics, Path file) {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.write(temp, metrics.snapshot().format().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            err("Could not write metrics to %s", ex, file);
+        }
     }
 
     private void recordOnlinePlayers() throws SQLException {
@@ -164,6 +374,24 @@ public final class NameHistorianSpigot extends JavaPlugin {
     public Optional<MojangAPI> getMojangAPI() {
         return Optional.ofNullable(mojangAPI);
     }
+    public WriteBehindRecorder getRecorder() {
+        if (recorder == null) {
+            throw new IllegalStateException("Tried to get recorder before plugin enabled");
+        }
+        return recorder;
+    }
+    public ImportRunner getImportRunner() {
+        if (importRunner == null) {
+            throw new IllegalStateException("Tried to get import runner before plugin enabled");
+        }
+        return importRunner;
+    }
+    public ExportRunner getExportRunner() {
+        if (exportRunner == null) {
+            throw new IllegalStateException("Tried to get export runner before plugin enabled");
+        }
+        return exportRunner;
+    }
     public NameHistorian getHistorian() {
         if (historian == null) {
             throw new IllegalStateException("Tried to get historian instance before plugin enabled");
@@ -217,6 +445,9 @@ public final class NameHistorianSpigot extends JavaPlugin {
     public <A0, A1> void sendMessage(CommandSender sendTo, Messages.A2<A0, A1> msg, A0 a0, A1 a1) {
         sendMessage(sendTo, msg.build(a0, a1));
     }
+    public <A0, A1, A2> void sendMessage(CommandSender sendTo, Messages.A3<A0, A1, A2> msg, A0 a0, A1 a1, A2 a2) {
+        sendMessage(sendTo, msg.build(a0, a1, a2));
+    }
 
     public void log(String msg, Object... args) {
         getLogger().info(String.format(msg, args));
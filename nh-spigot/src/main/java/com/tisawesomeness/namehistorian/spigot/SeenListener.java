@@ -1,5 +1,6 @@
 package com.tisawesomeness.namehistorian.spigot;
 
+import com.tisawesomeness.namehistorian.NamedPlayer;
 import lombok.AllArgsConstructor;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
@@ -26,6 +27,10 @@ public final class SeenListener implements Listener {
 
     private void onPlayerEvent(PlayerEvent e) {
         Player p = e.getPlayer();
+        if (plugin.getRecorder().offer(new NamedPlayer(p.getUniqueId(), p.getName()))) {
+            return;
+        }
+        plugin.warn("Record queue is full, recording name %s for %s on the main thread", p.getName(), p.getUniqueId());
         try {
             plugin.getHistorian().recordName(p.getUniqueId(), p.getName());
         } catch (SQLException ex) {